@@ -20,6 +20,7 @@ import org.opensaml.core.config.InitializationService;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 import com.dotcms.saml.SamlServiceBuilder;
+import com.dotcms.saml.service.impl.AssertionPipeline;
 import com.dotcms.saml.service.impl.SamlServiceBuilderImpl;
 import com.dotcms.saml.service.init.Initializer;
 import com.dotcms.saml.service.init.SamlInitializer;
@@ -119,6 +120,9 @@ public class Activator extends GenericBundleActivator {
 
         delegate.remove(this.interceptorName, true);
 
+        Logger.info(this.getClass().getName(), "Stopping the SAML assertion pipeline");
+        AssertionPipeline.shutdown();
+
         // Unregister the registered services
         this.samlServiceBuilder.unregister();
     }
@@ -0,0 +1,229 @@
+package com.dotcms.saml.service.external;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read only view of all the attributes of an assertion, keeping all the values of each attribute.
+ * Each attribute is stored once and it is reachable by its name and by its friendly name (both keys share the same
+ * values list, nothing is copied). The view is sized upfront by the number of attributes of the assertion.
+ *
+ * @author jsanca
+ */
+public final class MultiValuedAttributes extends AbstractMap<String, List<String>> {
+
+    /**
+     * Receives each attribute of the assertion as it is resolved
+     */
+    @FunctionalInterface
+    public interface AttributeConsumer {
+
+        /**
+         * @param name         {@link String} attribute name, may be null
+         * @param friendlyName {@link String} attribute friendly name, may be null
+         * @param values       {@link List} read only values, in document order
+         */
+        void accept(String name, String friendlyName, List<String> values);
+    }
+
+    private final String   nameID;
+    private final String   sessionIndex;
+    private final String[] names;
+    private final String[] friendlyNames;
+    private final List<String>[] values;
+    private final int      attributeCount;
+    private final Map<String, Integer> index;
+
+    private MultiValuedAttributes(final Builder builder) {
+
+        this.nameID         = builder.nameID;
+        this.sessionIndex   = builder.sessionIndex;
+        this.names          = builder.names;
+        this.friendlyNames  = builder.friendlyNames;
+        this.values         = builder.values;
+        this.attributeCount = builder.attributeCount;
+        this.index          = builder.index;
+
+        for (int i = 0; i < this.attributeCount; ++i) {
+
+            this.values[i] = Collections.unmodifiableList(this.values[i]);
+        }
+    }
+
+    public String getNameID() {
+        return nameID;
+    }
+
+    public String getSessionIndex() {
+        return sessionIndex;
+    }
+
+    /**
+     * Number of distinct attributes (an attribute reachable by name and friendly name counts once)
+     * @return int
+     */
+    public int getAttributeCount() {
+        return attributeCount;
+    }
+
+    /**
+     * Get the first value of the attribute, null if it does not exist
+     * @param nameOrFriendlyName {@link String}
+     * @return String
+     */
+    public String getFirst(final String nameOrFriendlyName) {
+
+        final List<String> attributeValues = this.get(nameOrFriendlyName);
+        return null != attributeValues && !attributeValues.isEmpty()? attributeValues.get(0): null;
+    }
+
+    /**
+     * Calls the consumer once per distinct attribute, in document order
+     * @param consumer {@link AttributeConsumer}
+     */
+    public void forEachAttribute(final AttributeConsumer consumer) {
+
+        for (int i = 0; i < this.attributeCount; ++i) {
+
+            consumer.accept(this.names[i], this.friendlyNames[i], this.values[i]);
+        }
+    }
+
+    @Override
+    public List<String> get(final Object nameOrFriendlyName) {
+
+        final Integer position = this.index.get(nameOrFriendlyName);
+        return null != position? this.values[position]: null;
+    }
+
+    @Override
+    public boolean containsKey(final Object nameOrFriendlyName) {
+        return this.index.containsKey(nameOrFriendlyName);
+    }
+
+    @Override
+    public int size() {
+        return this.index.size();
+    }
+
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+
+        return new AbstractSet<Entry<String, List<String>>>() {
+
+            @Override
+            public Iterator<Entry<String, List<String>>> iterator() {
+
+                final Iterator<Entry<String, Integer>> indexIterator = index.entrySet().iterator();
+                return new Iterator<Entry<String, List<String>>>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return indexIterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, List<String>> next() {
+
+                        final Entry<String, Integer> indexEntry = indexIterator.next();
+                        return new SimpleImmutableEntry<>(indexEntry.getKey(), values[indexEntry.getValue()]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return index.size();
+            }
+        };
+    }
+
+    /**
+     * Builds the view, a builder is meant to be used just once
+     */
+    public static final class Builder {
+
+        private String   nameID;
+        private String   sessionIndex;
+        private final String[] names;
+        private final String[] friendlyNames;
+        private final List<String>[] values;
+        private final Map<String, Integer> index;
+        private int attributeCount = 0;
+
+        /**
+         * @param expectedAttributes int number of attributes on the assertion, to size the view upfront
+         */
+        @SuppressWarnings("unchecked")
+        public Builder(final int expectedAttributes) {
+
+            this.names         = new String[expectedAttributes];
+            this.friendlyNames = new String[expectedAttributes];
+            this.values        = new List[expectedAttributes];
+            // two keys per attribute at most, without rehashing
+            this.index         = new HashMap<>((int) (expectedAttributes * 2 / 0.75f) + 1);
+        }
+
+        public Builder nameID(final String nameID) {
+            this.nameID = nameID;
+            return this;
+        }
+
+        public Builder sessionIndex(final String sessionIndex) {
+            this.sessionIndex = sessionIndex;
+            return this;
+        }
+
+        /**
+         * Adds an attribute, if the name or friendly name was already added (the same attribute on other statement)
+         * the values are appended to the existing one.
+         * The values list is kept as it is (not copied), so it must be mutable and not used by the caller afterwards.
+         * @param name {@link String}
+         * @param friendlyName {@link String}
+         * @param attributeValues {@link List}
+         * @return Builder
+         */
+        public Builder add(final String name, final String friendlyName, final List<String> attributeValues) {
+
+            Integer position = null != name? this.index.get(name): null;
+            if (null == position && null != friendlyName) {
+
+                position = this.index.get(friendlyName);
+            }
+
+            if (null != position) {
+
+                this.values[position].addAll(attributeValues);
+            } else if (this.attributeCount < this.values.length) {
+
+                position = this.attributeCount++;
+                this.names[position]         = name;
+                this.friendlyNames[position] = friendlyName;
+                this.values[position]        = attributeValues;
+            } else {
+
+                throw new IllegalStateException("More attributes than expected: " + this.values.length);
+            }
+
+            if (null != name) {
+                this.index.putIfAbsent(name, position);
+            }
+
+            if (null != friendlyName) {
+                this.index.putIfAbsent(friendlyName, position);
+            }
+
+            return this;
+        }
+
+        public MultiValuedAttributes build() {
+            return new MultiValuedAttributes(this);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.dotcms.saml.service.external;
+
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.SamlAuthenticationService;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * {@link SamlAuthenticationService} that also resolves all the values of each attribute, see {@link MultiValuedAttributes}.
+ * The {@link SamlAuthenticationService} is owned by dotCMS core, so the bundle declares its own extensions here.
+ * @author jsanca
+ */
+public interface MultiValuedSamlAuthenticationService extends SamlAuthenticationService {
+
+    /**
+     * Resolves all the attributes of the assertion keeping all the values of each one
+     * @param request  {@link HttpServletRequest}
+     * @param response {@link HttpServletResponse}
+     * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+     * @return MultiValuedAttributes, null if the assertion does not have the attributes
+     * @throws SamlException if the assertion could not be resolved
+     */
+    MultiValuedAttributes resolveMultiValuedAttributes(HttpServletRequest request, HttpServletResponse response,
+                                                       IdentityProviderConfiguration identityProviderConfiguration);
+
+    /**
+     * Resolves all the attributes of the assertion keeping all the values of each one.
+     * If a consumer is passed, each attribute is streamed to it as it is resolved and the returned view just
+     * contains the name id and the session index.
+     * @param request  {@link HttpServletRequest}
+     * @param response {@link HttpServletResponse}
+     * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+     * @param consumer {@link MultiValuedAttributes.AttributeConsumer} optional
+     * @return MultiValuedAttributes, null if the assertion does not have the attributes
+     * @throws SamlException if the assertion could not be resolved
+     */
+    MultiValuedAttributes resolveMultiValuedAttributes(HttpServletRequest request, HttpServletResponse response,
+                                                       IdentityProviderConfiguration identityProviderConfiguration,
+                                                       MultiValuedAttributes.AttributeConsumer consumer);
+}
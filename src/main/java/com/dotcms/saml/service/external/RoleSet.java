@@ -0,0 +1,59 @@
+package com.dotcms.saml.service.external;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Already filtered and de-duplicated role values of an assertion, in document order.
+ * It is set as the roles of the attributes instead of the raw SAML attribute, so dotCMS gets (through getValues)
+ * just the roles that may be added to the user.
+ *
+ * @author jsanca
+ */
+public final class RoleSet implements Serializable {
+
+    private static final long serialVersionUID = 4263157720178834617L;
+
+    private final String[] roles;
+    private final int      totalValues;
+
+    /**
+     * @param roles       {@link String} array, it is not copied
+     * @param totalValues int number of values on the assertion before filtering
+     */
+    public RoleSet(final String[] roles, final int totalValues) {
+
+        this.roles       = roles;
+        this.totalValues = totalValues;
+    }
+
+    /**
+     * Read only roles
+     * @return List of String
+     */
+    public List<String> getValues() {
+        return Collections.unmodifiableList(Arrays.asList(this.roles));
+    }
+
+    public int size() {
+        return this.roles.length;
+    }
+
+    /**
+     * Number of values the roles attribute had on the assertion, before filtering and de-duplication
+     * @return int
+     */
+    public int getTotalValues() {
+        return totalValues;
+    }
+
+    @Override
+    public String toString() {
+        return "RoleSet{" +
+                "roles=" + this.roles.length +
+                ", totalValues=" + this.totalValues +
+                '}';
+    }
+}
@@ -5,6 +5,7 @@ import com.dotcms.saml.MessageObserver;
 import com.dotcms.saml.SamlConfigurationService;
 import com.dotcms.saml.SamlName;
 import com.dotcms.saml.utils.InstanceUtil;
+import com.dotcms.saml.utils.SamlDiagnostics;
 import org.apache.commons.lang.StringUtils;
 
 import java.io.Serializable;
@@ -24,12 +25,14 @@ public class AssertionResolverHandlerFactory implements Serializable {
 
 	private final SamlConfigurationService samlConfigurationService;
 	private final MessageObserver messageObserver;
+	private final SamlDiagnostics diagnostics;
 	private static final Map<String, AssertionResolverHandler> assertionResolverHandlerInstancesMap = new ConcurrentHashMap<>();
 
 	public AssertionResolverHandlerFactory(final SamlConfigurationService samlConfigurationService,
 										   final MessageObserver messageObserver) {
 		this.samlConfigurationService = samlConfigurationService;
 		this.messageObserver = messageObserver;
+		this.diagnostics = new SamlDiagnostics(messageObserver, this.getClass());
 	}
 
 	/**
@@ -58,8 +61,7 @@ public class AssertionResolverHandlerFactory implements Serializable {
 		final AssertionResolverHandler assertionResolverHandler = StringUtils.isBlank(className)?
 				this.getDefaultAssertionResolverHandler() : this.getAssertionResolverHandler(className);
 
-		this.messageObserver.updateDebug(this.getClass().getName(),
-				"Getting the assertion resolver for the idpConfig: " + identityProviderConfiguration.getId()
+		this.diagnostics.debug(() -> "Getting the assertion resolver for the idpConfig: " + identityProviderConfiguration.getId()
 				+ ", with the class: " + assertionResolverHandler);
 
 		return assertionResolverHandler;
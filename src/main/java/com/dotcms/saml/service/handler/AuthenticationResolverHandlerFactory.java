@@ -4,7 +4,8 @@ import com.dotcms.saml.DotSamlConstants;
 import com.dotcms.saml.IdentityProviderConfiguration;
 import com.dotcms.saml.MessageObserver;
 import com.dotcms.saml.SamlConfigurationService;
-import com.dotcms.saml.SamlName;
+import com.dotcms.saml.service.InvalidateAware;
+import com.dotcms.saml.service.internal.RuntimeProfile;
 import com.dotcms.saml.service.internal.SamlCoreService;
 import org.apache.velocity.app.VelocityEngine;
 
@@ -13,14 +14,16 @@ import java.io.Serializable;
 /**
  * A factory for the {@link AuthenticationHandler}
  * By default it uses the Redirect AuthenticationHandler, by configuration can be also used POST or POST_RAW
+ * The handlers are stateless and kept per idp on a {@link ProfileHandlerRegistry}
  * @author jsanca
  */
-public class AuthenticationResolverHandlerFactory implements Serializable {
+public class AuthenticationResolverHandlerFactory implements Serializable, InvalidateAware {
 
 	private final SamlConfigurationService samlConfigurationService;
 	private final SamlCoreService          samlCoreService;
 	private final VelocityEngine           velocityEngine;
 	private final MessageObserver          messageObserver;
+	private final ProfileHandlerRegistry<AuthenticationHandler> handlerRegistry = new ProfileHandlerRegistry<>();
 
 
 	public AuthenticationResolverHandlerFactory(final SamlConfigurationService samlConfigurationService,
@@ -36,6 +39,7 @@ public class AuthenticationResolverHandlerFactory implements Serializable {
 
 	/**
 	 * Get the resolver assertion depending on the site.
+	 * The handler is built once per idp, binding and version of the idp profile, then the same instance is returned.
 	 *
 	 * @param idpConfig
 	 *            {@link IdentityProviderConfiguration}
@@ -43,20 +47,35 @@ public class AuthenticationResolverHandlerFactory implements Serializable {
 	 */
 	public AuthenticationHandler getAuthenticationHandlerForSite(final IdentityProviderConfiguration idpConfig) {
 
-		final String authenticationProtocolBinding = this.samlConfigurationService.getConfigAsString(idpConfig,
-				SamlName.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING, ()->DotSamlConstants.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING_REDIRECT);
+		final RuntimeProfile runtimeProfile = this.samlCoreService.getRuntimeProfile(idpConfig);
 
-		this.messageObserver.updateInfo(this.getClass().getName(), "Using authentication handler: " + authenticationProtocolBinding);
+		return this.handlerRegistry.getHandler(runtimeProfile, runtimeProfile.getAuthnProtocolBinding(), this::createAuthenticationHandler);
+	}
+
+	private AuthenticationHandler createAuthenticationHandler(final RuntimeProfile runtimeProfile,
+															  final String authenticationProtocolBinding) {
+
+		this.messageObserver.updateInfo(this.getClass().getName(), "Using authentication handler: " + authenticationProtocolBinding +
+				", for the idp: " + runtimeProfile.getIdpId());
 		switch (authenticationProtocolBinding) {
 
 			case DotSamlConstants.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING_REDIRECT:
-				return new HttpRedirectAuthenticationHandler(this.samlCoreService, this.messageObserver, this.samlConfigurationService);
+				return new HttpRedirectAuthenticationHandler(this.samlCoreService, this.messageObserver, this.samlConfigurationService, runtimeProfile);
 			case DotSamlConstants.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING_POST:
-				return new HttpPOSTAuthenticationHandler(this.samlCoreService, this.velocityEngine, this.messageObserver);
+				return new HttpPOSTAuthenticationHandler(this.samlCoreService, this.velocityEngine, this.messageObserver, runtimeProfile);
 			case "Http-POST-Raw":
-				return new HttpPOSTRawAuthenticationHandler(this.samlCoreService, this.messageObserver);
+				return new HttpPOSTRawAuthenticationHandler(this.samlCoreService, this.messageObserver, runtimeProfile);
 		}
 
-		return new HttpRedirectAuthenticationHandler(this.samlCoreService, this.messageObserver, this.samlConfigurationService);
+		return new HttpRedirectAuthenticationHandler(this.samlCoreService, this.messageObserver, this.samlConfigurationService, runtimeProfile);
+	}
+
+	/**
+	 * Discards the handlers built so far
+	 */
+	@Override
+	public void invalidate() {
+
+		this.handlerRegistry.invalidate();
 	}
 }
@@ -2,7 +2,8 @@ package com.dotcms.saml.service.handler;
 
 import com.dotcms.saml.IdentityProviderConfiguration;
 import com.dotcms.saml.MessageObserver;
-import com.dotcms.saml.SamlName;
+import com.dotcms.saml.service.external.SamlException;
+import com.dotcms.saml.service.internal.RuntimeProfile;
 import com.dotcms.saml.service.internal.SamlCoreService;
 import org.apache.velocity.app.VelocityEngine;
 
@@ -20,14 +21,24 @@ public class HttpOktaLogoutHandler implements LogoutHandler {
     private final SamlCoreService samlCoreService;
     private final VelocityEngine  velocityEngine;
     private final MessageObserver messageObserver;
+    private final RuntimeProfile  runtimeProfile;
 
     public HttpOktaLogoutHandler(final SamlCoreService samlCoreService,
                                  final VelocityEngine velocityEngine,
                                  final MessageObserver messageObserver) {
 
+        this(samlCoreService, velocityEngine, messageObserver, null);
+    }
+
+    public HttpOktaLogoutHandler(final SamlCoreService samlCoreService,
+                                 final VelocityEngine velocityEngine,
+                                 final MessageObserver messageObserver,
+                                 final RuntimeProfile runtimeProfile) {
+
         this.samlCoreService = samlCoreService;
         this.velocityEngine  = velocityEngine;
         this.messageObserver = messageObserver;
+        this.runtimeProfile  = runtimeProfile;
     }
 
     @Override
@@ -38,13 +49,18 @@ public class HttpOktaLogoutHandler implements LogoutHandler {
                        final IdentityProviderConfiguration identityProviderConfiguration) {
 
         this.messageObserver.updateInfo(this.getClass().getName(), "Processing saml logout Okta for nameID: " + nameID);
+        final RuntimeProfile runtimeProfile = ProfileHandlerRegistry.resolveProfile(this.runtimeProfile, identityProviderConfiguration, this.samlCoreService);
         // this takes the logout callback if any defined, otherwise uses show-logout
-        final String logoutCallback = identityProviderConfiguration.containsOptionalProperty(SamlName.DOT_SAML_LOGOUT_SERVICE_ENDPOINT_URL.getPropertyName())?
-                identityProviderConfiguration.getOptionalProperty(SamlName.DOT_SAML_LOGOUT_SERVICE_ENDPOINT_URL.getPropertyName()).toString():
-                "/dotAdmin/show-logout";
+        final String logoutCallback = runtimeProfile.getLogoutServiceEndpointURL();
 
         // this is a hack to force okta to do logout from the idp
-        final String logoutPath = identityProviderConfiguration.getOptionalProperty("logout.okta.url").toString();
+        final String logoutPath = runtimeProfile.getOktaLogoutURL();
+        if (null == logoutPath) {
+
+            final String errorMsg = "The logout.okta.url is not set for the IdP: " + identityProviderConfiguration.getIdpName();
+            this.messageObserver.updateError(this.getClass().getName(), errorMsg);
+            throw new SamlException(errorMsg);
+        }
 
         try {
 
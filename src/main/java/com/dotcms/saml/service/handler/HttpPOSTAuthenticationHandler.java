@@ -4,8 +4,11 @@ import com.dotcms.saml.IdentityProviderConfiguration;
 import com.dotcms.saml.MessageObserver;
 import com.dotcms.saml.service.external.SamlException;
 import com.dotcms.saml.service.impl.DotHTTPPOSTDeflateEncoder;
+import com.dotcms.saml.service.impl.DotHTTPPOSTEncoder;
+import com.dotcms.saml.service.internal.RuntimeProfile;
+import com.dotcms.saml.service.internal.RuntimeProfile.SigningProfile;
 import com.dotcms.saml.service.internal.SamlCoreService;
-import com.dotcms.saml.utils.SamlUtils;
+import com.dotcms.saml.utils.SamlDiagnostics;
 import com.dotcms.saml.utils.SignatureUtils;
 import com.dotmarketing.util.UtilMethods;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -13,15 +16,14 @@ import org.apache.velocity.app.VelocityEngine;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.messaging.context.MessageContext;
 import org.opensaml.messaging.encoder.MessageEncodingException;
+import org.opensaml.messaging.encoder.servlet.HttpServletResponseMessageEncoder;
 import org.opensaml.saml.common.binding.SAMLBindingSupport;
 import org.opensaml.saml.common.messaging.context.SAMLEndpointContext;
 import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
 import org.opensaml.saml.common.xml.SAMLConstants;
-import org.opensaml.saml.saml2.binding.encoding.impl.HTTPPostEncoder;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.security.x509.X509Credential;
 import org.opensaml.xmlsec.signature.Signature;
-import org.opensaml.xmlsec.signature.support.SignatureConstants;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -36,14 +38,29 @@ public class HttpPOSTAuthenticationHandler implements AuthenticationHandler {
     private final SamlCoreService samlCoreService;
     private final VelocityEngine  velocityEngine;
     private final MessageObserver messageObserver;
+    private final SamlDiagnostics diagnostics;
+    private final RuntimeProfile runtimeProfile;
 
     public HttpPOSTAuthenticationHandler(final SamlCoreService samlCoreService,
                                          final VelocityEngine velocityEngine,
                                          final MessageObserver messageObserver) {
 
+        this(samlCoreService, velocityEngine, messageObserver, null);
+    }
+
+    /**
+     * Handler already resolved for the profile of an idp, the profile is used for that idp instead of looking it up on each request
+     */
+    public HttpPOSTAuthenticationHandler(final SamlCoreService samlCoreService,
+                                         final VelocityEngine velocityEngine,
+                                         final MessageObserver messageObserver,
+                                         final RuntimeProfile runtimeProfile) {
+
+        this.runtimeProfile  = runtimeProfile;
         this.samlCoreService = samlCoreService;
         this.velocityEngine  = velocityEngine;
         this.messageObserver = messageObserver;
+        this.diagnostics = new SamlDiagnostics(messageObserver, this.getClass());
     }
 
     @Override
@@ -55,22 +72,21 @@ public class HttpPOSTAuthenticationHandler implements AuthenticationHandler {
         final AuthnRequest authnRequest = this.samlCoreService.buildAuthnRequest(request, identityProviderConfiguration, SAMLConstants.SAML2_POST_BINDING_URI);
 
         // the client can ask to sign or not the request
-        final boolean needSign = identityProviderConfiguration.containsOptionalProperty("auth.sign.request")?
-                Boolean.parseBoolean(identityProviderConfiguration.getOptionalProperty("auth.sign.request").toString()): false;
+        final SigningProfile signingProfile = ProfileHandlerRegistry.resolveProfile(this.runtimeProfile, identityProviderConfiguration, this.samlCoreService)
+                .getAuthSigningProfile();
+        final boolean needSign = signingProfile.isSignRequest();
 
         if (needSign) {
         // in case the sign is needed here is the logic for
             try {
 
-                final Signature signature = this.createSignature(identityProviderConfiguration);
+                final Signature signature = this.createSignature(identityProviderConfiguration, signingProfile);
 
-                this.messageObserver.updateInfo(this.getClass().getName(), "signature: " + signature);
+                this.diagnostics.info(() -> "signature: " + signature);
                 authnRequest.setSignature(signature);
 
                 // Marshall and Sign
-                final String digestAlgorithm = identityProviderConfiguration.containsOptionalProperty("auth.signature.reference.digestmethod.algorithm") ?
-                        (String) identityProviderConfiguration.getOptionalProperty("auth.signature.reference.digestmethod.algorithm") :
-                        SignatureConstants.ALGO_ID_DIGEST_SHA256;
+                final String digestAlgorithm = signingProfile.getDigestAlgorithm();
                 SignatureUtils.marshalAndSing(authnRequest, this.messageObserver, signature, digestAlgorithm);
             } catch (Exception e) {
 
@@ -88,8 +104,7 @@ public class HttpPOSTAuthenticationHandler implements AuthenticationHandler {
         endpointContext.setEndpoint(this.samlCoreService.getIdentityProviderDestinationEndpoint(identityProviderConfiguration));
 
         // Saml can also send an extra params signed
-        final boolean needSignatureSigningParams = identityProviderConfiguration.containsOptionalProperty("auth.sign.params")?
-                Boolean.parseBoolean(identityProviderConfiguration.getOptionalProperty("auth.sign.params").toString()): true;
+        final boolean needSignatureSigningParams = signingProfile.isSignParams();
         if (needSignatureSigningParams) {
             SignatureUtils.setSignatureSigningParams(this.samlCoreService.getCredential(identityProviderConfiguration), context);
         }
@@ -97,17 +112,17 @@ public class HttpPOSTAuthenticationHandler implements AuthenticationHandler {
         // in case the relay state is set
         if (UtilMethods.isSet(relayState)) {
 
-            this.messageObserver.updateDebug(this.getClass().getName(), "Setting the relay state: " + relayState);
+            this.diagnostics.debug("Setting the relay state: ", relayState);
             SAMLBindingSupport.setRelayState(context, relayState);
         }
         this.doPost(context, response, authnRequest, identityProviderConfiguration);
     }
 
-    private Signature createSignature(final IdentityProviderConfiguration identityProviderConfiguration) {
+    private Signature createSignature(final IdentityProviderConfiguration identityProviderConfiguration,
+                                      final SigningProfile signingProfile) {
 
         final X509Credential credential     = (X509Credential) this.samlCoreService.getCredential(identityProviderConfiguration);
-        final String signatureAlgorithm = identityProviderConfiguration.containsOptionalProperty("auth.signature.algorithm")?
-                (String)identityProviderConfiguration.getOptionalProperty("auth.signature.algorithm"):SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256;
+        final String signatureAlgorithm = signingProfile.getSignatureAlgorithm();
 
         return SignatureUtils.createSignature(this.samlCoreService, this.messageObserver, credential, signatureAlgorithm);
     }
@@ -116,19 +131,20 @@ public class HttpPOSTAuthenticationHandler implements AuthenticationHandler {
     @SuppressWarnings({ "rawtypes", "unchecked" })
     private void doPost(final MessageContext context, final HttpServletResponse response,
                         final XMLObject xmlObject, final IdentityProviderConfiguration idpConfig) {
-        final HTTPPostEncoder encoder;
+        final HttpServletResponseMessageEncoder encoder;
 
         try {
-            encoder = new DotHTTPPOSTDeflateEncoder(this.velocityEngine);
+            // the native encoder renders the same form without velocity
+            encoder = ProfileHandlerRegistry.resolveProfile(this.runtimeProfile, idpConfig, this.samlCoreService).isNativePostEncoder()?
+                    new DotHTTPPOSTEncoder(this.messageObserver): new DotHTTPPOSTDeflateEncoder(this.velocityEngine);
 
             encoder.setMessageContext(context);
             encoder.setHttpServletResponse(response);
 
             encoder.initialize();
 
-            this.messageObserver.updateDebug(this.getClass().getName(), "Printing XMLObject:");
-            this.messageObserver.updateDebug(this.getClass().getName(), "\n\n" + SamlUtils.toXMLObjectString(xmlObject));
-            this.messageObserver.updateDebug(this.getClass().getName(), "Posting to IdP '" + idpConfig.getIdpName() + "'");
+            this.diagnostics.debugXML("Printing XMLObject:", xmlObject);
+            this.diagnostics.debug(() -> "Posting to IdP '" + idpConfig.getIdpName() + "'");
 
 
             encoder.encode();
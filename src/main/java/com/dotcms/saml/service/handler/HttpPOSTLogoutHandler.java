@@ -5,7 +5,11 @@ import com.dotcms.saml.SamlNameID;
 import com.dotcms.saml.MessageObserver;
 import com.dotcms.saml.service.external.SamlException;
 import com.dotcms.saml.service.impl.DotHTTPPOSTDeflateEncoder;
+import com.dotcms.saml.service.impl.DotHTTPPOSTEncoder;
+import com.dotcms.saml.service.internal.RuntimeProfile;
+import com.dotcms.saml.service.internal.RuntimeProfile.SigningProfile;
 import com.dotcms.saml.service.internal.SamlCoreService;
+import com.dotcms.saml.utils.SamlDiagnostics;
 import com.dotcms.saml.utils.IdpConfigCredentialResolver;
 import com.dotcms.saml.utils.SamlUtils;
 import com.dotcms.saml.utils.SignatureUtils;
@@ -16,9 +20,9 @@ import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.messaging.context.MessageContext;
 import org.opensaml.messaging.encoder.MessageEncodingException;
+import org.opensaml.messaging.encoder.servlet.HttpServletResponseMessageEncoder;
 import org.opensaml.saml.common.messaging.context.SAMLEndpointContext;
 import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
-import org.opensaml.saml.saml2.binding.encoding.impl.HTTPPostEncoder;
 import org.opensaml.saml.saml2.core.LogoutRequest;
 import org.opensaml.saml.saml2.core.NameID;
 import org.opensaml.security.credential.Credential;
@@ -30,7 +34,6 @@ import org.opensaml.xmlsec.signature.Signature;
 import org.opensaml.xmlsec.signature.X509Certificate;
 import org.opensaml.xmlsec.signature.X509Data;
 import org.opensaml.xmlsec.signature.support.ConfigurableContentReference;
-import org.opensaml.xmlsec.signature.support.SignatureConstants;
 import org.opensaml.xmlsec.signature.support.provider.ApacheSantuarioSignerProviderImpl;
 
 import javax.servlet.http.HttpServletRequest;
@@ -45,14 +48,29 @@ public class HttpPOSTLogoutHandler implements LogoutHandler {
     private final SamlCoreService samlCoreService;
     private final VelocityEngine  velocityEngine;
     private final MessageObserver messageObserver;
+    private final SamlDiagnostics diagnostics;
+    private final RuntimeProfile runtimeProfile;
 
     public HttpPOSTLogoutHandler(final SamlCoreService samlCoreService,
                                  final VelocityEngine velocityEngine,
                                  final MessageObserver messageObserver) {
 
+        this(samlCoreService, velocityEngine, messageObserver, null);
+    }
+
+    /**
+     * Handler already resolved for the profile of an idp, the profile is used for that idp instead of looking it up on each request
+     */
+    public HttpPOSTLogoutHandler(final SamlCoreService samlCoreService,
+                                 final VelocityEngine velocityEngine,
+                                 final MessageObserver messageObserver,
+                                 final RuntimeProfile runtimeProfile) {
+
+        this.runtimeProfile  = runtimeProfile;
         this.samlCoreService = samlCoreService;
         this.velocityEngine  = velocityEngine;
         this.messageObserver = messageObserver;
+        this.diagnostics = new SamlDiagnostics(messageObserver, this.getClass());
     }
 
     @Override
@@ -67,22 +85,21 @@ public class HttpPOSTLogoutHandler implements LogoutHandler {
                 identityProviderConfiguration, SamlUtils.toNameID((SamlNameID) nameID), sessionIndexValue);
 
         // Similar to the AuthRequest, logout request can be sign
-        final boolean needSign = identityProviderConfiguration.containsOptionalProperty("logout.sign.request")?
-                Boolean.parseBoolean(identityProviderConfiguration.getOptionalProperty("logout.sign.request").toString()): false;
+        final SigningProfile signingProfile = ProfileHandlerRegistry.resolveProfile(this.runtimeProfile, identityProviderConfiguration, this.samlCoreService)
+                .getLogoutSigningProfile();
+        final boolean needSign = signingProfile.isSignRequest();
 
         if (needSign) {
 
             try {
 
-                final Signature signature = this.createSignature(identityProviderConfiguration);
+                final Signature signature = this.createSignature(identityProviderConfiguration, signingProfile);
 
-                this.messageObserver.updateInfo(this.getClass().getName(), "signature: " + signature);
+                this.diagnostics.info(() -> "signature: " + signature);
                 logoutRequest.setSignature(signature);
 
                 // Marshall and Sign
-                final String digestAlgorithm = identityProviderConfiguration.containsOptionalProperty("logout.signature.reference.digestmethod.algorithm") ?
-                        (String) identityProviderConfiguration.getOptionalProperty("logout.signature.reference.digestmethod.algorithm") :
-                        SignatureConstants.ALGO_ID_DIGEST_SHA256;
+                final String digestAlgorithm = signingProfile.getDigestAlgorithm();
 
                 SignatureUtils.marshalAndSing(logoutRequest, this.messageObserver, signature, digestAlgorithm);
             } catch (Exception e) {
@@ -101,8 +118,7 @@ public class HttpPOSTLogoutHandler implements LogoutHandler {
 
         context.setMessage(logoutRequest);
 
-        final boolean needSignatureSigningParams = identityProviderConfiguration.containsOptionalProperty("logout.sign.params")?
-                Boolean.parseBoolean(identityProviderConfiguration.getOptionalProperty("logout.sign.params").toString()): true;
+        final boolean needSignatureSigningParams = signingProfile.isSignParams();
         if (needSignatureSigningParams) {
             SignatureUtils.setSignatureSigningParams(this.samlCoreService.getCredential(identityProviderConfiguration), context);
         }
@@ -110,11 +126,11 @@ public class HttpPOSTLogoutHandler implements LogoutHandler {
         this.doPost(context, response, logoutRequest, identityProviderConfiguration);
     }
 
-    private Signature createSignature(final IdentityProviderConfiguration identityProviderConfiguration) {
+    private Signature createSignature(final IdentityProviderConfiguration identityProviderConfiguration,
+                                      final SigningProfile signingProfile) {
 
         final X509Credential credential     = (X509Credential) this.samlCoreService.getCredential(identityProviderConfiguration);
-        final String signatureAlgorithm = identityProviderConfiguration.containsOptionalProperty("logout.signature.algorithm")?
-                (String)identityProviderConfiguration.getOptionalProperty("logout.signature.algorithm"):SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256;
+        final String signatureAlgorithm = signingProfile.getSignatureAlgorithm();
 
         return SignatureUtils.createSignature(this.samlCoreService, this.messageObserver, credential, signatureAlgorithm);
     }
@@ -123,19 +139,20 @@ public class HttpPOSTLogoutHandler implements LogoutHandler {
     @SuppressWarnings({ "rawtypes", "unchecked" })
     private void doPost(final MessageContext context, final HttpServletResponse response,
                         final XMLObject xmlObject, final IdentityProviderConfiguration idpConfig) {
-        final HTTPPostEncoder encoder;
+        final HttpServletResponseMessageEncoder encoder;
 
         try {
-            encoder = new DotHTTPPOSTDeflateEncoder(this.velocityEngine);
+            // the native encoder renders the same form without velocity
+            encoder = ProfileHandlerRegistry.resolveProfile(this.runtimeProfile, idpConfig, this.samlCoreService).isNativePostEncoder()?
+                    new DotHTTPPOSTEncoder(this.messageObserver): new DotHTTPPOSTDeflateEncoder(this.velocityEngine);
 
             encoder.setMessageContext(context);
             encoder.setHttpServletResponse(response);
 
             encoder.initialize();
 
-            this.messageObserver.updateDebug(this.getClass().getName(), "Printing XMLObject:");
-            this.messageObserver.updateDebug(this.getClass().getName(), "\n\n" + SamlUtils.toXMLObjectString(xmlObject));
-            this.messageObserver.updateDebug(this.getClass().getName(), "Posting to IdP '" + idpConfig.getIdpName() + "'");
+            this.diagnostics.debugXML("Printing XMLObject:", xmlObject);
+            this.diagnostics.debug(() -> "Posting to IdP '" + idpConfig.getIdpName() + "'");
 
             encoder.encode();
         } catch (ComponentInitializationException | MessageEncodingException e) {
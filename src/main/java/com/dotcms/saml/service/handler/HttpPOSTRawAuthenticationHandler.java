@@ -4,8 +4,9 @@ import com.dotcms.saml.IdentityProviderConfiguration;
 import com.dotcms.saml.MessageObserver;
 import com.dotcms.saml.service.external.SamlException;
 import com.dotcms.saml.service.impl.DotHTTPPOSTRawDeflateEncoder;
+import com.dotcms.saml.service.internal.RuntimeProfile;
 import com.dotcms.saml.service.internal.SamlCoreService;
-import com.dotcms.saml.utils.SamlUtils;
+import com.dotcms.saml.utils.SamlDiagnostics;
 import com.dotmarketing.util.UtilMethods;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import org.opensaml.core.xml.XMLObject;
@@ -18,7 +19,6 @@ import org.opensaml.saml.common.xml.SAMLConstants;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.xmlsec.SignatureSigningParameters;
 import org.opensaml.xmlsec.context.SecurityParametersContext;
-import org.opensaml.xmlsec.signature.support.SignatureConstants;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -32,12 +32,23 @@ public class HttpPOSTRawAuthenticationHandler implements AuthenticationHandler {
 
     private final SamlCoreService samlCoreService;
     private final MessageObserver messageObserver;
+    private final SamlDiagnostics diagnostics;
+    private final RuntimeProfile runtimeProfile;
 
     public HttpPOSTRawAuthenticationHandler(final SamlCoreService samlCoreService,
                                             final MessageObserver messageObserver) {
 
+        this(samlCoreService, messageObserver, null);
+    }
+
+    public HttpPOSTRawAuthenticationHandler(final SamlCoreService samlCoreService,
+                                            final MessageObserver messageObserver,
+                                            final RuntimeProfile runtimeProfile) {
+
         this.samlCoreService = samlCoreService;
         this.messageObserver = messageObserver;
+        this.diagnostics = new SamlDiagnostics(messageObserver, this.getClass());
+        this.runtimeProfile  = runtimeProfile;
     }
 
     @Override
@@ -46,9 +57,15 @@ public class HttpPOSTRawAuthenticationHandler implements AuthenticationHandler {
                        final String relayState) {
 
         final MessageContext context    = new MessageContext(); // main context
-        final AuthnRequest authnRequest = this.samlCoreService.buildAuthnRequest(request, identityProviderConfiguration, SAMLConstants.SAML2_POST_BINDING_URI);
-
-        context.setMessage(authnRequest);
+        // the unsigned requests may be rendered from the precompiled template, otherwise the request object is built
+        final byte[] serializedRequest  = this.samlCoreService.renderAuthnRequest(request, identityProviderConfiguration,
+                SAMLConstants.SAML2_POST_BINDING_URI);
+        final AuthnRequest authnRequest = null != serializedRequest? null:
+                this.samlCoreService.buildAuthnRequest(request, identityProviderConfiguration, SAMLConstants.SAML2_POST_BINDING_URI);
+
+        if (null != authnRequest) {
+            context.setMessage(authnRequest);
+        }
 
         // peer entity (Idp to SP and viceversa)
         final SAMLPeerEntityContext peerEntityContext = context.getSubcontext(SAMLPeerEntityContext.class, true);
@@ -61,10 +78,10 @@ public class HttpPOSTRawAuthenticationHandler implements AuthenticationHandler {
 
         if (UtilMethods.isSet(relayState)) {
 
-            this.messageObserver.updateDebug(this.getClass().getName(), "Setting the relay state: " + relayState);
+            this.diagnostics.debug("Setting the relay state: ", relayState);
             SAMLBindingSupport.setRelayState(context, relayState);
         }
-        this.doPost(context, response, authnRequest, identityProviderConfiguration);
+        this.doPost(context, response, authnRequest, serializedRequest, identityProviderConfiguration);
     }
 
     private void setSignatureSigningParams(final MessageContext context, final IdentityProviderConfiguration idpConfig) {
@@ -72,7 +89,9 @@ public class HttpPOSTRawAuthenticationHandler implements AuthenticationHandler {
         final SignatureSigningParameters signatureSigningParameters = new SignatureSigningParameters();
 
         signatureSigningParameters.setSigningCredential(this.samlCoreService.getCredential(idpConfig));
-        signatureSigningParameters.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+        // rsa-sha256 unless the auth.signature.algorithm is set
+        signatureSigningParameters.setSignatureAlgorithm(ProfileHandlerRegistry.resolveProfile(this.runtimeProfile, idpConfig, this.samlCoreService)
+                .getAuthSigningProfile().getSignatureAlgorithm());
 
         context.getSubcontext(SecurityParametersContext.class, true)
                 .setSignatureSigningParameters(signatureSigningParameters);
@@ -81,23 +100,26 @@ public class HttpPOSTRawAuthenticationHandler implements AuthenticationHandler {
     // this makes the post to the IdP
     @SuppressWarnings({ "rawtypes", "unchecked" })
     private void doPost(final MessageContext context, final HttpServletResponse response,
-                        final XMLObject xmlObject, final IdentityProviderConfiguration idpConfig) {
+                        final XMLObject xmlObject, final byte[] serializedRequest,
+                        final IdentityProviderConfiguration idpConfig) {
         final DotHTTPPOSTRawDeflateEncoder encoder;
 
         try {
 
-            this.messageObserver.updateDebug(this.getClass().getName(), "Sending an Authn Post Raw request");
+            this.diagnostics.debug("Sending an Authn Post Raw request");
 
             encoder = new DotHTTPPOSTRawDeflateEncoder(this.messageObserver);
 
+            encoder.setSerializedRequest(serializedRequest);
             encoder.setMessageContext(context);
             encoder.setHttpServletResponse(response);
 
             encoder.initialize();
 
-            this.messageObserver.updateDebug(this.getClass().getName(), "Printing XMLObject:");
-            this.messageObserver.updateDebug(this.getClass().getName(), "\n\n" + SamlUtils.toXMLObjectString(xmlObject));
-            this.messageObserver.updateDebug(this.getClass().getName(), "Posting to IdP '" + idpConfig.getIdpName() + "'");
+            if (null != xmlObject) {
+                this.diagnostics.debugXML("Printing XMLObject:", xmlObject);
+            }
+            this.diagnostics.debug(() -> "Posting to IdP '" + idpConfig.getIdpName() + "'");
 
             encoder.encode();
         } catch (ComponentInitializationException | MessageEncodingException e) {
@@ -3,19 +3,19 @@ package com.dotcms.saml.service.handler;
 import com.dotcms.saml.IdentityProviderConfiguration;
 import com.dotcms.saml.MessageObserver;
 import com.dotcms.saml.SamlConfigurationService;
-import com.dotcms.saml.SamlName;
+import com.dotcms.saml.service.impl.AssertionPipeline;
+import com.dotcms.saml.service.impl.ResponseTriage;
+import com.dotcms.saml.service.impl.ResponseValidationChain;
+import com.dotcms.saml.service.internal.RuntimeProfile;
 import com.dotcms.saml.service.internal.SamlCoreService;
 import com.dotcms.saml.service.external.SamlException;
-import com.dotcms.saml.utils.SamlUtils;
+import com.dotcms.saml.utils.SamlDiagnostics;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import org.apache.commons.lang.StringUtils;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.messaging.context.MessageContext;
 import org.opensaml.messaging.decoder.MessageDecodingException;
-import org.opensaml.messaging.handler.MessageHandler;
-import org.opensaml.messaging.handler.impl.BasicMessageHandlerChain;
 import org.opensaml.saml.common.SAMLObject;
-import org.opensaml.saml.common.binding.security.impl.MessageLifetimeSecurityHandler;
 import org.opensaml.saml.common.messaging.context.SAMLMessageInfoContext;
 import org.opensaml.saml.saml2.binding.decoding.impl.HTTPPostDecoder;
 import org.opensaml.saml.saml2.core.Assertion;
@@ -25,8 +25,9 @@ import org.opensaml.saml.saml2.core.StatusCode;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.ArrayList;
-import java.util.List;
+import javax.servlet.http.HttpSession;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 
 /**
  * Handles the http post
@@ -42,16 +43,20 @@ public class HttpPostAssertionResolverHandlerImpl implements AssertionResolverHa
 	private static final String SAML_RESPONSE_KEY = "SAMLResponse";
 
 	private final MessageObserver messageObserver;
+	private final SamlDiagnostics diagnostics;
 	private final SamlCoreService samlCoreService;
 	private final SamlConfigurationService samlConfigurationService;
+	private final AssertionPipeline assertionPipeline;
 
 	public HttpPostAssertionResolverHandlerImpl(final MessageObserver messageObserver,
 												final SamlCoreService samlCoreService,
 												final SamlConfigurationService samlConfigurationService) {
 
 		this.messageObserver = messageObserver;
+		this.diagnostics = new SamlDiagnostics(messageObserver, this.getClass());
 		this.samlCoreService = samlCoreService;
 		this.samlConfigurationService = samlConfigurationService;
+		this.assertionPipeline = new AssertionPipeline(samlCoreService, messageObserver);
 	}
 
 	@Override
@@ -66,17 +71,24 @@ public class HttpPostAssertionResolverHandlerImpl implements AssertionResolverHa
 									  final IdentityProviderConfiguration identityProviderConfiguration) {
 
 		Assertion assertion     = null;
-		HTTPPostDecoder decoder = new HTTPPostDecoder();
 		Response samlResponse   = null;
 		MessageContext<SAMLObject> messageContext = null;
 
-		this.messageObserver.updateDebug(this.getClass().getName(),
-				"Resolving SAML Artifact with AssertionResolverHandler implementation: " + this.getClass().getName());
+		this.diagnostics.debug(() -> "Resolving SAML Artifact with AssertionResolverHandler implementation: " +
+				this.getClass().getName());
+
+		final RuntimeProfile runtimeProfile = this.samlCoreService.getRuntimeProfile(identityProviderConfiguration);
+		final ResponseValidationChain.ExpectationContext expectationContext =
+				this.buildExpectations(request, identityProviderConfiguration, runtimeProfile);
+
+		// the bogus or stale posts are rejected before building any DOM
+		final byte[] decodedResponse = this.triageResponse(request, identityProviderConfiguration,
+				runtimeProfile, expectationContext);
+		final HTTPPostDecoder decoder = new TriagedPostDecoder(decodedResponse);
 
 		try {
 
-			this.messageObserver.updateDebug(this.getClass().getName(),
-					"Decoding the Post message: " + request.getParameter(SAML_RESPONSE_KEY));
+			this.diagnostics.debug(() -> "Decoding the Post message: " + request.getParameter(SAML_RESPONSE_KEY));
 
 			decoder.setHttpServletRequest(request);
 			decoder.setParserPool(XMLObjectProviderRegistrySupport.getParserPool());
@@ -87,8 +99,7 @@ public class HttpPostAssertionResolverHandlerImpl implements AssertionResolverHa
 			messageContext = decoder.getMessageContext();
 			samlResponse = (Response) messageContext.getMessage();
 
-			this.messageObserver.updateDebug(this.getClass().getName(),"Post message context decoded:");
-			this.messageObserver.updateDebug(this.getClass().getName(),"\n\n" + SamlUtils.toXMLObjectString(samlResponse));
+			this.diagnostics.debugXML("Post message context decoded:", samlResponse);
 
 		} catch (ComponentInitializationException | MessageDecodingException e) {
 
@@ -100,19 +111,16 @@ public class HttpPostAssertionResolverHandlerImpl implements AssertionResolverHa
 			decoder.destroy();
 		}
 
-		this.validateDestinationAndLifetime(messageContext, request, identityProviderConfiguration);
+		this.validateResponse(messageContext, identityProviderConfiguration, runtimeProfile, expectationContext);
 
-		assertion = this.samlCoreService.getAssertion(samlResponse, identityProviderConfiguration);
+		// Decrypts (if needed) all the assertions and verifies the signatures, the first one is the one used for the login
+		assertion = this.assertionPipeline.resolveAssertions(samlResponse, identityProviderConfiguration).get(0);
 
-		this.messageObserver.updateDebug(this.getClass().getName(), "Decrypted Assertion:");
-		this.messageObserver.updateDebug(this.getClass().getName(), "\n\n" + SamlUtils.toXMLObjectString(assertion));
-
-		// Verify Signatures.
-		this.samlCoreService.verifyResponseSignature(samlResponse, identityProviderConfiguration);
-		this.samlCoreService.verifyAssertionSignature(assertion,   identityProviderConfiguration);
+		this.diagnostics.debugXML("Decrypted Assertion:", assertion);
 
 		this.verifyStatus(samlResponse);
 
+		// the DOM is kept, the lexical form of the typed attribute values is read from it
 		return assertion;
 	}
 
@@ -130,61 +138,106 @@ public class HttpPostAssertionResolverHandlerImpl implements AssertionResolverHa
 		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private void validateDestinationAndLifetime(final MessageContext<SAMLObject> context,
-			final HttpServletRequest request, final IdentityProviderConfiguration identityProviderConfiguration) {
-
-		// Just setting it to a value in case of exception.
-		long clockSkew = DOT_SAML_CLOCK_SKEW_DEFAULT_VALUE;
-		long lifeTime = DOT_SAML_MESSAGE_LIFE_DEFAULT_VALUE;
+	/**
+	 * Values expected on the response of the idp, only the ones of the enabled checks are resolved
+	 */
+	private ResponseValidationChain.ExpectationContext buildExpectations(final HttpServletRequest request,
+			final IdentityProviderConfiguration identityProviderConfiguration, final RuntimeProfile runtimeProfile) {
 
-		try {
+		final ResponseValidationChain.ExpectationContext expectationContext = new ResponseValidationChain.ExpectationContext();
+		if (runtimeProfile.isValidateDestination()) {
+			expectationContext.setDestination(this.samlCoreService.getAssertionConsumerEndpoint(request, identityProviderConfiguration));
+		}
+		if (runtimeProfile.isValidateIssuer()) {
+			expectationContext.setIssuer(this.samlCoreService.getIdPEntityId(identityProviderConfiguration));
+		}
+		if (runtimeProfile.isValidateAudience()) {
+			expectationContext.setAudience(this.samlCoreService.getSPIssuerValue(identityProviderConfiguration));
+		}
+		if (runtimeProfile.isValidateInResponseTo()) {
+			expectationContext.setInResponseTo(this.consumeAuthnRequestId(request, identityProviderConfiguration));
+		}
 
-			final Integer intClockSkew = this.samlConfigurationService.getConfigAsInteger(identityProviderConfiguration,
-					SamlName.DOT_SAML_CLOCK_SKEW);
-			if (intClockSkew != null) {
+		return expectationContext;
+	}
 
-				clockSkew = new Long(intClockSkew).longValue();
-			}
-		} catch (Exception exception) {
+	/**
+	 * Gets (and removes, so the response can not be replayed) the id of the AuthnRequest issued on this session,
+	 * null if there is not one (such as an IdP initiated login); then the response just has to be solicited
+	 */
+	private String consumeAuthnRequestId(final HttpServletRequest request,
+			final IdentityProviderConfiguration identityProviderConfiguration) {
 
-			this.messageObserver.updateInfo(this.getClass().getName(),
-					"Optional property not set: " + SamlName.DOT_SAML_CLOCK_SKEW + ". Using default.");
+		final HttpSession session = request.getSession(false);
+		if (null == session) {
+			return null;
 		}
 
-		try {
+		final String attributeName = ResponseValidationChain.getAuthnRequestIdAttribute(identityProviderConfiguration.getId());
+		final Object authnRequestId = session.getAttribute(attributeName);
+		session.removeAttribute(attributeName);
+		return null != authnRequestId? authnRequestId.toString(): null;
+	}
 
-			final Integer intLifeTime = this.samlConfigurationService.getConfigAsInteger(identityProviderConfiguration,
-					SamlName.DOT_SAML_MESSAGE_LIFE_TIME);
-			if (intLifeTime != null) {
+	/**
+	 * Decodes and scans the posted response (size, lifetime, destination, issuer, InResponseTo and status) without
+	 * building the DOM, returns the decoded message
+	 */
+	private byte[] triageResponse(final HttpServletRequest request, final IdentityProviderConfiguration identityProviderConfiguration,
+			final RuntimeProfile runtimeProfile, final ResponseValidationChain.ExpectationContext expectationContext) {
 
-				lifeTime = new Long(intLifeTime).longValue();
-			}
+		try {
 
-		} catch (Exception exception) {
+			return ResponseTriage.getInstance().triage(request.getParameter(SAML_RESPONSE_KEY), runtimeProfile, expectationContext);
+		} catch (SamlException e) {
 
-			this.messageObserver.updateInfo(this.getClass().getName(),
-					"Optional property not set: " + SamlName.DOT_SAML_MESSAGE_LIFE_TIME.getPropertyName() + ". Using default.");
+			this.messageObserver.updateError(this.getClass().getName(),
+					"The SAML Response of the IdP '" + identityProviderConfiguration.getIdpName() + "' was rejected: " + e.getMessage());
+			throw e;
 		}
+	}
+
+	/**
+	 * Runs the precompiled validation chain of the idp (lifetime, destination, issuer, InResponseTo and audience)
+	 * over the decoded response, before spending any decryption or signature verification on it
+	 */
+	private void validateResponse(final MessageContext<SAMLObject> context,
+			final IdentityProviderConfiguration identityProviderConfiguration, final RuntimeProfile runtimeProfile,
+			final ResponseValidationChain.ExpectationContext expectationContext) {
 
-		final SAMLMessageInfoContext messageInfoContext = context.getSubcontext(SAMLMessageInfoContext.class, true);
-		final MessageLifetimeSecurityHandler lifetimeSecurityHandler = new MessageLifetimeSecurityHandler();
-		final BasicMessageHandlerChain<SAMLObject> handlerChain      = new BasicMessageHandlerChain<SAMLObject>();
-		final List<MessageHandler<SAMLObject>> handlers              = new ArrayList<>();
 		final Response response = (Response) context.getMessage();
-		
-		messageInfoContext.setMessageIssueInstant(response.getIssueInstant());
 
-		// message lifetime validation.
-		lifetimeSecurityHandler.setClockSkew(clockSkew);
-		lifetimeSecurityHandler.setMessageLifetime(lifeTime);
-		lifetimeSecurityHandler.setRequiredRule(true);
+		context.getSubcontext(SAMLMessageInfoContext.class, true).setMessageIssueInstant(response.getIssueInstant());
+		context.addSubcontext(expectationContext);
+
+		try {
+
+			runtimeProfile.getResponseValidationChain().validate(context);
+		} catch (SamlException e) {
+
+			this.messageObserver.updateError(this.getClass().getName(),
+					"The SAML Response of the IdP '" + identityProviderConfiguration.getIdpName() + "' is not valid: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Post decoder that unmarshalls the message already decoded by the triage, instead of decoding the parameter again
+	 */
+	private static final class TriagedPostDecoder extends HTTPPostDecoder {
 
-		// validation of message destination.
-		handlers.add(lifetimeSecurityHandler);
-		handlerChain.setHandlers(handlers);
+		private final byte[] decodedResponse;
 
-		SamlUtils.invokeMessageHandlerChain(handlerChain, context);
+		private TriagedPostDecoder(final byte[] decodedResponse) {
+
+			this.decodedResponse = decodedResponse;
+		}
+
+		@Override
+		protected InputStream getBase64DecodedMessage(final HttpServletRequest request) throws MessageDecodingException {
+
+			return new ByteArrayInputStream(this.decodedResponse);
+		}
 	}
 
 }
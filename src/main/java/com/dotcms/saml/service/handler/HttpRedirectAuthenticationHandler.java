@@ -3,11 +3,12 @@ package com.dotcms.saml.service.handler;
 import com.dotcms.saml.IdentityProviderConfiguration;
 import com.dotcms.saml.MessageObserver;
 import com.dotcms.saml.SamlConfigurationService;
-import com.dotcms.saml.SamlName;
 import com.dotcms.saml.service.external.SamlException;
 import com.dotcms.saml.service.impl.DotHTTPRedirectDeflateEncoder;
+import com.dotcms.saml.service.internal.RuntimeProfile;
+import com.dotcms.saml.service.internal.RuntimeProfile.SigningProfile;
 import com.dotcms.saml.service.internal.SamlCoreService;
-import com.dotcms.saml.utils.SamlUtils;
+import com.dotcms.saml.utils.SamlDiagnostics;
 import com.dotcms.saml.utils.SignatureUtils;
 import com.dotmarketing.util.Logger;
 import com.dotmarketing.util.UtilMethods;
@@ -20,15 +21,14 @@ import org.opensaml.messaging.encoder.MessageEncodingException;
 import org.opensaml.saml.common.binding.SAMLBindingSupport;
 import org.opensaml.saml.common.messaging.context.SAMLEndpointContext;
 import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
-import org.opensaml.saml.saml2.binding.encoding.impl.HTTPRedirectDeflateEncoder;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.security.x509.X509Credential;
 import org.opensaml.xmlsec.signature.Signature;
-import org.opensaml.xmlsec.signature.support.SignatureConstants;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Implements the authentication handler by redirect
@@ -38,15 +38,30 @@ public class HttpRedirectAuthenticationHandler implements AuthenticationHandler
 
     private final SamlCoreService samlCoreService;
     private final MessageObserver messageObserver;
+    private final SamlDiagnostics diagnostics;
     private final SamlConfigurationService samlConfigurationService;
+    private final RuntimeProfile runtimeProfile;
 
 
     public HttpRedirectAuthenticationHandler(final SamlCoreService samlCoreService,
                                              final MessageObserver messageObserver,
                                              final SamlConfigurationService samlConfigurationService) {
 
+        this(samlCoreService, messageObserver, samlConfigurationService, null);
+    }
+
+    /**
+     * Handler already resolved for the profile of an idp, the profile is used for that idp instead of looking it up on each request
+     */
+    public HttpRedirectAuthenticationHandler(final SamlCoreService samlCoreService,
+                                             final MessageObserver messageObserver,
+                                             final SamlConfigurationService samlConfigurationService,
+                                             final RuntimeProfile runtimeProfile) {
+
+        this.runtimeProfile  = runtimeProfile;
         this.samlCoreService = samlCoreService;
         this.messageObserver = messageObserver;
+        this.diagnostics = new SamlDiagnostics(messageObserver, this.getClass());
         this.samlConfigurationService = samlConfigurationService;
     }
 
@@ -56,25 +71,28 @@ public class HttpRedirectAuthenticationHandler implements AuthenticationHandler
                        final String relayState) {
 
         final MessageContext context    = new MessageContext(); // main context
-        final AuthnRequest authnRequest = this.samlCoreService.buildAuthnRequest(request, identityProviderConfiguration);
+        final RuntimeProfile runtimeProfile = ProfileHandlerRegistry.resolveProfile(this.runtimeProfile, identityProviderConfiguration, this.samlCoreService);
+        // the unsigned requests may be rendered from the precompiled template, otherwise the request object is built
+        final byte[] serializedRequest  = this.samlCoreService.renderAuthnRequest(request, identityProviderConfiguration,
+                runtimeProfile.getProtocolBinding());
+        final AuthnRequest authnRequest = null != serializedRequest? null:
+                this.samlCoreService.buildAuthnRequest(request, identityProviderConfiguration);
 
         // in case sign is need on request
-        final boolean needSign = identityProviderConfiguration.containsOptionalProperty("auth.sign.request")?
-                Boolean.parseBoolean(identityProviderConfiguration.getOptionalProperty("auth.sign.request").toString()): false;
+        final SigningProfile signingProfile = runtimeProfile.getAuthSigningProfile();
+        final boolean needSign = null != authnRequest && signingProfile.isSignRequest();
 
         if (needSign) {
 
             try {
 
-                final Signature signature = this.createSignature(identityProviderConfiguration);
+                final Signature signature = this.createSignature(identityProviderConfiguration, signingProfile);
 
-                this.messageObserver.updateInfo(this.getClass().getName(), "signature: " + signature);
+                this.diagnostics.info(() -> "signature: " + signature);
                 authnRequest.setSignature(signature);
 
                 // Marshall and Sign
-                final String digestAlgorithm = identityProviderConfiguration.containsOptionalProperty("auth.signature.reference.digestmethod.algorithm") ?
-                        (String) identityProviderConfiguration.getOptionalProperty("auth.signature.reference.digestmethod.algorithm") :
-                        SignatureConstants.ALGO_ID_DIGEST_SHA256;
+                final String digestAlgorithm = signingProfile.getDigestAlgorithm();
                 SignatureUtils.marshalAndSing(authnRequest, this.messageObserver, signature, digestAlgorithm);
             } catch (Exception e) {
 
@@ -82,7 +100,9 @@ public class HttpRedirectAuthenticationHandler implements AuthenticationHandler
             }
         }
 
-        context.setMessage(authnRequest);
+        if (null != authnRequest) {
+            context.setMessage(authnRequest);
+        }
 
         // peer entity (Idp to SP and viceversa)
         final SAMLPeerEntityContext peerEntityContext = context.getSubcontext(SAMLPeerEntityContext.class, true);
@@ -94,25 +114,24 @@ public class HttpRedirectAuthenticationHandler implements AuthenticationHandler
         // this was made in other to have some kinda of tracking on the session, but not sure if it is useful
         final HttpSession session = request.getSession();
         session.setAttribute("dotsaml.login", true);
-        final boolean needSignatureSigningParams = identityProviderConfiguration.containsOptionalProperty("auth.sign.params")?
-                Boolean.parseBoolean(identityProviderConfiguration.getOptionalProperty("auth.sign.params").toString()): true;
+        final boolean needSignatureSigningParams = signingProfile.isSignParams();
         if (needSignatureSigningParams) {
             SignatureUtils.setSignatureSigningParams(this.samlCoreService.getCredential(identityProviderConfiguration), context);
         }
 
         if (UtilMethods.isSet(relayState)) {
 
-            this.messageObserver.updateDebug(this.getClass().getName(), "Setting the relay state: " + relayState);
+            this.diagnostics.debug("Setting the relay state: ", relayState);
             SAMLBindingSupport.setRelayState(context, relayState);
         }
-        this.doRedirect(context, response, authnRequest, identityProviderConfiguration);
+        this.doRedirect(context, response, authnRequest, serializedRequest, identityProviderConfiguration);
     }
 
-    private Signature createSignature(final IdentityProviderConfiguration identityProviderConfiguration) {
+    private Signature createSignature(final IdentityProviderConfiguration identityProviderConfiguration,
+                                      final SigningProfile signingProfile) {
 
         final X509Credential credential     = (X509Credential) this.samlCoreService.getCredential(identityProviderConfiguration);
-        final String signatureAlgorithm = identityProviderConfiguration.containsOptionalProperty("auth.signature.algorithm")?
-                (String)identityProviderConfiguration.getOptionalProperty("auth.signature.algorithm"):SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256;
+        final String signatureAlgorithm = signingProfile.getSignatureAlgorithm();
 
         return SignatureUtils.createSignature(this.samlCoreService, this.messageObserver, credential, signatureAlgorithm);
     }
@@ -123,22 +142,36 @@ public class HttpRedirectAuthenticationHandler implements AuthenticationHandler
                               final XMLObject xmlObject,
                               final IdentityProviderConfiguration identityProviderConfiguration) {
 
-        final boolean clearQueryParams = samlConfigurationService.getConfigAsBoolean(identityProviderConfiguration,
-                SamlName.DOTCMS_SAML_CLEAR_LOCATION_QUERY_PARAMS);
+        this.doRedirect(context, response, xmlObject, null, identityProviderConfiguration);
+    }
+
+    // this makes the redirect to the IdP, if the serialized request is set it is sent instead of the xml object
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void doRedirect(final MessageContext context, final HttpServletResponse response,
+                              final XMLObject xmlObject, final byte[] serializedRequest,
+                              final IdentityProviderConfiguration identityProviderConfiguration) {
+
+        final boolean clearQueryParams = ProfileHandlerRegistry.resolveProfile(this.runtimeProfile, identityProviderConfiguration, this.samlCoreService)
+                .isClearLocationQueryParams();
 
         try {
 
-            final HTTPRedirectDeflateEncoder encoder = new DotHTTPRedirectDeflateEncoder(
+            final DotHTTPRedirectDeflateEncoder encoder = new DotHTTPRedirectDeflateEncoder(
                     clearQueryParams, this.messageObserver);
 
+            encoder.setSerializedRequest(serializedRequest);
             encoder.setMessageContext(context);
             encoder.setHttpServletResponse(response);
 
             encoder.initialize();
 
-            this.messageObserver.updateDebug(this.getClass().getName(), "Printing XMLObject:");
-            this.messageObserver.updateDebug(this.getClass().getName(), "\n\n" + SamlUtils.toXMLObjectString(xmlObject));
-            this.messageObserver.updateDebug(this.getClass().getName(), "Redirecting to IdP '" + identityProviderConfiguration.getIdpName() + "'");
+            if (null != xmlObject) {
+                this.diagnostics.debugXML("Printing XMLObject:", xmlObject);
+            } else {
+                this.diagnostics.debug(() -> "Printing the templated request:\n\n" +
+                        new String(serializedRequest, StandardCharsets.UTF_8));
+            }
+            this.diagnostics.debug(() -> "Redirecting to IdP '" + identityProviderConfiguration.getIdpName() + "'");
 
             encoder.encode();
         } catch (ComponentInitializationException | MessageEncodingException e) {
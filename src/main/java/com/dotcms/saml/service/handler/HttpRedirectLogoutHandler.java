@@ -4,10 +4,12 @@ import com.dotcms.saml.IdentityProviderConfiguration;
 import com.dotcms.saml.SamlNameID;
 import com.dotcms.saml.MessageObserver;
 import com.dotcms.saml.SamlConfigurationService;
-import com.dotcms.saml.SamlName;
 import com.dotcms.saml.service.external.SamlException;
 import com.dotcms.saml.service.impl.DotHTTPRedirectDeflateEncoder;
+import com.dotcms.saml.service.internal.RuntimeProfile;
+import com.dotcms.saml.service.internal.RuntimeProfile.SigningProfile;
 import com.dotcms.saml.service.internal.SamlCoreService;
+import com.dotcms.saml.utils.SamlDiagnostics;
 import com.dotcms.saml.utils.SamlUtils;
 import com.dotcms.saml.utils.SignatureUtils;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -21,7 +23,6 @@ import org.opensaml.saml.saml2.core.LogoutRequest;
 import org.opensaml.saml.saml2.core.NameID;
 import org.opensaml.security.x509.X509Credential;
 import org.opensaml.xmlsec.signature.Signature;
-import org.opensaml.xmlsec.signature.support.SignatureConstants;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -34,15 +35,30 @@ public class HttpRedirectLogoutHandler implements LogoutHandler {
 
     private final SamlCoreService samlCoreService;
     private final MessageObserver messageObserver;
+    private final SamlDiagnostics diagnostics;
     private final SamlConfigurationService samlConfigurationService;
+    private final RuntimeProfile runtimeProfile;
 
 
     public HttpRedirectLogoutHandler(final SamlCoreService samlCoreService,
                                      final MessageObserver messageObserver,
                                      final SamlConfigurationService samlConfigurationService) {
 
+        this(samlCoreService, messageObserver, samlConfigurationService, null);
+    }
+
+    /**
+     * Handler already resolved for the profile of an idp, the profile is used for that idp instead of looking it up on each request
+     */
+    public HttpRedirectLogoutHandler(final SamlCoreService samlCoreService,
+                                     final MessageObserver messageObserver,
+                                     final SamlConfigurationService samlConfigurationService,
+                                     final RuntimeProfile runtimeProfile) {
+
+        this.runtimeProfile  = runtimeProfile;
         this.samlCoreService = samlCoreService;
         this.messageObserver = messageObserver;
+        this.diagnostics = new SamlDiagnostics(messageObserver, this.getClass());
         this.samlConfigurationService = samlConfigurationService;
     }
 
@@ -57,22 +73,21 @@ public class HttpRedirectLogoutHandler implements LogoutHandler {
         final LogoutRequest logoutRequest = this.samlCoreService.buildLogoutRequest(
                 identityProviderConfiguration, SamlUtils.toNameID((SamlNameID) nameID), sessionIndexValue);
 
-        final boolean needSign = identityProviderConfiguration.containsOptionalProperty("logout.sign.request")?
-                Boolean.parseBoolean(identityProviderConfiguration.getOptionalProperty("logout.sign.request").toString()): false;
+        final SigningProfile signingProfile = ProfileHandlerRegistry.resolveProfile(this.runtimeProfile, identityProviderConfiguration, this.samlCoreService)
+                .getLogoutSigningProfile();
+        final boolean needSign = signingProfile.isSignRequest();
 
         if (needSign) {
 
             try {
 
-                final Signature signature = this.createSignature(identityProviderConfiguration);
+                final Signature signature = this.createSignature(identityProviderConfiguration, signingProfile);
 
-                this.messageObserver.updateInfo(this.getClass().getName(), "signature: " + signature);
+                this.diagnostics.info(() -> "signature: " + signature);
                 logoutRequest.setSignature(signature);
 
                 // Marshall and Sign
-                final String digestAlgorithm = identityProviderConfiguration.containsOptionalProperty("logout.signature.reference.digestmethod.algorithm") ?
-                        (String) identityProviderConfiguration.getOptionalProperty("logout.signature.reference.digestmethod.algorithm") :
-                        SignatureConstants.ALGO_ID_DIGEST_SHA256;
+                final String digestAlgorithm = signingProfile.getDigestAlgorithm();
 
                 SignatureUtils.marshalAndSing(logoutRequest, this.messageObserver, signature, digestAlgorithm);
             } catch (Exception e) {
@@ -91,8 +106,7 @@ public class HttpRedirectLogoutHandler implements LogoutHandler {
 
         context.setMessage(logoutRequest);
 
-        final boolean needSignatureSigningParams = identityProviderConfiguration.containsOptionalProperty("logout.sign.params")?
-                Boolean.parseBoolean(identityProviderConfiguration.getOptionalProperty("logout.sign.params").toString()): true;
+        final boolean needSignatureSigningParams = signingProfile.isSignParams();
         if (needSignatureSigningParams) {
             SignatureUtils.setSignatureSigningParams(this.samlCoreService.getCredential(identityProviderConfiguration), context);
         }
@@ -100,11 +114,11 @@ public class HttpRedirectLogoutHandler implements LogoutHandler {
         this.doRedirect(context, response, logoutRequest, identityProviderConfiguration);
     }
 
-    private Signature createSignature(final IdentityProviderConfiguration identityProviderConfiguration) {
+    private Signature createSignature(final IdentityProviderConfiguration identityProviderConfiguration,
+                                      final SigningProfile signingProfile) {
 
         final X509Credential credential     = (X509Credential) this.samlCoreService.getCredential(identityProviderConfiguration);
-        final String signatureAlgorithm = identityProviderConfiguration.containsOptionalProperty("logout.signature.algorithm")?
-                (String)identityProviderConfiguration.getOptionalProperty("logout.signature.algorithm"):SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256;
+        final String signatureAlgorithm = signingProfile.getSignatureAlgorithm();
 
         return SignatureUtils.createSignature(this.samlCoreService, this.messageObserver, credential, signatureAlgorithm);
     }
@@ -115,8 +129,8 @@ public class HttpRedirectLogoutHandler implements LogoutHandler {
                               final XMLObject xmlObject,
                               final IdentityProviderConfiguration identityProviderConfiguration) {
 
-        final boolean clearQueryParams = samlConfigurationService.getConfigAsBoolean(identityProviderConfiguration,
-                SamlName.DOTCMS_SAML_CLEAR_LOCATION_QUERY_PARAMS);
+        final boolean clearQueryParams = ProfileHandlerRegistry.resolveProfile(this.runtimeProfile, identityProviderConfiguration, this.samlCoreService)
+                .isClearLocationQueryParams();
 
         try {
 
@@ -128,9 +142,8 @@ public class HttpRedirectLogoutHandler implements LogoutHandler {
 
             encoder.initialize();
 
-            this.messageObserver.updateDebug(this.getClass().getName(), "Printing XMLObject:");
-            this.messageObserver.updateDebug(this.getClass().getName(), "\n\n" + SamlUtils.toXMLObjectString(xmlObject));
-            this.messageObserver.updateDebug(this.getClass().getName(), "Redirecting to IdP '" + identityProviderConfiguration.getIdpName() + "'");
+            this.diagnostics.debugXML("Printing XMLObject:", xmlObject);
+            this.diagnostics.debug(() -> "Redirecting to IdP '" + identityProviderConfiguration.getIdpName() + "'");
 
             encoder.encode();
         } catch (ComponentInitializationException | MessageEncodingException e) {
@@ -4,7 +4,8 @@ import com.dotcms.saml.DotSamlConstants;
 import com.dotcms.saml.IdentityProviderConfiguration;
 import com.dotcms.saml.MessageObserver;
 import com.dotcms.saml.SamlConfigurationService;
-import com.dotcms.saml.SamlName;
+import com.dotcms.saml.service.InvalidateAware;
+import com.dotcms.saml.service.internal.RuntimeProfile;
 import com.dotcms.saml.service.internal.SamlCoreService;
 import org.apache.velocity.app.VelocityEngine;
 
@@ -15,12 +16,13 @@ import java.io.Serializable;
  * 
  * @author jsanca
  */
-public class LogoutResolverHandlerFactory implements Serializable {
+public class LogoutResolverHandlerFactory implements Serializable, InvalidateAware {
 
 	private final SamlConfigurationService samlConfigurationService;
 	private final SamlCoreService          samlCoreService;
 	private final VelocityEngine           velocityEngine;
 	private final MessageObserver          messageObserver;
+	private final ProfileHandlerRegistry<LogoutHandler> handlerRegistry = new ProfileHandlerRegistry<>();
 
 
 	public LogoutResolverHandlerFactory(final SamlConfigurationService samlConfigurationService,
@@ -36,6 +38,7 @@ public class LogoutResolverHandlerFactory implements Serializable {
 
 	/**
 	 * Get the resolver assertion depending on the site.
+	 * The handler is built once per idp, binding and version of the idp profile, then the same instance is returned.
 	 *
 	 * @param identityProviderConfiguration
 	 *            {@link IdentityProviderConfiguration}
@@ -43,19 +46,32 @@ public class LogoutResolverHandlerFactory implements Serializable {
 	 */
 	public LogoutHandler getLogoutHandlerForSite(final IdentityProviderConfiguration identityProviderConfiguration) {
 
-		final String logoutProtocolBinding = identityProviderConfiguration.containsOptionalProperty("logout.protocol.binding")?
-				identityProviderConfiguration.getOptionalProperty("logout.protocol.binding").toString(): DotSamlConstants.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING_REDIRECT;
+		final RuntimeProfile runtimeProfile = this.samlCoreService.getRuntimeProfile(identityProviderConfiguration);
+
+		return this.handlerRegistry.getHandler(runtimeProfile, runtimeProfile.getLogoutProtocolBinding(), this::createLogoutHandler);
+	}
+
+	private LogoutHandler createLogoutHandler(final RuntimeProfile runtimeProfile, final String logoutProtocolBinding) {
 
 		switch (logoutProtocolBinding) {
 
 			case DotSamlConstants.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING_REDIRECT:
-				return new HttpRedirectLogoutHandler(this.samlCoreService, this.messageObserver, this.samlConfigurationService);
+				return new HttpRedirectLogoutHandler(this.samlCoreService, this.messageObserver, this.samlConfigurationService, runtimeProfile);
 			case DotSamlConstants.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING_POST:
-				return new HttpPOSTLogoutHandler(this.samlCoreService, this.velocityEngine, this.messageObserver);
+				return new HttpPOSTLogoutHandler(this.samlCoreService, this.velocityEngine, this.messageObserver, runtimeProfile);
 			case "Http-Okta":
-				return new HttpOktaLogoutHandler(this.samlCoreService, this.velocityEngine, this.messageObserver);
+				return new HttpOktaLogoutHandler(this.samlCoreService, this.velocityEngine, this.messageObserver, runtimeProfile);
 		}
 
-		return new HttpRedirectLogoutHandler(this.samlCoreService, this.messageObserver, this.samlConfigurationService);
+		return new HttpRedirectLogoutHandler(this.samlCoreService, this.messageObserver, this.samlConfigurationService, runtimeProfile);
+	}
+
+	/**
+	 * Discards the handlers built so far
+	 */
+	@Override
+	public void invalidate() {
+
+		this.handlerRegistry.invalidate();
 	}
 }
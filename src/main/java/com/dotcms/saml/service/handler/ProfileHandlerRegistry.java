@@ -0,0 +1,96 @@
+package com.dotcms.saml.service.handler;
+
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.service.InvalidateAware;
+import com.dotcms.saml.service.internal.RuntimeProfile;
+import com.dotcms.saml.service.internal.SamlCoreService;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Keeps one handler per IdP, built for the binding and the version of its {@link RuntimeProfile}.
+ * The handlers are stateless, so the same instance serves all the requests of the IdP until the profile is compiled
+ * again (new version) or the binding changes; in that case a new handler replaces the old one.
+ * The handlers are discarded when the registry gets invalidated (a new service is built when the SAML App secrets change).
+ *
+ * @param <H> handler type
+ * @author jsanca
+ */
+public class ProfileHandlerRegistry<H> implements Serializable, InvalidateAware {
+
+    private final Map<String, ProfileHandler<H>> handlerMap = new ConcurrentHashMap<>();
+
+    /**
+     * Get the handler for the profile and binding, creating it if there is not one for the current version of the profile
+     * @param runtimeProfile {@link RuntimeProfile}
+     * @param binding        {@link String}
+     * @param handlerFactory {@link BiFunction} creates the handler for the profile and binding
+     * @return H
+     */
+    public H getHandler(final RuntimeProfile runtimeProfile, final String binding,
+                        final BiFunction<RuntimeProfile, String, H> handlerFactory) {
+
+        final String idpId = runtimeProfile.getIdpId();
+        if (null == idpId) {
+
+            return handlerFactory.apply(runtimeProfile, binding);
+        }
+
+        final ProfileHandler<H> profileHandler = this.handlerMap.get(idpId);
+        if (null != profileHandler && profileHandler.isFor(runtimeProfile, binding)) {
+
+            return profileHandler.handler;
+        }
+
+        return this.handlerMap.compute(idpId, (key, currentProfileHandler) ->
+                null != currentProfileHandler && currentProfileHandler.isFor(runtimeProfile, binding)?
+                        currentProfileHandler:
+                        new ProfileHandler<>(runtimeProfile.getVersion(), binding,
+                                handlerFactory.apply(runtimeProfile, binding))).handler;
+    }
+
+    /**
+     * Gets the profile a handler was built for, so it is not looked up on each request; if the handler was built
+     * without a profile or it is asked for another idp, the current profile of the idp is looked up
+     * @param handlerProfile {@link RuntimeProfile} profile the handler was built for, may be null
+     * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+     * @param samlCoreService {@link SamlCoreService}
+     * @return RuntimeProfile
+     */
+    public static RuntimeProfile resolveProfile(final RuntimeProfile handlerProfile,
+                                                final IdentityProviderConfiguration identityProviderConfiguration,
+                                                final SamlCoreService samlCoreService) {
+
+        return null != handlerProfile && Objects.equals(handlerProfile.getIdpId(), identityProviderConfiguration.getId())?
+                handlerProfile: samlCoreService.getRuntimeProfile(identityProviderConfiguration);
+    }
+
+    @Override
+    public void invalidate() {
+
+        this.handlerMap.clear();
+    }
+
+    private static final class ProfileHandler<H> implements Serializable {
+
+        private final long   version;
+        private final String binding;
+        private final H      handler;
+
+        private ProfileHandler(final long version, final String binding, final H handler) {
+
+            this.version = version;
+            this.binding = binding;
+            this.handler = handler;
+        }
+
+        private boolean isFor(final RuntimeProfile runtimeProfile, final String binding) {
+
+            return this.version == runtimeProfile.getVersion() && this.binding.equals(binding);
+        }
+    }
+}
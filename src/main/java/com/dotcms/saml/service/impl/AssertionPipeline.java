@@ -0,0 +1,210 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.MessageObserver;
+import com.dotcms.saml.service.external.SamlException;
+import com.dotcms.saml.service.internal.RuntimeProfile;
+import com.dotcms.saml.service.internal.SamlCoreService;
+import com.dotcms.saml.utils.SamlUtils;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml.saml2.core.Response;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Resolves all the assertions of a SAML {@link Response}: decrypts them (if the idp encrypts them), verifies the response
+ * signature and then verifies the signature of each assertion.
+ * The decryption of each assertion and the response signature verification do not depend on each other, so when the
+ * optional property {@link #PARALLEL_PIPELINE} is true the assertions are decrypted (each one from its own copy of the DOM)
+ * on a bounded executor shared by the bundle while the request thread verifies the response signature,
+ * otherwise everything runs on the request thread.
+ * Either way the errors are reported deterministically: decryption errors first (in assertion order), then the
+ * response signature error, then the assertion signature errors (in assertion order).
+ *
+ * @author jsanca
+ */
+public class AssertionPipeline {
+
+    /**
+     * Optional property to run the independent steps concurrently, false by default.
+     */
+    public static final String PARALLEL_PIPELINE = "assertion.pipeline.parallel";
+
+    private final SamlCoreService          samlCoreService;
+    private final MessageObserver          messageObserver;
+
+    private static class ExecutorHolder {
+
+        private static final int THREADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(THREADS * 32), new PipelineThreadFactory(),
+                // when the queue is full the request thread does the work, so it is bounded but never rejects
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        static {
+            EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    public AssertionPipeline(final SamlCoreService samlCoreService,
+                             final MessageObserver messageObserver) {
+
+        this.samlCoreService          = samlCoreService;
+        this.messageObserver          = messageObserver;
+    }
+
+    /**
+     * Shutdowns the executor, must be called when the bundle stops
+     */
+    public static void shutdown() {
+
+        ExecutorHolder.EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * Gets the decrypted (if needed) and verified assertions of the response, in document order.
+     * @param response {@link Response}
+     * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+     * @return List of Assertion, never empty
+     */
+    public List<Assertion> resolveAssertions(final Response response,
+                                             final IdentityProviderConfiguration identityProviderConfiguration) {
+
+        final RuntimeProfile runtimeProfile = this.samlCoreService.getRuntimeProfile(identityProviderConfiguration);
+        final boolean parallel = runtimeProfile.isParallelPipeline();
+        final List<CompletableFuture<Assertion>> assertionFutures = new ArrayList<>();
+
+        if (runtimeProfile.isAssertionEncrypted()) {
+
+            for (final EncryptedAssertion encryptedAssertion : response.getEncryptedAssertions()) {
+
+                // the Xerces DOM is not thread safe (not even to read it), so on parallel mode each assertion is
+                // decrypted from its own copy of the DOM, made here on the request thread
+                final EncryptedAssertion assertionToDecrypt = parallel? this.copyToOwnDocument(encryptedAssertion): encryptedAssertion;
+                assertionFutures.add(this.run(parallel,
+                        () -> this.samlCoreService.decryptAssertion(assertionToDecrypt, identityProviderConfiguration)));
+            }
+        } else {
+
+            for (final Assertion assertion : response.getAssertions()) {
+
+                assertionFutures.add(CompletableFuture.completedFuture(assertion));
+            }
+        }
+
+        if (assertionFutures.isEmpty()) {
+
+            this.messageObserver.updateError(this.getClass().getName(), "The SAML Response for IdP '" +
+                    identityProviderConfiguration.getIdpName() + "' does not contain any assertion");
+            throw new SamlException("The SAML Response for IdP '" +
+                    identityProviderConfiguration.getIdpName() + "' does not contain any assertion");
+        }
+
+        // the response signature is verified on the request thread (the only one that walks the DOM of the response),
+        // in parallel mode while the assertions are being decrypted
+        RuntimeException responseSignatureError = null;
+        try {
+
+            this.samlCoreService.verifyResponseSignature(response, identityProviderConfiguration);
+        } catch (RuntimeException e) {
+
+            responseSignatureError = e;
+        }
+
+        final List<Assertion> assertions = new ArrayList<>(assertionFutures.size());
+        for (final CompletableFuture<Assertion> assertionFuture : assertionFutures) {
+
+            assertions.add(this.join(assertionFuture));
+        }
+
+        if (null != responseSignatureError) {
+
+            throw responseSignatureError;
+        }
+
+        // the assertion verification may rely on the response one (see VerifiedSignatureTracker)
+        for (final Assertion assertion : assertions) {
+
+            this.samlCoreService.verifyAssertionSignature(assertion, identityProviderConfiguration);
+        }
+
+        return assertions;
+    }
+
+    private EncryptedAssertion copyToOwnDocument(final EncryptedAssertion encryptedAssertion) {
+
+        try {
+
+            final Element element   = null != encryptedAssertion.getDOM()? encryptedAssertion.getDOM(): SamlUtils.toElement(encryptedAssertion);
+            final Document document = XMLObjectProviderRegistrySupport.getParserPool().newDocument();
+            document.appendChild(document.importNode(element, true));
+            return (EncryptedAssertion) SamlUtils.toXMLObject(document.getDocumentElement());
+        } catch (XMLParserException | UnmarshallingException e) {
+
+            this.messageObserver.updateError(this.getClass().getName(), "Could not copy the encrypted assertion: " + e.getMessage(), e);
+            throw new SamlException(e.getMessage(), e);
+        }
+    }
+
+    private CompletableFuture<Assertion> run(final boolean parallel, final Supplier<Assertion> step) {
+
+        if (parallel) {
+
+            return CompletableFuture.supplyAsync(step, ExecutorHolder.EXECUTOR);
+        }
+
+        final CompletableFuture<Assertion> future = new CompletableFuture<>();
+        try {
+
+            future.complete(step.get());
+        } catch (RuntimeException e) {
+
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    private Assertion join(final CompletableFuture<Assertion> future) {
+
+        try {
+
+            return future.join();
+        } catch (CompletionException e) {
+
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new SamlException(e.getMessage(), e);
+        }
+    }
+
+    private static final class PipelineThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+
+            final Thread thread = new Thread(runnable, "dotsaml-assertion-pipeline-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
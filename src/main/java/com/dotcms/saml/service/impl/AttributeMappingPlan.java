@@ -0,0 +1,128 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.SamlName;
+import com.dotcms.saml.service.external.AdditionalInfoValue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Precompiled dispatch table from an attribute name (or friendly name) to what the attribute means for the user:
+ * email, first name, last name, roles or one of the additional info entries (with its alias and type).
+ * It is compiled once per {@link IdpRuntimeProfile}, so each attribute of the assertion is resolved with a lookup
+ * instead of comparing the name and friendly name against every configured field.
+ *
+ * @author jsanca
+ */
+public final class AttributeMappingPlan {
+
+    /**
+     * What the attribute is mapped to, in priority order: if the name and the friendly name of an attribute match
+     * different targets, the first one wins (same precedence as the legacy if/else chain).
+     */
+    public enum Target {
+        EMAIL, LAST_NAME, FIRST_NAME, ROLES, ADDITIONAL_INFO
+    }
+
+    private final Map<String, AttributeMapping> mappingMap;
+    private final String description;
+
+    public AttributeMappingPlan(final String emailField, final String firstNameField,
+                                final String lastNameField, final String rolesField,
+                                final Map<String, AdditionalInfoValue> additionalInfoMap) {
+
+        final Map<String, AttributeMapping> mappings = new HashMap<>();
+
+        // the first one put for a name wins
+        put(mappings, emailField,     new AttributeMapping(Target.EMAIL, emailField, null));
+        put(mappings, lastNameField,  new AttributeMapping(Target.LAST_NAME, lastNameField, null));
+        put(mappings, firstNameField, new AttributeMapping(Target.FIRST_NAME, firstNameField, null));
+        put(mappings, rolesField,     new AttributeMapping(Target.ROLES, rolesField, null));
+        for (final Map.Entry<String, AdditionalInfoValue> additionalInfoEntry : additionalInfoMap.entrySet()) {
+
+            put(mappings, additionalInfoEntry.getKey(), new AttributeMapping(Target.ADDITIONAL_INFO,
+                    additionalInfoEntry.getKey(), additionalInfoEntry.getValue()));
+        }
+
+        this.mappingMap  = Collections.unmodifiableMap(mappings);
+        this.description = SamlName.DOT_SAML_EMAIL_ATTRIBUTE.getPropertyName() + "=" + emailField + "," +
+                SamlName.DOT_SAML_FIRSTNAME_ATTRIBUTE.getPropertyName() + "=" + firstNameField + "," +
+                SamlName.DOT_SAML_LASTNAME_ATTRIBUTE.getPropertyName() + "=" + lastNameField + "," +
+                SamlName.DOT_SAML_ROLES_ATTRIBUTE.getPropertyName() + "=" + rolesField;
+    }
+
+    private static void put(final Map<String, AttributeMapping> mappings, final String attributeName,
+                            final AttributeMapping attributeMapping) {
+
+        if (null != attributeName) {
+            mappings.putIfAbsent(attributeName, attributeMapping);
+        }
+    }
+
+    /**
+     * Resolves the mapping of an attribute by name and friendly name, null if the attribute is not mapped.
+     * @param name {@link String}
+     * @param friendlyName {@link String}
+     * @return AttributeMapping
+     */
+    public AttributeMapping resolve(final String name, final String friendlyName) {
+
+        final AttributeMapping nameMapping         = null != name? this.mappingMap.get(name): null;
+        final AttributeMapping friendlyNameMapping = null != friendlyName? this.mappingMap.get(friendlyName): null;
+
+        if (null == nameMapping) {
+
+            return friendlyNameMapping;
+        }
+
+        return null == friendlyNameMapping || nameMapping.getTarget().ordinal() <= friendlyNameMapping.getTarget().ordinal()?
+                nameMapping: friendlyNameMapping;
+    }
+
+    public int size() {
+        return this.mappingMap.size();
+    }
+
+    @Override
+    public String toString() {
+        return this.description;
+    }
+
+    /**
+     * A single entry of the plan
+     */
+    public static final class AttributeMapping {
+
+        private final Target target;
+        private final String fieldName;
+        private final AdditionalInfoValue additionalInfoValue;
+
+        AttributeMapping(final Target target, final String fieldName, final AdditionalInfoValue additionalInfoValue) {
+
+            this.target              = target;
+            this.fieldName           = fieldName;
+            this.additionalInfoValue = additionalInfoValue;
+        }
+
+        public Target getTarget() {
+            return target;
+        }
+
+        /**
+         * The configured attribute name that matched
+         * @return String
+         */
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        /**
+         * Alias and type, just for {@link Target#ADDITIONAL_INFO}
+         * @return AdditionalInfoValue
+         */
+        public AdditionalInfoValue getAdditionalInfoValue() {
+            return additionalInfoValue;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.dotcms.saml.service.impl;
+
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.config.SAMLConfigurationSupport;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Precompiled (unsigned) AuthnRequest of an IdP.
+ * The request is built and serialized once by OpenSAML with sentinel values on the fields that change on each login
+ * (ID, IssueInstant, Destination and AssertionConsumerServiceURL), then the serialized xml is split on the sentinels
+ * into byte segments, so rendering a request is just splicing the escaped values between the segments; no object tree
+ * nor DOM is created and the bytes are the same OpenSAML would have serialized for the same values.
+ *
+ * @author jsanca
+ */
+public final class AuthnRequestTemplate {
+
+    /**
+     * Template used when the request could not be compiled, it never renders so the full OpenSAML path is used
+     */
+    public static final AuthnRequestTemplate UNAVAILABLE = new AuthnRequestTemplate(null, null);
+
+    private static final String   SENTINEL_ID            = "_dotTemplateId7f3a9c2e";
+    private static final DateTime SENTINEL_ISSUE_INSTANT = new DateTime(1234567890123L, DateTimeZone.UTC);
+    private static final String   SENTINEL_DESTINATION   = "https://dot-template-destination.invalid/sso";
+    private static final String   SENTINEL_ACS_URL       = "https://dot-template-acs.invalid/acs";
+
+    private enum Field { ID, ISSUE_INSTANT, DESTINATION, ACS_URL }
+
+    private final byte[][] segments; // segments.length == fields.length + 1
+    private final Field[]  fields;
+
+    private AuthnRequestTemplate(final byte[][] segments, final Field[] fields) {
+
+        this.segments = segments;
+        this.fields   = fields;
+    }
+
+    /**
+     * Factory of the request, called once on {@link #compile(AuthnRequestFactory)} with the sentinel values.
+     * It has to set the values passed on the same fields the login path sets them.
+     */
+    @FunctionalInterface
+    public interface AuthnRequestFactory {
+
+        AuthnRequest build(String id, DateTime issueInstant, String destination, String assertionConsumerServiceURL);
+    }
+
+    /**
+     * Compiles the template for the requests built by the factory
+     * @param factory {@link AuthnRequestFactory}
+     * @return AuthnRequestTemplate
+     * @throws MarshallingException if the request can not be marshalled
+     * @throws IllegalStateException if any of the fields can not be found (or is found more than once) on the xml
+     */
+    public static AuthnRequestTemplate compile(final AuthnRequestFactory factory) throws MarshallingException {
+
+        final AuthnRequest prototype = factory.build(SENTINEL_ID, SENTINEL_ISSUE_INSTANT, SENTINEL_DESTINATION, SENTINEL_ACS_URL);
+        final String xml = SerializeSupport.nodeToString(XMLObjectSupport.marshall(prototype));
+
+        final String[] sentinels = new String[Field.values().length];
+        sentinels[Field.ID.ordinal()]            = SENTINEL_ID;
+        sentinels[Field.ISSUE_INSTANT.ordinal()] = formatInstant(SENTINEL_ISSUE_INSTANT);
+        sentinels[Field.DESTINATION.ordinal()]   = SENTINEL_DESTINATION;
+        sentinels[Field.ACS_URL.ordinal()]       = SENTINEL_ACS_URL;
+
+        final int[] positions = new int[sentinels.length];
+        for (final Field field : Field.values()) {
+
+            final String sentinel = sentinels[field.ordinal()];
+            final int position    = xml.indexOf(sentinel);
+            if (position < 0 || xml.indexOf(sentinel, position + 1) >= 0) {
+
+                throw new IllegalStateException("The field: " + field + " of the AuthnRequest can not be templated");
+            }
+            positions[field.ordinal()] = position;
+        }
+
+        // the serializer decides the order of the attributes, so the fields are spliced in the order they were found
+        final Field[] fields = Field.values().clone();
+        Arrays.sort(fields, Comparator.comparingInt(field -> positions[field.ordinal()]));
+
+        final byte[][] segments = new byte[fields.length + 1][];
+        int start = 0;
+        for (int i = 0; i < fields.length; ++i) {
+
+            final int position = positions[fields[i].ordinal()];
+            segments[i] = xml.substring(start, position).getBytes(StandardCharsets.UTF_8);
+            start = position + sentinels[fields[i].ordinal()].length();
+        }
+        segments[fields.length] = xml.substring(start).getBytes(StandardCharsets.UTF_8);
+
+        return new AuthnRequestTemplate(segments, fields);
+    }
+
+    /**
+     * Returns true if the template can render requests
+     * @return boolean
+     */
+    public boolean isAvailable() {
+        return null != this.segments;
+    }
+
+    /**
+     * Renders the serialized (UTF-8) request for the values.
+     * @param id           {@link String}
+     * @param issueInstant {@link DateTime}
+     * @param destination  {@link String}
+     * @param assertionConsumerServiceURL {@link String}
+     * @return byte [] null if the template is not available or a value can not be spliced byte by byte as the
+     * serializer would write it, in that case the full OpenSAML path has to be used
+     */
+    public byte[] render(final String id, final DateTime issueInstant,
+                         final String destination, final String assertionConsumerServiceURL) {
+
+        if (!this.isAvailable() || null == id || null == issueInstant ||
+                null == destination || null == assertionConsumerServiceURL) {
+
+            return null;
+        }
+
+        final String[] values = new String[this.fields.length];
+        values[Field.ID.ordinal()]            = id;
+        values[Field.ISSUE_INSTANT.ordinal()] = formatInstant(issueInstant);
+        values[Field.DESTINATION.ordinal()]   = destination;
+        values[Field.ACS_URL.ordinal()]       = assertionConsumerServiceURL;
+
+        int size = 0;
+        for (int i = 0; i < values.length; ++i) {
+
+            values[i] = escapeAttribute(values[i]);
+            if (null == values[i]) {
+
+                return null;
+            }
+            size += values[i].length() + this.segments[i].length;
+        }
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(size + this.segments[this.fields.length].length);
+        for (int i = 0; i < this.fields.length; ++i) {
+
+            output.write(this.segments[i], 0, this.segments[i].length);
+            final String value = values[this.fields[i].ordinal()];
+            // the values are ascii (see escapeAttribute), one byte per char
+            for (int j = 0; j < value.length(); ++j) {
+                output.write(value.charAt(j));
+            }
+        }
+        output.write(this.segments[this.fields.length], 0, this.segments[this.fields.length].length);
+
+        return output.toByteArray();
+    }
+
+    private static String formatInstant(final DateTime instant) {
+
+        final DateTimeFormatter formatter = SAMLConfigurationSupport.getSAMLDateFormatter();
+        return formatter.print(instant);
+    }
+
+    /**
+     * Escapes the value as the serializer does for an attribute value (&amp;, &lt; and &quot;), returns null for the
+     * values that the serializers may write in different ways (non ascii or control chars, &gt; and quote), those go
+     * by the full path
+     * @param value {@link String}
+     * @return String
+     */
+    static String escapeAttribute(final String value) {
+
+        StringBuilder builder = null;
+        for (int i = 0; i < value.length(); ++i) {
+
+            final char character = value.charAt(i);
+            final String replacement;
+            switch (character) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '>':
+                case '\'':
+                    return null;
+                default:
+                    if (character < 0x20 || character >= 0x7F) {
+                        return null;
+                    }
+                    replacement = null;
+            }
+
+            if (null != replacement) {
+
+                if (null == builder) {
+                    builder = new StringBuilder(value.length() + 16).append(value, 0, i);
+                }
+                builder.append(replacement);
+            } else if (null != builder) {
+
+                builder.append(character);
+            }
+        }
+
+        return null != builder? builder.toString(): value;
+    }
+}
@@ -0,0 +1,102 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.service.InvalidateAware;
+import com.dotcms.saml.utils.DigestUtil;
+import org.opensaml.security.credential.Credential;
+
+import java.security.PrivateKey;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the SP and IdP {@link Credential}s, keyed by the IdP configuration id plus the fingerprint of the
+ * configured certificate and key. Credentials are created just once per fingerprint (even on concurrent first access),
+ * and they are created again if the certificate changes or the registry gets invalidated (when the App secrets are saved).
+ * It also keeps the decoded (PKCS#8) private key per IdP id and key digest.
+ *
+ * @author jsanca
+ */
+public class CredentialRegistry implements InvalidateAware {
+
+    private final DigestKeyedCache<Credential> serviceProviderCredentialCache = new DigestKeyedCache<>();
+    private final DigestKeyedCache<Credential> identityProviderCredentialCache = new DigestKeyedCache<>();
+    private final DigestKeyedCache<PrivateKey> privateKeyCache = new DigestKeyedCache<>();
+
+    private static class SingletonHolder {
+        private static final CredentialRegistry INSTANCE = new CredentialRegistry();
+    }
+
+    public static CredentialRegistry getInstance() {
+        return CredentialRegistry.SingletonHolder.INSTANCE;
+    }
+
+    protected CredentialRegistry() {
+    }
+
+    /**
+     * Get (or creates just once) the SP credential for the idp configuration
+     * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+     * @param credentialSupplier {@link Supplier} creates the credential on a miss
+     * @return Credential
+     */
+    public Credential getServiceProviderCredential(final IdentityProviderConfiguration identityProviderConfiguration,
+                                                   final Supplier<Credential> credentialSupplier) {
+
+        return this.serviceProviderCredentialCache.get(identityProviderConfiguration.getId(),
+                this.fingerprint(identityProviderConfiguration), credentialSupplier);
+    }
+
+    /**
+     * Get (or creates just once) the IdP credential for the idp configuration
+     * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+     * @param credentialSupplier {@link Supplier} creates the credential on a miss
+     * @return Credential
+     */
+    public Credential getIdentityProviderCredential(final IdentityProviderConfiguration identityProviderConfiguration,
+                                                    final Supplier<Credential> credentialSupplier) {
+
+        return this.identityProviderCredentialCache.get(identityProviderConfiguration.getId(),
+                this.fingerprint(identityProviderConfiguration), credentialSupplier);
+    }
+
+    /**
+     * Get (or decodes just once) the private key configured on the idp configuration
+     * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+     * @param privateKeySupplier {@link Supplier} decodes the private key on a miss
+     * @return PrivateKey
+     */
+    public PrivateKey getPrivateKey(final IdentityProviderConfiguration identityProviderConfiguration,
+                                    final Supplier<PrivateKey> privateKeySupplier) {
+
+        return this.privateKeyCache.get(identityProviderConfiguration.getId(),
+                DigestUtil.sha256(identityProviderConfiguration.getPrivateKey()), privateKeySupplier);
+    }
+
+    /**
+     * The fingerprint is the digest of the public cert and the digest of the private key configured on the idp
+     * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+     * @return String
+     */
+    public String fingerprint(final IdentityProviderConfiguration identityProviderConfiguration) {
+
+        return DigestUtil.sha256(identityProviderConfiguration.getPublicCert()) + ':' +
+                DigestUtil.sha256(identityProviderConfiguration.getPrivateKey());
+    }
+
+    @Override
+    public void invalidate() {
+
+        this.serviceProviderCredentialCache.invalidate();
+        this.identityProviderCredentialCache.invalidate();
+        this.privateKeyCache.invalidate();
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialRegistry{" +
+                "serviceProviderCredentialCache=" + serviceProviderCredentialCache +
+                ", identityProviderCredentialCache=" + identityProviderCredentialCache +
+                ", privateKeyCache=" + privateKeyCache +
+                '}';
+    }
+}
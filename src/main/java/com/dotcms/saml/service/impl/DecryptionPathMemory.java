@@ -0,0 +1,110 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.service.InvalidateAware;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers, per IdP configuration id, which path was able to decrypt the last assertion, so the next one tries it first.
+ * Also keeps success and failure counters for each path.
+ *
+ * @author jsanca
+ */
+public class DecryptionPathMemory implements InvalidateAware {
+
+    /**
+     * The ways the {@link org.opensaml.saml.saml2.core.EncryptedAssertion} can be decrypted
+     */
+    public enum DecryptionPath {
+
+        /**
+         * Decrypts the symmetric key from the EncryptedKey (assertion or KeyInfo) and then the assertion with it
+         */
+        ENCRYPTED_KEY,
+
+        /**
+         * Uses the OpenSAML decrypter with the inline encrypted key resolver
+         */
+        INLINE_ENCRYPTED_KEY;
+
+        /**
+         * Returns the order the paths must be tried when this one is the preferred
+         * @return List of DecryptionPath
+         */
+        public List<DecryptionPath> order() {
+
+            return ENCRYPTED_KEY == this? ENCRYPTED_KEY_FIRST: INLINE_ENCRYPTED_KEY_FIRST;
+        }
+    }
+
+    private static final List<DecryptionPath> ENCRYPTED_KEY_FIRST = Collections.unmodifiableList(
+            Arrays.asList(DecryptionPath.ENCRYPTED_KEY, DecryptionPath.INLINE_ENCRYPTED_KEY));
+    private static final List<DecryptionPath> INLINE_ENCRYPTED_KEY_FIRST = Collections.unmodifiableList(
+            Arrays.asList(DecryptionPath.INLINE_ENCRYPTED_KEY, DecryptionPath.ENCRYPTED_KEY));
+
+    private final Map<String, DecryptionPath> lastSuccessMap = new ConcurrentHashMap<>();
+    private final Map<DecryptionPath, AtomicLong> successes  = new EnumMap<>(DecryptionPath.class);
+    private final Map<DecryptionPath, AtomicLong> failures   = new EnumMap<>(DecryptionPath.class);
+
+    public DecryptionPathMemory() {
+
+        for (final DecryptionPath path : DecryptionPath.values()) {
+
+            this.successes.put(path, new AtomicLong());
+            this.failures.put(path, new AtomicLong());
+        }
+    }
+
+    /**
+     * Returns the path to try first for the idp, {@link DecryptionPath#ENCRYPTED_KEY} if nothing has succeeded yet
+     * @param idpId {@link String}
+     * @return DecryptionPath
+     */
+    public DecryptionPath getPreferred(final String idpId) {
+
+        final DecryptionPath path = null != idpId? this.lastSuccessMap.get(idpId): null;
+        return null != path? path: DecryptionPath.ENCRYPTED_KEY;
+    }
+
+    public void success(final String idpId, final DecryptionPath path) {
+
+        this.successes.get(path).incrementAndGet();
+        if (null != idpId) {
+            this.lastSuccessMap.put(idpId, path);
+        }
+    }
+
+    public void failure(final DecryptionPath path) {
+
+        this.failures.get(path).incrementAndGet();
+    }
+
+    public long getSuccesses(final DecryptionPath path) {
+        return this.successes.get(path).get();
+    }
+
+    public long getFailures(final DecryptionPath path) {
+        return this.failures.get(path).get();
+    }
+
+    @Override
+    public void invalidate() {
+
+        this.lastSuccessMap.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "DecryptionPathMemory{" +
+                "lastSuccessMap=" + lastSuccessMap +
+                ", successes=" + successes +
+                ", failures=" + failures +
+                '}';
+    }
+}
@@ -10,10 +10,10 @@ import com.dotcms.saml.service.internal.MetaDescriptorService;
 import com.dotcms.saml.service.external.SamlException;
 import com.dotcms.saml.service.internal.SamlCoreService;
 import com.dotcms.saml.service.external.SamlConstants;
+import com.dotcms.saml.utils.SAMLObjectBuilders;
 import org.apache.commons.io.IOUtils;
 import com.dotcms.saml.service.external.MetaData;
 import net.shibboleth.utilities.java.support.xml.ParserPool;
-import org.opensaml.core.xml.XMLObjectBuilderFactory;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.io.Unmarshaller;
 import org.opensaml.core.xml.io.UnmarshallerFactory;
@@ -61,7 +61,6 @@ public class DefaultMetaDescriptorServiceImpl implements MetaDescriptorService {
 
 	private final ParserPool               parserPool;
 	private final UnmarshallerFactory      unmarshallerFactory;
-	private final XMLObjectBuilderFactory  xmlObjectBuilderFactory;
 	private final SamlConfigurationService samlConfigurationService;
 	private final MessageObserver messageObserver;
 	private final SamlCoreService samlService;
@@ -76,7 +75,6 @@ public class DefaultMetaDescriptorServiceImpl implements MetaDescriptorService {
 
 		this.parserPool               = XMLObjectProviderRegistrySupport.getParserPool();
 		this.unmarshallerFactory      = XMLObjectProviderRegistrySupport.getUnmarshallerFactory();
-		this.xmlObjectBuilderFactory  = XMLObjectProviderRegistrySupport.getBuilderFactory();
 
 		this.samlConfigurationService = samlConfigurationService;
 		this.messageObserver          = messageObserver;
@@ -156,14 +154,10 @@ public class DefaultMetaDescriptorServiceImpl implements MetaDescriptorService {
 	@Override
 	public EntityDescriptor getServiceProviderEntityDescriptor(final IdentityProviderConfiguration identityProviderConfiguration) {
 
-		final SAMLObjectBuilder<EntityDescriptor> entityDescriptorBuilder = (SAMLObjectBuilder<EntityDescriptor>) this.xmlObjectBuilderFactory
-				.getBuilder(EntityDescriptor.DEFAULT_ELEMENT_NAME);
-		final SAMLObjectBuilder<SPSSODescriptor> spssoDescriptorBuilder = (SAMLObjectBuilder<SPSSODescriptor>) this.xmlObjectBuilderFactory
-				.getBuilder(SPSSODescriptor.DEFAULT_ELEMENT_NAME);
-		final SAMLObjectBuilder<AssertionConsumerService> assertionConsumerServiceBuilder = (SAMLObjectBuilder<AssertionConsumerService>) this.xmlObjectBuilderFactory
-				.getBuilder(AssertionConsumerService.DEFAULT_ELEMENT_NAME);
-		final SAMLObjectBuilder<SingleLogoutService> singleLogoutServiceBuilder = (SAMLObjectBuilder<SingleLogoutService>) this.xmlObjectBuilderFactory
-				.getBuilder(SingleLogoutService.DEFAULT_ELEMENT_NAME);
+		final SAMLObjectBuilder<EntityDescriptor> entityDescriptorBuilder = (SAMLObjectBuilder<EntityDescriptor>) SAMLObjectBuilders.getBuilder(EntityDescriptor.class);
+		final SAMLObjectBuilder<SPSSODescriptor> spssoDescriptorBuilder = (SAMLObjectBuilder<SPSSODescriptor>) SAMLObjectBuilders.getBuilder(SPSSODescriptor.class);
+		final SAMLObjectBuilder<AssertionConsumerService> assertionConsumerServiceBuilder = (SAMLObjectBuilder<AssertionConsumerService>) SAMLObjectBuilders.getBuilder(AssertionConsumerService.class);
+		final SAMLObjectBuilder<SingleLogoutService> singleLogoutServiceBuilder = (SAMLObjectBuilder<SingleLogoutService>) SAMLObjectBuilders.getBuilder(SingleLogoutService.class);
 
 		final EntityDescriptor descriptor     = entityDescriptorBuilder.buildObject();
 		final SPSSODescriptor spssoDescriptor = spssoDescriptorBuilder.buildObject();
@@ -286,8 +280,7 @@ public class DefaultMetaDescriptorServiceImpl implements MetaDescriptorService {
 	protected void setFormat(final IdentityProviderConfiguration identityProviderConfiguration,
 							 final SPSSODescriptor spssoDescriptor) {
 
-		final SAMLObjectBuilder<NameIDFormat> nameIDFormatBuilder = (SAMLObjectBuilder<NameIDFormat>) this.xmlObjectBuilderFactory
-				.getBuilder(NameIDFormat.DEFAULT_ELEMENT_NAME);
+		final SAMLObjectBuilder<NameIDFormat> nameIDFormatBuilder = (SAMLObjectBuilder<NameIDFormat>) SAMLObjectBuilders.getBuilder(NameIDFormat.class);
 
 		final String[] formats = this.samlConfigurationService.getConfigAsArrayString(identityProviderConfiguration,
 				SamlName.DOTCMS_SAML_NAME_ID_POLICY_FORMAT);
@@ -329,8 +322,7 @@ public class DefaultMetaDescriptorServiceImpl implements MetaDescriptorService {
 
 		final boolean isEncryptedDescriptor = this.samlConfigurationService.getConfigAsBoolean(
 				identityProviderConfiguration, SamlName.DOTCMS_SAML_USE_ENCRYPTED_DESCRIPTOR);
-		final SAMLObjectBuilder<KeyDescriptor> keyDescriptorBuilder = (SAMLObjectBuilder<KeyDescriptor>) this.xmlObjectBuilderFactory
-				.getBuilder(KeyDescriptor.DEFAULT_ELEMENT_NAME);
+		final SAMLObjectBuilder<KeyDescriptor> keyDescriptorBuilder = (SAMLObjectBuilder<KeyDescriptor>) SAMLObjectBuilders.getBuilder(KeyDescriptor.class);
 		final Credential credential = this.getCredential(identityProviderConfiguration);
 		final EncryptionMethodBuilder encryptionMethodBuilder = new EncryptionMethodBuilder();
 		final EncryptionMethod encryptionMethod;
@@ -0,0 +1,118 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.service.InvalidateAware;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps one value per IdP configuration id, each entry is tagged with the digest of the content it was built from,
+ * so it is rebuilt only when the content actually changes (compute once, even on concurrent first access).
+ * Hits, misses (first load) and rebuilds (content changed) are counted.
+ *
+ * @param <V> the cached value
+ * @author jsanca
+ */
+public class DigestKeyedCache<V> implements InvalidateAware {
+
+    private final Map<String, Entry<V>> valueMap = new ConcurrentHashMap<>();
+    private final AtomicLong hits     = new AtomicLong();
+    private final AtomicLong misses   = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+
+    /**
+     * Returns the value for the idp id if the digest is the same one cached, otherwise builds it by using the supplier
+     * (just once, even on concurrent calls for the same idp). If the supplier returns null nothing is cached,
+     * if the idp id is null the value is not cached either.
+     *
+     * @param idpId    {@link String} idp configuration id
+     * @param digest   {@link String} digest of the current content
+     * @param valueSupplier {@link Supplier} builds the value
+     * @return V
+     */
+    public V get(final String idpId, final String digest, final Supplier<V> valueSupplier) {
+
+        if (null == idpId) {
+
+            this.misses.incrementAndGet();
+            return valueSupplier.get();
+        }
+
+        final Entry<V> cached = this.valueMap.get(idpId);
+        if (null != cached && cached.digest.equals(digest)) {
+
+            this.hits.incrementAndGet();
+            return cached.value;
+        }
+
+        final Entry<V> entry = this.valueMap.compute(idpId, (key, current) -> {
+
+            if (null != current && current.digest.equals(digest)) {
+
+                this.hits.incrementAndGet(); // another thread already built it
+                return current;
+            }
+
+            (null == current? this.misses: this.rebuilds).incrementAndGet();
+            final V value = valueSupplier.get();
+            return null != value? new Entry<>(digest, value): null;
+        });
+
+        return null != entry? entry.value: null;
+    }
+
+    /**
+     * Removes the value for the idp
+     * @param idpId {@link String}
+     */
+    public void remove(final String idpId) {
+
+        this.valueMap.remove(idpId);
+    }
+
+    @Override
+    public void invalidate() {
+
+        this.valueMap.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRebuilds() {
+        return rebuilds.get();
+    }
+
+    public int size() {
+        return this.valueMap.size();
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "{" +
+                "size=" + this.size() +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", rebuilds=" + rebuilds +
+                '}';
+    }
+
+    private static final class Entry<V> {
+
+        private final String digest;
+        private final V      value;
+
+        private Entry(final String digest, final V value) {
+            this.digest = Objects.requireNonNull(digest);
+            this.value  = value;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.MessageObserver;
+import net.shibboleth.utilities.java.support.codec.HTMLEncoder;
+import net.shibboleth.utilities.java.support.net.HttpServletSupport;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.encoder.MessageEncodingException;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.binding.SAMLBindingSupport;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.binding.encoding.impl.BaseSAML2MessageEncoder;
+import org.opensaml.saml.saml2.core.RequestAbstractType;
+import org.opensaml.saml.saml2.core.StatusResponseType;
+import org.w3c.dom.Element;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Http Post Encoder without velocity.
+ * Renders the same auto submit form of the OpenSAML saml2-post-binding.vm template, but the form is already split on
+ * UTF-8 segments and the marshalled message is serialized and Base64 encoded straight into the response, so there is
+ * no template interpretation neither the xml nor its Base64 are kept as strings.
+ * @author jsanca
+ */
+public class DotHTTPPOSTEncoder extends BaseSAML2MessageEncoder {
+
+    private static final byte[] FORM_START = (
+            "<!DOCTYPE html>\n" +
+            "<html>\n" +
+            "    <head>\n" +
+            "        <meta charset=\"utf-8\" />\n" +
+            "    </head>\n" +
+            "    <body onload=\"document.forms[0].submit()\">\n" +
+            "        <noscript>\n" +
+            "            <p>\n" +
+            "                <strong>Note:</strong> Since your browser does not support JavaScript,\n" +
+            "                you must press the Continue button once to proceed.\n" +
+            "            </p>\n" +
+            "        </noscript>\n" +
+            "        \n" +
+            "        <form action=\"").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FORM_FIELDS_START = (
+            "\" method=\"post\">\n" +
+            "            <div>\n").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RELAY_STATE_START = "                <input type=\"hidden\" name=\"RelayState\" value=\""
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SAML_REQUEST_START = "                <input type=\"hidden\" name=\"SAMLRequest\" value=\""
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SAML_RESPONSE_START = "                <input type=\"hidden\" name=\"SAMLResponse\" value=\""
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INPUT_END = "\"/>\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FORM_END = (
+            "            </div>\n" +
+            "            <noscript>\n" +
+            "                <div>\n" +
+            "                    <input type=\"submit\" value=\"Continue\"/>\n" +
+            "                </div>\n" +
+            "            </noscript>\n" +
+            "        </form>\n" +
+            "    </body>\n" +
+            "</html>").getBytes(StandardCharsets.UTF_8);
+
+    private final MessageObserver messageObserver;
+
+    public DotHTTPPOSTEncoder(final MessageObserver messageObserver) {
+
+        this.messageObserver = messageObserver;
+    }
+
+    @Override
+    public String getBindingURI() {
+        return SAMLConstants.SAML2_POST_BINDING_URI;
+    }
+
+    @Override
+    protected void doEncode() throws MessageEncodingException {
+
+        final MessageContext<SAMLObject> messageContext = this.getMessageContext();
+        final SAMLObject outboundMessage = messageContext.getMessage();
+        if (outboundMessage == null) {
+            throw new MessageEncodingException("No outbound SAML message contained in message context");
+        }
+
+        final byte[] messageInputStart;
+        if (outboundMessage instanceof RequestAbstractType) {
+            messageInputStart = SAML_REQUEST_START;
+        } else if (outboundMessage instanceof StatusResponseType) {
+            messageInputStart = SAML_RESPONSE_START;
+        } else {
+            throw new MessageEncodingException("SAML message is neither a SAML RequestAbstractType or StatusResponseType");
+        }
+
+        final String endpointURL = this.getEndpointURL(messageContext).toString();
+        final Element domMessage = this.marshallMessage(outboundMessage);
+        final String relayState  = SAMLBindingSupport.getRelayState(messageContext);
+
+        final HttpServletResponse response = this.getHttpServletResponse();
+        HttpServletSupport.addNoCacheHeaders(response);
+        HttpServletSupport.setUTF8Encoding(response);
+        HttpServletSupport.setContentType(response, "text/html");
+
+        try {
+
+            final OutputStream out = response.getOutputStream();
+            out.write(FORM_START);
+            out.write(HTMLEncoder.encodeForHTMLAttribute(endpointURL).getBytes(StandardCharsets.UTF_8));
+            out.write(FORM_FIELDS_START);
+
+            if (SAMLBindingSupport.checkRelayState(relayState)) {
+
+                out.write(RELAY_STATE_START);
+                out.write(HTMLEncoder.encodeForHTMLAttribute(relayState).getBytes(StandardCharsets.UTF_8));
+                out.write(INPUT_END);
+            }
+
+            out.write(messageInputStart);
+            // closing the Base64 stream writes the padding, but the response stream has to be kept open
+            try (OutputStream base64Out = Base64.getEncoder().wrap(new FilterOutputStream(out) {
+                    @Override
+                    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+                        this.out.write(bytes, offset, length);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        this.flush();
+                    }
+                })) {
+
+                SerializeSupport.writeNode(domMessage, base64Out);
+            }
+            out.write(INPUT_END);
+
+            out.write(FORM_END);
+            out.flush();
+        } catch (IOException e) {
+
+            this.messageObserver.updateError(this.getClass().getName(),
+                    "Error writing the POST form: " + e.getMessage(), e);
+            throw new MessageEncodingException("Error creating output document", e);
+        }
+
+        this.messageObserver.updateDebug(this.getClass().getName(), "Doing a native POST");
+    }
+}
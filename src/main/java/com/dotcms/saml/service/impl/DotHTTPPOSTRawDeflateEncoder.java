@@ -1,6 +1,7 @@
 package com.dotcms.saml.service.impl;
 
 import com.dotcms.saml.MessageObserver;
+import com.dotcms.saml.utils.SamlDiagnostics;
 import net.shibboleth.utilities.java.support.codec.Base64Support;
 import net.shibboleth.utilities.java.support.codec.HTMLEncoder;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -23,10 +24,10 @@ import org.opensaml.saml.saml2.core.StatusResponseType;
 import org.w3c.dom.Element;
 
 import javax.servlet.http.HttpServletResponse;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -46,13 +47,25 @@ public class DotHTTPPOSTRawDeflateEncoder  implements HttpServletResponseMessage
     private boolean isDestroyed;
     private boolean isInitialized;
     private final MessageObserver messageObserver;
+    private final SamlDiagnostics diagnostics;
+    private byte[] serializedRequest;
 
     public DotHTTPPOSTRawDeflateEncoder(final MessageObserver messageObserver) {
 
         this.messageObserver      = messageObserver;
+        this.diagnostics          = new SamlDiagnostics(messageObserver, this.getClass());
         this.rawTemplateProcessor = RawTemplateProcessor.getInstance();
     }
 
+    /**
+     * Sets the already serialized (UTF-8) request to encode, in this case the message context does not need a message
+     * and the request is not marshalled, just Base64 encoded
+     * @param serializedRequest byte []
+     */
+    public void setSerializedRequest(final byte[] serializedRequest) {
+        this.serializedRequest = serializedRequest;
+    }
+
     @Override
     public String getBindingURI() {
         return SAMLConstants.SAML2_REDIRECT_BINDING_URI;
@@ -66,8 +79,8 @@ public class DotHTTPPOSTRawDeflateEncoder  implements HttpServletResponseMessage
     @Override
     public void encode() throws MessageEncodingException {
 
-        this.messageObserver.updateDebug(this.getClass().getName(), "Beginning encode of message of type: " +
-                this.messageContext.getMessage().getClass().getName());
+        this.diagnostics.debug(() -> "Beginning encode of message of type: " + (null != this.serializedRequest?
+                "serialized request": this.messageContext.getMessage().getClass().getName()));
 
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
@@ -76,11 +89,21 @@ public class DotHTTPPOSTRawDeflateEncoder  implements HttpServletResponseMessage
 
         logEncodedMessage();
 
-        this.messageObserver.updateDebug(this.getClass().getName(), "Successfully encoded message.");
+        this.diagnostics.debug("Successfully encoded message.");
     }
 
     protected void logEncodedMessage() {
 
+        // marshalling and pretty printing the whole message is just worth it if someone is going to read it
+        if (!this.diagnostics.isDebugEnabled()) {
+            return;
+        }
+
+        if (null != this.serializedRequest) {
+            this.diagnostics.debug(() -> new String(this.serializedRequest, StandardCharsets.UTF_8));
+            return;
+        }
+
         final XMLObject message = this.messageContext.getMessage();
         if (message == null) {
             this.messageObserver.updateWarning(this.getClass().getName(),
@@ -91,8 +114,7 @@ public class DotHTTPPOSTRawDeflateEncoder  implements HttpServletResponseMessage
         try {
 
             final Element dom = XMLObjectSupport.marshall(message);
-            this.messageObserver.updateDebug(this.getClass().getName(),
-                    SerializeSupport.prettyPrintXML(dom));
+            this.diagnostics.debug(() -> SerializeSupport.prettyPrintXML(dom));
         } catch (MarshallingException e) {
             this.messageObserver.updateError(this.getClass().getName(),
                     "Unable to marshall message for logging purposes", e);
@@ -102,7 +124,7 @@ public class DotHTTPPOSTRawDeflateEncoder  implements HttpServletResponseMessage
     protected void doEncode() throws MessageEncodingException {
 
         final SAMLObject outboundMessage = messageContext.getMessage();
-        if (outboundMessage == null) {
+        if (outboundMessage == null && null == this.serializedRequest) {
             throw new MessageEncodingException("No outbound SAML message contained in message context");
         } else {
 
@@ -113,8 +135,7 @@ public class DotHTTPPOSTRawDeflateEncoder  implements HttpServletResponseMessage
 
     protected void postEncode(final MessageContext<SAMLObject> messageContext, final String endpointURL) throws MessageEncodingException {
 
-        this.messageObserver.updateDebug(this.getClass().getName(),
-                "Invoking Raw templating to create POST body");
+        this.diagnostics.debug("Invoking Raw templating to create POST body");
 
         try {
 
@@ -124,7 +145,7 @@ public class DotHTTPPOSTRawDeflateEncoder  implements HttpServletResponseMessage
             HttpServletSupport.addNoCacheHeaders(response);
             HttpServletSupport.setUTF8Encoding(response);
             HttpServletSupport.setContentType(response, "text/html");
-            final Writer out = new OutputStreamWriter(response.getOutputStream(), "UTF-8");
+            final OutputStream out = response.getOutputStream();
             this.rawTemplateProcessor.renderTemplateFile(out, context, TEMPLATE_AUTH_POST_RAW);
             out.flush();
         } catch (Exception e) {
@@ -141,23 +162,42 @@ public class DotHTTPPOSTRawDeflateEncoder  implements HttpServletResponseMessage
                                    final String endpointURL) throws MessageEncodingException {
 
         final String encodedEndpointURL = HTMLEncoder.encodeForHTMLAttribute(endpointURL);
-        this.messageObserver.updateDebug(this.getClass().getName(),
-                "Encoding action url of '" + endpointURL + "' with encoded value '" +  encodedEndpointURL+ "' ");
+        this.diagnostics.debug(() -> "Encoding action url of '" + endpointURL + "' with encoded value '" +  encodedEndpointURL+ "' ");
         context.put("action", encodedEndpointURL);
         context.put("binding", this.getBindingURI());
         context.put("RelayState", "");   //  init as an empty in case it is not needed
         context.put("SAMLRequest", "");
         context.put("SAMLResponse", "");
 
-        final SAMLObject outboundMessage = messageContext.getMessage();
-        this.messageObserver.updateDebug(this.getClass().getName(),
-                "Marshalling and Base64 encoding SAML message");
+        String relayState;
+        String encodedRelayState;
+
+        if (null != this.serializedRequest) {
+
+            this.diagnostics.debug("Base64 encoding the serialized SAML request");
+            final String encodedMessage = Base64Support.encode(this.serializedRequest, Base64Support.UNCHUNKED);
+            context.put("SAMLRequest", "<input type=\"hidden\" name=\"SAMLRequest\" value=\""+encodedMessage+"\"/>");
+        } else {
+
+            this.populateMessage(context, messageContext.getMessage());
+        }
+
+        relayState = SAMLBindingSupport.getRelayState(messageContext);
+        if (SAMLBindingSupport.checkRelayState(relayState)) {
+            encodedRelayState = HTMLEncoder.encodeForHTMLAttribute(relayState);
+            this.diagnostics.debug(() -> "Setting RelayState parameter to: '" + relayState + "' , encoded as '" +  encodedRelayState+ "' ");
+            context.put("RelayState", "<input type=\"hidden\" name=\"RelayState\" value=\""+encodedRelayState+"\"/>");
+        }
+    }
+
+    private void populateMessage(final Map<String, String> context,
+                                 final SAMLObject outboundMessage) throws MessageEncodingException {
+
+        this.diagnostics.debug("Marshalling and Base64 encoding SAML message");
         final Element domMessage = this.marshallMessage(outboundMessage);
 
-        String relayState;
         String messageXML;
         String encodedMessage;
-        String encodedRelayState;
 
         try {
             messageXML        = SerializeSupport.nodeToString(domMessage);
@@ -175,19 +215,11 @@ public class DotHTTPPOSTRawDeflateEncoder  implements HttpServletResponseMessage
             this.messageObserver.updateError(this.getClass().getName(),"UTF-8 encoding is not supported, this VM is not Java compliant.");
             throw new MessageEncodingException("Unable to encode message, UTF-8 encoding is not supported");
         }
-
-        relayState = SAMLBindingSupport.getRelayState(messageContext);
-        if (SAMLBindingSupport.checkRelayState(relayState)) {
-            encodedRelayState = HTMLEncoder.encodeForHTMLAttribute(relayState);
-            this.messageObserver.updateDebug(this.getClass().getName(),
-            "Setting RelayState parameter to: '" + relayState + "' , encoded as '" +  encodedRelayState+ "' ");
-            context.put("RelayState", "<input type=\"hidden\" name=\"RelayState\" value=\""+encodedRelayState+"\"/>");
-        }
     }
 
     protected Element marshallMessage(final XMLObject message) throws MessageEncodingException {
 
-        this.messageObserver.updateDebug(this.getClass().getName(),"Marshalling message");
+        this.diagnostics.debug("Marshalling message");
 
         try {
 
@@ -1,11 +1,15 @@
 package com.dotcms.saml.service.impl;
 
 import com.dotcms.saml.MessageObserver;
-import com.dotmarketing.util.UtilMethods;
+import com.dotcms.saml.utils.DeflateBase64Encoder;
+import com.dotcms.saml.utils.SamlDiagnostics;
 import io.vavr.control.Try;
 import net.shibboleth.utilities.java.support.collection.Pair;
 import net.shibboleth.utilities.java.support.net.HttpServletSupport;
 import net.shibboleth.utilities.java.support.net.URLBuilder;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.messaging.context.MessageContext;
 import org.opensaml.messaging.encoder.MessageEncodingException;
 import org.opensaml.saml.common.SAMLObject;
@@ -17,8 +21,13 @@ import org.opensaml.saml.saml2.core.StatusResponseType;
 import org.opensaml.xmlsec.SignatureSigningParameters;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -29,6 +38,8 @@ public class DotHTTPRedirectDeflateEncoder extends HTTPRedirectDeflateEncoder {
 
     private final boolean clearQueryParams;
     private final MessageObserver messageObserver;
+    private final SamlDiagnostics diagnostics;
+    private byte[] serializedRequest;
 
     public DotHTTPRedirectDeflateEncoder(final MessageObserver messageObserver) {
         this(true, messageObserver);
@@ -38,6 +49,91 @@ public class DotHTTPRedirectDeflateEncoder extends HTTPRedirectDeflateEncoder {
 
         this.clearQueryParams = clearQueryParams;
         this.messageObserver  = messageObserver;
+        this.diagnostics      = new SamlDiagnostics(messageObserver, this.getClass());
+    }
+
+    /**
+     * Sets the already serialized (UTF-8) request to encode, in this case the message context does not need a message
+     * and the request is not marshalled, just deflated
+     * @param serializedRequest byte []
+     */
+    public void setSerializedRequest(final byte[] serializedRequest) {
+        this.serializedRequest = serializedRequest;
+    }
+
+    /**
+     * Builds the redirect url for the serialized message, the message is deflated, Base64 and percent encoded in a single
+     * pass straight into the url.
+     * If the endpoint has a fragment, or query params that have to be kept, the {@link URLBuilder} is used instead.
+     * @param messageContext {@link MessageContext}
+     * @param endpoint {@link String}
+     * @param serializedMessage byte [] the UTF-8 xml of the message
+     * @return String
+     * @throws MessageEncodingException
+     */
+    protected String buildRedirectURL(final MessageContext<SAMLObject> messageContext,
+                                      final String endpoint,
+                                      final byte[] serializedMessage) throws MessageEncodingException {
+
+        final int queryIndex = endpoint.indexOf('?');
+        if (endpoint.indexOf('#') >= 0 || (queryIndex >= 0 && !this.clearQueryParams)) {
+
+            return this.buildRedirectURL(messageContext, endpoint, this.deflateAndBase64Encode(serializedMessage));
+        }
+
+        this.diagnostics.debug(() -> "Building URL to redirect client to: " + endpoint);
+        try {
+
+            new URL(endpoint);
+        } catch (MalformedURLException e) {
+
+            throw new MessageEncodingException("Endpoint URL " + endpoint + " is not a valid URL", e);
+        }
+
+        final StringBuilder urlBuilder = new StringBuilder(endpoint.length() + serializedMessage.length + 512);
+        urlBuilder.append(endpoint, 0, queryIndex >= 0? queryIndex: endpoint.length()).append('?');
+        final int queryStart = urlBuilder.length();
+
+        urlBuilder.append(this.getMessageParameterName(messageContext)).append('=');
+        DeflateBase64Encoder.getInstance().encode(serializedMessage, urlBuilder, true);
+
+        final String relayState = SAMLBindingSupport.getRelayState(messageContext);
+        if (SAMLBindingSupport.checkRelayState(relayState)) {
+
+            urlBuilder.append("&RelayState=").append(URLEncoder.encode(relayState, StandardCharsets.UTF_8));
+        }
+
+        final SignatureSigningParameters signingParameters = SAMLMessageSecuritySupport.getContextSigningParameters(messageContext);
+        if (signingParameters != null && signingParameters.getSigningCredential() != null) {
+
+            final String sigAlgURI   = this.getSignatureAlgorithmURI(signingParameters);
+            // the signed material is the query string without the SigAlg, the same one the URLBuilder path signs
+            final String sigMaterial = urlBuilder.substring(queryStart);
+            urlBuilder.append("&SigAlg=").append(URLEncoder.encode(sigAlgURI, StandardCharsets.UTF_8));
+            urlBuilder.append("&Signature=").append(URLEncoder.encode(
+                    this.generateSignature(signingParameters.getSigningCredential(), sigAlgURI, sigMaterial), StandardCharsets.UTF_8));
+        } else {
+
+            this.diagnostics.debug("No signing credential was supplied, skipping HTTP-Redirect DEFLATE signing");
+        }
+
+        return urlBuilder.toString();
+    }
+
+    private String getMessageParameterName(final MessageContext<SAMLObject> messageContext) throws MessageEncodingException {
+
+        final SAMLObject outboundMessage = messageContext.getMessage();
+        if (null != this.serializedRequest || outboundMessage instanceof RequestAbstractType) {
+
+            return "SAMLRequest";
+        }
+
+        if (!(outboundMessage instanceof StatusResponseType)) {
+
+            throw new MessageEncodingException("SAML message is neither a SAML RequestAbstractType nor StatusResponseType");
+        }
+
+        return "SAMLResponse";
     }
 
     @Override
@@ -45,8 +141,7 @@ public class DotHTTPRedirectDeflateEncoder extends HTTPRedirectDeflateEncoder {
                                       final String endpoint,
                                       final String message) throws MessageEncodingException {
 
-        this.messageObserver.updateDebug(this.getClass().getName(),
-                "Building URL to redirect client to: " + endpoint);
+        this.diagnostics.debug(() -> "Building URL to redirect client to: " + endpoint);
         URLBuilder urlBuilder = null;
 
         try {
@@ -63,7 +158,7 @@ public class DotHTTPRedirectDeflateEncoder extends HTTPRedirectDeflateEncoder {
         }
 
         final SAMLObject outboundMessage = (SAMLObject)messageContext.getMessage();
-        if (outboundMessage instanceof RequestAbstractType) {
+        if (null != this.serializedRequest || outboundMessage instanceof RequestAbstractType) {
 
             queryParams.add(new Pair("SAMLRequest", message));
         } else {
@@ -87,14 +182,14 @@ public class DotHTTPRedirectDeflateEncoder extends HTTPRedirectDeflateEncoder {
 
             final String sigAlgURI            = this.getSignatureAlgorithmURI(signingParameters);
             final Pair<String, String> sigAlg = new Pair("SigAlg", sigAlgURI);
+            // keep in sync with the single pass path of buildRedirectURL(MessageContext, String, byte[])
             final String sigMaterial          = urlBuilder.buildQueryString();
 
             queryParams.add(sigAlg);
             queryParams.add(new Pair("Signature", this.generateSignature(signingParameters.getSigningCredential(), sigAlgURI, sigMaterial)));
         } else {
 
-            this.messageObserver.updateDebug(this.getClass().getName(),
-                    "No signing credential was supplied, skipping HTTP-Redirect DEFLATE signing");
+            this.diagnostics.debug("No signing credential was supplied, skipping HTTP-Redirect DEFLATE signing");
         }
 
         return urlBuilder.buildURL();
@@ -110,9 +205,10 @@ public class DotHTTPRedirectDeflateEncoder extends HTTPRedirectDeflateEncoder {
 
         // removeSignature(outboundMessage);
 
-        String encodedMessage = deflateAndBase64Encode(outboundMessage);
+        final byte[] serializedMessage = null != this.serializedRequest?
+                this.serializedRequest: this.serialize(outboundMessage);
 
-        String redirectURL = buildRedirectURL(messageContext, endpointURL, encodedMessage);
+        String redirectURL = this.buildRedirectURL(messageContext, endpointURL, serializedMessage);
 
         HttpServletResponse response = getHttpServletResponse();
         HttpServletSupport.addNoCacheHeaders(response);
@@ -123,6 +219,34 @@ public class DotHTTPRedirectDeflateEncoder extends HTTPRedirectDeflateEncoder {
     }
     
     
+    @Override
+    protected String deflateAndBase64Encode(final SAMLObject message) throws MessageEncodingException {
+
+        return this.deflateAndBase64Encode(this.serialize(message));
+    }
+
+    /**
+     * Same as {@link #deflateAndBase64Encode(SAMLObject)} but for the already serialized message
+     * @param serializedMessage byte []
+     * @return String
+     */
+    protected String deflateAndBase64Encode(final byte[] serializedMessage) {
+
+        this.diagnostics.debug("Deflating and Base64 encoding the serialized SAML message");
+        return DeflateBase64Encoder.getInstance().encode(serializedMessage);
+    }
+
+    private byte[] serialize(final SAMLObject message) throws MessageEncodingException {
+
+        try {
+
+            return SerializeSupport.nodeToString(XMLObjectSupport.marshall(message)).getBytes(StandardCharsets.UTF_8);
+        } catch (MarshallingException e) {
+
+            throw new MessageEncodingException("Error marshalling message", e);
+        }
+    }
+
     final static String redirectTemplate =
                     new StringWriter()
                     .append("<html>")
@@ -136,15 +260,46 @@ public class DotHTTPRedirectDeflateEncoder extends HTTPRedirectDeflateEncoder {
     
     
     
-    public void sendRedirectHTML(HttpServletResponse response, final String redirectUrl) {
-        
-        final String finalTemplate = UtilMethods.replace(redirectTemplate,"REDIRECT_ME", redirectUrl);
-        
+    // the template split on the REDIRECT_ME placeholders, so the page is written without replacing strings
+    private final static byte[][] redirectTemplateSegments = splitRedirectTemplate();
+
+    private static byte[][] splitRedirectTemplate() {
+
+        final String placeholder = "REDIRECT_ME";
+        final List<byte[]> segments = new ArrayList<>();
+        int start = 0;
+        int index;
+        while ((index = redirectTemplate.indexOf(placeholder, start)) >= 0) {
+
+            segments.add(redirectTemplate.substring(start, index).getBytes(StandardCharsets.ISO_8859_1));
+            start = index + placeholder.length();
+        }
+        segments.add(redirectTemplate.substring(start).getBytes(StandardCharsets.ISO_8859_1));
+        return segments.toArray(new byte[0][]);
+    }
+
+    public void sendRedirectHTML(final HttpServletResponse response, final String redirectUrl) {
+
+        // the url is written as the default (ISO-8859-1) writer of the response used to do it
+        final byte[] url = redirectUrl.getBytes(StandardCharsets.ISO_8859_1);
+        int contentLength = url.length * (redirectTemplateSegments.length - 1);
+        for (final byte[] segment : redirectTemplateSegments) {
+            contentLength += segment.length;
+        }
+
         response.setContentType("text/html");
+        response.setContentLength(contentLength);
         Try.run(() -> {
-            response.getWriter().write(finalTemplate);
-            response.getWriter().flush();
+
+            final OutputStream out = response.getOutputStream();
+            for (int i = 0; i < redirectTemplateSegments.length; ++i) {
+
+                if (i > 0) {
+                    out.write(url);
+                }
+                out.write(redirectTemplateSegments[i]);
+            }
+            out.flush();
         });
     }
-    
 }
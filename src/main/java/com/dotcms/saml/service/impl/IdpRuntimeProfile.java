@@ -0,0 +1,595 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.DotSamlConstants;
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.SamlConfigurationService;
+import com.dotcms.saml.SamlName;
+import com.dotcms.saml.service.external.AdditionalInfoValue;
+import com.dotcms.saml.service.external.AdditionalInformationType;
+import com.dotcms.saml.service.handler.AssertionResolverHandler;
+import com.dotcms.saml.service.internal.RuntimeProfile;
+import com.liferay.util.StringPool;
+import io.vavr.control.Try;
+import org.apache.commons.lang.StringUtils;
+import org.opensaml.saml.saml2.core.AuthnContextComparisonTypeEnumeration;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Immutable and already typed view ({@link RuntimeProfile}) of the configuration of an IdP, it is compiled once from the
+ * {@link SamlConfigurationService} and the optional properties of the {@link IdentityProviderConfiguration}, so the
+ * login and logout paths do not have to look up and parse the same strings on each request.
+ * The instances are kept and swapped by the {@link IdpRuntimeProfileRegistry}, each one has a version number
+ * that changes every time the profile is compiled again.
+ *
+ * @author jsanca
+ */
+public final class IdpRuntimeProfile implements RuntimeProfile {
+
+    public static final String AUTH_PREFIX   = "auth";
+    public static final String LOGOUT_PREFIX = "logout";
+    public static final String ALLOW_EMPTY_ATTRS = "saml.allow.empty.attrs";
+    public static final String LOGOUT_PROTOCOL_BINDING = "logout.protocol.binding";
+    public static final String EXCLUDE_ROLES_PATTERN = "saml.exclude.roles.pattern";
+    public static final String AUTHN_REQUEST_TEMPLATE = "authn.request.template";
+    public static final String POST_BINDING_ENCODER   = "post.binding.encoder";
+    public static final String POST_BINDING_ENCODER_NATIVE = "native";
+    public static final String LOGOUT_OKTA_URL = "logout.okta.url";
+    public static final String DEFAULT_LOGOUT_SERVICE_ENDPOINT_URL = "/dotAdmin/show-logout";
+
+    private final String  idpId;
+    private final long    version;
+    private final long    createdNanos;
+
+    // authn request
+    private final String  protocolBinding;
+    private final boolean skipRequestAuthnContext;
+    private final List<String> authnContextClassRefs;
+    private final AuthnContextComparisonTypeEnumeration authnContextComparisonType;
+    private final Boolean forceAuthn;
+    private final boolean authnRequestTemplateEnabled;
+    private final Map<String, AuthnRequestTemplate> authnRequestTemplates = new ConcurrentHashMap<>();
+    private final Boolean policyAllowCreate;
+    private final String  nameIdPolicyFormat;
+
+    // handlers
+    private final String  authnProtocolBinding;
+    private final String  logoutProtocolBinding;
+    private final boolean clearLocationQueryParams;
+    private final boolean nativePostEncoder;
+    private final String  logoutServiceEndpointURL;
+    private final String  oktaLogoutURL;
+    private final SigningProfile authSigningProfile;
+    private final SigningProfile logoutSigningProfile;
+
+    // assertion
+    private final boolean assertionEncrypted;
+    private final boolean alwaysVerifyAssertionSignature;
+    private final boolean parallelPipeline;
+    private final long    clockSkew;
+    private final long    messageLifeTime;
+    private final boolean validateDestination;
+    private final boolean validateIssuer;
+    private final boolean validateInResponseTo;
+    private final boolean validateAudience;
+    private volatile ResponseValidationChain responseValidationChain;
+
+    // attributes
+    private final String  emailField;
+    private final String  firstNameField;
+    private final String  lastNameField;
+    private final String  rolesField;
+    private final String  firstNameForNullValue;
+    private final String  lastNameForNullValue;
+    private final boolean allowNullEmail;
+    private final boolean allowEmptyAttributes;
+    private final Map<String, AdditionalInfoValue> additionalInfoMap;
+    private final RuntimeException additionalInfoError;
+    private final AttributeMappingPlan attributeMappingPlan;
+    private final RoleExtractor roleExtractor;
+    private final PatternSyntaxException roleExtractorError;
+
+    public IdpRuntimeProfile(final IdentityProviderConfiguration identityProviderConfiguration,
+                             final SamlConfigurationService samlConfigurationService,
+                             final long version) {
+
+        this.idpId        = identityProviderConfiguration.getId();
+        this.version      = version;
+        this.createdNanos = System.nanoTime();
+
+        this.protocolBinding           = samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOTCMS_SAML_PROTOCOL_BINDING);
+        this.skipRequestAuthnContext   = getBoolean(identityProviderConfiguration, SamlCoreServiceImpl.SKIP_REQUEST_AUTHN_CONTEXT, false);
+        this.authnRequestTemplateEnabled = getBoolean(identityProviderConfiguration, AUTHN_REQUEST_TEMPLATE, false);
+        this.authnContextClassRefs     = toClassRefs(samlConfigurationService.getConfigAsString(identityProviderConfiguration,
+                SamlName.DOTCMS_SAML_AUTHN_CONTEXT_CLASS_REF));
+        this.authnContextComparisonType = toComparisonType(samlConfigurationService.getConfigAsString(identityProviderConfiguration,
+                SamlName.DOTCMS_SAML_AUTHN_COMPARISON_TYPE));
+        this.forceAuthn                = samlConfigurationService.getConfigAsBoolean(identityProviderConfiguration, SamlName.DOTCMS_SAML_FORCE_AUTHN);
+        this.policyAllowCreate         = samlConfigurationService.getConfigAsBoolean(identityProviderConfiguration, SamlName.DOTCMS_SAML_POLICY_ALLOW_CREATE);
+        this.nameIdPolicyFormat        = samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOTCMS_SAML_NAME_ID_POLICY_FORMAT);
+
+        final String authnProtocolBinding = samlConfigurationService.getConfigAsString(identityProviderConfiguration,
+                SamlName.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING, ()->DotSamlConstants.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING_REDIRECT);
+        this.authnProtocolBinding      = null != authnProtocolBinding? authnProtocolBinding: DotSamlConstants.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING_REDIRECT;
+        this.logoutProtocolBinding     = identityProviderConfiguration.containsOptionalProperty(LOGOUT_PROTOCOL_BINDING)?
+                identityProviderConfiguration.getOptionalProperty(LOGOUT_PROTOCOL_BINDING).toString(): DotSamlConstants.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING_REDIRECT;
+        this.clearLocationQueryParams  = Boolean.TRUE.equals(samlConfigurationService.getConfigAsBoolean(identityProviderConfiguration,
+                SamlName.DOTCMS_SAML_CLEAR_LOCATION_QUERY_PARAMS));
+        // velocity (the default) or native
+        this.nativePostEncoder         = identityProviderConfiguration.containsOptionalProperty(POST_BINDING_ENCODER) &&
+                POST_BINDING_ENCODER_NATIVE.equalsIgnoreCase(identityProviderConfiguration.getOptionalProperty(POST_BINDING_ENCODER).toString().trim());
+        this.logoutServiceEndpointURL  = identityProviderConfiguration.containsOptionalProperty(SamlName.DOT_SAML_LOGOUT_SERVICE_ENDPOINT_URL.getPropertyName())?
+                identityProviderConfiguration.getOptionalProperty(SamlName.DOT_SAML_LOGOUT_SERVICE_ENDPOINT_URL.getPropertyName()).toString(): DEFAULT_LOGOUT_SERVICE_ENDPOINT_URL;
+        this.oktaLogoutURL             = identityProviderConfiguration.containsOptionalProperty(LOGOUT_OKTA_URL)?
+                identityProviderConfiguration.getOptionalProperty(LOGOUT_OKTA_URL).toString(): null;
+        this.authSigningProfile        = new SigningSettings(identityProviderConfiguration, AUTH_PREFIX);
+        this.logoutSigningProfile      = new SigningSettings(identityProviderConfiguration, LOGOUT_PREFIX);
+
+        this.assertionEncrypted        = Boolean.TRUE.equals(samlConfigurationService.getConfigAsBoolean(identityProviderConfiguration,
+                SamlName.DOTCMS_SAML_IS_ASSERTION_ENCRYPTED));
+        this.alwaysVerifyAssertionSignature = getBoolean(identityProviderConfiguration, SamlCoreServiceImpl.ALWAYS_VERIFY_ASSERTION_SIGNATURE, false);
+        this.parallelPipeline          = getBoolean(identityProviderConfiguration, AssertionPipeline.PARALLEL_PIPELINE, false);
+        // the integer props may not be set at all, in that case the defaults are used
+        this.clockSkew                 = Try.of(()->samlConfigurationService.getConfigAsInteger(identityProviderConfiguration, SamlName.DOT_SAML_CLOCK_SKEW))
+                .filter(Objects::nonNull).map(Integer::longValue).getOrElse((long)AssertionResolverHandler.DOT_SAML_CLOCK_SKEW_DEFAULT_VALUE);
+        this.messageLifeTime           = Try.of(()->samlConfigurationService.getConfigAsInteger(identityProviderConfiguration, SamlName.DOT_SAML_MESSAGE_LIFE_TIME))
+                .filter(Objects::nonNull).map(Integer::longValue).getOrElse((long)AssertionResolverHandler.DOT_SAML_MESSAGE_LIFE_DEFAULT_VALUE);
+        this.validateDestination       = getBoolean(identityProviderConfiguration, ResponseValidationChain.VALIDATE_DESTINATION, false);
+        this.validateIssuer            = getBoolean(identityProviderConfiguration, ResponseValidationChain.VALIDATE_ISSUER, false);
+        this.validateInResponseTo      = getBoolean(identityProviderConfiguration, ResponseValidationChain.VALIDATE_IN_RESPONSE_TO, false);
+        this.validateAudience          = getBoolean(identityProviderConfiguration, ResponseValidationChain.VALIDATE_AUDIENCE, false);
+
+        this.emailField                = samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOT_SAML_EMAIL_ATTRIBUTE);
+        this.firstNameField            = samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOT_SAML_FIRSTNAME_ATTRIBUTE);
+        this.lastNameField             = samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOT_SAML_LASTNAME_ATTRIBUTE);
+        this.rolesField                = samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOT_SAML_ROLES_ATTRIBUTE);
+        this.firstNameForNullValue     = samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOT_SAML_FIRSTNAME_ATTRIBUTE_NULL_VALUE);
+        this.lastNameForNullValue      = samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOT_SAML_LASTNAME_ATTRIBUTE_NULL_VALUE);
+        this.allowNullEmail            = Boolean.TRUE.equals(samlConfigurationService.getConfigAsBoolean(identityProviderConfiguration,
+                SamlName.DOT_SAML_EMAIL_ATTRIBUTE_ALLOW_NULL));
+        this.allowEmptyAttributes      = getBoolean(identityProviderConfiguration, ALLOW_EMPTY_ATTRS, true);
+
+        Map<String, AdditionalInfoValue> additionalInfo = Collections.emptyMap();
+        RuntimeException additionalInfoError = null;
+        if (identityProviderConfiguration.containsOptionalProperty(OpenSamlAuthenticationServiceImpl.ADDITIONAL_INFO)) {
+
+            try {
+
+                additionalInfo = Collections.unmodifiableMap(parseAdditionalInfo(
+                        (String) identityProviderConfiguration.getOptionalProperty(OpenSamlAuthenticationServiceImpl.ADDITIONAL_INFO)));
+            } catch (RuntimeException e) {
+
+                // the wrong spec is reported when the attributes are resolved, as it used to be
+                additionalInfoError = e;
+            }
+        }
+        this.additionalInfoMap    = additionalInfo;
+        this.additionalInfoError  = additionalInfoError;
+        this.attributeMappingPlan = new AttributeMappingPlan(this.emailField, this.firstNameField,
+                this.lastNameField, this.rolesField, additionalInfo);
+        RoleExtractor roleExtractor = null;
+        PatternSyntaxException roleExtractorError = null;
+        try {
+
+            roleExtractor = new RoleExtractor(
+                    samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOTCMS_SAML_INCLUDE_ROLES_PATTERN),
+                    identityProviderConfiguration.containsOptionalProperty(EXCLUDE_ROLES_PATTERN)?
+                            identityProviderConfiguration.getOptionalProperty(EXCLUDE_ROLES_PATTERN).toString(): null,
+                    samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOT_SAML_REMOVE_ROLES_PREFIX));
+        } catch (PatternSyntaxException e) {
+
+            // the roles are passed as they come (as it used to be), the wrong pattern is reported when the roles are resolved
+            roleExtractorError = e;
+        }
+        this.roleExtractor        = roleExtractor;
+        this.roleExtractorError   = roleExtractorError;
+    }
+
+    private static boolean getBoolean(final IdentityProviderConfiguration identityProviderConfiguration,
+                                      final String key, final boolean defaultValue) {
+
+        return identityProviderConfiguration.containsOptionalProperty(key)?
+                Boolean.parseBoolean(identityProviderConfiguration.getOptionalProperty(key).toString()): defaultValue;
+    }
+
+    private static List<String> toClassRefs(final String samlAuthContextClassRefList) {
+
+        final String [] samlAuthContextClassRefArray = StringUtils.split(samlAuthContextClassRefList, ",");
+        if (null == samlAuthContextClassRefArray) {
+
+            return Collections.emptyList();
+        }
+
+        final List<String> classRefs = new ArrayList<>(samlAuthContextClassRefArray.length);
+        for (final String samlAuthContextClassRef : samlAuthContextClassRefArray) {
+
+            classRefs.add(samlAuthContextClassRef.trim());
+        }
+
+        return Collections.unmodifiableList(classRefs);
+    }
+
+    private static AuthnContextComparisonTypeEnumeration toComparisonType (final String enumName) {
+
+        if (StringUtils.isNotBlank(enumName)) {
+
+            if (AuthnContextComparisonTypeEnumeration.BETTER.toString().equalsIgnoreCase(enumName)) {
+
+                return AuthnContextComparisonTypeEnumeration.BETTER;
+            } else if (AuthnContextComparisonTypeEnumeration.EXACT.toString().equalsIgnoreCase(enumName)) {
+
+                return AuthnContextComparisonTypeEnumeration.EXACT;
+            } else if (AuthnContextComparisonTypeEnumeration.MAXIMUM.toString().equalsIgnoreCase(enumName)) {
+
+                return AuthnContextComparisonTypeEnumeration.MAXIMUM;
+            }
+        }
+
+        // MINIMUN is the default one.
+        return AuthnContextComparisonTypeEnumeration.MINIMUM;
+    }
+
+    /**
+     * Parses the additional info spec, something such as
+     * additionalInfo=prop1|single,prop2|collection,prop3|json|alias-for-json
+     * see OpenSamlAuthenticationServiceImpl#parseAdditionalInfoMap
+     *
+     * @param additionalInfoValue {@link String}
+     * @return Map attribute name to {@link AdditionalInfoValue}
+     */
+    public static Map<String, AdditionalInfoValue> parseAdditionalInfo(final String additionalInfoValue) {
+
+        final Map<String, AdditionalInfoValue> additionalInfoMap = new HashMap<>();
+        final String [] additionalInfoConfigTokens = additionalInfoValue.split(StringPool.COMMA);
+        for (final String additionalInfoConfigToken : additionalInfoConfigTokens) {
+
+            final String [] parsedAdditionalInfoConfigToken = additionalInfoConfigToken.split("\\"+StringPool.PIPE);
+            if (parsedAdditionalInfoConfigToken.length > 0) {
+
+                final AdditionalInformationType additionInformationType = (parsedAdditionalInfoConfigToken.length >= 2 &&
+                        Objects.nonNull(parsedAdditionalInfoConfigToken[1])) ?
+                        AdditionalInformationType.valueOf(parsedAdditionalInfoConfigToken[1].toUpperCase()) :
+                        AdditionalInformationType.SINGLE; // default if not qualified
+
+                final String key = (parsedAdditionalInfoConfigToken.length >= 3 &&
+                        Objects.nonNull(parsedAdditionalInfoConfigToken[2])) ?
+                        parsedAdditionalInfoConfigToken[2]:
+                        parsedAdditionalInfoConfigToken[0];
+
+                additionalInfoMap.put(parsedAdditionalInfoConfigToken[0], new AdditionalInfoValue(key, additionInformationType));
+            }
+        }
+
+        return additionalInfoMap;
+    }
+
+    /**
+     * Returns true if the profile was compiled more than ttlNanos ago
+     * @param ttlNanos long
+     * @return boolean
+     */
+    public boolean isOlderThan(final long ttlNanos) {
+        return System.nanoTime() - this.createdNanos > ttlNanos;
+    }
+
+    @Override
+    public String getIdpId() {
+        return idpId;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String getProtocolBinding() {
+        return protocolBinding;
+    }
+
+    @Override
+    public boolean isSkipRequestAuthnContext() {
+        return skipRequestAuthnContext;
+    }
+
+    @Override
+    public List<String> getAuthnContextClassRefs() {
+        return authnContextClassRefs;
+    }
+
+    @Override
+    public AuthnContextComparisonTypeEnumeration getAuthnContextComparisonType() {
+        return authnContextComparisonType;
+    }
+
+    @Override
+    public Boolean getForceAuthn() {
+        return forceAuthn;
+    }
+
+    @Override
+    public boolean isAuthnRequestTemplateEnabled() {
+        return authnRequestTemplateEnabled;
+    }
+
+    /**
+     * Returns the AuthnRequest template of the protocol binding, compiled the first time it is asked.
+     * The templates live as long as the profile, so they are compiled again when the idp configuration changes.
+     * @param protocolBinding {@link String}
+     * @param compiler {@link Function} compiles the template for the binding, returns {@link AuthnRequestTemplate#UNAVAILABLE} if it can not
+     * @return AuthnRequestTemplate
+     */
+    public AuthnRequestTemplate getAuthnRequestTemplate(final String protocolBinding,
+                                                        final Function<String, AuthnRequestTemplate> compiler) {
+
+        return this.authnRequestTemplates.computeIfAbsent(protocolBinding, compiler);
+    }
+
+    @Override
+    public Boolean getPolicyAllowCreate() {
+        return policyAllowCreate;
+    }
+
+    @Override
+    public String getNameIdPolicyFormat() {
+        return nameIdPolicyFormat;
+    }
+
+    @Override
+    public String getAuthnProtocolBinding() {
+        return authnProtocolBinding;
+    }
+
+    @Override
+    public String getLogoutProtocolBinding() {
+        return logoutProtocolBinding;
+    }
+
+    @Override
+    public boolean isClearLocationQueryParams() {
+        return clearLocationQueryParams;
+    }
+
+    /**
+     * True if the POST binding messages are rendered by the native encoder instead of velocity
+     * @return boolean
+     */
+    @Override
+    public boolean isNativePostEncoder() {
+        return nativePostEncoder;
+    }
+
+    @Override
+    public String getLogoutServiceEndpointURL() {
+        return logoutServiceEndpointURL;
+    }
+
+    @Override
+    public String getOktaLogoutURL() {
+        return oktaLogoutURL;
+    }
+
+    @Override
+    public SigningProfile getAuthSigningProfile() {
+        return authSigningProfile;
+    }
+
+    @Override
+    public SigningProfile getLogoutSigningProfile() {
+        return logoutSigningProfile;
+    }
+
+    @Override
+    public boolean isAssertionEncrypted() {
+        return assertionEncrypted;
+    }
+
+    @Override
+    public boolean isAlwaysVerifyAssertionSignature() {
+        return alwaysVerifyAssertionSignature;
+    }
+
+    @Override
+    public boolean isParallelPipeline() {
+        return parallelPipeline;
+    }
+
+    @Override
+    public long getClockSkew() {
+        return clockSkew;
+    }
+
+    @Override
+    public long getMessageLifeTime() {
+        return messageLifeTime;
+    }
+
+    @Override
+    public boolean isValidateDestination() {
+        return validateDestination;
+    }
+
+    @Override
+    public boolean isValidateIssuer() {
+        return validateIssuer;
+    }
+
+    @Override
+    public boolean isValidateInResponseTo() {
+        return validateInResponseTo;
+    }
+
+    @Override
+    public boolean isValidateAudience() {
+        return validateAudience;
+    }
+
+    /**
+     * Returns the validation chain of the responses of the idp, built and initialized the first time it is asked.
+     * @return ResponseValidationChain
+     */
+    @Override
+    public ResponseValidationChain getResponseValidationChain() {
+
+        ResponseValidationChain validationChain = this.responseValidationChain;
+        if (null == validationChain) {
+
+            // two threads may build it at the same time, both chains are equivalent
+            validationChain = ResponseValidationChain.forProfile(this);
+            this.responseValidationChain = validationChain;
+        }
+
+        return validationChain;
+    }
+
+    @Override
+    public String getEmailField() {
+        return emailField;
+    }
+
+    @Override
+    public String getFirstNameField() {
+        return firstNameField;
+    }
+
+    @Override
+    public String getLastNameField() {
+        return lastNameField;
+    }
+
+    @Override
+    public String getRolesField() {
+        return rolesField;
+    }
+
+    @Override
+    public String getFirstNameForNullValue() {
+        return firstNameForNullValue;
+    }
+
+    @Override
+    public String getLastNameForNullValue() {
+        return lastNameForNullValue;
+    }
+
+    @Override
+    public boolean isAllowNullEmail() {
+        return allowNullEmail;
+    }
+
+    @Override
+    public boolean isAllowEmptyAttributes() {
+        return allowEmptyAttributes;
+    }
+
+    /**
+     * Compiled role extraction stage, null if the roles patterns set on the idp are not valid
+     * @return RoleExtractor
+     */
+    public RoleExtractor getRoleExtractor() {
+        return roleExtractor;
+    }
+
+    /**
+     * The error compiling the roles patterns set on the idp, null if they are valid
+     * @return PatternSyntaxException
+     */
+    public PatternSyntaxException getRoleExtractorError() {
+        return roleExtractorError;
+    }
+
+    /**
+     * Returns the parsed (read only) additional info, if the spec set on the idp is wrong the parsing error is thrown.
+     * @return Map
+     */
+    @Override
+    public Map<String, AdditionalInfoValue> getAdditionalInfoMap() {
+
+        if (null != this.additionalInfoError) {
+
+            throw this.additionalInfoError;
+        }
+
+        return additionalInfoMap;
+    }
+
+    /**
+     * Returns the compiled attribute mapping, if the additional info spec set on the idp is wrong the parsing error is thrown.
+     * @return AttributeMappingPlan
+     */
+    public AttributeMappingPlan getAttributeMappingPlan() {
+
+        if (null != this.additionalInfoError) {
+
+            throw this.additionalInfoError;
+        }
+
+        return attributeMappingPlan;
+    }
+
+    @Override
+    public String toString() {
+        return "IdpRuntimeProfile{" +
+                "idpId='" + idpId + '\'' +
+                ", version=" + version +
+                ", authnProtocolBinding='" + authnProtocolBinding + '\'' +
+                ", logoutProtocolBinding='" + logoutProtocolBinding + '\'' +
+                ", assertionEncrypted=" + assertionEncrypted +
+                '}';
+    }
+
+    /**
+     * Signing settings of the authentication (auth.*) or logout (logout.*) requests
+     */
+    public static final class SigningSettings implements SigningProfile {
+
+        private final boolean signRequest;
+        private final String  digestAlgorithm;
+        private final boolean signParams;
+        private final String  signatureAlgorithm;
+
+        SigningSettings(final IdentityProviderConfiguration identityProviderConfiguration, final String prefix) {
+
+            final String signRequestKey        = prefix + ".sign.request";
+            final String digestAlgorithmKey    = prefix + ".signature.reference.digestmethod.algorithm";
+            final String signParamsKey         = prefix + ".sign.params";
+            final String signatureAlgorithmKey = prefix + ".signature.algorithm";
+
+            this.signRequest        = getBoolean(identityProviderConfiguration, signRequestKey, false);
+            this.digestAlgorithm    = identityProviderConfiguration.containsOptionalProperty(digestAlgorithmKey)?
+                    (String) identityProviderConfiguration.getOptionalProperty(digestAlgorithmKey): SignatureConstants.ALGO_ID_DIGEST_SHA256;
+            this.signParams         = getBoolean(identityProviderConfiguration, signParamsKey, true);
+            this.signatureAlgorithm = identityProviderConfiguration.containsOptionalProperty(signatureAlgorithmKey)?
+                    (String) identityProviderConfiguration.getOptionalProperty(signatureAlgorithmKey): SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256;
+        }
+
+        @Override
+        public boolean isSignRequest() {
+            return signRequest;
+        }
+
+        @Override
+        public String getDigestAlgorithm() {
+            return digestAlgorithm;
+        }
+
+        @Override
+        public boolean isSignParams() {
+            return signParams;
+        }
+
+        @Override
+        public String getSignatureAlgorithm() {
+            return signatureAlgorithm;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.SamlConfigurationService;
+import com.dotcms.saml.service.InvalidateAware;
+import com.dotmarketing.util.Config;
+import io.vavr.control.Try;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the compiled {@link IdpRuntimeProfile} per IdP configuration id.
+ * A profile is compiled just once (even on concurrent first access) and replaced atomically by a new one, with a new
+ * version, when the registry gets invalidated (a new service is built when the SAML App secrets change) or when it is
+ * older than {@link #DOT_SAML_PROFILE_TTL_SECONDS}, so changes not coming from the App are picked up too.
+ *
+ * @author jsanca
+ */
+public class IdpRuntimeProfileRegistry implements InvalidateAware {
+
+    /**
+     * Max number of seconds a compiled profile is used before compiling it again
+     */
+    public static final String DOT_SAML_PROFILE_TTL_SECONDS = "dotcms.saml.profile.ttl.seconds";
+    public static final int    DOT_SAML_PROFILE_TTL_SECONDS_DEFAULT_VALUE = 60;
+
+    private final Map<String, IdpRuntimeProfile> profileMap = new ConcurrentHashMap<>();
+    private final AtomicLong versionSequence = new AtomicLong();
+    private final long ttlNanos;
+
+    private static class SingletonHolder {
+        private static final IdpRuntimeProfileRegistry INSTANCE = new IdpRuntimeProfileRegistry(
+                Try.of(()->Config.getIntProperty(DOT_SAML_PROFILE_TTL_SECONDS, DOT_SAML_PROFILE_TTL_SECONDS_DEFAULT_VALUE))
+                        .getOrElse(DOT_SAML_PROFILE_TTL_SECONDS_DEFAULT_VALUE));
+    }
+
+    public static IdpRuntimeProfileRegistry getInstance() {
+        return IdpRuntimeProfileRegistry.SingletonHolder.INSTANCE;
+    }
+
+    protected IdpRuntimeProfileRegistry(final int ttlSeconds) {
+
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    /**
+     * Get (or compiles) the profile for the idp configuration
+     * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+     * @param samlConfigurationService {@link SamlConfigurationService}
+     * @return IdpRuntimeProfile
+     */
+    public IdpRuntimeProfile getProfile(final IdentityProviderConfiguration identityProviderConfiguration,
+                                        final SamlConfigurationService samlConfigurationService) {
+
+        final String idpId = identityProviderConfiguration.getId();
+        if (null == idpId) {
+
+            return new IdpRuntimeProfile(identityProviderConfiguration, samlConfigurationService,
+                    this.versionSequence.incrementAndGet());
+        }
+
+        final IdpRuntimeProfile profile = this.profileMap.get(idpId);
+        if (null != profile && !profile.isOlderThan(this.ttlNanos)) {
+
+            return profile;
+        }
+
+        return this.profileMap.compute(idpId, (key, currentProfile) ->
+                null != currentProfile && !currentProfile.isOlderThan(this.ttlNanos)?
+                        currentProfile:
+                        new IdpRuntimeProfile(identityProviderConfiguration, samlConfigurationService,
+                                this.versionSequence.incrementAndGet()));
+    }
+
+    /**
+     * Removes the profile of the idp, the next call compiles it again
+     * @param idpId {@link String}
+     */
+    public void remove(final String idpId) {
+
+        if (null != idpId) {
+            this.profileMap.remove(idpId);
+        }
+    }
+
+    public int size() {
+        return this.profileMap.size();
+    }
+
+    @Override
+    public void invalidate() {
+
+        this.profileMap.clear();
+    }
+}
@@ -0,0 +1,13 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.service.external.MetaData;
+
+/**
+ * Keeps the parsed (immutable) {@link MetaData} per IdP configuration id, each entry is tagged with the digest of the
+ * metadata content it was parsed from, so it is rebuilt only when the metadata actually changes.
+ *
+ * @author jsanca
+ */
+public class MetaDataCache extends DigestKeyedCache<MetaData> {
+
+}
@@ -6,7 +6,9 @@ import com.dotcms.saml.SamlConfigurationService;
 import com.dotcms.saml.SamlName;
 import com.dotcms.saml.service.external.MetaData;
 import com.dotcms.saml.service.internal.MetaDataService;
+import com.dotcms.saml.service.InvalidateAware;
 import com.dotcms.saml.service.internal.MetaDescriptorService;
+import com.dotcms.saml.utils.DigestUtil;
 import com.dotcms.saml.utils.InstanceUtil;
 import org.apache.commons.io.input.ReaderInputStream;
 import org.opensaml.security.credential.Credential;
@@ -19,23 +21,48 @@ import java.util.Collections;
 
 /**
  * This service provides the encapsulation to interact with the SP and IDP metadata.
+ * The parsed metadata is cached per IdP config id and only parsed again when the metadata content changes.
  * 
  * @author jsanca
  */
-public class MetaDataServiceImpl implements MetaDataService {
+public class MetaDataServiceImpl implements MetaDataService, InvalidateAware {
 
 	private final SamlConfigurationService samlConfigurationService;
 	private final MessageObserver          messageObserver;
+	private final MetaDataCache            metaDataCache;
 
 	public MetaDataServiceImpl(final SamlConfigurationService samlConfigurationService,
 							   final MessageObserver messageObserver) {
 
+		this(samlConfigurationService, messageObserver, new MetaDataCache());
+	}
+
+	public MetaDataServiceImpl(final SamlConfigurationService samlConfigurationService,
+							   final MessageObserver messageObserver,
+							   final MetaDataCache metaDataCache) {
+
 		this.samlConfigurationService = samlConfigurationService;
 		this.messageObserver = messageObserver;
+		this.metaDataCache   = metaDataCache;
+	}
+
+	/**
+	 * Returns the cache used to keep the parsed metadata, mostly to check the hits/misses/rebuilds stats.
+	 * @return MetaDataCache
+	 */
+	public MetaDataCache getMetaDataCache() {
+		return metaDataCache;
+	}
+
+	@Override
+	public void invalidate() {
+
+		this.metaDataCache.invalidate();
 	}
 
 	/**
 	 * Gets the IDP metadata, null if it can not be created.
+	 * The metadata is parsed once per content digest (and parser class), subsequent calls returns the cached one.
 	 * 
 	 * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
 	 * @return MetaDataBean
@@ -43,10 +70,19 @@ public class MetaDataServiceImpl implements MetaDataService {
 	@Override
 	public MetaData getMetaData(final IdentityProviderConfiguration identityProviderConfiguration) {
 
+		final String parserClassName = this.samlConfigurationService.getConfigAsString(identityProviderConfiguration,
+				SamlName.DOT_SAML_IDP_METADATA_PARSER_CLASS_NAME);
+		final String digest = DigestUtil.sha256(identityProviderConfiguration.getIdPMetadataFile()) + ':' + parserClassName;
+
+		return this.metaDataCache.get(identityProviderConfiguration.getId(), digest,
+				()-> this.parseMetaData(identityProviderConfiguration, parserClassName));
+	}
+
+	private MetaData parseMetaData(final IdentityProviderConfiguration identityProviderConfiguration,
+								   final String parserClassName) {
+
 		MetaData metadataBean = null;
-		final MetaDescriptorService descriptorParser = InstanceUtil.newInstance(
-				this.samlConfigurationService.getConfigAsString(identityProviderConfiguration,
-						SamlName.DOT_SAML_IDP_METADATA_PARSER_CLASS_NAME),
+		final MetaDescriptorService descriptorParser = InstanceUtil.newInstance(parserClassName,
 				()-> InstanceUtil.getInstance(MetaDescriptorService.class));
 
 		try (InputStream inputStream = new ReaderInputStream(new CharArrayReader(
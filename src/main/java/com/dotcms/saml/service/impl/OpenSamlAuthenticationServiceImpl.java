@@ -3,29 +3,32 @@ package com.dotcms.saml.service.impl;
 import com.dotcms.saml.Attributes;
 import com.dotcms.saml.IdentityProviderConfiguration;
 import com.dotcms.saml.MessageObserver;
-import com.dotcms.saml.SamlAuthenticationService;
 import com.dotcms.saml.SamlConfigurationService;
-import com.dotcms.saml.SamlName;
 import com.dotcms.saml.SamlNameID;
 import com.dotcms.saml.service.external.AdditionalInfoValue;
 import com.dotcms.saml.service.external.AdditionalInformationType;
 import com.dotcms.saml.service.external.AttributesNotFoundException;
+import com.dotcms.saml.service.external.MultiValuedAttributes;
+import com.dotcms.saml.service.external.MultiValuedSamlAuthenticationService;
 import com.dotcms.saml.service.external.NotNullEmailAllowedException;
+import com.dotcms.saml.service.external.RoleSet;
 import com.dotcms.saml.service.handler.AssertionResolverHandler;
 import com.dotcms.saml.service.handler.AssertionResolverHandlerFactory;
 import com.dotcms.saml.service.handler.AuthenticationHandler;
 import com.dotcms.saml.service.handler.AuthenticationResolverHandlerFactory;
 import com.dotcms.saml.service.handler.LogoutHandler;
 import com.dotcms.saml.service.handler.LogoutResolverHandlerFactory;
+import com.dotcms.saml.service.impl.AttributeMappingPlan.AttributeMapping;
 import com.dotcms.saml.service.init.Initializer;
 import com.dotcms.saml.service.internal.MetaDescriptorService;
 import com.dotcms.saml.service.internal.SamlCoreService;
+import com.dotcms.saml.utils.AttributeValueExtractor;
 import com.dotcms.saml.utils.MetaDataXMLPrinter;
+import com.dotcms.saml.utils.SamlDiagnostics;
 import com.dotcms.saml.utils.SamlUtils;
 import com.dotmarketing.exception.DotRuntimeException;
 import com.dotmarketing.util.Logger;
 import com.dotmarketing.util.json.JSONObject;
-import com.liferay.util.StringPool;
 import org.apache.commons.lang.StringUtils;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.saml.saml2.core.Assertion;
@@ -38,11 +41,9 @@ import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 
 /**
  * Open Saml implementation
@@ -55,7 +56,7 @@ import java.util.Objects;
  * Also renders the metadata and have some util methods to retrieve values form the attributes
  * @author jsanca
  */
-public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationService {
+public class OpenSamlAuthenticationServiceImpl implements MultiValuedSamlAuthenticationService {
 
     public static final String ADDITIONAL_INFO = "additionalInfo";
     private final LogoutResolverHandlerFactory         logoutResolverHandlerFactory;
@@ -64,6 +65,7 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
     private final SamlCoreService                 samlCoreService;
     private final SamlConfigurationService        samlConfigurationService;
     private final MessageObserver                 messageObserver;
+    private final SamlDiagnostics                 diagnostics;
     private final MetaDescriptorService           metaDescriptorService;
     private final MetaDataXMLPrinter              metaDataXMLPrinter;
     private final Initializer                     initializer;
@@ -83,6 +85,7 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
         this.samlCoreService          = samlCoreService;
         this.samlConfigurationService = samlConfigurationService;
         this.messageObserver          = messageObserver;
+        this.diagnostics              = new SamlDiagnostics(messageObserver, this.getClass());
         this.metaDescriptorService    = metaDescriptorService;
         this.metaDataXMLPrinter       = new MetaDataXMLPrinter();
         this.initializer              = initializer;
@@ -185,8 +188,9 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
             final Assertion assertion = this.resolveAssertion(request, response, identityProviderConfiguration);
             // extrating the attributes form the asserrion
             attributes                = this.retrieveAttributes(assertion, identityProviderConfiguration);
+            this.releaseDOM(assertion);
 
-            this.messageObserver.updateDebug(this.getClass().getName(), "Validating user - " + attributes);
+            this.diagnostics.debug("Validating user - ", attributes);
 
         } catch (AttributesNotFoundException e) {
 
@@ -221,35 +225,20 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
         try {
 
             final Assertion assertion = this.resolveAssertion(request, response, identityProviderConfiguration);
-            this.messageObserver.updateDebug(this.getClass().getName(),
+            this.diagnostics.debug(() ->
                     "Resolving attributes - Name ID : " + assertion.getSubject().getNameID().getValue());
 
             attributes.put("nameID", assertion.getSubject().getNameID().getValue());
 
-            if (null != assertion.getAttributeStatements()) {
-                assertion.getAttributeStatements().forEach(attributeStatement -> {
+            this.visitAttributes(assertion, (name, friendlyName, values) -> {
 
-                    this.messageObserver.updateDebug(this.getClass().getName(),
-                            "Attribute Statement - local name: " + AttributeStatement.DEFAULT_ELEMENT_LOCAL_NAME + ", type: "
-                                    + AttributeStatement.TYPE_LOCAL_NAME + ", number of attributes: "
-                                    + attributeStatement.getAttributes().size());
-
-                    attributeStatement.getAttributes().forEach(attribute -> {
-
-                        this.messageObserver.updateDebug(this.getClass().getName(),
-                                "Attribute - friendly name: " + attribute.getFriendlyName() + ", name: " + attribute.getName()
-                                        + ", type: " + Attribute.TYPE_LOCAL_NAME + ", number of values: "
-                                        + attribute.getAttributeValues().size());
-
-                        final String value = attribute.getAttributeValues().get(0).getDOM().getFirstChild().getNodeValue();
-                        attributes.put(attribute.getName(), value);
-                        attributes.put(attribute.getFriendlyName(), value);
-
-                    });
-                });
-            }
+                final String value = values.isEmpty()? null: values.get(0);
+                attributes.put(name, value);
+                attributes.put(friendlyName, value);
+            });
 
             attributes.put("sessionIndex", this.getSessionIndex(assertion));
+            this.releaseDOM(assertion);
         } catch (AttributesNotFoundException e) {
 
             this.messageObserver.updateError(this.getClass().getName(), e.getMessage(), e);
@@ -263,6 +252,85 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
         return attributes;
     }
 
+    @Override
+    public MultiValuedAttributes resolveMultiValuedAttributes(final HttpServletRequest request,
+                                                              final HttpServletResponse response,
+                                                              final IdentityProviderConfiguration identityProviderConfiguration) {
+
+        return this.resolveMultiValuedAttributes(request, response, identityProviderConfiguration, null);
+    }
+
+    @Override
+    public MultiValuedAttributes resolveMultiValuedAttributes(final HttpServletRequest request,
+                                                              final HttpServletResponse response,
+                                                              final IdentityProviderConfiguration identityProviderConfiguration,
+                                                              final MultiValuedAttributes.AttributeConsumer consumer) {
+
+        try {
+
+            final Assertion assertion = this.resolveAssertion(request, response, identityProviderConfiguration);
+            if (null == assertion.getSubject() || null == assertion.getSubject().getNameID()) {
+
+                throw new AttributesNotFoundException("The SAML Assertion does not have a Subject NameID");
+            }
+
+            final String nameID = assertion.getSubject().getNameID().getValue();
+            final MultiValuedAttributes.Builder builder = new MultiValuedAttributes.Builder(
+                    null != consumer? 0: this.countAttributes(assertion));
+            this.visitAttributes(assertion, null != consumer? consumer: builder::add);
+            final String sessionIndex = this.getSessionIndex(assertion);
+            this.releaseDOM(assertion);
+
+            return builder.nameID(nameID).sessionIndex(sessionIndex).build();
+        } catch (AttributesNotFoundException e) {
+
+            this.messageObserver.updateError(this.getClass().getName(), e.getMessage(), e);
+        }
+
+        return null;
+    }
+
+    private int countAttributes(final Assertion assertion) {
+
+        int count = 0;
+        if (null != assertion.getAttributeStatements()) {
+            for (final AttributeStatement attributeStatement : assertion.getAttributeStatements()) {
+                count += attributeStatement.getAttributes().size();
+            }
+        }
+
+        return count;
+    }
+
+    // walks all the attributes of the assertion, in document order, with all their values
+    private void visitAttributes(final Assertion assertion, final MultiValuedAttributes.AttributeConsumer consumer) {
+
+        if (null != assertion.getAttributeStatements()) {
+            assertion.getAttributeStatements().forEach(attributeStatement -> {
+
+                this.diagnostics.debug(() ->
+                        "Attribute Statement - local name: " + AttributeStatement.DEFAULT_ELEMENT_LOCAL_NAME + ", type: "
+                                + AttributeStatement.TYPE_LOCAL_NAME + ", number of attributes: "
+                                + attributeStatement.getAttributes().size());
+
+                attributeStatement.getAttributes().forEach(attribute ->
+                        consumer.accept(attribute.getName(), attribute.getFriendlyName(),
+                                AttributeValueExtractor.getValues(attribute)));
+            });
+        }
+    }
+
+    // the values are already read, the DOM of the whole message (the response, if the assertion was not encrypted) is released
+    private void releaseDOM(final Assertion assertion) {
+
+        XMLObject root = assertion;
+        while (null != root.getParent()) {
+            root = root.getParent();
+        }
+
+        AttributeValueExtractor.releaseDOM(root);
+    }
+
     protected Assertion resolveAssertion(final HttpServletRequest request, final HttpServletResponse response,
                                       final IdentityProviderConfiguration identityProviderConfiguration) {
 
@@ -306,32 +374,20 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
     protected Attributes retrieveAttributes(final Assertion assertion, final IdentityProviderConfiguration identityProviderConfiguration)
             throws AttributesNotFoundException {
 
-        // First we retrieves the attributes name from the config (if they exist, otherwise will use the default names)
-        final String emailField     = this.samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOT_SAML_EMAIL_ATTRIBUTE);
-        final String firstNameField = this.samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOT_SAML_FIRSTNAME_ATTRIBUTE);
-        final String lastNameField  = this.samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOT_SAML_LASTNAME_ATTRIBUTE);
-        final String rolesField     = this.samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOT_SAML_ROLES_ATTRIBUTE);
+        // First we retrieves the attributes name from the compiled profile (if they exist, otherwise will use the default names),
+        // the compiled mapping and roles stages are only on the implementation of the profile
+        final IdpRuntimeProfile runtimeProfile = IdpRuntimeProfileRegistry.getInstance()
+                .getProfile(identityProviderConfiguration, this.samlConfigurationService);
+        final String firstNameField = runtimeProfile.getFirstNameField();
+        final String lastNameField  = runtimeProfile.getLastNameField();
 
-        // logic for the optional additional info
-        final Map<String, AdditionalInfoValue> additionalInfoMap = new HashMap<>();
+        // the attribute name/friendly name -> user field (or additional info) table, compiled once per profile
+        final AttributeMappingPlan mappingPlan = runtimeProfile.getAttributeMappingPlan();
         final Map<String, Object> additionalAttributes = new HashMap<>();
-        if (identityProviderConfiguration.containsOptionalProperty(ADDITIONAL_INFO)) {
-            final String additionalInfoValue = (String) identityProviderConfiguration.getOptionalProperty(ADDITIONAL_INFO);
-            parseAdditionalInfoMap(additionalInfoMap, additionalInfoValue);
-        }
         // this is configuration when some of these props is null
-        final String firstNameForNullValue = this.samlConfigurationService.getConfigAsString(identityProviderConfiguration,  SamlName.DOT_SAML_FIRSTNAME_ATTRIBUTE_NULL_VALUE);
-        final String lastNameForNullValue  = this.samlConfigurationService.getConfigAsString(identityProviderConfiguration,  SamlName.DOT_SAML_LASTNAME_ATTRIBUTE_NULL_VALUE);
-        final boolean allowNullEmail       = this.samlConfigurationService.getConfigAsBoolean(identityProviderConfiguration, SamlName.DOT_SAML_EMAIL_ATTRIBUTE_ALLOW_NULL);
-
-        final String customConfiguration = new StringBuilder(
-                SamlName.DOT_SAML_EMAIL_ATTRIBUTE.getPropertyName()).append("=").append(emailField)
-                .append(",").append(SamlName.DOT_SAML_FIRSTNAME_ATTRIBUTE.getPropertyName())
-                .append("=").append(firstNameField).append(",")
-                .append(SamlName.DOT_SAML_LASTNAME_ATTRIBUTE.getPropertyName()).append("=")
-                .append(lastNameField).append(",")
-                .append(SamlName.DOT_SAML_ROLES_ATTRIBUTE.getPropertyName()).append("=")
-                .append(rolesField).toString();
+        final String firstNameForNullValue = runtimeProfile.getFirstNameForNullValue();
+        final String lastNameForNullValue  = runtimeProfile.getLastNameForNullValue();
+        final boolean allowNullEmail       = runtimeProfile.isAllowNullEmail();
 
         final Attributes.Builder attrBuilder = new Attributes.Builder();
 
@@ -339,86 +395,89 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
 
         final String nameId = assertion.getSubject().getNameID().getValue();
 
-        this.messageObserver.updateDebug(this.getClass().getName(),
+        this.diagnostics.debug(() ->
                 "Resolving attributes - Name ID : " + assertion.getSubject().getNameID().getValue());
 
         final NameID rawNameID = assertion.getSubject().getNameID();
-        attrBuilder.nameID(new SamlNameID(SamlUtils.toXMLObjectString(rawNameID), rawNameID.getValue()));
+        attrBuilder.nameID(new SamlNameID(SamlUtils.toSessionNameIDString(rawNameID), rawNameID.getValue()));
 
-        this.messageObserver.updateDebug(this.getClass().getName(),
+        this.diagnostics.debug(() ->
                 "Elements of type AttributeStatement in assertion : " + assertion.getAttributeStatements().size());
         if (null != assertion.getAttributeStatements()) {
             assertion.getAttributeStatements().forEach(attributeStatement -> {
 
-                this.messageObserver.updateDebug(this.getClass().getName(),
+                this.diagnostics.debug(() ->
                         "Attribute Statement - local name: " + AttributeStatement.DEFAULT_ELEMENT_LOCAL_NAME + ", type: "
                                 + AttributeStatement.TYPE_LOCAL_NAME + ", number of attributes: "
                                 + attributeStatement.getAttributes().size());
 
                 attributeStatement.getAttributes().forEach(attribute -> {
 
-                    this.messageObserver.updateDebug(this.getClass().getName(),
+                    this.diagnostics.debug(() ->
                             "Attribute - friendly name: " + attribute.getFriendlyName() + ", name: " + attribute.getName()
                                     + ", type: " + Attribute.TYPE_LOCAL_NAME + ", number of values: "
                                     + attribute.getAttributeValues().size());
 
-                    if ((attribute.getName() != null && attribute.getName().equals(emailField))
-                            || (attribute.getFriendlyName() != null && attribute.getFriendlyName().equals(emailField))) {
-
-                        this.resolveEmail(emailField, attrBuilder, attribute, nameId, allowNullEmail);
-                    } else if ((attribute.getName() != null && attribute.getName().equals(lastNameField))
-                            || (attribute.getFriendlyName() != null && attribute.getFriendlyName().equals(lastNameField))) {
-
-                        this.messageObserver.updateDebug(this.getClass().getName(),
-                                "Resolving attribute - LastName : " + lastNameField);
+                    final AttributeMapping attributeMapping = mappingPlan.resolve(attribute.getName(), attribute.getFriendlyName());
+                    if (null == attributeMapping) {
 
-                        final String lastName = StringUtils.isNotBlank(
-                                attribute.getAttributeValues().get(0).getDOM().getFirstChild().getNodeValue())
-                                ? attribute.getAttributeValues().get(0).getDOM().getFirstChild().getNodeValue()
-                                : checkDefaultValue(lastNameForNullValue, lastNameField + " attribute is null",
-                                lastNameField + " is null and the default is null too");
-
-                        attrBuilder.lastName(lastName);
-
-                        this.messageObserver.updateDebug(this.getClass().getName(),
-                                "Resolved attribute - lastName : " + attrBuilder.getLastName());
-                    } else if ((attribute.getName() != null && attribute.getName().equals(firstNameField))
-                            || (attribute.getFriendlyName() != null
-                            && attribute.getFriendlyName().equals(firstNameField))) {
-
-                        this.messageObserver.updateDebug(this.getClass().getName(),
-                                "Resolving attribute - firstName : " + firstNameField);
-
-                        final String firstName = StringUtils.isNotBlank(
-                                attribute.getAttributeValues().get(0).getDOM().getFirstChild().getNodeValue())
-                                ? attribute.getAttributeValues().get(0).getDOM().getFirstChild().getNodeValue()
-                                : checkDefaultValue(firstNameForNullValue, firstNameField + " attribute is null",
-                                firstNameField + " is null and the default is null too");
-
-                        attrBuilder.firstName(firstName);
-
-                        this.messageObserver.updateDebug(this.getClass().getName(),
-                                "Resolved attribute - firstName : " + attrBuilder.getFirstName());
-                    } else if ((attribute.getName() != null && attribute.getName().equals(rolesField))
-                            || (attribute.getFriendlyName() != null && attribute.getFriendlyName().equals(rolesField))) {
-
-                        this.messageObserver.updateDebug(this.getClass().getName(), "Resolving attribute - roles : " + rolesField);
-                        attrBuilder.addRoles(true).roles(attribute);
-                        this.messageObserver.updateDebug(this.getClass().getName(), "Resolving attributes - roles : " + attribute);
-                    } else {
-
-                        // in case the attribute do not match with any of the legacy props, lets try the additional information
-                        if (additionalInfoMap.containsKey(attribute.getName()) || additionalInfoMap.containsKey(attribute.getFriendlyName())) {
-
-                            final String key = Objects.isNull(attribute.getName())? attribute.getFriendlyName() : attribute.getName();
-                            final AdditionalInfoValue additionalInfoValue = additionalInfoMap.get(key);
+                        this.diagnostics.debug(() ->
+                                attribute.getName() + " attribute did not match any user property in the idpConfig: " + mappingPlan);
+                        return;
+                    }
 
+                    switch (attributeMapping.getTarget()) {
+
+                        case EMAIL:
+                            this.resolveEmail(attributeMapping.getFieldName(), attrBuilder, attribute, nameId, allowNullEmail);
+                            break;
+                        case LAST_NAME:
+                            this.diagnostics.debug(() ->
+                                    "Resolving attribute - LastName : " + lastNameField);
+
+                            final String lastNameValue = AttributeValueExtractor.getFirstValue(attribute);
+                            final String lastName = StringUtils.isNotBlank(lastNameValue)
+                                    ? lastNameValue
+                                    : checkDefaultValue(lastNameForNullValue, lastNameField + " attribute is null",
+                                    lastNameField + " is null and the default is null too");
+
+                            attrBuilder.lastName(lastName);
+
+                            this.diagnostics.debug(() ->
+                                    "Resolved attribute - lastName : " + attrBuilder.getLastName());
+                            break;
+                        case FIRST_NAME:
+                            this.diagnostics.debug(() ->
+                                    "Resolving attribute - firstName : " + firstNameField);
+
+                            final String firstNameValue = AttributeValueExtractor.getFirstValue(attribute);
+                            final String firstName = StringUtils.isNotBlank(firstNameValue)
+                                    ? firstNameValue
+                                    : checkDefaultValue(firstNameForNullValue, firstNameField + " attribute is null",
+                                    firstNameField + " is null and the default is null too");
+
+                            attrBuilder.firstName(firstName);
+
+                            this.diagnostics.debug(() ->
+                                    "Resolved attribute - firstName : " + attrBuilder.getFirstName());
+                            break;
+                        case ROLES:
+                            this.diagnostics.debug(() -> "Resolving attribute - roles : " + attributeMapping.getFieldName());
+                            final RoleExtractor roleExtractor = runtimeProfile.getRoleExtractor();
+                            if (null != runtimeProfile.getRoleExtractorError()) {
+
+                                this.diagnostics.warning("The roles patterns of the idp: " + identityProviderConfiguration.getId() +
+                                        " are not valid, the roles won't be filtered: " + runtimeProfile.getRoleExtractorError().getMessage());
+                            }
+                            final Object roles = null != roleExtractor?
+                                    roleExtractor.extract(AttributeValueExtractor.getValues(attribute)): attribute;
+                            attrBuilder.addRoles(true).roles(roles);
+                            this.diagnostics.debug(() -> "Resolving attributes - roles : " + roles);
+                            break;
+                        default:
+                            // the attribute do not match with any of the legacy props, but it is on the additional information
+                            final AdditionalInfoValue additionalInfoValue = attributeMapping.getAdditionalInfoValue();
                             additionalAttributes.put(additionalInfoValue.getAliasKey(), parseValue (attribute, additionalInfoValue.getType()));
-                        } else {
-                            final String attributeName = attribute.getName();
-                            this.messageObserver.updateDebug(this.getClass().getName(),
-                                    attributeName + " attribute did not match any user property in the idpConfig: " + customConfiguration);
-                        }
                     }
                 });
             });
@@ -426,17 +485,17 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
 
         attrBuilder.sessionIndex(this.getSessionIndex(assertion));
 
-        this.messageObserver.updateInfo(this.getClass().getName(), "additionalAttributes: " + additionalAttributes);
+        this.diagnostics.info(() -> "additionalAttributes: " + additionalAttributes);
 
         if (additionalAttributes.size() > 0) {
             attrBuilder.additionalAttributes(additionalAttributes);
         }
 
         Attributes attributes = attrBuilder.build();
-        this.messageObserver.updateDebug(this.getClass().getName(), "-> Value of attributesBean = " + attributes.toString());
+        this.diagnostics.debug("-> Value of attributesBean = ", attributes);
         attributes = this.doubleCheckAttributes(attributes, firstNameField, firstNameForNullValue, lastNameField,
                 lastNameForNullValue, allowNullEmail);
-        this.messageObserver.updateDebug(this.getClass().getName(), "-> Double Checked attributes = " + attributes);
+        this.diagnostics.debug("-> Double Checked attributes = ", attributes);
 
         return attributes;
     }
@@ -461,25 +520,7 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
     protected void parseAdditionalInfoMap(final Map<String, AdditionalInfoValue> additionalInfoMap,
                                           final String additionalInfoValue) {
 
-        final String [] additionalInfoConfigTokens = additionalInfoValue.split(StringPool.COMMA);
-        for (String additionalInfoConfigToken : additionalInfoConfigTokens) {
-
-            final String [] parsedAdditionalInfoConfigToken = additionalInfoConfigToken.split("\\"+StringPool.PIPE);
-            if (parsedAdditionalInfoConfigToken.length > 0) {
-
-                final AdditionalInformationType additionInformationType = (parsedAdditionalInfoConfigToken.length >= 2 &&
-                        Objects.nonNull(parsedAdditionalInfoConfigToken[1])) ?
-                        AdditionalInformationType.valueOf(parsedAdditionalInfoConfigToken[1].toUpperCase()) :
-                        AdditionalInformationType.SINGLE; // default if not qualified
-
-                final String key = (parsedAdditionalInfoConfigToken.length >= 3 &&
-                        Objects.nonNull(parsedAdditionalInfoConfigToken[2])) ?
-                        parsedAdditionalInfoConfigToken[2]:
-                        parsedAdditionalInfoConfigToken[0];
-
-                additionalInfoMap.put(parsedAdditionalInfoConfigToken[0], new AdditionalInfoValue(key, additionInformationType));
-             }
-        }
+        additionalInfoMap.putAll(IdpRuntimeProfile.parseAdditionalInfo(additionalInfoValue));
     } //parseAdditionalInfoMap
 
     /**
@@ -493,11 +534,11 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
         switch (additionInformationType) {
 
             case JSON:
-                return new JSONObject(attribute.getAttributeValues().get(0).getDOM().getFirstChild().getNodeValue());
+                return new JSONObject(AttributeValueExtractor.getFirstValue(attribute));
             case COLLECTION:
                 return getValues(attribute);
             default:
-                return attribute.getAttributeValues().get(0).getDOM().getFirstChild().getNodeValue();
+                return AttributeValueExtractor.getFirstValue(attribute);
         }
     }
 
@@ -572,15 +613,15 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
     protected void resolveEmail(final String emailField, final Attributes.Builder attributesBuilder,
                               final Attribute attribute, final String nameId, final boolean allowNullEmail) {
 
-        this.messageObserver.updateDebug(this.getClass().getName(), "Resolving attribute - Email : " + emailField);
+        this.diagnostics.debug(() -> "Resolving attribute - Email : " + emailField);
 
-        String emailValue = attribute.getAttributeValues().get(0).getDOM().getFirstChild().getNodeValue();
+        String emailValue = AttributeValueExtractor.getFirstValue(attribute);
 
         emailValue = StringUtils.isBlank(emailValue)? createNoReplyEmail(nameId, allowNullEmail) : emailValue;
 
         attributesBuilder.email(emailValue);
 
-        this.messageObserver.updateDebug(this.getClass().getName(),  "Resolved attribute - Email : " + attributesBuilder.getEmail());
+        this.diagnostics.debug(() -> "Resolved attribute - Email : " + attributesBuilder.getEmail());
     }
 
     /**
@@ -603,7 +644,7 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
         final String emailValue = new StringBuilder(NO_REPLY).append(sanitizeNameId(nameId)).append(NO_REPLY_DOTCMS_COM)
                 .toString();
 
-        this.messageObserver.updateDebug(this.getClass().getName(),
+        this.diagnostics.debug(() ->
                 "UserID '" + nameId + "' has been assigned email '" + emailValue + "'");
 
         return emailValue;
@@ -627,9 +668,7 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
             throw new DotRuntimeException("SAML Assertion is null");
         }
 
-        final boolean allowEmptyAttrs = identityProviderConfiguration.containsOptionalProperty("saml.allow.empty.attrs")?
-                Boolean.parseBoolean(identityProviderConfiguration.getOptionalProperty("saml.allow.empty.attrs").toString()): true;
-        this.samlConfigurationService.getConfigAsBoolean(identityProviderConfiguration, SamlName.DOT_SAML_EMAIL_ATTRIBUTE);
+        final boolean allowEmptyAttrs = this.samlCoreService.getRuntimeProfile(identityProviderConfiguration).isAllowEmptyAttributes();
         if (null == assertion.getAttributeStatements() || assertion.getAttributeStatements().isEmpty()) {
 
             if (allowEmptyAttrs) {
@@ -693,7 +732,7 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
         } else if (samlObject instanceof NameID nameID) {
             return nameID.getValue();
         } else if (samlObject instanceof XMLObject xmlObject) {
-            return xmlObject.getDOM().getFirstChild().getNodeValue();
+            return AttributeValueExtractor.getValue(xmlObject);
         }
 
         return null != samlObject? samlObject.toString(): null;
@@ -707,17 +746,11 @@ public class OpenSamlAuthenticationServiceImpl implements SamlAuthenticationServ
     @Override
     public List<String> getValues(final Object samlObject) {
 
-        List<String> values = null;
-
-        if (samlObject instanceof Attribute) {
+        if (samlObject instanceof RoleSet roleSet) {
 
-            values = new ArrayList<>();
-            for (final XMLObject childSamlObject : Attribute.class.cast(samlObject).getAttributeValues()) {
-
-                values.add(this.getValue(childSamlObject));
-            }
+            return roleSet.getValues();
         }
 
-        return values;
+        return samlObject instanceof Attribute attribute? AttributeValueExtractor.getValues(attribute): null;
     }
 }
@@ -2,22 +2,27 @@ package com.dotcms.saml.service.impl;
 
 import com.dotcms.saml.service.InvalidateAware;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * This class is used to parse HTML without using velocity
+ * This class is used to parse HTML without using velocity.
+ * Each template is compiled once into literal segments (already encoded to UTF-8) and the ${key} slots between them,
+ * so rendering is a single pass writing the literals and the values of the context, without replacing strings.
  * @author jsanca
  */
 public class RawTemplateProcessor implements InvalidateAware {
 
-    private final Map<String, String> templateContentMap = new ConcurrentHashMap<>();
+    private final Map<String, CompiledTemplate> compiledTemplateMap = new ConcurrentHashMap<>();
 
     private static class SingletonHolder {
         private static final RawTemplateProcessor INSTANCE = new RawTemplateProcessor();
@@ -33,42 +38,115 @@ public class RawTemplateProcessor implements InvalidateAware {
     @Override
     public void invalidate() {
 
-        templateContentMap.clear();
+        compiledTemplateMap.clear();
     }
 
     public void renderTemplateFile (final Writer out, final Map<String, String> contextMap, final String templateFile) throws IOException {
 
-        this.renderTemplateContent(out, contextMap, this.getTemplateContent(templateFile));
+        this.getCompiledTemplate(templateFile).render(out, contextMap);
     }
 
-    private String getTemplateContent (final String templateFile) throws IOException {
+    /**
+     * Renders the template file straight to the output stream, the output is UTF-8
+     * @param out          {@link OutputStream}
+     * @param contextMap   {@link Map}
+     * @param templateFile {@link String}
+     * @throws IOException
+     */
+    public void renderTemplateFile (final OutputStream out, final Map<String, String> contextMap, final String templateFile) throws IOException {
 
-        if (!this.templateContentMap.containsKey(templateFile)) {
+        this.getCompiledTemplate(templateFile).render(out, contextMap);
+    }
+
+    private CompiledTemplate getCompiledTemplate (final String templateFile) throws IOException {
+
+        CompiledTemplate compiledTemplate = this.compiledTemplateMap.get(templateFile);
+        if (null == compiledTemplate) {
 
             final StringWriter stringWriter = new StringWriter();
             try (final InputStream in = this.getClass().getResourceAsStream(templateFile )) {
 
                 IOUtils.copy(in, stringWriter, "UTF-8");
             }
-            this.templateContentMap.put(templateFile, stringWriter.toString());
+            compiledTemplate = new CompiledTemplate(stringWriter.toString());
+            this.compiledTemplateMap.put(templateFile, compiledTemplate);
         }
 
-        return this.templateContentMap.get(templateFile);
+        return compiledTemplate;
     }
 
     public void renderTemplateContent (final Writer out, final Map<String, String> contextMap, final String templateContent) throws IOException {
 
-        String parserContent = templateContent;
-        for (final Map.Entry<String, String> contextEntry : contextMap.entrySet()) {
+        new CompiledTemplate(templateContent).render(out, contextMap);
+    }
 
-            parserContent = StringUtils.replace(parserContent, this.wrapKey(contextEntry.getKey()), contextEntry.getValue());
-        }
+    private static String wrapKey(final String key) {
 
-        out.write(parserContent);
+        return "${" + key + "}";
     }
 
-    private String wrapKey(final String key) {
+    /**
+     * Template split on its slots: literals[0] slot[0] literals[1] ... slot[n-1] literals[n].
+     * A slot without value on the context is written as it is, as the placeholder
+     */
+    private static final class CompiledTemplate {
+
+        private final String[] literals;
+        private final byte[][] encodedLiterals;
+        private final String[] keys;
+        private final byte[][] encodedPlaceholders;
+
+        private CompiledTemplate(final String templateContent) {
+
+            final List<String> literalList = new ArrayList<>();
+            final List<String> keyList     = new ArrayList<>();
+            int start = 0;
+            int index;
+            while ((index = templateContent.indexOf("${", start)) >= 0) {
+
+                final int end = templateContent.indexOf('}', index + 2);
+                if (end < 0) {
+                    break;
+                }
+
+                literalList.add(templateContent.substring(start, index));
+                keyList.add(templateContent.substring(index + 2, end));
+                start = end + 1;
+            }
+            literalList.add(templateContent.substring(start));
+
+            this.literals            = literalList.toArray(new String[0]);
+            this.keys                = keyList.toArray(new String[0]);
+            this.encodedLiterals     = new byte[this.literals.length][];
+            this.encodedPlaceholders = new byte[this.keys.length][];
+            for (int i = 0; i < this.literals.length; ++i) {
+                this.encodedLiterals[i] = this.literals[i].getBytes(StandardCharsets.UTF_8);
+            }
+            for (int i = 0; i < this.keys.length; ++i) {
+                this.encodedPlaceholders[i] = wrapKey(this.keys[i]).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        private void render(final OutputStream out, final Map<String, String> contextMap) throws IOException {
 
-        return "${" + key + "}";
+            for (int i = 0; i < this.keys.length; ++i) {
+
+                out.write(this.encodedLiterals[i]);
+                final String value = contextMap.get(this.keys[i]);
+                out.write(null != value? value.getBytes(StandardCharsets.UTF_8): this.encodedPlaceholders[i]);
+            }
+            out.write(this.encodedLiterals[this.keys.length]);
+        }
+
+        private void render(final Writer out, final Map<String, String> contextMap) throws IOException {
+
+            for (int i = 0; i < this.keys.length; ++i) {
+
+                out.write(this.literals[i]);
+                final String value = contextMap.get(this.keys[i]);
+                out.write(null != value? value: wrapKey(this.keys[i]));
+            }
+            out.write(this.literals[this.keys.length]);
+        }
     }
 }
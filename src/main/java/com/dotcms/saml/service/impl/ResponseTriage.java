@@ -0,0 +1,262 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.service.external.SamlException;
+import com.dotcms.saml.service.internal.RuntimeProfile;
+import com.dotmarketing.util.Config;
+import io.vavr.control.Try;
+import org.apache.commons.lang.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.Status;
+import org.opensaml.saml.saml2.core.StatusCode;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.util.Base64;
+
+/**
+ * Cheap triage of the SAMLResponse posted to the assertion consumer endpoint, before any DOM is built.
+ * The Base64 message is size limited and decoded once, then the start of the xml (up to the Status) is scanned with
+ * StAX to get the Destination, IssueInstant, InResponseTo, Issuer and the status code; so the stale, unsuccessful
+ * or not expected messages (bots, broken retries of the IdP) are rejected without parsing and unmarshalling them.
+ * The checks are the same of the {@link ResponseValidationChain} of the idp, which still runs over the unmarshalled response.
+ *
+ * @author jsanca
+ */
+public class ResponseTriage {
+
+    /**
+     * Max number of chars of the Base64 SAMLResponse parameter
+     */
+    public static final String DOT_SAML_RESPONSE_MAX_SIZE = "dotcms.saml.response.max.size";
+    public static final int    DOT_SAML_RESPONSE_MAX_SIZE_DEFAULT_VALUE = 1024 * 1024;
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    private final int maxEncodedSize;
+
+    private static class SingletonHolder {
+        private static final ResponseTriage INSTANCE = new ResponseTriage(
+                Try.of(()->Config.getIntProperty(DOT_SAML_RESPONSE_MAX_SIZE, DOT_SAML_RESPONSE_MAX_SIZE_DEFAULT_VALUE))
+                        .getOrElse(DOT_SAML_RESPONSE_MAX_SIZE_DEFAULT_VALUE));
+    }
+
+    public static ResponseTriage getInstance() {
+        return ResponseTriage.SingletonHolder.INSTANCE;
+    }
+
+    protected ResponseTriage(final int maxEncodedSize) {
+
+        this.maxEncodedSize = maxEncodedSize;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+
+        final XMLInputFactory inputFactory = XMLInputFactory.newFactory();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return inputFactory;
+    }
+
+    /**
+     * Decodes and checks the posted response, throws {@link SamlException} if the message has to be rejected.
+     * @param encodedResponse    {@link String} the Base64 SAMLResponse parameter
+     * @param runtimeProfile     {@link RuntimeProfile} the clock skew, lifetime and the response.validate.* flags are used
+     * @param expectationContext {@link ResponseValidationChain.ExpectationContext} the expected values, a null value skips its check
+     * @return byte [] the decoded response, so it does not have to be decoded again
+     */
+    public byte[] triage(final String encodedResponse, final RuntimeProfile runtimeProfile,
+                         final ResponseValidationChain.ExpectationContext expectationContext) {
+
+        if (StringUtils.isBlank(encodedResponse)) {
+
+            throw new SamlException("The SAML Response is empty");
+        }
+
+        if (encodedResponse.length() > this.maxEncodedSize) {
+
+            throw new SamlException("The SAML Response size: " + encodedResponse.length() +
+                    " exceeds the max allowed: " + this.maxEncodedSize);
+        }
+
+        final byte[] decodedResponse = Try.of(()->Base64.getMimeDecoder().decode(encodedResponse))
+                .getOrElseThrow(e -> new SamlException("The SAML Response is not Base64 encoded: " + e.getMessage(), e));
+
+        this.check(this.scan(decodedResponse), runtimeProfile, expectationContext);
+
+        return decodedResponse;
+    }
+
+    void check(final ScannedResponse scannedResponse, final RuntimeProfile runtimeProfile,
+               final ResponseValidationChain.ExpectationContext expectationContext) {
+
+        // same rules of the MessageLifetimeSecurityHandler
+        final DateTime issueInstant = Try.of(()->ISODateTimeFormat.dateTimeParser().withOffsetParsed()
+                .parseDateTime(scannedResponse.getIssueInstant())).getOrNull();
+        if (null == issueInstant) {
+
+            throw new SamlException("The SAML Response IssueInstant is not valid: " + scannedResponse.getIssueInstant());
+        }
+
+        if (issueInstant.minus(runtimeProfile.getClockSkew()).isAfterNow()) {
+
+            throw new SamlException("The SAML Response was issued in the future: " + scannedResponse.getIssueInstant());
+        }
+
+        if (issueInstant.plus(runtimeProfile.getMessageLifeTime() + runtimeProfile.getClockSkew()).isBeforeNow()) {
+
+            throw new SamlException("The SAML Response is expired, it was issued at: " + scannedResponse.getIssueInstant());
+        }
+
+        if (runtimeProfile.isValidateDestination() && null != expectationContext.getDestination() &&
+                null != scannedResponse.getDestination() &&
+                !ResponseValidationChain.isExpectedDestination(expectationContext.getDestination(), scannedResponse.getDestination())) {
+
+            throw new SamlException("The SAML Response destination: " + scannedResponse.getDestination() +
+                    " is not the expected: " + expectationContext.getDestination());
+        }
+
+        if (runtimeProfile.isValidateIssuer() && null != expectationContext.getIssuer() &&
+                null != scannedResponse.getIssuer() && !expectationContext.getIssuer().equals(scannedResponse.getIssuer())) {
+
+            throw new SamlException("The SAML Response issuer: " + scannedResponse.getIssuer() +
+                    " is not the expected: " + expectationContext.getIssuer());
+        }
+
+        if (runtimeProfile.isValidateInResponseTo() && StringUtils.isBlank(scannedResponse.getInResponseTo())) {
+
+            throw new SamlException("The SAML Response is unsolicited, it does not have InResponseTo");
+        }
+
+        if (runtimeProfile.isValidateInResponseTo() && null != expectationContext.getInResponseTo() &&
+                !expectationContext.getInResponseTo().equals(scannedResponse.getInResponseTo())) {
+
+            throw new SamlException("The SAML Response InResponseTo: " + scannedResponse.getInResponseTo() +
+                    " is not the expected: " + expectationContext.getInResponseTo());
+        }
+
+        if (!StatusCode.SUCCESS.equals(scannedResponse.getStatusCode())) {
+
+            throw new SamlException("SAML status code was NOT successful: " + scannedResponse.getStatusCode());
+        }
+    }
+
+    /**
+     * Scans the xml up to the top level status code, the rest of the message (signature, assertions) is not read
+     * @param decodedResponse byte []
+     * @return ScannedResponse
+     */
+    ScannedResponse scan(final byte[] decodedResponse) {
+
+        XMLStreamReader reader = null;
+
+        try {
+
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(decodedResponse));
+            final ScannedResponse scannedResponse = new ScannedResponse();
+            boolean inStatus = false;
+            int depth = 0;
+
+            while (reader.hasNext()) {
+
+                final int event = reader.next();
+                if (XMLStreamConstants.DTD == event) {
+
+                    throw new SamlException("The SAML Response can not have a DTD");
+                }
+
+                if (XMLStreamConstants.START_ELEMENT == event) {
+
+                    ++depth;
+                    if (1 == depth) {
+
+                        if (!isElement(reader, SAMLConstants.SAML20P_NS, Response.DEFAULT_ELEMENT_LOCAL_NAME)) {
+
+                            throw new SamlException("The SAML message is not a Response: " + reader.getName());
+                        }
+
+                        scannedResponse.destination  = reader.getAttributeValue(null, Response.DESTINATION_ATTRIB_NAME);
+                        scannedResponse.issueInstant = reader.getAttributeValue(null, Response.ISSUE_INSTANT_ATTRIB_NAME);
+                        scannedResponse.inResponseTo = reader.getAttributeValue(null, Response.IN_RESPONSE_TO_ATTRIB_NAME);
+                    } else if (2 == depth && isElement(reader, SAMLConstants.SAML20_NS, Issuer.DEFAULT_ELEMENT_LOCAL_NAME)) {
+
+                        // reads up to the end of the issuer
+                        scannedResponse.issuer = StringUtils.trimToNull(reader.getElementText());
+                        --depth;
+                    } else if (2 == depth && isElement(reader, SAMLConstants.SAML20P_NS, Status.DEFAULT_ELEMENT_LOCAL_NAME)) {
+
+                        inStatus = true;
+                    } else if (3 == depth && inStatus &&
+                            isElement(reader, SAMLConstants.SAML20P_NS, StatusCode.DEFAULT_ELEMENT_LOCAL_NAME)) {
+
+                        scannedResponse.statusCode = reader.getAttributeValue(null, StatusCode.VALUE_ATTRIB_NAME);
+                        return scannedResponse;
+                    }
+                } else if (XMLStreamConstants.END_ELEMENT == event) {
+
+                    --depth;
+                    if (1 == depth && inStatus) {
+
+                        // status without status code
+                        return scannedResponse;
+                    }
+                }
+            }
+
+            return scannedResponse;
+        } catch (XMLStreamException e) {
+
+            throw new SamlException("The SAML Response is not a valid xml: " + e.getMessage(), e);
+        } finally {
+
+            if (null != reader) {
+
+                final XMLStreamReader readerToClose = reader;
+                Try.run(readerToClose::close);
+            }
+        }
+    }
+
+    private static boolean isElement(final XMLStreamReader reader, final String namespace, final String localName) {
+
+        return localName.equals(reader.getLocalName()) && namespace.equals(reader.getNamespaceURI());
+    }
+
+    /**
+     * Values of the response read by the scan, null if the message does not have them
+     */
+    static final class ScannedResponse {
+
+        private String destination;
+        private String issueInstant;
+        private String inResponseTo;
+        private String issuer;
+        private String statusCode;
+
+        String getDestination() {
+            return destination;
+        }
+
+        String getIssueInstant() {
+            return issueInstant;
+        }
+
+        String getInResponseTo() {
+            return inResponseTo;
+        }
+
+        String getIssuer() {
+            return issuer;
+        }
+
+        String getStatusCode() {
+            return statusCode;
+        }
+    }
+}
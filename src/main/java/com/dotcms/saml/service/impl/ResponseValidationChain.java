@@ -0,0 +1,325 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.service.external.SamlException;
+import com.dotcms.saml.service.internal.RuntimeProfile;
+import io.vavr.control.Try;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.InitializableComponent;
+import org.apache.commons.lang.StringUtils;
+import org.opensaml.messaging.context.BaseContext;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.AbstractMessageHandler;
+import org.opensaml.messaging.handler.MessageHandler;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.messaging.handler.impl.BasicMessageHandlerChain;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.binding.security.impl.MessageLifetimeSecurityHandler;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Audience;
+import org.opensaml.saml.saml2.core.AudienceRestriction;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.Response;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Validation chain of the SAML Response of an IdP, built and initialized once per {@link IdpRuntimeProfile}.
+ * The checks are ordered cheapest-first (lifetime, destination, issuer, InResponseTo, audience) and only read the
+ * decoded response, so it runs before any decryption or signature verification.
+ * The values expected on each request (such as the assertion consumer endpoint) are passed on the
+ * {@link ExpectationContext} of the message context, the handlers itself are immutable once the chain is initialized.
+ *
+ * @author jsanca
+ */
+public class ResponseValidationChain implements RuntimeProfile.ResponseValidator {
+
+    public static final String VALIDATE_DESTINATION    = "response.validate.destination";
+    public static final String VALIDATE_ISSUER         = "response.validate.issuer";
+    public static final String VALIDATE_IN_RESPONSE_TO = "response.validate.in.response.to";
+    public static final String VALIDATE_AUDIENCE       = "response.validate.audience";
+    public static final String AUTHN_REQUEST_ID_SESSION_ATTRIBUTE = "dotsaml.authn.request.id.";
+
+    private final BasicMessageHandlerChain<SAMLObject> handlerChain;
+
+    /**
+     * Creates and initializes the chain, the handlers are invoked on the order of the list
+     * @param handlers {@link List}
+     * @throws ComponentInitializationException
+     */
+    public ResponseValidationChain(final List<MessageHandler<SAMLObject>> handlers) throws ComponentInitializationException {
+
+        for (final MessageHandler<SAMLObject> handler : handlers) {
+
+            if (handler instanceof InitializableComponent && !((InitializableComponent) handler).isInitialized()) {
+
+                ((InitializableComponent) handler).initialize();
+            }
+        }
+
+        this.handlerChain = new BasicMessageHandlerChain<>();
+        this.handlerChain.setHandlers(Collections.unmodifiableList(new ArrayList<>(handlers)));
+        this.handlerChain.initialize();
+    }
+
+    /**
+     * Builds the standard chain for the profile: the message lifetime is always checked, the rest of the checks
+     * depends on the response.validate.* properties of the idp
+     * @param runtimeProfile {@link RuntimeProfile}
+     * @return ResponseValidationChain
+     */
+    public static ResponseValidationChain forProfile(final RuntimeProfile runtimeProfile) {
+
+        return build(runtimeProfile.getClockSkew(), runtimeProfile.getMessageLifeTime(),
+                runtimeProfile.isValidateDestination(), runtimeProfile.isValidateIssuer(),
+                runtimeProfile.isValidateInResponseTo(), runtimeProfile.isValidateAudience());
+    }
+
+    static ResponseValidationChain build(final long clockSkew, final long messageLifeTime,
+                                         final boolean validateDestination, final boolean validateIssuer,
+                                         final boolean validateInResponseTo, final boolean validateAudience) {
+
+        final List<MessageHandler<SAMLObject>> handlers = new ArrayList<>(5);
+        final MessageLifetimeSecurityHandler lifetimeSecurityHandler = new MessageLifetimeSecurityHandler();
+        lifetimeSecurityHandler.setClockSkew(clockSkew);
+        lifetimeSecurityHandler.setMessageLifetime(messageLifeTime);
+        lifetimeSecurityHandler.setRequiredRule(true);
+        handlers.add(lifetimeSecurityHandler);
+
+        if (validateDestination) {
+            handlers.add(new DestinationHandler());
+        }
+
+        if (validateIssuer) {
+            handlers.add(new IssuerHandler());
+        }
+
+        if (validateInResponseTo) {
+            handlers.add(new InResponseToHandler());
+        }
+
+        if (validateAudience) {
+            handlers.add(new AudienceHandler());
+        }
+
+        try {
+
+            return new ResponseValidationChain(handlers);
+        } catch (ComponentInitializationException e) {
+
+            throw new SamlException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs the checks over the response of the message context, throws {@link SamlException} on the first one that fails
+     * @param context {@link MessageContext}
+     */
+    @Override
+    public void validate(final MessageContext<SAMLObject> context) {
+
+        try {
+
+            this.handlerChain.invoke(context);
+        } catch (MessageHandlerException e) {
+
+            throw new SamlException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns true if the destination of the message is the expected one, the query strings are ignored.
+     * If the expected value is just a path (no assertion consumer endpoint configured) only the paths are compared.
+     * @param expected    {@link String}
+     * @param destination {@link String}
+     * @return boolean
+     */
+    public static boolean isExpectedDestination(final String expected, final String destination) {
+
+        final String expectedURL    = StringUtils.substringBefore(expected, "?");
+        final String destinationURL = StringUtils.substringBefore(destination, "?");
+        if (expectedURL.startsWith("/")) {
+
+            return expectedURL.equals(Try.of(()->new URI(destinationURL).getPath()).getOrElse(destinationURL));
+        }
+
+        return expectedURL.equals(destinationURL);
+    }
+
+    private static Response getResponse(final MessageContext<SAMLObject> context) {
+
+        final SAMLObject message = context.getMessage();
+        return message instanceof Response? (Response) message: null;
+    }
+
+    /**
+     * Name of the session attribute with the id of the last AuthnRequest issued to the idp, when the InResponseTo is
+     * validated it is the one expected on the response
+     * @param idpId {@link String}
+     * @return String
+     */
+    public static String getAuthnRequestIdAttribute(final String idpId) {
+
+        return AUTHN_REQUEST_ID_SESSION_ATTRIBUTE + idpId;
+    }
+
+    private static ExpectationContext getExpectations(final MessageContext<SAMLObject> context) {
+
+        final ExpectationContext expectationContext = context.getSubcontext(ExpectationContext.class);
+        return null != expectationContext? expectationContext: new ExpectationContext();
+    }
+
+    /**
+     * Values expected on the response of the current request, a null value skips its check
+     */
+    public static class ExpectationContext extends BaseContext {
+
+        private String destination;
+        private String issuer;
+        private String inResponseTo;
+        private String audience;
+
+        public String getDestination() {
+            return destination;
+        }
+
+        public void setDestination(final String destination) {
+            this.destination = destination;
+        }
+
+        public String getIssuer() {
+            return issuer;
+        }
+
+        public void setIssuer(final String issuer) {
+            this.issuer = issuer;
+        }
+
+        public String getInResponseTo() {
+            return inResponseTo;
+        }
+
+        public void setInResponseTo(final String inResponseTo) {
+            this.inResponseTo = inResponseTo;
+        }
+
+        public String getAudience() {
+            return audience;
+        }
+
+        public void setAudience(final String audience) {
+            this.audience = audience;
+        }
+    }
+
+    /**
+     * The Destination of the response (when it has one) has to be the assertion consumer endpoint
+     */
+    private static final class DestinationHandler extends AbstractMessageHandler<SAMLObject> {
+
+        @Override
+        protected void doInvoke(final MessageContext<SAMLObject> context) throws MessageHandlerException {
+
+            final Response response = getResponse(context);
+            final String expected   = getExpectations(context).getDestination();
+            if (null != response && null != expected && null != response.getDestination() &&
+                    !isExpectedDestination(expected, response.getDestination())) {
+
+                throw new MessageHandlerException("The SAML Response destination: " + response.getDestination() +
+                        " is not the expected: " + expected);
+            }
+        }
+    }
+
+    /**
+     * The Issuer of the response (when it has one) has to be the entity id of the IdP
+     */
+    private static final class IssuerHandler extends AbstractMessageHandler<SAMLObject> {
+
+        @Override
+        protected void doInvoke(final MessageContext<SAMLObject> context) throws MessageHandlerException {
+
+            final Response response = getResponse(context);
+            final String expected   = getExpectations(context).getIssuer();
+            if (null != response && null != expected && null != response.getIssuer() &&
+                    !expected.equals(response.getIssuer().getValue())) {
+
+                throw new MessageHandlerException("The SAML Response issuer: " + response.getIssuer().getValue() +
+                        " is not the expected: " + expected);
+            }
+        }
+    }
+
+    /**
+     * The response has to be solicited (has InResponseTo), and be the one of the expected request if it is known
+     */
+    private static final class InResponseToHandler extends AbstractMessageHandler<SAMLObject> {
+
+        @Override
+        protected void doInvoke(final MessageContext<SAMLObject> context) throws MessageHandlerException {
+
+            final Response response = getResponse(context);
+            if (null == response) {
+                return;
+            }
+
+            if (StringUtils.isBlank(response.getInResponseTo())) {
+
+                throw new MessageHandlerException("The SAML Response is unsolicited, it does not have InResponseTo");
+            }
+
+            final String expected = getExpectations(context).getInResponseTo();
+            if (null != expected && !expected.equals(response.getInResponseTo())) {
+
+                throw new MessageHandlerException("The SAML Response InResponseTo: " + response.getInResponseTo() +
+                        " is not the expected: " + expected);
+            }
+        }
+    }
+
+    /**
+     * The plain (not encrypted) assertions with audience restrictions have to include the SP on each of them
+     */
+    private static final class AudienceHandler extends AbstractMessageHandler<SAMLObject> {
+
+        @Override
+        protected void doInvoke(final MessageContext<SAMLObject> context) throws MessageHandlerException {
+
+            final Response response = getResponse(context);
+            final String expected   = getExpectations(context).getAudience();
+            if (null == response || null == expected) {
+                return;
+            }
+
+            for (final Assertion assertion : response.getAssertions()) {
+
+                final Conditions conditions = assertion.getConditions();
+                if (null != conditions) {
+
+                    for (final AudienceRestriction audienceRestriction : conditions.getAudienceRestrictions()) {
+
+                        if (!this.containsAudience(audienceRestriction, expected)) {
+
+                            throw new MessageHandlerException("The SAML Assertion " + assertion.getID() +
+                                    " is not intended for the audience: " + expected);
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean containsAudience(final AudienceRestriction audienceRestriction, final String expected) {
+
+            for (final Audience audience : audienceRestriction.getAudiences()) {
+
+                if (expected.equals(audience.getAudienceURI())) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
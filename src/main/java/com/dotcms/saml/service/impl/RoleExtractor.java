@@ -0,0 +1,143 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.service.external.RoleSet;
+import com.liferay.util.StringPool;
+import io.vavr.control.Try;
+import org.apache.commons.lang.StringUtils;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Role extraction stage, compiled once per {@link IdpRuntimeProfile}.
+ * The include patterns (comma separated) are combined on a single alternation, same for the exclude patterns,
+ * and the roles prefix to remove is compiled as dotCMS does (it is a regex applied with replaceFirst).
+ * The patterns are applied as dotCMS applies the include one: the role is url decoded first and the pattern has to
+ * be found on it (contains), it does not have to match the whole role.
+ * The values of the roles attribute are filtered on a single pass and de-duplicated by the role key (the decoded value
+ * without the prefix), the original values are kept since dotCMS applies the include pattern and the prefix again.
+ * A value is kept if the value or the role key contain the include pattern, and none of them contain the exclude one.
+ *
+ * @author jsanca
+ */
+public final class RoleExtractor {
+
+    private final Pattern includePattern;
+    private final Pattern excludePattern;
+    private final Pattern removePrefixPattern;
+
+    /**
+     * @param includeRolesPattern {@link String} comma separated regexes, null or blank to include all
+     * @param excludeRolesPattern {@link String} comma separated regexes, null or blank to exclude none
+     * @param removeRolesPrefix   {@link String} regex of the prefix to remove, null or blank for none
+     * @throws java.util.regex.PatternSyntaxException if any of the regexes is wrong
+     */
+    public RoleExtractor(final String includeRolesPattern, final String excludeRolesPattern,
+                         final String removeRolesPrefix) {
+
+        this.includePattern      = combine(includeRolesPattern);
+        this.excludePattern      = combine(excludeRolesPattern);
+        this.removePrefixPattern = StringUtils.isNotBlank(removeRolesPrefix)? Pattern.compile(removeRolesPrefix): null;
+    }
+
+    private static Pattern combine (final String patterns) {
+
+        final String [] patternArray = StringUtils.split(patterns, StringPool.COMMA);
+        if (null == patternArray || patternArray.length == 0) {
+
+            return null;
+        }
+
+        final StringBuilder alternation = new StringBuilder();
+        for (final String pattern : patternArray) {
+
+            if (StringUtils.isNotBlank(pattern)) {
+
+                // each one is compiled alone first, so a wrong one is reported as it is and can not break the group
+                Pattern.compile(pattern.trim());
+                alternation.append(alternation.length() > 0? StringPool.PIPE: StringPool.BLANK)
+                        .append("(?:").append(pattern.trim()).append(')');
+            }
+        }
+
+        return alternation.length() > 0? Pattern.compile(alternation.toString()): null;
+    }
+
+    /**
+     * Filters and de-duplicates the role values
+     * @param values {@link List} role values of the assertion
+     * @return RoleSet
+     */
+    public RoleSet extract(final List<String> values) {
+
+        final Matcher includeMatcher = null != this.includePattern?      this.includePattern.matcher(StringPool.BLANK): null;
+        final Matcher excludeMatcher = null != this.excludePattern?      this.excludePattern.matcher(StringPool.BLANK): null;
+        final Matcher prefixMatcher  = null != this.removePrefixPattern? this.removePrefixPattern.matcher(StringPool.BLANK): null;
+
+        final List<String> roles            = new ArrayList<>();
+        final Map<String, Integer> roleKeys = new HashMap<>();
+        // the roles kept because the value (and not only the key) matched the include pattern
+        final BitSet valueIncluded          = new BitSet();
+
+        for (final String value : values) {
+
+            if (StringUtils.isBlank(value)) {
+                continue;
+            }
+
+            final String role    = decode(value);
+            final String roleKey = null != prefixMatcher?
+                    prefixMatcher.reset(role).replaceFirst(StringPool.BLANK): role;
+            final boolean hasPrefix = !roleKey.equals(role);
+
+            if (null != excludeMatcher && (excludeMatcher.reset(role).find() ||
+                    (hasPrefix && excludeMatcher.reset(roleKey).find()))) {
+                continue;
+            }
+
+            final boolean isValueIncluded = null == includeMatcher || includeMatcher.reset(role).find();
+            if (!isValueIncluded && (!hasPrefix || !includeMatcher.reset(roleKey).find())) {
+                continue;
+            }
+
+            final Integer position = roleKeys.get(roleKey);
+            if (null == position) {
+
+                roleKeys.put(roleKey, roles.size());
+                if (isValueIncluded) {
+                    valueIncluded.set(roles.size());
+                }
+                roles.add(value);
+            } else if (isValueIncluded && !valueIncluded.get(position)) {
+
+                // same role, but this value passes the include pattern no matter if it is checked with or without prefix
+                roles.set(position, value);
+                valueIncluded.set(position);
+            }
+        }
+
+        return new RoleSet(roles.toArray(new String[0]), values.size());
+    }
+
+    // dotCMS url decodes the role before checking the include pattern, a wrong encoded role is checked as it comes
+    private static String decode(final String value) {
+
+        return Try.of(()-> URLDecoder.decode(value, StandardCharsets.UTF_8.name())).getOrElse(value);
+    }
+
+    @Override
+    public String toString() {
+        return "RoleExtractor{" +
+                "includePattern=" + includePattern +
+                ", excludePattern=" + excludePattern +
+                ", removePrefixPattern=" + removePrefixPattern +
+                '}';
+    }
+}
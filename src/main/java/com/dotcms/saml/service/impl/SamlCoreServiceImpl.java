@@ -8,11 +8,15 @@ import com.dotcms.saml.SamlName;
 import com.dotcms.saml.service.internal.CredentialProvider;
 import com.dotcms.saml.service.internal.CredentialService;
 import com.dotcms.saml.service.internal.EndpointService;
+import com.dotcms.saml.service.external.MetaData;
 import com.dotcms.saml.service.external.SamlException;
+import com.dotcms.saml.service.impl.DecryptionPathMemory.DecryptionPath;
 import com.dotcms.saml.service.internal.MetaDataService;
 import com.dotcms.saml.service.internal.SamlCoreService;
 import com.dotcms.saml.utils.EncryptedAssertionDecrypter;
 import com.dotcms.saml.utils.IdpConfigCredentialResolver;
+import com.dotcms.saml.utils.SAMLObjectBuilders;
+import com.dotcms.saml.utils.SamlDiagnostics;
 import com.dotcms.saml.utils.SamlUtils;
 import com.dotcms.saml.utils.SignatureUtils;
 import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
@@ -21,8 +25,7 @@ import net.shibboleth.utilities.java.support.resolver.ResolverException;
 import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
 import org.opensaml.core.criterion.EntityIdCriterion;
-import org.opensaml.core.xml.XMLObjectBuilderFactory;
-import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.MarshallingException;
 import org.opensaml.saml.common.SAMLVersion;
 import org.opensaml.saml.common.xml.SAMLConstants;
 import org.opensaml.saml.saml2.core.ArtifactResponse;
@@ -52,21 +55,20 @@ import org.opensaml.xmlsec.encryption.EncryptedKey;
 import org.opensaml.xmlsec.encryption.support.DecryptionException;
 import org.opensaml.xmlsec.encryption.support.InlineEncryptedKeyResolver;
 import org.opensaml.xmlsec.keyinfo.impl.StaticKeyInfoCredentialResolver;
+import org.opensaml.xmlsec.signature.Signature;
 import org.opensaml.xmlsec.signature.support.SignatureException;
 import org.opensaml.xmlsec.signature.support.SignatureValidator;
 import org.w3c.dom.DOMException;
 
 import javax.crypto.SecretKey;
 import javax.servlet.http.HttpServletRequest;
-import javax.xml.namespace.QName;
+import javax.servlet.http.HttpSession;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static com.dotmarketing.util.UtilMethods.isSet;
 
@@ -79,19 +81,19 @@ import static com.dotmarketing.util.UtilMethods.isSet;
  */
 public class SamlCoreServiceImpl implements SamlCoreService {
 
-	private static final String DEFAULT_ELEMENT_NAME = "DEFAULT_ELEMENT_NAME";
 
-	private static final XMLObjectBuilderFactory  builderFactory     = XMLObjectProviderRegistrySupport.getBuilderFactory();
-	private static final Map<String, Credential>  credentialMap      = new ConcurrentHashMap<>();
-	private static final Map<String, Credential>  idpCredentialMap   = new ConcurrentHashMap<>();
 	public static final String SKIP_REQUEST_AUTHN_CONTEXT = "skip.request.authn.context";
+	public static final String ALWAYS_VERIFY_ASSERTION_SIGNATURE = "assertion.signature.always.verify";
 
 	private final CredentialService credentialService;
 	private final EndpointService endpointService;
 	private final MetaDataService metaDataService;
 	private final MessageObserver messageObserver;
+	private final SamlDiagnostics diagnostics;
 	private final SamlConfigurationService samlConfigurationService;
 	private final IdentityProviderConfigurationFactory identityProviderConfigurationFactory;
+	private final DecryptionPathMemory decryptionPathMemory = new DecryptionPathMemory();
+	private final SigningCredentialSelector signingCredentialSelector = new SigningCredentialSelector();
 
 
 	public SamlCoreServiceImpl(final CredentialService credentialService,
@@ -105,10 +107,19 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 		this.endpointService   = endpointService;
 		this.metaDataService   = metaDataService;
 		this.messageObserver   = messageObserver;
+		this.diagnostics       = new SamlDiagnostics(messageObserver, SamlCoreServiceImpl.class);
 		this.samlConfigurationService             = samlConfigurationService;
 		this.identityProviderConfigurationFactory = identityProviderConfigurationFactory;
 	}
 
+	/**
+	 * Returns the memory of the decryption paths used per idp, mostly to check the stats
+	 * @return DecryptionPathMemory
+	 */
+	public DecryptionPathMemory getDecryptionPathMemory() {
+		return decryptionPathMemory;
+	}
+
 	/**
 	 * Build a SAML Object
 	 * 
@@ -117,21 +128,15 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 	 * @return T
 	 */
 	@Override
-	@SuppressWarnings("unchecked")
 	public <T> T buildSAMLObject(final Class<T> clazz) {
 
-		T object = null;
-		QName defaultElementName = null;
-
 		try {
-			defaultElementName = (QName) clazz.getDeclaredField(DEFAULT_ELEMENT_NAME).get(null);
-			object = (T) builderFactory.getBuilder(defaultElementName).buildObject(defaultElementName);
-		} catch (IllegalAccessException | NoSuchFieldException e) {
+			// the builder of each class is resolved just once
+			return SAMLObjectBuilders.build(clazz);
+		} catch (IllegalArgumentException e) {
 			this.messageObserver.updateError(SamlCoreServiceImpl.class.getName(), e.getMessage(), e);
-			throw new IllegalArgumentException("Could not create SAML object: " + clazz);
+			throw e;
 		}
-
-		return object;
 	}
 
 	/**
@@ -169,8 +174,7 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 		logoutRequest.setIssueInstant(new DateTime());
 		logoutRequest.setID(SamlUtils.generateSecureRandomId());
 
-		this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(),
-				"Creating the logout request for NameID: " + nameID + ", SessionIndex: " + sessionIndexValue);
+		this.diagnostics.debug(() -> "Creating the logout request for NameID: " + nameID + ", SessionIndex: " + sessionIndexValue);
 
 		// id for the sender
 		logoutRequest.setDestination(idpSingleLogoutDestionation);
@@ -222,7 +226,7 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 	public AuthnRequest buildAuthnRequest(final HttpServletRequest request, final IdentityProviderConfiguration identityProviderConfiguration) {
 
 		return buildAuthnRequest(request, identityProviderConfiguration,
-				this.samlConfigurationService.getConfigAsString(identityProviderConfiguration, SamlName.DOTCMS_SAML_PROTOCOL_BINDING));
+				this.getRuntimeProfile(identityProviderConfiguration).getProtocolBinding());
 	}
 
 
@@ -239,8 +243,7 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 										  final String protocolBinding) {
 
 		final String ipDSSODestination  = this.getIPDSSODestination(identityProviderConfiguration);
-		final boolean skipRequestAuthnContext = identityProviderConfiguration.containsOptionalProperty(SKIP_REQUEST_AUTHN_CONTEXT) ?
-				Boolean.parseBoolean(identityProviderConfiguration.getOptionalProperty(SKIP_REQUEST_AUTHN_CONTEXT).toString()) : false;
+		final IdpRuntimeProfile runtimeProfile = this.getRuntimeProfile(identityProviderConfiguration);
 
 		// IDP url
 		if (StringUtils.isBlank(ipDSSODestination)) {
@@ -252,10 +255,24 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 					+ " must be set on the host");
 		}
 
-		final AuthnRequest authnRequest = this.buildSAMLObject(AuthnRequest.class);
+		final String id = SamlUtils.generateSecureRandomId();
+		this.storeAuthnRequestId(request, identityProviderConfiguration, runtimeProfile, id);
 
 		// this ensure that the message redirected is not too old
-		authnRequest.setIssueInstant(new DateTime());
+		return this.buildAuthnRequest(id, new DateTime(), ipDSSODestination,
+				this.getAssertionConsumerEndpoint(request, identityProviderConfiguration),
+				identityProviderConfiguration, runtimeProfile, protocolBinding);
+	}
+
+	private AuthnRequest buildAuthnRequest(final String id, final DateTime issueInstant,
+										   final String ipDSSODestination, final String assertionConsumerServiceURL,
+										   final IdentityProviderConfiguration identityProviderConfiguration,
+										   final IdpRuntimeProfile runtimeProfile,
+										   final String protocolBinding) {
+
+		final AuthnRequest authnRequest = this.buildSAMLObject(AuthnRequest.class);
+
+		authnRequest.setIssueInstant(issueInstant);
 		authnRequest.setDestination(ipDSSODestination);
 
 		// Get the protocol from the user, or use a default one:
@@ -264,25 +281,101 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 
 		// this is the address that receives the SAML Assertion, after a
 		// successful authentication on the IdP.
-		authnRequest.setAssertionConsumerServiceURL(this.getAssertionConsumerEndpoint(request, identityProviderConfiguration));
+		authnRequest.setAssertionConsumerServiceURL(assertionConsumerServiceURL);
 
 		// this is a uid or random id just to identified the response.
-		authnRequest.setID(SamlUtils.generateSecureRandomId());
+		authnRequest.setID(id);
 
 		// id for the sender
 		authnRequest.setIssuer(this.buildIssuer(identityProviderConfiguration));
 
 		authnRequest.setNameIDPolicy(this.buildNameIdPolicy(identityProviderConfiguration));
-		if (!skipRequestAuthnContext) {
+		if (!runtimeProfile.isSkipRequestAuthnContext()) {
 			authnRequest.setRequestedAuthnContext(this.buildRequestedAuthnContext(identityProviderConfiguration));
 		}
 		authnRequest.setVersion(SAMLVersion.VERSION_20);
-		authnRequest.setForceAuthn(
-				this.samlConfigurationService.getConfigAsBoolean(identityProviderConfiguration, SamlName.DOTCMS_SAML_FORCE_AUTHN));
+		authnRequest.setForceAuthn(runtimeProfile.getForceAuthn());
 
 		return authnRequest;
 	}
 
+	/**
+	 * Renders the serialized (UTF-8) authentication request from the precompiled template of the idp,
+	 * the request rendered is byte by byte the one {@link #buildAuthnRequest(HttpServletRequest, IdentityProviderConfiguration, String)}
+	 * would be serialized to.
+	 * @param request {@link HttpServletRequest}
+	 * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+	 * @param protocolBinding {@link String}
+	 * @return byte [] null if the template is not enabled for the idp, the request has to be signed or the template
+	 * can not render the request; in that case the request has to be built by {@link #buildAuthnRequest(HttpServletRequest, IdentityProviderConfiguration, String)}
+	 */
+	@Override
+	public byte[] renderAuthnRequest(final HttpServletRequest request,
+									 final IdentityProviderConfiguration identityProviderConfiguration,
+									 final String protocolBinding) {
+
+		final IdpRuntimeProfile runtimeProfile = this.getRuntimeProfile(identityProviderConfiguration);
+		if (!runtimeProfile.isAuthnRequestTemplateEnabled() || runtimeProfile.getAuthSigningProfile().isSignRequest()) {
+
+			return null;
+		}
+
+		final String ipDSSODestination = this.getIPDSSODestination(identityProviderConfiguration);
+		if (StringUtils.isBlank(ipDSSODestination)) {
+
+			return null; // the full path reports it
+		}
+
+		final AuthnRequestTemplate template = runtimeProfile.getAuthnRequestTemplate(protocolBinding,
+				binding -> this.compileAuthnRequestTemplate(identityProviderConfiguration, runtimeProfile, binding));
+
+		final String id = SamlUtils.generateSecureRandomId();
+		final byte[] serializedRequest = template.render(id, new DateTime(), ipDSSODestination,
+				this.getAssertionConsumerEndpoint(request, identityProviderConfiguration));
+		if (null != serializedRequest) {
+			this.storeAuthnRequestId(request, identityProviderConfiguration, runtimeProfile, id);
+		}
+
+		return serializedRequest;
+	}
+
+	/**
+	 * If the InResponseTo of the responses is validated, keeps the id of the issued request on the session,
+	 * so the response of the idp has to be the one of this request
+	 */
+	private void storeAuthnRequestId(final HttpServletRequest request,
+									 final IdentityProviderConfiguration identityProviderConfiguration,
+									 final IdpRuntimeProfile runtimeProfile, final String id) {
+
+		if (runtimeProfile.isValidateInResponseTo() && null != request) {
+
+			final HttpSession session = request.getSession();
+			if (null != session) {
+				session.setAttribute(ResponseValidationChain.getAuthnRequestIdAttribute(identityProviderConfiguration.getId()), id);
+			}
+		}
+	}
+
+	private AuthnRequestTemplate compileAuthnRequestTemplate(final IdentityProviderConfiguration identityProviderConfiguration,
+															 final IdpRuntimeProfile runtimeProfile,
+															 final String protocolBinding) {
+
+		try {
+
+			final AuthnRequestTemplate template = AuthnRequestTemplate.compile((id, issueInstant, destination, assertionConsumerServiceURL) ->
+					this.buildAuthnRequest(id, issueInstant, destination, assertionConsumerServiceURL,
+							identityProviderConfiguration, runtimeProfile, protocolBinding));
+			this.diagnostics.debug(() -> "Compiled the AuthnRequest template of the idp: " +
+					identityProviderConfiguration.getId() + ", binding: " + protocolBinding);
+			return template;
+		} catch (MarshallingException | RuntimeException e) {
+
+			this.diagnostics.warning("The AuthnRequest template of the idp: " + identityProviderConfiguration.getId() +
+					" could not be compiled, the requests will be built by OpenSAML: " + e.getMessage());
+			return AuthnRequestTemplate.UNAVAILABLE;
+		}
+	}
+
 	/**
 	 * Gets from the destination sso url from the configuration.
 	 * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
@@ -371,6 +464,19 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 		return identityProviderConfiguration.getSpIssuerURL();
 	}
 
+	/**
+	 * Get the entity id of the IdP from its metadata, null if the metadata is not available
+	 *
+	 * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+	 * @return String
+	 */
+	@Override
+	public String getIdPEntityId(final IdentityProviderConfiguration identityProviderConfiguration) {
+
+		final MetaData metaData = this.metaDataService.getMetaData(identityProviderConfiguration);
+		return null != metaData? metaData.getEntityId(): null;
+	}
+
 	/**
 	 * Return the policy for the Name ID (which is the IdP identifier for the
 	 * user)
@@ -382,10 +488,10 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 	public NameIDPolicy buildNameIdPolicy(final IdentityProviderConfiguration identityProviderConfiguration) {
 
 		final NameIDPolicy nameIDPolicy = this.buildSAMLObject(NameIDPolicy.class);
+		final IdpRuntimeProfile runtimeProfile = this.getRuntimeProfile(identityProviderConfiguration);
 
 		// True if you want that when the user does not exists, allows to create
-		nameIDPolicy.setAllowCreate(this.samlConfigurationService.getConfigAsBoolean(identityProviderConfiguration,
-				SamlName.DOTCMS_SAML_POLICY_ALLOW_CREATE));
+		nameIDPolicy.setAllowCreate(runtimeProfile.getPolicyAllowCreate());
 
 		// todo: should set the SPNameQualifier
 
@@ -395,8 +501,7 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 		// any connection to the user.
 		// A transient identifier will be different for every time the user
 		// signs in.”
-		nameIDPolicy.setFormat(this.samlConfigurationService.getConfigAsString(identityProviderConfiguration,
-				SamlName.DOTCMS_SAML_NAME_ID_POLICY_FORMAT));
+		nameIDPolicy.setFormat(runtimeProfile.getNameIdPolicyFormat());
 
 		return nameIDPolicy;
 	}
@@ -414,15 +519,11 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 
 		requestedAuthnContext.setComparison(this.getAuthnContextComparisonTypeEnumeration(identityProviderConfiguration));
 
-		final String samlAuthContextClassRefList = this.samlConfigurationService.getConfigAsString(identityProviderConfiguration,
-				SamlName.DOTCMS_SAML_AUTHN_CONTEXT_CLASS_REF);
-
-		final String [] samlAuthContextClassRefArray = StringUtils.split(samlAuthContextClassRefList, ",");
-
-		for (final String samlAuthContextClassRef : samlAuthContextClassRefArray) {
+		// the class refs are split and trimmed just once, when the profile is compiled
+		for (final String samlAuthContextClassRef : this.getRuntimeProfile(identityProviderConfiguration).getAuthnContextClassRefs()) {
 
 			final AuthnContextClassRef authnContextClassRef = this.buildSAMLObject(AuthnContextClassRef.class);
-			authnContextClassRef.setAuthnContextClassRef(samlAuthContextClassRef.trim());
+			authnContextClassRef.setAuthnContextClassRef(samlAuthContextClassRef);
 			requestedAuthnContext.getAuthnContextClassRefs().add(authnContextClassRef);
 		}
 
@@ -439,27 +540,7 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 	public AuthnContextComparisonTypeEnumeration getAuthnContextComparisonTypeEnumeration(
 			final IdentityProviderConfiguration identityProviderConfiguration) {
 
-		AuthnContextComparisonTypeEnumeration comparisonTypeEnumeration = AuthnContextComparisonTypeEnumeration.MINIMUM;
-
-		final String enumName = this.samlConfigurationService.getConfigAsString(identityProviderConfiguration,
-				SamlName.DOTCMS_SAML_AUTHN_COMPARISON_TYPE);
-
-		if (StringUtils.isNotBlank(enumName)) {
-
-			if (AuthnContextComparisonTypeEnumeration.BETTER.toString().equalsIgnoreCase(enumName)) {
-
-				comparisonTypeEnumeration = AuthnContextComparisonTypeEnumeration.BETTER;
-			} else if (AuthnContextComparisonTypeEnumeration.EXACT.toString().equalsIgnoreCase(enumName)) {
-
-				comparisonTypeEnumeration = AuthnContextComparisonTypeEnumeration.EXACT;
-			} else if (AuthnContextComparisonTypeEnumeration.MAXIMUM.toString().equalsIgnoreCase(enumName)) {
-
-				comparisonTypeEnumeration = AuthnContextComparisonTypeEnumeration.MAXIMUM;
-			}
-			// MINIMUN is not necessary since it is the default one.
-		}
-
-		return comparisonTypeEnumeration;
+		return this.getRuntimeProfile(identityProviderConfiguration).getAuthnContextComparisonType();
 	}
 
 	/**
@@ -516,34 +597,6 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 		return assertion;
 	}
 
-	/**
-	 * Get the Assertion decrypted
-	 *
-	 * @param response {@link Response}
-	 * @param identityProviderConfiguration  {@link IdentityProviderConfiguration}
-	 *
-	 * @return Assertion
-	 */
-	@Override
-	public Assertion getAssertion(final Response response,
-								  final IdentityProviderConfiguration identityProviderConfiguration) {
-
-		final EncryptedAssertion encryptedAssertion;
-		Assertion assertion = null;
-
-		if (this.samlConfigurationService.getConfigAsBoolean(identityProviderConfiguration,
-				SamlName.DOTCMS_SAML_IS_ASSERTION_ENCRYPTED)) {
-
-			encryptedAssertion = response.getEncryptedAssertions().get(0);
-			assertion = this.decryptAssertion(encryptedAssertion, identityProviderConfiguration);
-		} else {
-
-			assertion = response.getAssertions().get(0);
-		}
-
-		return assertion;
-	}
-
 	/**
 	 * Just get the Encrypted assertion from the {@link ArtifactResponse}
 	 *
@@ -581,41 +634,65 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 
 		Assertion assertion         = null;
 		SamlException samlException = null;
+		final String idpId          = identityProviderConfiguration.getId();
 		final Credential credential = this.getCredential(identityProviderConfiguration);
+
+		// the path that worked the last time for this idp is tried first, so in steady state just one unwrap is needed
+		for (final DecryptionPath decryptionPath : this.decryptionPathMemory.getPreferred(idpId).order()) {
+
+			try {
+
+				assertion = DecryptionPath.ENCRYPTED_KEY == decryptionPath?
+						this.decryptAssertionUsingEncryptedKey(encryptedAssertion, credential):
+						this.decryptAssertionUsingInlineEncrypter(encryptedAssertion, identityProviderConfiguration, credential);
+			} catch (SamlException e) {
+
+				samlException = e;
+			}
+
+			if (null != assertion) {
+
+				this.decryptionPathMemory.success(idpId, decryptionPath);
+				return assertion;
+			}
+
+			this.decryptionPathMemory.failure(decryptionPath);
+		}
+
+		// not assertion and gets previously an error.
+		if (null != samlException) {
+
+			throw samlException;
+		}
+
+		return assertion;
+	}
+
+	private Assertion decryptAssertionUsingEncryptedKey (final EncryptedAssertion encryptedAssertion,
+														 final Credential credential) {
+
 		final StaticKeyInfoCredentialResolver keyInfoCredentialResolver = new StaticKeyInfoCredentialResolver(credential);
-		final EncryptedKey key       = this.findEncryptedKey(encryptedAssertion);
 		final Decrypter keyDecrypter = new Decrypter(null, keyInfoCredentialResolver, null);
 
-		this.messageObserver.updateInfo(this.getClass().getName(), "Credential: " + credential
-				+ ", key: " + key + ", Algorithm" + encryptedAssertion.getEncryptedData().
-				getEncryptionMethod().getAlgorithm() + ", credential.getPrivateKey(): " + credential.getPrivateKey() +
-				", encryptedAssertion: " + encryptedAssertion);
-
 		try {
 
+			final EncryptedKey key = this.findEncryptedKey(encryptedAssertion);
+
+			this.diagnostics.debug(() -> "Credential: " + credential
+					+ ", key: " + key + ", Algorithm" + encryptedAssertion.getEncryptedData().
+					getEncryptionMethod().getAlgorithm() + ", encryptedAssertion: " + encryptedAssertion);
+
 			keyDecrypter.setRootInNewDocument(true);
 			final SecretKey decryptKey = (SecretKey) keyDecrypter.decryptKey(key, encryptedAssertion.getEncryptedData().
 					getEncryptionMethod().getAlgorithm());
 
-			this.messageObserver.updateInfo(this.getClass().getName(), "decryptKey: " + decryptKey);
-			assertion = new EncryptedAssertionDecrypter(this.messageObserver).decrypt(encryptedAssertion, decryptKey);
-		} catch (DecryptionException | IllegalArgumentException | DOMException e) {
+			this.diagnostics.debug(() -> "decryptKey algorithm: " + decryptKey.getAlgorithm());
+			return new EncryptedAssertionDecrypter(this.messageObserver).decrypt(encryptedAssertion, decryptKey);
+		} catch (DecryptionException | IllegalArgumentException | IndexOutOfBoundsException | DOMException e) {
 
 			this.messageObserver.updateError(SamlCoreServiceImpl.class.getName(), "DecryptionException: " + e.getMessage(), e);
-			samlException = new SamlException(e.getMessage(), e);
-		}
-
-		if (null == assertion) {
-
-			assertion = this.decryptAssertionUsingInlineEncrypter(encryptedAssertion, identityProviderConfiguration, credential);
-			// not assertion and gets previously an error.
-			if (null == assertion && samlException != null) {
-
-				throw samlException;
-			}
+			throw new SamlException(e.getMessage(), e);
 		}
-
-		return assertion;
 	}
 
 	private static class InitialCredential extends BasicCredential {
@@ -635,7 +712,7 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 		try {
 
 			final BasicCredential basicCredential = new InitialCredential(new IdpConfigCredentialResolver(this.identityProviderConfigurationFactory,
-					this.messageObserver).getPrivateKey(identityProviderConfiguration.getPrivateKey()));
+					this.messageObserver).getPrivateKey(identityProviderConfiguration));
 			final Decrypter decrypter = new Decrypter(null,
 					new StaticKeyInfoCredentialResolver(basicCredential),
 					new InlineEncryptedKeyResolver());
@@ -674,19 +751,25 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 		return assertion;
 	}*/
 
-	private void validateSignature(final Assertion assertion, final Collection<Credential> credentials)
+	private void validateSignature(final Signature signature, final Collection<Credential> credentials,
+								   final IdentityProviderConfiguration identityProviderConfiguration, final String signedObjectName)
 			throws SignatureException {
-		
-		for (final Credential credential : credentials) {
+
+		final String idpId = identityProviderConfiguration.getId();
+
+		// the candidate from the KeyInfo (or the last one that worked) goes first, usually just one RSA verification is needed
+		for (final Credential credential : this.signingCredentialSelector.select(idpId, credentials, signature)) {
 			try {
 
-				SignatureValidator.validate(assertion.getSignature(), credential);
+				SignatureValidator.validate(signature, credential);
+				this.signingCredentialSelector.success(idpId, credential);
 				return;
 			} catch (SignatureException ignore) {
 
 				try {
 
-					SignatureUtils.validate(assertion.getSignature(), credential);
+					SignatureUtils.validate(signature, credential);
+					this.signingCredentialSelector.success(idpId, credential);
 					return;
 				} catch (SignatureException ignoreToo) {
 
@@ -697,46 +780,9 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 			}
 		}
 
-
-
-		this.messageObserver.updateInfo(SamlCoreServiceImpl.class.getName(), "Couldn't find any valid credential to validate the assertion signature");
-		throw new SignatureException("Assertion Signature cannot be validated");
-	}
-
-	private void validateSignature(final Response response, final Collection<Credential> credentials)
-			throws SignatureException {
-
-		this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(),
-				"Validating Signature - Credentials " + ((credentials != null) ? "are present" : "are null"));
-		this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(),
-				"Validating Signature - Credentials " + ((response != null) ? "are present" : "are null"));
-
-		for (final Credential credential : credentials) {
-
-			try {
-
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Validating Signature - Credential " +
-						((credential != null) ? "is present" : "is null"));
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Validating Signature - response.getSignature " +
-						((response.getSignature() != null)?"is present" : "is null"));
-
-				SignatureValidator.validate(response.getSignature(), credential);
-				return;
-			} catch (SignatureException ignore) {
-
-				try {
-
-					SignatureUtils.validate(response.getSignature(), credential);
-					return;
-				} catch (SignatureException ignoreToo) {
-					this.messageObserver.updateInfo(SamlCoreServiceImpl.class.getName(),
-							"Signature Validation failed with provided credential(s): " + ignore.getMessage());
-				}
-			}
-		}
-
-		this.messageObserver.updateInfo(SamlCoreServiceImpl.class.getName(), "Couldn't find any valid credential to validate the response signature");
-		throw new SignatureException("Response Signature cannot be validated");
+		this.messageObserver.updateInfo(SamlCoreServiceImpl.class.getName(),
+				"Couldn't find any valid credential to validate the " + signedObjectName.toLowerCase() + " signature");
+		throw new SignatureException(signedObjectName + " Signature cannot be validated");
 	}
 
 	/**
@@ -765,6 +811,16 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 			return; // Exit
 		}
 
+		// The assertion is signed (as the policy requires), but if it is enclosed by a Response whose signature was
+		// already verified, its content is already covered, no need to canonicalize and verify it again
+		if (VerifiedSignatureTracker.isCoveredByVerifiedSignature(assertion) &&
+				!this.isAlwaysVerifyAssertionSignature(identityProviderConfiguration)) {
+
+			this.diagnostics.debug(() -> "The assertion signature for IdP '" +
+					identityProviderConfiguration.getIdpName() + "' is covered by the verified response signature");
+			return; // Exit
+		}
+
 		// Here on out we are checking signature
 		try {
 
@@ -773,30 +829,30 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 
 			if (this.credentialService.isVerifySignatureProfileNeeded(identityProviderConfiguration)) {
 
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Executing Profile Validation...");
+				this.diagnostics.debug("Executing Profile Validation...");
 
 				new SAMLSignatureProfileValidator().validate(assertion.getSignature());
 
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Profile Validation finished");
+				this.diagnostics.debug("Profile Validation finished");
 			} else {
 
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Skipping the Verify Signature Profile check");
+				this.diagnostics.debug("Skipping the Verify Signature Profile check");
 			}
 
 			// Ask on the config if the app wants signature validator
 			if (this.credentialService.isVerifySignatureCredentialsNeeded(identityProviderConfiguration)) {
 
-				if (null != this.metaDataService.getSigningCredentials(identityProviderConfiguration)) {
+				final Collection<Credential> signingCredentials = this.metaDataService.getSigningCredentials(identityProviderConfiguration);
+				if (null != signingCredentials) {
 
-					this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(),
-							"Validating the signatures: " + this.metaDataService.getSigningCredentials(identityProviderConfiguration));
+					this.diagnostics.debug(() -> "Validating the signatures: " + signingCredentials);
 
-					this.validateSignature(assertion, this.metaDataService.getSigningCredentials(identityProviderConfiguration));
+					this.validateSignature(assertion.getSignature(), signingCredentials, identityProviderConfiguration, "Assertion");
 
-					this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Executing signatures validation...");
+					this.diagnostics.debug("Executing signatures validation...");
 				} else {
 
-					this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Validating the signature with a IdP Credentials...");
+					this.diagnostics.debug("Validating the signature with a IdP Credentials...");
 
 					final Credential credential = getIdPCredentials(identityProviderConfiguration);
 					try {
@@ -805,14 +861,14 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 						SignatureUtils.validate(assertion.getSignature(), credential);
 					}
 
-					this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Validation of the signature with a IdP Credentials finished");
+					this.diagnostics.debug("Validation of the signature with a IdP Credentials finished");
 				}
 			} else {
 
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Skipping the Verify Signature Profile check");
+				this.diagnostics.debug("Skipping the Verify Signature Profile check");
 			}
 
-			this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "SAML Assertion signature verified");
+			this.diagnostics.debug("SAML Assertion signature verified");
 
 		} catch (SignatureException e) {
 
@@ -840,39 +896,44 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 		// If unsigned, No need to go further.
 		if (!this.credentialService.isVerifyResponseSignatureNeeded(identityProviderConfiguration)) {
 
-			this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "The verification response signature and status code for IdP '" +
+			this.diagnostics.debug(() -> "The verification response signature and status code for IdP '" +
 					identityProviderConfiguration.getIdpName() + "' was skipped.");
 			return; // Exit
 		}
 
 		// Here on out we are checking signature
 		try {
-			if (this.credentialService.isVerifySignatureProfileNeeded(identityProviderConfiguration)) {
+			// the enclosed assertions may skip their own verification just if the response signature profile was validated
+			final boolean profileValidated = this.credentialService.isVerifySignatureProfileNeeded(identityProviderConfiguration);
+			if (profileValidated) {
 
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Executing Profile Validation...");
+				this.diagnostics.debug("Executing Profile Validation...");
 
 				new SAMLSignatureProfileValidator().validate(response.getSignature());
 
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Profile Validation finished");
+				this.diagnostics.debug("Profile Validation finished");
 			} else {
 
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Skipping verification of Signature Profile");
+				this.diagnostics.debug("Skipping verification of Signature Profile");
 			}
 
 			// Ask on the config if the app wants signature validator
 			if (this.credentialService.isVerifySignatureCredentialsNeeded(identityProviderConfiguration)) {
 
-				if (null != this.metaDataService.getSigningCredentials(identityProviderConfiguration)) {
+				final Collection<Credential> signingCredentials = this.metaDataService.getSigningCredentials(identityProviderConfiguration);
+				if (null != signingCredentials) {
 
-					this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(),
-							"Validating the signatures: " + this.metaDataService.getSigningCredentials(identityProviderConfiguration));
+					this.diagnostics.debug(() -> "Validating the signatures: " + signingCredentials);
 
-					this.validateSignature(response, this.metaDataService.getSigningCredentials(identityProviderConfiguration));
+					this.validateSignature(response.getSignature(), signingCredentials, identityProviderConfiguration, "Response");
+					if (profileValidated) {
+						VerifiedSignatureTracker.markVerified(response);
+					}
 
-					this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Executing signature validation...");
+					this.diagnostics.debug("Executing signature validation...");
 				} else {
 
-					this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Validating the signature with a IdP Credentials...");
+					this.diagnostics.debug("Validating the signature with a IdP Credentials...");
 
 					final Credential credential = getIdPCredentials(identityProviderConfiguration);
 					try {
@@ -880,15 +941,18 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 					} catch (SignatureException e) {
 						SignatureUtils.validate(response.getSignature(), credential);
 					}
+					if (profileValidated) {
+						VerifiedSignatureTracker.markVerified(response);
+					}
 
-					this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Validation of the signature with a IdP Credentials finished");
+					this.diagnostics.debug("Validation of the signature with a IdP Credentials finished");
 				}
 			} else {
 
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Skipping the Verify Signature Profile check");
+				this.diagnostics.debug("Skipping the Verify Signature Profile check");
 			}
 
-			this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "SAML Response signature verified");
+			this.diagnostics.debug("SAML Response signature verified");
 
 		} catch (SignatureException e) {
 
@@ -897,6 +961,28 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 		}
 	}
 
+	/**
+	 * By default an assertion covered by an already verified response signature is not verified again,
+	 * the optional property {@link #ALWAYS_VERIFY_ASSERTION_SIGNATURE} set to true forces the verification.
+	 * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+	 * @return boolean
+	 */
+	private boolean isAlwaysVerifyAssertionSignature(final IdentityProviderConfiguration identityProviderConfiguration) {
+
+		return this.getRuntimeProfile(identityProviderConfiguration).isAlwaysVerifyAssertionSignature();
+	}
+
+	/**
+	 * Get the compiled runtime profile of the idp, see {@link IdpRuntimeProfileRegistry}
+	 * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+	 * @return IdpRuntimeProfile
+	 */
+	@Override
+	public IdpRuntimeProfile getRuntimeProfile(final IdentityProviderConfiguration identityProviderConfiguration) {
+
+		return IdpRuntimeProfileRegistry.getInstance().getProfile(identityProviderConfiguration, this.samlConfigurationService);
+	}
+
 	/**
 	 * Creates the credential based on the configuration
 	 * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
@@ -918,8 +1004,7 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 				credential = customCredentialProvider.createCredential();
 			} else {
 
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(),
-						"Creating credentials for IdP: " + identityProviderConfiguration.getIdpName());
+				this.diagnostics.debug(() -> "Creating credentials for IdP: " + identityProviderConfiguration.getIdpName());
 
 				final IdpConfigCredentialResolver resolver = new IdpConfigCredentialResolver(
 						this.identityProviderConfigurationFactory, this.messageObserver
@@ -930,8 +1015,8 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 				criteriaSet.add(criterion);
 				credential = resolver.resolveSingle(criteriaSet);
 
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(),
-						"Credentials have been created: " + credential);
+				// the credential is only converted to string if debug is enabled
+				this.diagnostics.debug("Credentials have been created: ", credential);
 			}
 		} catch (ResolverException e) {
 
@@ -952,23 +1037,20 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 	@Override
 	public Credential 	getCredential(final IdentityProviderConfiguration identityProviderConfiguration) {
 
-		if (!credentialMap.containsKey(identityProviderConfiguration.getSpEndpointHostname())) {
+		return CredentialRegistry.getInstance().getServiceProviderCredential(identityProviderConfiguration, () -> {
 
 			final Credential credential = this.createCredential(identityProviderConfiguration);
 
-			if (null != credential) {
-
-				credentialMap.put(identityProviderConfiguration.getSpEndpointHostname(), credential);
-			} else {
+			if (null == credential) {
 
 				this.messageObserver.updateError(SamlCoreServiceImpl.class.getName(),
 						"Credential is null for site: " + identityProviderConfiguration.getSpEndpointHostname());
 
 				throw new SamlException("Credential is null for site: " + identityProviderConfiguration.getSpEndpointHostname());
 			}
-		}
 
-		return credentialMap.get(identityProviderConfiguration.getSpEndpointHostname());
+			return credential;
+		});
 	}
 
 	private Credential createIdpCredential(final IdentityProviderConfiguration identityProviderConfiguration) {
@@ -980,16 +1062,16 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 
 		try {
 
-			this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Creating credential for IdP '" +
+			this.diagnostics.debug(() -> "Creating credential for IdP '" +
 					identityProviderConfiguration.getIdpName() + "'");
 
 			if (null != customCredentialProvider) {
 
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Using custom credential provider");
+				this.diagnostics.debug("Using custom credential provider");
 				idpCredential = customCredentialProvider.createCredential();
 			} else {
 
-				this.messageObserver.updateDebug(SamlCoreServiceImpl.class.getName(), "Using standard credential algorithm");
+				this.diagnostics.debug("Using standard credential algorithm");
 				// this fallback generates just a random keypair not very useful
 				// to validate the signature.
 				keyPair       = KeySupport.generateKeyPair("RSA", 1024, null);
@@ -1009,11 +1091,7 @@ public class SamlCoreServiceImpl implements SamlCoreService {
 	@Override
 	public Credential getIdPCredentials(final IdentityProviderConfiguration identityProviderConfiguration) {
 
-		if (!idpCredentialMap.containsKey(identityProviderConfiguration)) {
-
-			idpCredentialMap.put(identityProviderConfiguration.getSpEndpointHostname(), this.createIdpCredential(identityProviderConfiguration));
-		}
-
-		return idpCredentialMap.get(identityProviderConfiguration.getSpEndpointHostname());
+		return CredentialRegistry.getInstance().getIdentityProviderCredential(identityProviderConfiguration,
+				() -> this.createIdpCredential(identityProviderConfiguration));
 	}
 }
@@ -5,6 +5,7 @@ import com.dotcms.saml.MessageObserver;
 import com.dotcms.saml.SamlAuthenticationService;
 import com.dotcms.saml.SamlConfigurationService;
 import com.dotcms.saml.SamlServiceBuilder;
+import com.dotcms.saml.service.InvalidateAware;
 import com.dotcms.saml.service.handler.AssertionResolverHandlerFactory;
 import com.dotcms.saml.service.handler.AuthenticationResolverHandlerFactory;
 import com.dotcms.saml.service.handler.HttpPostAssertionResolverHandlerImpl;
@@ -19,7 +20,9 @@ import com.dotcms.saml.service.internal.SamlCoreService;
 import com.dotcms.saml.utils.InstanceUtil;
 import org.apache.velocity.app.VelocityEngine;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * This class is the proxy implementation to create the SAML dotCMS Services
@@ -29,6 +32,8 @@ public class SamlServiceBuilderImpl implements SamlServiceBuilder {
 
 
     private Initializer initializer = null;
+    // handler factories of the last service built, their handlers are discarded when a new service is built
+    private volatile List<InvalidateAware> handlerFactories = Collections.emptyList();
 
     public void setInitializer(Initializer initializer) {
         this.initializer = initializer;
@@ -48,6 +53,11 @@ public class SamlServiceBuilderImpl implements SamlServiceBuilder {
         if (null == this.initializer) {
             this.initFramework();
         }
+
+        // a new service is built when the SAML App secrets change, so the credentials and profiles created so far are discarded
+        CredentialRegistry.getInstance().invalidate();
+        IdpRuntimeProfileRegistry.getInstance().invalidate();
+        this.handlerFactories.forEach(InvalidateAware::invalidate);
         final CredentialService credentialService = new CredentialServiceImpl(samlConfigurationService);
         final EndpointService endpointService     = new EndpointServiceImpl(samlConfigurationService);
         final MetaDataService metaDataService     = new MetaDataServiceImpl(samlConfigurationService, messageObserver);
@@ -67,6 +77,7 @@ public class SamlServiceBuilderImpl implements SamlServiceBuilder {
                 new AuthenticationResolverHandlerFactory(samlConfigurationService, samlCoreService, velocityEngine, messageObserver);
         final LogoutResolverHandlerFactory logoutResolverHandlerFactory =
                 new LogoutResolverHandlerFactory(samlConfigurationService, samlCoreService, velocityEngine, messageObserver);
+        this.handlerFactories = Arrays.asList(authenticationResolverHandlerFactory, logoutResolverHandlerFactory);
         messageObserver.updateInfo(this.getClass().getName(), "Creating a new SamlAuthenticationService");
 
         return new OpenSamlAuthenticationServiceImpl(logoutResolverHandlerFactory, authenticationResolverHandlerFactory,
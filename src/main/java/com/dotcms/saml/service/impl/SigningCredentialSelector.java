@@ -0,0 +1,181 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.service.InvalidateAware;
+import com.dotcms.saml.utils.DigestUtil;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.x509.X509Credential;
+import org.opensaml.xmlsec.signature.KeyInfo;
+import org.opensaml.xmlsec.signature.KeyName;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.X509Certificate;
+import org.opensaml.xmlsec.signature.X509Data;
+
+import java.security.cert.CertificateEncodingException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Selects the signing credentials (from the IdP metadata) to try on a signature, instead of trying all of them.
+ * The credentials are indexed once per metadata load by the digest of the X509 certificate and by key name,
+ * so the candidate is selected from the signature KeyInfo. The credential that validated the last signature
+ * for the IdP is the next candidate and finally the rest of them, in the metadata order.
+ *
+ * @author jsanca
+ */
+public class SigningCredentialSelector implements InvalidateAware {
+
+    private final Map<String, CredentialIndex> indexMap = new ConcurrentHashMap<>();
+    private final AtomicLong keyInfoMatches = new AtomicLong();
+    private final AtomicLong keyInfoMisses  = new AtomicLong();
+
+    /**
+     * Returns the credentials in the order they must be tried to validate the signature, the first one is the
+     * credential referenced by the signature KeyInfo (if any), then the last one that succeeded, then the rest.
+     *
+     * @param idpId       {@link String} idp configuration id
+     * @param credentials {@link Collection} signing credentials from the metadata
+     * @param signature   {@link Signature} signature to validate
+     * @return List of Credential
+     */
+    public List<Credential> select(final String idpId, final Collection<Credential> credentials, final Signature signature) {
+
+        if (null == credentials || credentials.size() <= 1) {
+
+            return null == credentials? Collections.emptyList(): new ArrayList<>(credentials);
+        }
+
+        final CredentialIndex index = this.getIndex(idpId, credentials);
+        final Set<Credential> candidates = new LinkedHashSet<>(credentials.size());
+        final Credential keyInfoCredential = index.find(null != signature? signature.getKeyInfo(): null);
+
+        if (null != keyInfoCredential) {
+
+            this.keyInfoMatches.incrementAndGet();
+            candidates.add(keyInfoCredential);
+        } else {
+
+            this.keyInfoMisses.incrementAndGet();
+        }
+
+        final Credential lastSuccess = index.lastSuccess;
+        if (null != lastSuccess) {
+            candidates.add(lastSuccess);
+        }
+
+        candidates.addAll(credentials);
+        return new ArrayList<>(candidates);
+    }
+
+    /**
+     * Remembers the credential that validated a signature for the idp
+     * @param idpId      {@link String}
+     * @param credential {@link Credential}
+     */
+    public void success(final String idpId, final Credential credential) {
+
+        final CredentialIndex index = null != idpId? this.indexMap.get(idpId): null;
+        if (null != index) {
+            index.lastSuccess = credential;
+        }
+    }
+
+    private CredentialIndex getIndex(final String idpId, final Collection<Credential> credentials) {
+
+        if (null == idpId) {
+            return new CredentialIndex(credentials);
+        }
+
+        // the metadata is cached, so the same credential collection means the same metadata load
+        return this.indexMap.compute(idpId, (key, current) ->
+                null != current && current.source == credentials? current: new CredentialIndex(credentials));
+    }
+
+    @Override
+    public void invalidate() {
+
+        this.indexMap.clear();
+    }
+
+    public long getKeyInfoMatches() {
+        return keyInfoMatches.get();
+    }
+
+    public long getKeyInfoMisses() {
+        return keyInfoMisses.get();
+    }
+
+    private static final class CredentialIndex {
+
+        private final Collection<Credential>  source;
+        private final Map<String, Credential> byCertificateDigest = new HashMap<>();
+        private final Map<String, Credential> byKeyName           = new HashMap<>();
+        private volatile Credential lastSuccess;
+
+        private CredentialIndex(final Collection<Credential> credentials) {
+
+            this.source = credentials;
+            for (final Credential credential : credentials) {
+
+                if (credential instanceof X509Credential && null != ((X509Credential) credential).getEntityCertificate()) {
+
+                    try {
+                        this.byCertificateDigest.putIfAbsent(DigestUtil.sha256(
+                                ((X509Credential) credential).getEntityCertificate().getEncoded()), credential);
+                    } catch (CertificateEncodingException e) {
+                        // not indexed, it will be tried anyway as a fallback
+                    }
+                }
+
+                for (final String keyName : credential.getKeyNames()) {
+                    this.byKeyName.putIfAbsent(keyName, credential);
+                }
+            }
+        }
+
+        private Credential find(final KeyInfo keyInfo) {
+
+            if (null == keyInfo) {
+                return null;
+            }
+
+            for (final X509Data x509Data : keyInfo.getX509Datas()) {
+                for (final X509Certificate certificate : x509Data.getX509Certificates()) {
+
+                    final Credential credential = this.findByCertificate(certificate.getValue());
+                    if (null != credential) {
+                        return credential;
+                    }
+                }
+            }
+
+            for (final KeyName keyName : keyInfo.getKeyNames()) {
+
+                final Credential credential = this.byKeyName.get(keyName.getValue());
+                if (null != credential) {
+                    return credential;
+                }
+            }
+
+            return null;
+        }
+
+        private Credential findByCertificate(final String base64Certificate) {
+
+            try {
+                return null != base64Certificate? this.byCertificateDigest.get(DigestUtil.sha256(
+                        Base64.getMimeDecoder().decode(base64Certificate))): null;
+            } catch (IllegalArgumentException e) {
+                return null; // not a valid base64, it will be handled by the fallback
+            }
+        }
+    }
+}
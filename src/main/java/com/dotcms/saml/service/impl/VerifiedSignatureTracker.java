@@ -0,0 +1,111 @@
+package com.dotcms.saml.service.impl;
+
+import org.opensaml.saml.common.SignableSAMLObject;
+import org.opensaml.xmlsec.signature.Signature;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Keeps track (on the DOM document of the message) of the signed elements that have been already validated,
+ * so an element covered by an already verified enveloped signature (for instance an Assertion inside a signed Response)
+ * does not need to pay another canonicalization and RSA verification.
+ *
+ * @author jsanca
+ */
+public class VerifiedSignatureTracker {
+
+    private static final String VERIFIED_ELEMENTS_KEY = "dotsaml.verified.signature.elements";
+    private static final String XMLDSIG_NS = "http://www.w3.org/2000/09/xmldsig#";
+    private static final String REFERENCE  = "Reference";
+    private static final String URI        = "URI";
+
+    private VerifiedSignatureTracker() {
+    }
+
+    /**
+     * Marks the signed object as verified, only if its signature reference resolves to the element of the object itself
+     * (same document reference or "#" + the object id resolved on the document to the very same element).
+     * It must be called just when the signature (and its SAML signature profile) was validated.
+     *
+     * @param signableObject {@link SignableSAMLObject} the object whose signature has been validated
+     */
+    @SuppressWarnings("unchecked")
+    public static void markVerified(final SignableSAMLObject signableObject) {
+
+        final Element element = getVerifiedElement(signableObject);
+        if (null == element) {
+            return;
+        }
+
+        final Document document = element.getOwnerDocument();
+        Set<Element> verifiedElements = (Set<Element>) document.getUserData(VERIFIED_ELEMENTS_KEY);
+        if (null == verifiedElements) {
+
+            // the elements are compared by identity, an element with the same ID is not the signed one
+            verifiedElements = Collections.newSetFromMap(new IdentityHashMap<>());
+            document.setUserData(VERIFIED_ELEMENTS_KEY, verifiedElements, null);
+        }
+
+        verifiedElements.add(element);
+    }
+
+    /**
+     * Returns true if the signed object is the same or a descendant of an element whose signature was already verified
+     *
+     * @param signableObject {@link SignableSAMLObject}
+     * @return boolean
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean isCoveredByVerifiedSignature(final SignableSAMLObject signableObject) {
+
+        final Element element = signableObject.getDOM();
+        if (null == element) {
+            return false;
+        }
+
+        final Set<Element> verifiedElements = (Set<Element>) element.getOwnerDocument().getUserData(VERIFIED_ELEMENTS_KEY);
+        if (null == verifiedElements || verifiedElements.isEmpty()) {
+            return false;
+        }
+
+        for (Node node = element; null != node && Node.ELEMENT_NODE == node.getNodeType(); node = node.getParentNode()) {
+
+            if (verifiedElements.contains(node)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the element covered by the signature of the object, null if it is not the element of the object
+     */
+    private static Element getVerifiedElement(final SignableSAMLObject signableObject) {
+
+        final Signature signature = signableObject.getSignature();
+        final Element   element   = signableObject.getDOM();
+        final String    id        = signableObject.getSignatureReferenceID();
+        if (null == signature || null == signature.getDOM() || null == element || null == id) {
+            return null;
+        }
+
+        final NodeList references = signature.getDOM().getElementsByTagNameNS(XMLDSIG_NS, REFERENCE);
+        if (1 != references.getLength()) {
+            return null; // just the SAML profile (one enveloped reference) is tracked
+        }
+
+        final Document document = element.getOwnerDocument();
+        final String   uri      = ((Element) references.item(0)).getAttribute(URI);
+        final Element  target   = uri.isEmpty()? document.getDocumentElement():
+                uri.equals("#" + id)? document.getElementById(id): null;
+
+        return element == target? element: null;
+    }
+}
@@ -0,0 +1,150 @@
+package com.dotcms.saml.service.internal;
+
+import com.dotcms.saml.service.external.AdditionalInfoValue;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.saml2.core.AuthnContextComparisonTypeEnumeration;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed view of the configuration of an IdP, compiled once and read on the login and logout paths.
+ * Each time the configuration of the IdP is compiled again a new profile (with a new version) replaces the old one.
+ *
+ * @author jsanca
+ */
+public interface RuntimeProfile {
+
+    String getIdpId();
+
+    /**
+     * Changes every time the profile is compiled again
+     * @return long
+     */
+    long getVersion();
+
+    // authn request
+
+    String getProtocolBinding();
+
+    boolean isSkipRequestAuthnContext();
+
+    List<String> getAuthnContextClassRefs();
+
+    AuthnContextComparisonTypeEnumeration getAuthnContextComparisonType();
+
+    Boolean getForceAuthn();
+
+    boolean isAuthnRequestTemplateEnabled();
+
+    Boolean getPolicyAllowCreate();
+
+    String getNameIdPolicyFormat();
+
+    // handlers
+
+    String getAuthnProtocolBinding();
+
+    String getLogoutProtocolBinding();
+
+    boolean isClearLocationQueryParams();
+
+    /**
+     * True if the POST binding messages are rendered by the native encoder instead of velocity
+     * @return boolean
+     */
+    boolean isNativePostEncoder();
+
+    /**
+     * Callback the IdP goes back to once the logout is done, "/dotAdmin/show-logout" if it is not set
+     * @return String
+     */
+    String getLogoutServiceEndpointURL();
+
+    /**
+     * Custom logout url of Okta (Http-Okta logout binding), null if it is not set
+     * @return String
+     */
+    String getOktaLogoutURL();
+
+    SigningProfile getAuthSigningProfile();
+
+    SigningProfile getLogoutSigningProfile();
+
+    // assertion
+
+    boolean isAssertionEncrypted();
+
+    boolean isAlwaysVerifyAssertionSignature();
+
+    boolean isParallelPipeline();
+
+    long getClockSkew();
+
+    long getMessageLifeTime();
+
+    boolean isValidateDestination();
+
+    boolean isValidateIssuer();
+
+    boolean isValidateInResponseTo();
+
+    boolean isValidateAudience();
+
+    /**
+     * Returns the validation of the responses of the idp, built once per profile
+     * @return ResponseValidator
+     */
+    ResponseValidator getResponseValidationChain();
+
+    // attributes
+
+    String getEmailField();
+
+    String getFirstNameField();
+
+    String getLastNameField();
+
+    String getRolesField();
+
+    String getFirstNameForNullValue();
+
+    String getLastNameForNullValue();
+
+    boolean isAllowNullEmail();
+
+    boolean isAllowEmptyAttributes();
+
+    /**
+     * Returns the parsed (read only) additional info, if the spec set on the idp is wrong the parsing error is thrown.
+     * @return Map
+     */
+    Map<String, AdditionalInfoValue> getAdditionalInfoMap();
+
+    /**
+     * Signing settings of the authentication (auth.*) or logout (logout.*) requests
+     */
+    interface SigningProfile {
+
+        boolean isSignRequest();
+
+        String getDigestAlgorithm();
+
+        boolean isSignParams();
+
+        String getSignatureAlgorithm();
+    }
+
+    /**
+     * Checks the decoded response of the idp before any decryption or signature verification
+     */
+    interface ResponseValidator {
+
+        /**
+         * Runs the checks over the response of the message context, throws a SamlException on the first one that fails
+         * @param context {@link MessageContext}
+         */
+        void validate(MessageContext<SAMLObject> context);
+    }
+}
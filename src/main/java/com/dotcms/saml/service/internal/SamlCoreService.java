@@ -77,6 +77,17 @@ public interface SamlCoreService {
                                           final IdentityProviderConfiguration identityProviderConfiguration,
                                           final String protocolBinding);
 
+    /**
+     * Renders the serialized (UTF-8) authentication request from the precompiled template of the idp, without building
+     * the request object.
+     *
+     * @return The xml bytes. <code>null</code>, if the template is not enabled for the idp, the request has to be signed
+     *         or it can not be rendered; then the request has to be built by {@link #buildAuthnRequest(HttpServletRequest, IdentityProviderConfiguration, String)}
+     */
+    byte[] renderAuthnRequest(HttpServletRequest request,
+                              IdentityProviderConfiguration identityProviderConfiguration,
+                              String protocolBinding);
+
     /**
      * Gets from the destination sso url from the configuration.
      * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
@@ -116,6 +127,14 @@ public interface SamlCoreService {
      */
     String getSPIssuerValue(IdentityProviderConfiguration identityProviderConfiguration);
 
+    /**
+     * Get the entity id of the IdP from its metadata, null if the metadata is not available
+     *
+     * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+     * @return String
+     */
+    String getIdPEntityId(IdentityProviderConfiguration identityProviderConfiguration);
+
     /**
      * Return the policy for the Name ID (which is the IdP identifier for the
      * user)
@@ -168,17 +187,6 @@ public interface SamlCoreService {
     Assertion getAssertion(ArtifactResponse artifactResponse,
                            IdentityProviderConfiguration identityProviderConfiguration);
 
-    /**
-     * Get the Assertion decrypted
-     *
-     * @param response {@link Response}
-     * @param identityProviderConfiguration  {@link IdentityProviderConfiguration}
-     *
-     * @return Assertion
-     */
-    Assertion getAssertion(Response response,
-                           IdentityProviderConfiguration identityProviderConfiguration);
-
     /**
      * Just get the Encrypted assertion from the {@link ArtifactResponse}
      *
@@ -235,4 +243,11 @@ public interface SamlCoreService {
      * @return Credential
      */
     Credential getIdPCredentials(IdentityProviderConfiguration identityProviderConfiguration);
+
+    /**
+     * Get the compiled runtime profile (typed configuration) of the idp
+     * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+     * @return RuntimeProfile
+     */
+    RuntimeProfile getRuntimeProfile(IdentityProviderConfiguration identityProviderConfiguration);
 }
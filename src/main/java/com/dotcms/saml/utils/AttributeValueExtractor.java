@@ -0,0 +1,155 @@
+package com.dotcms.saml.utils;
+
+import org.apache.commons.lang.StringUtils;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.schema.XSAny;
+import org.opensaml.core.xml.schema.XSBase64Binary;
+import org.opensaml.core.xml.schema.XSBoolean;
+import org.opensaml.core.xml.schema.XSDateTime;
+import org.opensaml.core.xml.schema.XSInteger;
+import org.opensaml.core.xml.schema.XSQName;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.core.xml.schema.XSURI;
+import org.opensaml.saml.config.SAMLConfigurationSupport;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.NameIDType;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Extracts the values of the SAML attributes from the unmarshalled (typed) objects: {@link XSString}, {@link XSAny},
+ * {@link XSURI}, etc. instead of navigating the DOM, so the values are available (and safe to read when empty) even
+ * after the DOM has been released.
+ *
+ * @author jsanca
+ */
+public class AttributeValueExtractor {
+
+    private AttributeValueExtractor() {
+    }
+
+    /**
+     * Get the first value of the attribute, null if the attribute has not values
+     * @param attribute {@link Attribute}
+     * @return String
+     */
+    public static String getFirstValue(final Attribute attribute) {
+
+        return null != attribute && !attribute.getAttributeValues().isEmpty()?
+                getValue(attribute.getAttributeValues().get(0)): null;
+    }
+
+    /**
+     * Get all the values of the attribute (null values included), in document order.
+     * The list is new and mutable.
+     * @param attribute {@link Attribute}
+     * @return List of String
+     */
+    public static List<String> getValues(final Attribute attribute) {
+
+        if (null == attribute) {
+
+            return new ArrayList<>(0);
+        }
+
+        final List<XMLObject> attributeValues = attribute.getAttributeValues();
+        final List<String> values = new ArrayList<>(attributeValues.size());
+        for (final XMLObject attributeValue : attributeValues) {
+
+            values.add(getValue(attributeValue));
+        }
+
+        return values;
+    }
+
+    /**
+     * Get the text value of a single attribute value (or a NameID), null if it has not value
+     * @param xmlObject {@link XMLObject}
+     * @return String
+     */
+    public static String getValue(final XMLObject xmlObject) {
+
+        if (null == xmlObject) {
+
+            return null;
+        }
+
+        if (xmlObject instanceof XSString xsString) {
+
+            return xsString.getValue();
+        }
+
+        if (xmlObject instanceof XSAny xsAny) {
+
+            // a value such as <AttributeValue><NameID>...</NameID></AttributeValue> has not text but a child
+            return null == xsAny.getTextContent() && !xsAny.getUnknownXMLObjects().isEmpty()?
+                    getValue(xsAny.getUnknownXMLObjects().get(0)): xsAny.getTextContent();
+        }
+
+        if (xmlObject instanceof NameIDType nameID) {
+
+            return nameID.getValue();
+        }
+
+        if (xmlObject instanceof XSURI xsUri) {
+
+            return xsUri.getValue();
+        }
+
+        // the boolean, integer, dateTime and QName values are returned as the IdP sent them ("1", "007", "2020-01-01T00:00:00Z"),
+        // only if the DOM was released they are printed from the typed value
+        if (xmlObject instanceof XSBoolean xsBoolean) {
+
+            return null != xsBoolean.getValue()? getLexicalValue(xmlObject, xsBoolean.getValue().toString()): null;
+        }
+
+        if (xmlObject instanceof XSInteger xsInteger) {
+
+            return null != xsInteger.getValue()? getLexicalValue(xmlObject, xsInteger.getValue().toString()): null;
+        }
+
+        if (xmlObject instanceof XSDateTime xsDateTime) {
+
+            return null != xsDateTime.getValue()? getLexicalValue(xmlObject,
+                    SAMLConfigurationSupport.getSAMLDateFormatter().print(xsDateTime.getValue())): null;
+        }
+
+        if (xmlObject instanceof XSQName xsQName) {
+
+            return null != xsQName.getValue()? getLexicalValue(xmlObject, StringUtils.isNotEmpty(xsQName.getValue().getPrefix())?
+                    xsQName.getValue().getPrefix() + ':' + xsQName.getValue().getLocalPart(): xsQName.getValue().getLocalPart()): null;
+        }
+
+        if (xmlObject instanceof XSBase64Binary xsBase64Binary) {
+
+            return xsBase64Binary.getValue();
+        }
+
+        // unknown type, the DOM is the only place to look at (if it is still there)
+        return getLexicalValue(xmlObject, null);
+    }
+
+    private static String getLexicalValue(final XMLObject xmlObject, final String defaultValue) {
+
+        final Element element = xmlObject.getDOM();
+        final Node    child   = null != element? element.getFirstChild(): null;
+        return null != child? child.getNodeValue(): defaultValue;
+    }
+
+    /**
+     * Releases the DOM of the object and all its children, the typed values are kept.
+     * Call it once the values were read, since the boolean, integer, dateTime and QName values lose their lexical form.
+     * @param xmlObject {@link XMLObject}
+     */
+    public static void releaseDOM(final XMLObject xmlObject) {
+
+        if (null != xmlObject) {
+
+            xmlObject.releaseChildrenDOM(true);
+            xmlObject.releaseDOM();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.dotcms.saml.utils;
+
+import com.dotmarketing.util.Config;
+import io.vavr.control.Try;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Raw DEFLATE (nowrap) + Base64 encoder of the HTTP-Redirect binding.
+ * The {@link Deflater}s (which hold native memory and are expensive to create) are kept with their output buffer on a
+ * bounded pool, and the deflated bytes are Base64 encoded (and optionally percent encoded for a query string) in a
+ * single pass straight into the caller {@link StringBuilder}, so no intermediate streams, arrays nor strings are created.
+ * The output is the same of the OpenSAML HTTPRedirectDeflateEncoder.
+ *
+ * @author jsanca
+ */
+public class DeflateBase64Encoder {
+
+    /**
+     * Max number of idle deflaters kept by the pool
+     */
+    public static final String DOT_SAML_DEFLATER_POOL_MAX_SIZE = "dotcms.saml.deflater.pool.max.size";
+    public static final int    DOT_SAML_DEFLATER_POOL_MAX_SIZE_DEFAULT_VALUE = 20;
+
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+    // bigger buffers are not kept on the pool, in order to not retain the memory of an unusual big message
+    private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
+    private static final char[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final BlockingQueue<PooledDeflater> deflaters;
+
+    private static class SingletonHolder {
+        private static final DeflateBase64Encoder INSTANCE = new DeflateBase64Encoder(
+                Try.of(()->Config.getIntProperty(DOT_SAML_DEFLATER_POOL_MAX_SIZE, DOT_SAML_DEFLATER_POOL_MAX_SIZE_DEFAULT_VALUE))
+                        .getOrElse(DOT_SAML_DEFLATER_POOL_MAX_SIZE_DEFAULT_VALUE));
+    }
+
+    public static DeflateBase64Encoder getInstance() {
+        return DeflateBase64Encoder.SingletonHolder.INSTANCE;
+    }
+
+    protected DeflateBase64Encoder(final int maxPoolSize) {
+
+        this.deflaters = new ArrayBlockingQueue<>(Math.max(1, maxPoolSize));
+    }
+
+    /**
+     * Deflates and Base64 encodes the message
+     * @param message byte []
+     * @return String
+     */
+    public String encode(final byte[] message) {
+
+        final StringBuilder builder = new StringBuilder(message.length / 2 + 16);
+        this.encode(message, builder, false);
+        return builder.toString();
+    }
+
+    /**
+     * Deflates and Base64 encodes the message into the builder
+     * @param message   byte []
+     * @param builder   {@link StringBuilder}
+     * @param urlEncode boolean true to percent encode the Base64 chars that are not safe on a query string (+, / and =)
+     */
+    public void encode(final byte[] message, final StringBuilder builder, final boolean urlEncode) {
+
+        PooledDeflater pooledDeflater = this.deflaters.poll();
+        if (null == pooledDeflater) {
+
+            pooledDeflater = new PooledDeflater();
+        }
+
+        final int length;
+        try {
+
+            length = pooledDeflater.deflate(message);
+        } catch (RuntimeException e) {
+
+            pooledDeflater.deflater.end();
+            throw e;
+        }
+
+        appendBase64(pooledDeflater.buffer, length, builder, urlEncode);
+        this.release(pooledDeflater);
+    }
+
+    private void release(final PooledDeflater pooledDeflater) {
+
+        pooledDeflater.deflater.reset();
+        if (pooledDeflater.buffer.length > MAX_POOLED_BUFFER_SIZE) {
+
+            pooledDeflater.buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+
+        if (!this.deflaters.offer(pooledDeflater)) {
+
+            // the pool is full, the native memory is released right away instead of waiting for the gc
+            pooledDeflater.deflater.end();
+        }
+    }
+
+    private static void appendBase64(final byte[] bytes, final int length,
+                                     final StringBuilder builder, final boolean urlEncode) {
+
+        builder.ensureCapacity(builder.length() + ((length + 2) / 3) * 4 + (urlEncode? 8: 0));
+
+        int i = 0;
+        for (; i + 2 < length; i += 3) {
+
+            final int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            appendChar(builder, BASE64_ALPHABET[(bits >>> 18) & 0x3F], urlEncode);
+            appendChar(builder, BASE64_ALPHABET[(bits >>> 12) & 0x3F], urlEncode);
+            appendChar(builder, BASE64_ALPHABET[(bits >>> 6) & 0x3F], urlEncode);
+            appendChar(builder, BASE64_ALPHABET[bits & 0x3F], urlEncode);
+        }
+
+        final int remaining = length - i;
+        if (remaining > 0) {
+
+            final int bits = (bytes[i] & 0xFF) << 16 | (remaining > 1? (bytes[i + 1] & 0xFF) << 8: 0);
+            appendChar(builder, BASE64_ALPHABET[(bits >>> 18) & 0x3F], urlEncode);
+            appendChar(builder, BASE64_ALPHABET[(bits >>> 12) & 0x3F], urlEncode);
+            appendChar(builder, remaining > 1? BASE64_ALPHABET[(bits >>> 6) & 0x3F]: '=', urlEncode);
+            appendChar(builder, '=', urlEncode);
+        }
+    }
+
+    private static void appendChar(final StringBuilder builder, final char character, final boolean urlEncode) {
+
+        if (urlEncode) {
+
+            switch (character) {
+                case '+':
+                    builder.append("%2B");
+                    return;
+                case '/':
+                    builder.append("%2F");
+                    return;
+                case '=':
+                    builder.append("%3D");
+                    return;
+                default:
+            }
+        }
+
+        builder.append(character);
+    }
+
+    private static final class PooledDeflater {
+
+        private final Deflater deflater = new Deflater(Deflater.DEFLATED, true);
+        private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+        private int deflate(final byte[] message) {
+
+            this.deflater.setInput(message);
+            this.deflater.finish();
+
+            int length = 0;
+            while (!this.deflater.finished()) {
+
+                if (length == this.buffer.length) {
+
+                    this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+                }
+
+                length += this.deflater.deflate(this.buffer, length, this.buffer.length - length);
+            }
+
+            return length;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.dotcms.saml.utils;
+
+import com.dotcms.saml.service.external.SamlException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Just a class to compute cheap content fingerprints (SHA-256 hex) used as cache keys.
+ *
+ * @author jsanca
+ */
+public class DigestUtil {
+
+    private static final String SHA_256 = "SHA-256";
+    private static final char[] HEX     = "0123456789abcdef".toCharArray();
+
+    private DigestUtil() {
+    }
+
+    /**
+     * Computes the SHA-256 hex digest of the chars (encoded as UTF-8), null chars are digested as empty.
+     * The intermediate byte buffer is wiped, since the chars may be a private key.
+     *
+     * @param chars char []
+     * @return String
+     */
+    public static String sha256(final char[] chars) {
+
+        final MessageDigest messageDigest = newDigest();
+        if (null != chars && chars.length > 0) {
+
+            final ByteBuffer byteBuffer = StandardCharsets.UTF_8.encode(CharBuffer.wrap(chars));
+            final byte[]     bytes      = new byte[byteBuffer.remaining()];
+            byteBuffer.get(bytes);
+            messageDigest.update(bytes);
+            Arrays.fill(bytes, (byte) 0);
+            if (byteBuffer.hasArray()) {
+                Arrays.fill(byteBuffer.array(), (byte) 0);
+            }
+        }
+
+        return toHex(messageDigest.digest());
+    }
+
+    /**
+     * Computes the SHA-256 hex digest of the bytes, null bytes are digested as empty.
+     *
+     * @param bytes byte []
+     * @return String
+     */
+    public static String sha256(final byte[] bytes) {
+
+        final MessageDigest messageDigest = newDigest();
+        if (null != bytes) {
+            messageDigest.update(bytes);
+        }
+
+        return toHex(messageDigest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+
+        try {
+            return MessageDigest.getInstance(SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SamlException(e.getMessage(), e);
+        }
+    }
+
+    private static String toHex(final byte[] digest) {
+
+        final char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; ++i) {
+
+            hex[i * 2]     = HEX[(digest[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+
+        return new String(hex);
+    }
+}
@@ -1,15 +1,15 @@
 package com.dotcms.saml.utils;
 
 import com.dotcms.saml.MessageObserver;
-import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.logic.Constraint;
-import net.shibboleth.utilities.java.support.xml.BasicParserPool;
 import net.shibboleth.utilities.java.support.xml.ParserPool;
 import net.shibboleth.utilities.java.support.xml.XMLParserException;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ReaderInputStream;
+import org.apache.xml.security.algorithms.JCEMapper;
 import org.apache.xml.security.encryption.XMLCipher;
 import org.apache.xml.security.encryption.XMLEncryptionException;
 import org.opensaml.core.xml.XMLObject;
-import org.opensaml.core.xml.XMLRuntimeException;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.io.Marshaller;
 import org.opensaml.core.xml.io.MarshallingException;
@@ -23,24 +23,43 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import javax.annotation.Nonnull;
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
-import javax.xml.XMLConstants;
+import javax.crypto.spec.IvParameterSpec;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.Key;
-import java.util.HashMap;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 
 /**
- * This EncryptedAssertion Decrypter is a customization in order to avoid XML Marshalling issues
+ * This EncryptedAssertion Decrypter is a customization in order to avoid XML Marshalling issues.
+ * By default it parses the decrypted data with the hardened {@link SharedParserPool}.
  * @author jsanca
  */
 public class EncryptedAssertionDecrypter {
 
+    private static final String CBC_MODE = "/CBC/";
+
     private final ParserPool dotParserPool;
     private final MessageObserver messageObserver;
+    private final SamlDiagnostics diagnostics;
 
     public EncryptedAssertionDecrypter(final MessageObserver messageObserver) {
-        this.dotParserPool   = this.buildParserPool();
+        this(messageObserver, SharedParserPool.getInstance());
+    }
+
+    public EncryptedAssertionDecrypter(final MessageObserver messageObserver, final ParserPool parserPool) {
+        this.dotParserPool   = parserPool;
         this.messageObserver = messageObserver;
+        this.diagnostics     = new SamlDiagnostics(messageObserver, this.getClass());
     }
 
     public Assertion decrypt(final EncryptedAssertion encryptedAssertion, final SecretKey decryptKey) throws DecryptionException {
@@ -89,6 +108,12 @@ public class EncryptedAssertionDecrypter {
             throw e;
         }
 
+        final Document streamedDocument = this.decryptDataToDOMStreaming(encryptedData, dataEncKey);
+        if (null != streamedDocument) {
+
+            return streamedDocument;
+        }
+
         final Element targetElement = encryptedData.getDOM();
 
         XMLCipher xmlCipher;
@@ -115,7 +140,8 @@ public class EncryptedAssertionDecrypter {
             throw new DecryptionException("EncryptedData could not be decrypted");
         }
 
-        this.messageObserver.updateInfo(this.getClass().getName(), "decrypted assertion: " + new String(bytes));
+        // the plain text is never logged, just the size
+        this.diagnostics.debug("decrypted assertion bytes: ", bytes.length);
 
         try {
             return this.dotParserPool.parse(new ByteArrayInputStream(bytes));
@@ -125,6 +151,67 @@ public class EncryptedAssertionDecrypter {
         }
     }
 
+    /**
+     * Decrypts the inline CipherValue as a stream: Base64 decoding, block cipher and XML parsing are chained,
+     * so neither the cipher text nor the plain text are ever copied into a full byte array or String.
+     * Only the CBC algorithms are streamed: the JCE providers (SunJCE) buffer the whole GCM cipher text until the tag
+     * is verified, so streaming GCM would only add a pass over the data.
+     * Returns null if the encrypted data can not be streamed (for instance a CipherReference, a GCM or an unknown algorithm),
+     * in that case the caller must use the {@link XMLCipher}.
+     *
+     * @param encryptedData {@link EncryptedData}
+     * @param dataEncKey    {@link Key}
+     * @return Document or null if streaming is not supported for the encrypted data
+     * @throws DecryptionException
+     */
+    protected Document decryptDataToDOMStreaming(@Nonnull final EncryptedData encryptedData,
+                                                 @Nonnull final Key dataEncKey) throws DecryptionException {
+
+        final String algorithm   = null != encryptedData.getEncryptionMethod()?
+                encryptedData.getEncryptionMethod().getAlgorithm(): null;
+        final String cipherValue = null != encryptedData.getCipherData() && null != encryptedData.getCipherData().getCipherValue()?
+                encryptedData.getCipherData().getCipherValue().getValue(): null;
+        final String jceAlgorithm = null != algorithm? JCEMapper.translateURItoJCEID(algorithm): null;
+        final int    ivLength     = null != algorithm? JCEMapper.getIVLengthFromURI(algorithm) / 8: 0;
+
+        if (null == cipherValue || null == jceAlgorithm || !jceAlgorithm.contains(CBC_MODE) || ivLength <= 0) {
+
+            return null;
+        }
+
+        this.diagnostics.debug(() -> "Streaming decryption, algorithm: " + algorithm
+                + ", cipher value chars: " + cipherValue.length());
+
+        try (InputStream cipherText = Base64.getMimeDecoder().wrap(
+                new ReaderInputStream(new StringReader(cipherValue), StandardCharsets.US_ASCII))) {
+
+            final byte[] iv = new byte[ivLength];
+            if (IOUtils.read(cipherText, iv) != ivLength) {
+
+                throw new DecryptionException("EncryptedData is too short to contain the IV");
+            }
+
+            final Cipher cipher = Cipher.getInstance(jceAlgorithm);
+            cipher.init(Cipher.DECRYPT_MODE, dataEncKey, new IvParameterSpec(iv));
+
+            final InputStream plainText = new CipherInputStream(cipherText, cipher);
+            final Document document     = this.dotParserPool.parse(plainText);
+            // the parser may stop before the end of the stream, but the document is only returned once the whole
+            // cipher text is decrypted, so a bad padding always ends in an exception
+            IOUtils.skip(plainText, Long.MAX_VALUE);
+            return document;
+        } catch (XMLParserException  e) {
+            this.messageObserver.updateError(this.getClass().getName(),"Error parsing decrypted input stream", e);
+            throw new DecryptionException("Error parsing input stream", e);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidAlgorithmParameterException e) {
+            this.diagnostics.debug(() -> "Streaming decryption not supported for: " + jceAlgorithm + ", using the XMLCipher");
+            return null;
+        } catch (GeneralSecurityException | IOException e) {
+            this.messageObserver.updateError(this.getClass().getName(),"Error decrypting the encrypted data element", e);
+            throw new DecryptionException("Error decrypting the encrypted data element", e);
+        }
+    }
+
     protected void checkAndMarshall(@Nonnull final XMLObject xmlObject) throws DecryptionException {
         Constraint.isNotNull(xmlObject, "XMLObject cannot be null");
 
@@ -148,29 +235,4 @@ public class EncryptedAssertionDecrypter {
             }
         }
     }
-
-    protected ParserPool buildParserPool() {
-        BasicParserPool pp = new BasicParserPool();
-        HashMap<String, Boolean> features = new HashMap<>();
-
-        pp.setNamespaceAware(true);
-
-        // Note: this feature config is necessary due to an unresolved Xerces deferred DOM issue/bug
-        features.put("http://apache.org/xml/features/dom/defer-node-expansion", Boolean.FALSE);
-
-        // The following config is to harden the parser pool against known XML security vulnerabilities
-        pp.setExpandEntityReferences(false);
-        features.put(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-        features.put("http://apache.org/xml/features/disallow-doctype-decl", true);
-
-        pp.setBuilderFeatures(features);
-
-        try {
-            pp.initialize();
-            return pp;
-        } catch (ComponentInitializationException e) {
-            throw new XMLRuntimeException("Problem initializing Decrypter internal ParserPool", e);
-        }
-    }
 }
-
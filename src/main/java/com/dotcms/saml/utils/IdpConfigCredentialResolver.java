@@ -3,6 +3,8 @@ package com.dotcms.saml.utils;
 import com.dotcms.saml.IdentityProviderConfiguration;
 import com.dotcms.saml.IdentityProviderConfigurationFactory;
 import com.dotcms.saml.MessageObserver;
+import com.dotcms.saml.service.external.SamlException;
+import com.dotcms.saml.service.impl.CredentialRegistry;
 import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
 import org.apache.commons.io.input.ReaderInputStream;
@@ -63,7 +65,7 @@ public class IdpConfigCredentialResolver extends AbstractCriteriaFilteringCreden
 			identityProviderConfiguration = getIdpConfig(entityID);
 
 			final X509Certificate cert = getPublicCert(identityProviderConfiguration.getPublicCert());
-			final PrivateKey privateKey = getPrivateKey(identityProviderConfiguration.getPrivateKey());
+			final PrivateKey privateKey = getPrivateKey(identityProviderConfiguration);
 
 			final BasicX509Credential credential = new BasicX509Credential(cert, privateKey);
 			credential.setEntityId(identityProviderConfiguration.getId());
@@ -153,6 +155,36 @@ public class IdpConfigCredentialResolver extends AbstractCriteriaFilteringCreden
 		return cert;
 	}
 
+	/**
+	 * Returns the decoded private key of the idp configuration, the key is decoded just once per IdP id and key digest
+	 * and shared by everyone who needs it (credential resolution, assertion decryption).
+	 *
+	 * @param identityProviderConfiguration {@link IdentityProviderConfiguration}
+	 * @return PrivateKey
+	 * @throws ResolverException
+	 */
+	public PrivateKey getPrivateKey(final IdentityProviderConfiguration identityProviderConfiguration) throws ResolverException {
+
+		try {
+
+			return CredentialRegistry.getInstance().getPrivateKey(identityProviderConfiguration, () -> {
+
+				try {
+					return this.getPrivateKey(identityProviderConfiguration.getPrivateKey());
+				} catch (ResolverException e) {
+					throw new SamlException(e.getMessage(), e);
+				}
+			});
+		} catch (SamlException e) {
+
+			if (e.getCause() instanceof ResolverException) {
+				throw (ResolverException) e.getCause();
+			}
+
+			throw e;
+		}
+	}
+
 	public PrivateKey getPrivateKey(final char[] keyFile) throws ResolverException {
 
 		PrivateKey privateKey = null;
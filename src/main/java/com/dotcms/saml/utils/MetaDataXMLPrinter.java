@@ -9,11 +9,7 @@ import org.w3c.dom.Document;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import java.io.Serializable;
 import java.io.Writer;
 
@@ -43,9 +39,9 @@ public class MetaDataXMLPrinter implements Serializable {
 		final DocumentBuilder builder     = this.factory.newDocumentBuilder();
 		final Document        document    = builder.newDocument();
 		final Marshaller      marshaller  = XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(descriptor);
-		final Transformer     transformer = TransformerFactory.newInstance().newTransformer();
 
 		marshaller.marshall(descriptor, document);
-		transformer.transform(new DOMSource(document), new StreamResult(writer));
+		// streamed straight to the writer with a pooled transformer
+		XMLSerializer.getInstance().write(document, writer, false);
 	}
 }
@@ -0,0 +1,124 @@
+package com.dotcms.saml.utils;
+
+import org.opensaml.saml.saml2.core.NameID;
+
+/**
+ * Compact codec for the {@link NameID} kept on the session (on the {@link com.dotcms.saml.SamlNameID}).
+ * Instead of the whole XML of the NameID, just the value, format, NameQualifier, SPNameQualifier and SPProvidedID are
+ * stored as length prefixed fields: <code>nid1:</code> followed by <code>length:chars</code> per field
+ * (<code>-:</code> for a null field), so the NameID is rebuilt with the builder, without any xml parsing.
+ *
+ * @author jsanca
+ */
+public class NameIDCodec {
+
+    /**
+     * Prefix of the compact encoding, an xml encoded NameID always starts with '&lt;'
+     */
+    public static final String PREFIX = "nid1:";
+
+    private static final char SEPARATOR = ':';
+    private static final char NULL_FIELD = '-';
+
+    private NameIDCodec() {
+    }
+
+    /**
+     * Returns true if the string was encoded by this codec
+     * @param encoded {@link String}
+     * @return boolean
+     */
+    public static boolean isCompact(final String encoded) {
+        return null != encoded && encoded.startsWith(PREFIX);
+    }
+
+    /**
+     * Encodes the name id
+     * @param nameID {@link NameID}
+     * @return String
+     */
+    public static String encode(final NameID nameID) {
+
+        final StringBuilder builder = new StringBuilder(PREFIX.length() + 16 + length(nameID.getValue()) +
+                length(nameID.getFormat()) + length(nameID.getNameQualifier()) +
+                length(nameID.getSPNameQualifier()) + length(nameID.getSPProvidedID()));
+
+        builder.append(PREFIX);
+        append(builder, nameID.getValue());
+        append(builder, nameID.getFormat());
+        append(builder, nameID.getNameQualifier());
+        append(builder, nameID.getSPNameQualifier());
+        append(builder, nameID.getSPProvidedID());
+        return builder.toString();
+    }
+
+    private static int length(final String field) {
+        return null != field? field.length(): 0;
+    }
+
+    private static void append(final StringBuilder builder, final String field) {
+
+        if (null == field) {
+
+            builder.append(NULL_FIELD).append(SEPARATOR);
+        } else {
+
+            builder.append(field.length()).append(SEPARATOR).append(field);
+        }
+    }
+
+    /**
+     * Decodes a name id encoded by {@link #encode(NameID)}
+     * @param encoded {@link String}
+     * @return NameID
+     * @throws IllegalArgumentException if the string is not a compact name id
+     */
+    public static NameID decode(final String encoded) {
+
+        if (!isCompact(encoded)) {
+
+            throw new IllegalArgumentException("It is not a compact NameID: " + encoded);
+        }
+
+        final String[] fields = new String[5];
+        int position = PREFIX.length();
+        for (int i = 0; i < fields.length; ++i) {
+
+            final int separator = encoded.indexOf(SEPARATOR, position);
+            if (separator < 0) {
+
+                throw new IllegalArgumentException("Truncated compact NameID: " + encoded);
+            }
+
+            if (separator == position + 1 && encoded.charAt(position) == NULL_FIELD) {
+
+                fields[i] = null;
+                position  = separator + 1;
+            } else {
+
+                final int length;
+                try {
+                    length = Integer.parseInt(encoded, position, separator, 10);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Wrong field length on compact NameID: " + encoded, e);
+                }
+
+                if (length < 0 || separator + 1 + length > encoded.length()) {
+
+                    throw new IllegalArgumentException("Truncated compact NameID: " + encoded);
+                }
+
+                fields[i] = encoded.substring(separator + 1, separator + 1 + length);
+                position  = separator + 1 + length;
+            }
+        }
+
+        final NameID nameID = SAMLObjectBuilders.build(NameID.class);
+        nameID.setValue(fields[0]);
+        nameID.setFormat(fields[1]);
+        nameID.setNameQualifier(fields[2]);
+        nameID.setSPNameQualifier(fields[3]);
+        nameID.setSPProvidedID(fields[4]);
+        return nameID;
+    }
+}
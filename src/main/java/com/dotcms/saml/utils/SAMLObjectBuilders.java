@@ -0,0 +1,87 @@
+package com.dotcms.saml.utils;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Cache of the OpenSAML builders by the class of the object to build.
+ * The DEFAULT_ELEMENT_NAME of the class is read by reflection and its {@link XMLObjectBuilder} is looked up on the
+ * builder factory just the first time a class is built, then both are kept on a {@link ClassValue}, so building
+ * an object is just a call to the builder.
+ *
+ * @author jsanca
+ */
+public class SAMLObjectBuilders {
+
+    private static final String DEFAULT_ELEMENT_NAME = "DEFAULT_ELEMENT_NAME";
+
+    private static final ClassValue<ResolvedBuilder> builders = new ClassValue<>() {
+
+        @Override
+        protected ResolvedBuilder computeValue(final Class<?> clazz) {
+
+            final QName defaultElementName;
+            try {
+
+                defaultElementName = (QName) clazz.getDeclaredField(DEFAULT_ELEMENT_NAME).get(null);
+            } catch (IllegalAccessException | NoSuchFieldException | ClassCastException e) {
+
+                throw new IllegalArgumentException("Could not create SAML object: " + clazz, e);
+            }
+
+            final XMLObjectBuilder<?> builder = XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(defaultElementName);
+            if (null == builder) {
+
+                // not cached, OpenSAML may not be initialized yet
+                throw new IllegalArgumentException("Could not create SAML object: " + clazz + ", there is not a builder for: " + defaultElementName);
+            }
+
+            return new ResolvedBuilder(defaultElementName, builder);
+        }
+    };
+
+    private SAMLObjectBuilders() {
+    }
+
+    /**
+     * Builds a new object of the class, the class must have the DEFAULT_ELEMENT_NAME field (all the SAML objects have it)
+     * @param clazz {@link Class}
+     * @param <T>
+     * @return T
+     * @throws IllegalArgumentException if there is not a builder for the class
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T build(final Class<T> clazz) {
+
+        final ResolvedBuilder resolvedBuilder = builders.get(clazz);
+        return (T) resolvedBuilder.builder.buildObject(resolvedBuilder.defaultElementName);
+    }
+
+    /**
+     * Get the builder of the class
+     * @param clazz {@link Class}
+     * @param <T>
+     * @return XMLObjectBuilder
+     * @throws IllegalArgumentException if there is not a builder for the class
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends XMLObject> XMLObjectBuilder<T> getBuilder(final Class<T> clazz) {
+
+        return (XMLObjectBuilder<T>) builders.get(clazz).builder;
+    }
+
+    private static final class ResolvedBuilder {
+
+        private final QName defaultElementName;
+        private final XMLObjectBuilder<?> builder;
+
+        private ResolvedBuilder(final QName defaultElementName, final XMLObjectBuilder<?> builder) {
+
+            this.defaultElementName = defaultElementName;
+            this.builder            = builder;
+        }
+    }
+}
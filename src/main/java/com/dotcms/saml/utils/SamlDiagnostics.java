@@ -0,0 +1,111 @@
+package com.dotcms.saml.utils;
+
+import com.dotcms.saml.MessageObserver;
+import com.dotmarketing.util.Logger;
+import org.opensaml.core.xml.XMLObject;
+
+import javax.xml.transform.TransformerException;
+import java.io.StringWriter;
+import java.util.function.Supplier;
+
+/**
+ * Lazy and level aware diagnostics over the {@link MessageObserver}.
+ * The debug and info messages are passed as a {@link Supplier}, so they are just built (and the xml objects marshalled
+ * and printed) when the level is enabled for the class that reports them; warnings and errors go straight to the observer.
+ *
+ * @author jsanca
+ */
+public final class SamlDiagnostics {
+
+    private final MessageObserver messageObserver;
+    private final Class<?> reporterClass;
+    private final String   reporterClassName;
+
+    /**
+     * @param messageObserver {@link MessageObserver} observer to report the messages
+     * @param reporterClass   {@link Class} class that reports the messages, the levels are checked on its logger
+     */
+    public SamlDiagnostics(final MessageObserver messageObserver, final Class<?> reporterClass) {
+
+        this.messageObserver   = messageObserver;
+        this.reporterClass     = reporterClass;
+        this.reporterClassName = reporterClass.getName();
+    }
+
+    public boolean isDebugEnabled() {
+        return Logger.isDebugEnabled(this.reporterClass);
+    }
+
+    public boolean isInfoEnabled() {
+        return Logger.isInfoEnabled(this.reporterClass);
+    }
+
+    /**
+     * Reports a constant debug message, nothing is built so there is no need of a supplier
+     * @param message {@link String}
+     */
+    public void debug(final String message) {
+
+        if (this.isDebugEnabled()) {
+            this.messageObserver.updateDebug(this.reporterClassName, message);
+        }
+    }
+
+    public void debug(final Supplier<String> messageSupplier) {
+
+        if (this.isDebugEnabled()) {
+            this.messageObserver.updateDebug(this.reporterClassName, messageSupplier.get());
+        }
+    }
+
+    /**
+     * Reports the message followed by the argument, the argument is only converted to string if debug is enabled.
+     * Handy when the argument is not effectively final and can not be captured by a supplier.
+     * @param message  {@link String}
+     * @param argument {@link Object}
+     */
+    public void debug(final String message, final Object argument) {
+
+        if (this.isDebugEnabled()) {
+            this.messageObserver.updateDebug(this.reporterClassName, message + argument);
+        }
+    }
+
+    /**
+     * Reports the header and then the xml of the object, the object is only marshalled if debug is enabled
+     * @param header    {@link String}
+     * @param xmlObject {@link XMLObject}
+     */
+    public void debugXML(final String header, final XMLObject xmlObject) {
+
+        if (this.isDebugEnabled()) {
+
+            this.messageObserver.updateDebug(this.reporterClassName, header);
+            // the xml is written straight after the separator, no intermediate string is built
+            final StringWriter writer = new StringWriter().append("\n\n");
+            try {
+
+                SamlUtils.writeXMLObject(xmlObject, writer, true);
+                this.messageObserver.updateDebug(this.reporterClassName, writer.toString());
+            } catch (TransformerException e) {
+
+                this.warning("The xml of " + header + " could not be printed: " + e.getMessage());
+            }
+        }
+    }
+
+    public void info(final Supplier<String> messageSupplier) {
+
+        if (this.isInfoEnabled()) {
+            this.messageObserver.updateInfo(this.reporterClassName, messageSupplier.get());
+        }
+    }
+
+    public void warning(final String message) {
+        this.messageObserver.updateWarning(this.reporterClassName, message);
+    }
+
+    public void error(final String message, final Throwable throwable) {
+        this.messageObserver.updateError(this.reporterClassName, message, throwable);
+    }
+}
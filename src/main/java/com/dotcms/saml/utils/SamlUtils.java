@@ -3,6 +3,8 @@ package com.dotcms.saml.utils;
 import com.dotcms.saml.SamlNameID;
 import com.dotcms.saml.service.external.SamlException;
 import com.dotcms.saml.service.impl.SamlCoreServiceImpl;
+import com.dotmarketing.util.Config;
+import io.vavr.control.Try;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.security.RandomIdentifierGenerationStrategy;
 import net.shibboleth.utilities.java.support.xml.ParserPool;
@@ -23,14 +25,9 @@ import org.opensaml.saml.saml2.core.NameID;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import java.io.StringReader;
-import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,6 +38,8 @@ import java.util.logging.Logger;
  */
 public class SamlUtils {
 
+    public static final String DOT_SAML_COMPACT_NAME_ID = "dotcms.saml.compact.nameid";
+
     private static final UnmarshallerFactory                unmarshallerFactory     = XMLObjectProviderRegistrySupport.getUnmarshallerFactory();
     private static final MarshallerFactory                  marshallerFactory       = XMLObjectProviderRegistrySupport.getMarshallerFactory();
     private static final ParserPool                         parserPool              = XMLObjectProviderRegistrySupport.getParserPool();
@@ -65,11 +64,7 @@ public class SamlUtils {
      */
     public static String toXMLObjectString(final XMLObject object) {
 
-        final Element element = object instanceof SignableSAMLObject
-                && SignableSAMLObject.class.cast(object).isSigned() && object.getDOM() != null?
-                object.getDOM() : toElement(object);
-
-        return toElementString(element);
+        return toElementString(toSerializableElement(object));
     }
 
     /**
@@ -81,20 +76,11 @@ public class SamlUtils {
      */
     public static String toElementString(final Element element) {
 
-        final Transformer transformer;
-        final StreamResult result;
-        final DOMSource source;
         String xmlString = null;
 
         try {
 
-            transformer = TransformerFactory.newInstance().newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            result      = new StreamResult(new StringWriter());
-            source      = new DOMSource(element);
-
-            transformer.transform(source, result);
-            xmlString = result.getWriter().toString();
+            xmlString = XMLSerializer.getInstance().toString(element, true);
         } catch (TransformerException e) {
 
             Logger.getLogger(SamlCoreServiceImpl.class.getName()).log(Level.WARNING, e.getMessage(), e);
@@ -103,6 +89,27 @@ public class SamlUtils {
         return xmlString;
     }
 
+    /**
+     * Writes an {@link XMLObject} as XML into the writer, without building an intermediate String
+     *
+     * @param object {@link XMLObject}
+     * @param writer {@link Writer}
+     * @param pretty boolean true to indent the output
+     * @throws TransformerException
+     */
+    public static void writeXMLObject(final XMLObject object, final Writer writer, final boolean pretty) throws TransformerException {
+
+        XMLSerializer.getInstance().write(toSerializableElement(object), writer, pretty);
+    }
+
+    // a signed object keeps its DOM, marshalling it again would break the signature
+    private static Element toSerializableElement(final XMLObject object) {
+
+        return object instanceof SignableSAMLObject
+                && SignableSAMLObject.class.cast(object).isSigned() && object.getDOM() != null?
+                object.getDOM() : toElement(object);
+    }
+
     /**
      * Parses an XML string back into an {@link XMLObject} using OpenSAML's own infrastructure.
      * This is the inverse of {@link #toXMLObjectString(XMLObject)}.
@@ -140,6 +147,7 @@ public class SamlUtils {
      * <p>This is the plugin-side counterpart of wrapping a raw NameID in a {@link SamlNameID}
      * for session storage. Call this whenever plugin code needs to use a live NameID object
      * retrieved from {@link com.dotcms.saml.Attributes#getNameID()}.
+     * The wrapper may keep the compact encoding of {@link NameIDCodec} (rebuilt without parsing) or the xml.
      *
      * @param samlNameID the session-safe wrapper; must not be {@code null}
      * @return the reconstructed NameID
@@ -147,6 +155,10 @@ public class SamlUtils {
      */
     public static NameID toNameID(final SamlNameID samlNameID) {
         Objects.requireNonNull(samlNameID, "samlNameID must not be null");
+        if (NameIDCodec.isCompact(samlNameID.getXmlString())) {
+            return NameIDCodec.decode(samlNameID.getXmlString());
+        }
+        // sessions created before the compact encoding keep the xml
         try {
             return (NameID) fromXMLString(samlNameID.getXmlString());
         } catch (final UnmarshallingException e) {
@@ -154,6 +166,21 @@ public class SamlUtils {
         }
     }
 
+    /**
+     * Encodes the NameID to be kept on the session in a {@link SamlNameID}, see {@link #toNameID(SamlNameID)}.
+     * By default it is the xml of the NameID; set {@link #DOT_SAML_COMPACT_NAME_ID} to true to keep the compact
+     * encoding of {@link NameIDCodec} instead (once all the nodes of the cluster can read it). Note that in that case
+     * {@link SamlNameID#getXmlString()} does not return xml, so it has to be read with {@link #toNameID(SamlNameID)}.
+     *
+     * @param nameID {@link NameID}
+     * @return String
+     */
+    public static String toSessionNameIDString(final NameID nameID) {
+
+        return Try.of(()->Config.getBooleanProperty(DOT_SAML_COMPACT_NAME_ID, false)).getOrElse(false)?
+                NameIDCodec.encode(nameID): toXMLObjectString(nameID);
+    }
+
     public static XMLObject toXMLObject (final Element element) throws UnmarshallingException {
 
         Unmarshaller unmarshaller = unmarshallerFactory.getUnmarshaller(element);
@@ -0,0 +1,180 @@
+package com.dotcms.saml.utils;
+
+import com.dotmarketing.util.Config;
+import io.vavr.control.Try;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.xml.BasicParserPool;
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+import org.opensaml.core.xml.XMLRuntimeException;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.annotation.Nonnull;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hardened and bounded {@link ParserPool} shared by the whole bundle (for instance by every assertion decryption),
+ * it is built just once instead of per request.
+ * The pool keeps the XXE protections (secure processing, doctype declarations disallowed, no entity expansion)
+ * and reports the max pool size, the builders borrowed/in use and the time spent waiting to borrow a builder.
+ *
+ * @author jsanca
+ */
+public class SharedParserPool implements ParserPool {
+
+    /**
+     * Max number of idle builders kept by the pool
+     */
+    public static final String DOT_SAML_PARSER_POOL_MAX_SIZE = "dotcms.saml.parser.pool.max.size";
+    public static final int    DOT_SAML_PARSER_POOL_MAX_SIZE_DEFAULT_VALUE = 50;
+
+    private final BasicParserPool parserPool;
+    private final int        maxPoolSize;
+    private final AtomicLong borrows        = new AtomicLong();
+    private final AtomicLong returns        = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+
+    private static class SingletonHolder {
+        private static final SharedParserPool INSTANCE = new SharedParserPool(
+                Try.of(()->Config.getIntProperty(DOT_SAML_PARSER_POOL_MAX_SIZE, DOT_SAML_PARSER_POOL_MAX_SIZE_DEFAULT_VALUE))
+                        .getOrElse(DOT_SAML_PARSER_POOL_MAX_SIZE_DEFAULT_VALUE));
+    }
+
+    public static SharedParserPool getInstance() {
+        return SharedParserPool.SingletonHolder.INSTANCE;
+    }
+
+    protected SharedParserPool(final int maxPoolSize) {
+
+        this.maxPoolSize = maxPoolSize;
+        this.parserPool  = this.buildParserPool(maxPoolSize);
+    }
+
+    protected BasicParserPool buildParserPool(final int maxPoolSize) {
+
+        final BasicParserPool pp = new BasicParserPool();
+        final Map<String, Boolean> features = new HashMap<>();
+
+        pp.setNamespaceAware(true);
+        pp.setMaxPoolSize(maxPoolSize);
+
+        // Note: this feature config is necessary due to an unresolved Xerces deferred DOM issue/bug
+        features.put("http://apache.org/xml/features/dom/defer-node-expansion", Boolean.FALSE);
+
+        // The following config is to harden the parser pool against known XML security vulnerabilities
+        pp.setExpandEntityReferences(false);
+        features.put(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        features.put("http://apache.org/xml/features/disallow-doctype-decl", true);
+
+        pp.setBuilderFeatures(features);
+
+        try {
+            pp.initialize();
+            return pp;
+        } catch (ComponentInitializationException e) {
+            throw new XMLRuntimeException("Problem initializing Decrypter internal ParserPool", e);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public DocumentBuilder getBuilder() throws XMLParserException {
+
+        final long start = System.nanoTime();
+        final DocumentBuilder builder = this.parserPool.getBuilder();
+        final long wait  = System.nanoTime() - start;
+
+        this.borrows.incrementAndGet();
+        this.borrowWaitNanos.addAndGet(wait);
+        this.maxBorrowWaitNanos.accumulateAndGet(wait, Math::max);
+        return builder;
+    }
+
+    @Override
+    public void returnBuilder(final DocumentBuilder builder) {
+
+        this.returns.incrementAndGet();
+        this.parserPool.returnBuilder(builder);
+    }
+
+    @Nonnull
+    @Override
+    public Document newDocument() throws XMLParserException {
+
+        return this.parserPool.newDocument();
+    }
+
+    @Nonnull
+    @Override
+    public Document parse(@Nonnull final InputStream input) throws XMLParserException {
+
+        return this.parse(new InputSource(input));
+    }
+
+    @Nonnull
+    @Override
+    public Document parse(@Nonnull final Reader input) throws XMLParserException {
+
+        return this.parse(new InputSource(input));
+    }
+
+    private Document parse(final InputSource inputSource) throws XMLParserException {
+
+        final DocumentBuilder builder = this.getBuilder();
+        try {
+
+            return builder.parse(inputSource);
+        } catch (SAXException e) {
+            throw new XMLParserException("Unable to parse invalid XML", e);
+        } catch (IOException e) {
+            throw new XMLParserException("Unable to read XML from input", e);
+        } finally {
+            this.returnBuilder(builder);
+        }
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public long getBorrows() {
+        return borrows.get();
+    }
+
+    /**
+     * Number of builders borrowed but not returned yet
+     * @return long
+     */
+    public long getInUse() {
+        return borrows.get() - returns.get();
+    }
+
+    public long getBorrowWaitNanos() {
+        return borrowWaitNanos.get();
+    }
+
+    public long getMaxBorrowWaitNanos() {
+        return maxBorrowWaitNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedParserPool{" +
+                "maxPoolSize=" + maxPoolSize +
+                ", borrows=" + borrows +
+                ", inUse=" + this.getInUse() +
+                ", borrowWaitNanos=" + borrowWaitNanos +
+                ", maxBorrowWaitNanos=" + maxBorrowWaitNanos +
+                '}';
+    }
+}
@@ -0,0 +1,124 @@
+package com.dotcms.saml.utils;
+
+import com.dotmarketing.util.Config;
+import io.vavr.control.Try;
+import org.w3c.dom.Node;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Thread safe XML serializer shared by the whole bundle.
+ * The {@link TransformerFactory} is looked up just once and the {@link Transformer}s (which are not thread safe) are
+ * kept on two bounded pools, one for the pretty (indented) output and one for the compact output, so a serialization
+ * just borrows an already compiled transformer instead of creating the factory and the transformer each time.
+ * The output is streamed to the caller {@link Writer} or {@link OutputStream}.
+ *
+ * @author jsanca
+ */
+public class XMLSerializer {
+
+    /**
+     * Max number of idle transformers kept by each pool
+     */
+    public static final String DOT_SAML_XML_SERIALIZER_POOL_MAX_SIZE = "dotcms.saml.xml.serializer.pool.max.size";
+    public static final int    DOT_SAML_XML_SERIALIZER_POOL_MAX_SIZE_DEFAULT_VALUE = 20;
+
+    private final TransformerFactory transformerFactory;
+    private final BlockingQueue<Transformer> prettyTransformers;
+    private final BlockingQueue<Transformer> compactTransformers;
+
+    private static class SingletonHolder {
+        private static final XMLSerializer INSTANCE = new XMLSerializer(
+                Try.of(()->Config.getIntProperty(DOT_SAML_XML_SERIALIZER_POOL_MAX_SIZE, DOT_SAML_XML_SERIALIZER_POOL_MAX_SIZE_DEFAULT_VALUE))
+                        .getOrElse(DOT_SAML_XML_SERIALIZER_POOL_MAX_SIZE_DEFAULT_VALUE));
+    }
+
+    public static XMLSerializer getInstance() {
+        return XMLSerializer.SingletonHolder.INSTANCE;
+    }
+
+    protected XMLSerializer(final int maxPoolSize) {
+
+        this.transformerFactory  = TransformerFactory.newInstance();
+        this.prettyTransformers  = new ArrayBlockingQueue<>(Math.max(1, maxPoolSize));
+        this.compactTransformers = new ArrayBlockingQueue<>(Math.max(1, maxPoolSize));
+    }
+
+    /**
+     * Serializes the node into the writer
+     * @param node   {@link Node} usually an element or a document
+     * @param writer {@link Writer}
+     * @param pretty boolean true to indent the output
+     * @throws TransformerException
+     */
+    public void write(final Node node, final Writer writer, final boolean pretty) throws TransformerException {
+
+        this.transform(node, new StreamResult(writer), pretty);
+    }
+
+    /**
+     * Serializes the node into the output stream (UTF-8)
+     * @param node   {@link Node} usually an element or a document
+     * @param outputStream {@link OutputStream}
+     * @param pretty boolean true to indent the output
+     * @throws TransformerException
+     */
+    public void write(final Node node, final OutputStream outputStream, final boolean pretty) throws TransformerException {
+
+        this.transform(node, new StreamResult(outputStream), pretty);
+    }
+
+    /**
+     * Serializes the node to string
+     * @param node   {@link Node} usually an element or a document
+     * @param pretty boolean true to indent the output
+     * @return String
+     * @throws TransformerException
+     */
+    public String toString(final Node node, final boolean pretty) throws TransformerException {
+
+        final StringWriter writer = new StringWriter();
+        this.write(node, writer, pretty);
+        return writer.toString();
+    }
+
+    private void transform(final Node node, final Result result, final boolean pretty) throws TransformerException {
+
+        final BlockingQueue<Transformer> transformers = pretty? this.prettyTransformers: this.compactTransformers;
+        Transformer transformer = transformers.poll();
+        if (null == transformer) {
+
+            transformer = this.newTransformer(pretty);
+        }
+
+        transformer.transform(new DOMSource(node), result);
+        // if the pool is full (or the transformation failed) the transformer is just discarded
+        transformers.offer(transformer);
+    }
+
+    private Transformer newTransformer(final boolean pretty) throws TransformerConfigurationException {
+
+        final Transformer transformer;
+        // the factory is not thread safe
+        synchronized (this.transformerFactory) {
+
+            transformer = this.transformerFactory.newTransformer();
+        }
+
+        transformer.setOutputProperty(OutputKeys.INDENT, pretty? "yes": "no");
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        return transformer;
+    }
+}
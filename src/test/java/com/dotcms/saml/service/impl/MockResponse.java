@@ -0,0 +1,234 @@
+package com.dotcms.saml.service.impl;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public class MockResponse implements HttpServletResponse {
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final Map<String, String> headers = new HashMap<>();
+    private PrintWriter writer;
+    private String characterEncoding = "ISO-8859-1";
+    private String contentType;
+    private int status = SC_OK;
+
+    public String getBodyAsString() {
+
+        if (null != this.writer) {
+            this.writer.flush();
+        }
+        return new String(this.body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void addCookie(final Cookie cookie) {
+    }
+
+    @Override
+    public boolean containsHeader(final String name) {
+        return this.headers.containsKey(name);
+    }
+
+    @Override
+    public String encodeURL(final String url) {
+        return url;
+    }
+
+    @Override
+    public String encodeRedirectURL(final String url) {
+        return url;
+    }
+
+    @Override
+    public String encodeUrl(final String url) {
+        return url;
+    }
+
+    @Override
+    public String encodeRedirectUrl(final String url) {
+        return url;
+    }
+
+    @Override
+    public void sendError(final int sc, final String msg) {
+        this.status = sc;
+    }
+
+    @Override
+    public void sendError(final int sc) {
+        this.status = sc;
+    }
+
+    @Override
+    public void sendRedirect(final String location) {
+        this.headers.put("Location", location);
+    }
+
+    @Override
+    public void setDateHeader(final String name, final long date) {
+        this.headers.put(name, String.valueOf(date));
+    }
+
+    @Override
+    public void addDateHeader(final String name, final long date) {
+        this.headers.put(name, String.valueOf(date));
+    }
+
+    @Override
+    public void setHeader(final String name, final String value) {
+        this.headers.put(name, value);
+    }
+
+    @Override
+    public void addHeader(final String name, final String value) {
+        this.headers.put(name, value);
+    }
+
+    @Override
+    public void setIntHeader(final String name, final int value) {
+        this.headers.put(name, String.valueOf(value));
+    }
+
+    @Override
+    public void addIntHeader(final String name, final int value) {
+        this.headers.put(name, String.valueOf(value));
+    }
+
+    @Override
+    public void setStatus(final int sc) {
+        this.status = sc;
+    }
+
+    @Override
+    public void setStatus(final int sc, final String sm) {
+        this.status = sc;
+    }
+
+    @Override
+    public int getStatus() {
+        return this.status;
+    }
+
+    @Override
+    public String getHeader(final String name) {
+        return this.headers.get(name);
+    }
+
+    @Override
+    public Collection<String> getHeaders(final String name) {
+        return this.headers.containsKey(name)? Collections.singletonList(this.headers.get(name)): Collections.emptyList();
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return new ArrayList<>(this.headers.keySet());
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return this.characterEncoding;
+    }
+
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+
+        return new ServletOutputStream() {
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(final WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(final int b) {
+                body.write(b);
+            }
+        };
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+
+        if (null == this.writer) {
+            this.writer = new PrintWriter(new OutputStreamWriter(this.body, StandardCharsets.UTF_8));
+        }
+        return this.writer;
+    }
+
+    @Override
+    public void setCharacterEncoding(final String charset) {
+        this.characterEncoding = charset;
+    }
+
+    @Override
+    public void setContentLength(final int len) {
+    }
+
+    @Override
+    public void setContentLengthLong(final long len) {
+    }
+
+    @Override
+    public void setContentType(final String type) {
+        this.contentType = type;
+    }
+
+    @Override
+    public void setBufferSize(final int size) {
+    }
+
+    @Override
+    public int getBufferSize() {
+        return 0;
+    }
+
+    @Override
+    public void flushBuffer() {
+    }
+
+    @Override
+    public void resetBuffer() {
+        this.body.reset();
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        this.body.reset();
+        this.headers.clear();
+    }
+
+    @Override
+    public void setLocale(final Locale loc) {
+    }
+
+    @Override
+    public Locale getLocale() {
+        return Locale.getDefault();
+    }
+}
@@ -0,0 +1,216 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.SamlName;
+import com.dotcms.saml.service.external.SamlException;
+import com.dotcms.saml.service.internal.SamlCoreService;
+import com.dotcms.saml.utils.SAMLObjectBuilders;
+import com.dotcms.saml.utils.SamlUtils;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.xmlsec.encryption.EncryptedData;
+import org.w3c.dom.Document;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+public class TestAssertionPipeline {
+
+    @BeforeClass
+    public static void init() throws Exception {
+
+        InitializationService.initialize();
+    }
+
+    private static Response buildResponse(final boolean encrypted, final String... ids) {
+
+        final Response response = SAMLObjectBuilders.build(Response.class);
+        response.setID("_response");
+        for (final String id : ids) {
+
+            if (encrypted) {
+
+                final EncryptedData encryptedData = SAMLObjectBuilders.build(EncryptedData.class);
+                encryptedData.setID(id);
+                final EncryptedAssertion encryptedAssertion = SAMLObjectBuilders.build(EncryptedAssertion.class);
+                encryptedAssertion.setEncryptedData(encryptedData);
+                response.getEncryptedAssertions().add(encryptedAssertion);
+            } else {
+
+                response.getAssertions().add(buildAssertion(id));
+            }
+        }
+
+        // as the decoded responses, the objects have a DOM
+        SamlUtils.toElement(response);
+        return response;
+    }
+
+    private static Assertion buildAssertion(final String id) {
+
+        final Assertion assertion = SAMLObjectBuilders.build(Assertion.class);
+        assertion.setID(id);
+        return assertion;
+    }
+
+    private static List<String> getIds(final List<Assertion> assertions) {
+
+        return assertions.stream().map(Assertion::getID).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testResolvesAllAssertionsInOrder() {
+
+        for (final boolean parallel : new boolean[] {false, true}) {
+
+            final StubSamlCoreService stub = new StubSamlCoreService(true, parallel);
+            final Response response = buildResponse(true, "_a1", "_a2", "_a3");
+            // the first ones take longer, so on parallel mode they finish last
+            stub.decryptionDelays.put("_a1", 60L);
+            stub.decryptionDelays.put("_a2", 30L);
+
+            final List<Assertion> assertions = new AssertionPipeline(stub.proxy(), new MockMessageObserver())
+                    .resolveAssertions(response, stub.idp);
+
+            Assert.assertEquals(Arrays.asList("_a1", "_a2", "_a3"), getIds(assertions));
+            Assert.assertEquals(Arrays.asList("_a1", "_a2", "_a3"), stub.verifiedAssertions);
+            Assert.assertEquals(Thread.currentThread().getName(), stub.responseVerificationThread);
+            // on parallel mode the decryption never walks the document of the response
+            Assert.assertEquals(parallel, !stub.decryptionDocuments.contains(response.getDOM().getOwnerDocument()));
+            Assert.assertEquals(parallel? 3: 1, stub.decryptionDocuments.size());
+        }
+
+        final StubSamlCoreService plainStub = new StubSamlCoreService(false, false);
+        Assert.assertEquals(Arrays.asList("_p1", "_p2"), getIds(new AssertionPipeline(plainStub.proxy(), new MockMessageObserver())
+                .resolveAssertions(buildResponse(false, "_p1", "_p2"), plainStub.idp)));
+    }
+
+    @Test
+    public void testDeterministicErrorOrder() {
+
+        for (final boolean parallel : new boolean[] {false, true}) {
+
+            // decryption errors first, in assertion order (even if a later one fails first)
+            StubSamlCoreService stub = new StubSamlCoreService(true, parallel);
+            stub.decryptionDelays.put("_a2", 60L);
+            stub.failures.addAll(Arrays.asList("decrypt:_a2", "decrypt:_a3", "response", "verify:_a1"));
+            Assert.assertEquals("decrypt:_a2", resolveError(stub, "_a1", "_a2", "_a3"));
+
+            // then the response signature
+            stub = new StubSamlCoreService(true, parallel);
+            stub.failures.addAll(Arrays.asList("response", "verify:_a1"));
+            Assert.assertEquals("response", resolveError(stub, "_a1", "_a2", "_a3"));
+
+            // then the assertion signatures, in assertion order
+            stub = new StubSamlCoreService(true, parallel);
+            stub.failures.addAll(Arrays.asList("verify:_a2", "verify:_a3"));
+            Assert.assertEquals("verify:_a2", resolveError(stub, "_a1", "_a2", "_a3"));
+            Assert.assertEquals(Collections.singletonList("_a1"), stub.verifiedAssertions);
+        }
+
+        final StubSamlCoreService emptyStub = new StubSamlCoreService(true, false);
+        Assert.assertNotNull(resolveError(emptyStub));
+    }
+
+    private static String resolveError(final StubSamlCoreService stub, final String... ids) {
+
+        try {
+
+            new AssertionPipeline(stub.proxy(), new MockMessageObserver()).resolveAssertions(buildResponse(true, ids), stub.idp);
+            Assert.fail("The pipeline must fail");
+            return null;
+        } catch (SamlException e) {
+
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Records the calls of the pipeline to the core service, the steps listed on failures throw a {@link SamlException}
+     */
+    private static final class StubSamlCoreService {
+
+        private final IdentityProviderConfiguration idp;
+        private final IdpRuntimeProfile runtimeProfile;
+        private final Map<String, Long> decryptionDelays = new ConcurrentHashMap<>();
+        private final Set<String> failures = ConcurrentHashMap.newKeySet();
+        private final Set<Document> decryptionDocuments = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private final List<String> verifiedAssertions = new CopyOnWriteArrayList<>();
+        private volatile String responseVerificationThread;
+
+        private StubSamlCoreService(final boolean encrypted, final boolean parallel) {
+
+            final IdentityProviderConfiguration mockIdp = new MockIdentityProviderConfigurationFactory()
+                    .findIdentityProviderConfigurationById("test.com");
+            this.idp = (IdentityProviderConfiguration) Proxy.newProxyInstance(this.getClass().getClassLoader(),
+                    new Class[] {IdentityProviderConfiguration.class}, (proxy, method, args) -> {
+
+                        if ("containsOptionalProperty".equals(method.getName())) {
+                            return AssertionPipeline.PARALLEL_PIPELINE.equals(args[0]);
+                        }
+                        if ("getOptionalProperty".equals(method.getName())) {
+                            return AssertionPipeline.PARALLEL_PIPELINE.equals(args[0])? String.valueOf(parallel): null;
+                        }
+                        return method.invoke(mockIdp, args);
+                    });
+            this.runtimeProfile = new IdpRuntimeProfile(this.idp, new MockSamlConfigurationService() {
+
+                @Override
+                public Boolean getConfigAsBoolean(final IdentityProviderConfiguration identityProviderConfiguration, final SamlName samlName) {
+                    return SamlName.DOTCMS_SAML_IS_ASSERTION_ENCRYPTED == samlName? encrypted:
+                            super.getConfigAsBoolean(identityProviderConfiguration, samlName);
+                }
+            }, 1);
+        }
+
+        private void fail(final String step) {
+
+            if (this.failures.contains(step)) {
+                throw new SamlException(step);
+            }
+        }
+
+        private SamlCoreService proxy() {
+
+            return (SamlCoreService) Proxy.newProxyInstance(this.getClass().getClassLoader(),
+                    new Class[] {SamlCoreService.class}, (proxy, method, args) -> {
+
+                        switch (method.getName()) {
+
+                            case "getRuntimeProfile":
+                                return this.runtimeProfile;
+                            case "decryptAssertion":
+                                final EncryptedAssertion encryptedAssertion = (EncryptedAssertion) args[0];
+                                final String id = encryptedAssertion.getEncryptedData().getID();
+                                this.decryptionDocuments.add(encryptedAssertion.getDOM().getOwnerDocument());
+                                Thread.sleep(this.decryptionDelays.getOrDefault(id, 0L));
+                                this.fail("decrypt:" + id);
+                                return buildAssertion(id);
+                            case "verifyResponseSignature":
+                                this.responseVerificationThread = Thread.currentThread().getName();
+                                this.fail("response");
+                                return null;
+                            case "verifyAssertionSignature":
+                                final String assertionId = ((Assertion) args[0]).getID();
+                                this.fail("verify:" + assertionId);
+                                this.verifiedAssertions.add(assertionId);
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+}
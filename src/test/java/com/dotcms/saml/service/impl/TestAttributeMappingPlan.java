@@ -0,0 +1,33 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.service.external.AdditionalInfoValue;
+import com.dotcms.saml.service.external.AdditionalInformationType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class TestAttributeMappingPlan {
+
+    @Test
+    public void testResolve() {
+
+        final Map<String, AdditionalInfoValue> additionalInfoMap =
+                IdpRuntimeProfile.parseAdditionalInfo("department,groups|collection,claims|json|myClaims");
+        final AttributeMappingPlan plan = new AttributeMappingPlan("mail", "givenName", "sn", "memberOf", additionalInfoMap);
+
+        Assert.assertEquals(AttributeMappingPlan.Target.EMAIL, plan.resolve("mail", null).getTarget());
+        Assert.assertEquals(AttributeMappingPlan.Target.FIRST_NAME, plan.resolve(null, "givenName").getTarget());
+        Assert.assertEquals(AttributeMappingPlan.Target.ROLES, plan.resolve("urn:oid:1", "memberOf").getTarget());
+        // same precedence as the legacy chain: email before last name
+        Assert.assertEquals(AttributeMappingPlan.Target.EMAIL, plan.resolve("sn", "mail").getTarget());
+        Assert.assertNull(plan.resolve("urn:oid:2", "other"));
+
+        final AttributeMappingPlan.AttributeMapping claims = plan.resolve("urn:oid:3", "claims");
+        Assert.assertEquals(AttributeMappingPlan.Target.ADDITIONAL_INFO, claims.getTarget());
+        Assert.assertEquals("myClaims", claims.getAdditionalInfoValue().getAliasKey());
+        Assert.assertEquals(AdditionalInformationType.JSON, claims.getAdditionalInfoValue().getType());
+        Assert.assertEquals(AdditionalInformationType.SINGLE,
+                plan.resolve("department", null).getAdditionalInfoValue().getType());
+    }
+}
@@ -0,0 +1,41 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.utils.AttributeValueExtractor;
+import com.dotcms.saml.utils.SamlUtils;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.saml.saml2.core.Attribute;
+
+import java.util.Arrays;
+
+public class TestAttributeValueExtractor {
+
+    private static final String ATTRIBUTE = "<saml2:Attribute xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" " +
+            "xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" Name=\"values\">" +
+            "<saml2:AttributeValue xsi:type=\"xs:string\">text</saml2:AttributeValue>" +
+            "<saml2:AttributeValue xsi:type=\"xs:dateTime\">2020-01-01T10:00:00+02:00</saml2:AttributeValue>" +
+            "<saml2:AttributeValue xsi:type=\"xs:boolean\">1</saml2:AttributeValue>" +
+            "<saml2:AttributeValue xsi:type=\"xs:integer\">007</saml2:AttributeValue>" +
+            "</saml2:Attribute>";
+
+    @BeforeClass
+    public static void init() throws Exception {
+
+        InitializationService.initialize();
+    }
+
+    @Test
+    public void testTypedValuesKeepTheLexicalForm() throws Exception {
+
+        final Attribute attribute = (Attribute) SamlUtils.fromXMLString(ATTRIBUTE);
+        Assert.assertEquals(Arrays.asList("text", "2020-01-01T10:00:00+02:00", "1", "007"),
+                AttributeValueExtractor.getValues(attribute));
+
+        // without the DOM the values are printed from the typed objects, the dateTime as SAML does
+        AttributeValueExtractor.releaseDOM(attribute);
+        Assert.assertEquals(Arrays.asList("text", "2020-01-01T08:00:00.000Z", "true", "7"),
+                AttributeValueExtractor.getValues(attribute));
+    }
+}
@@ -0,0 +1,184 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.service.internal.SamlCoreService;
+import com.dotcms.saml.utils.InstanceUtil;
+import com.dotcms.saml.utils.SAMLObjectBuilders;
+import com.dotcms.saml.utils.SamlUtils;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.SAMLVersion;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.AuthnContextClassRef;
+import org.opensaml.saml.saml2.core.AuthnContextComparisonTypeEnumeration;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.NameIDPolicy;
+import org.opensaml.saml.saml2.core.NameIDType;
+import org.opensaml.saml.saml2.core.RequestedAuthnContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+
+public class TestAuthnRequestTemplate {
+
+    // this file is in src/test/resources/golden/
+    private static final String GOLDEN_AUTHN_REQUEST = "/golden/authn-request-post.xml";
+
+    private static final String   ID            = "_0123456789abcdef";
+    private static final DateTime ISSUE_INSTANT = new DateTime(2020, 1, 2, 3, 4, 5, 678, DateTimeZone.UTC);
+    private static final String   DESTINATION   = "https://idp.example.com/sso";
+    private static final String   ACS_URL       = "https://sp.example.com/dotsaml/login/123?a=1&b=2";
+
+    @BeforeClass
+    public static void init() throws Exception {
+
+        InitializationService.initialize();
+    }
+
+    /**
+     * A request with all the elements the {@link SamlCoreServiceImpl} may set, to test the template on its own;
+     * see {@link #testRenderedBySamlCoreService()} for the template compiled by the service
+     */
+    private static AuthnRequest buildAuthnRequest(final String id, final DateTime issueInstant,
+                                                  final String destination, final String assertionConsumerServiceURL) {
+
+        final AuthnRequest authnRequest = SAMLObjectBuilders.build(AuthnRequest.class);
+        authnRequest.setIssueInstant(issueInstant);
+        authnRequest.setDestination(destination);
+        authnRequest.setProtocolBinding(SAMLConstants.SAML2_POST_BINDING_URI);
+        authnRequest.setAssertionConsumerServiceURL(assertionConsumerServiceURL);
+        authnRequest.setID(id);
+
+        final Issuer issuer = SAMLObjectBuilders.build(Issuer.class);
+        issuer.setValue("https://sp.example.com/dotsaml/metadata/123");
+        authnRequest.setIssuer(issuer);
+
+        final NameIDPolicy nameIDPolicy = SAMLObjectBuilders.build(NameIDPolicy.class);
+        nameIDPolicy.setAllowCreate(false);
+        nameIDPolicy.setFormat(NameIDType.PERSISTENT);
+        authnRequest.setNameIDPolicy(nameIDPolicy);
+
+        final RequestedAuthnContext requestedAuthnContext = SAMLObjectBuilders.build(RequestedAuthnContext.class);
+        requestedAuthnContext.setComparison(AuthnContextComparisonTypeEnumeration.MINIMUM);
+        final AuthnContextClassRef classRef = SAMLObjectBuilders.build(AuthnContextClassRef.class);
+        classRef.setAuthnContextClassRef("urn:oasis:names:tc:SAML:2.0:ac:classes:PasswordProtectedTransport");
+        requestedAuthnContext.getAuthnContextClassRefs().add(classRef);
+        authnRequest.setRequestedAuthnContext(requestedAuthnContext);
+
+        authnRequest.setVersion(SAMLVersion.VERSION_20);
+        authnRequest.setForceAuthn(false);
+        return authnRequest;
+    }
+
+    private static String serialize(final AuthnRequest authnRequest) throws Exception {
+
+        return SerializeSupport.nodeToString(XMLObjectSupport.marshall(authnRequest));
+    }
+
+    private static String readGolden() throws IOException {
+
+        try (InputStream in = TestAuthnRequestTemplate.class.getResourceAsStream(GOLDEN_AUTHN_REQUEST)) {
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+        }
+    }
+
+    @Test
+    public void testGoldenFile() throws Exception {
+
+        final AuthnRequestTemplate template = AuthnRequestTemplate.compile(TestAuthnRequestTemplate::buildAuthnRequest);
+        final byte[] rendered = template.render(ID, ISSUE_INSTANT, DESTINATION, ACS_URL);
+
+        Assert.assertNotNull(rendered);
+        // the templated bytes are exactly the ones OpenSAML serializes for the same values
+        Assert.assertArrayEquals(serialize(buildAuthnRequest(ID, ISSUE_INSTANT, DESTINATION, ACS_URL)).getBytes(StandardCharsets.UTF_8), rendered);
+
+        // the xml declaration is written by the LSSerializer of the JDK, so it is not part of the golden file
+        final String xml = new String(rendered, StandardCharsets.UTF_8);
+        Assert.assertEquals(readGolden(), xml.startsWith("<?xml")? xml.substring(xml.indexOf("?>") + 2).trim(): xml);
+    }
+
+    @Test
+    public void testEscapedValues() throws Exception {
+
+        final AuthnRequestTemplate template = AuthnRequestTemplate.compile(TestAuthnRequestTemplate::buildAuthnRequest);
+        final String acsURL = "https://sp.example.com/login?q=\"x\"&r=<y";
+
+        Assert.assertArrayEquals(serialize(buildAuthnRequest("_abc", ISSUE_INSTANT, DESTINATION, acsURL)).getBytes(StandardCharsets.UTF_8),
+                template.render("_abc", ISSUE_INSTANT, DESTINATION, acsURL));
+    }
+
+    @Test
+    public void testFallbackValues() throws Exception {
+
+        final AuthnRequestTemplate template = AuthnRequestTemplate.compile(TestAuthnRequestTemplate::buildAuthnRequest);
+
+        // the values the serializers may write in different ways are left to the full OpenSAML path
+        Assert.assertNull(template.render(ID, ISSUE_INSTANT, DESTINATION, "https://sp.example.com/login?q=a>b"));
+        Assert.assertNull(template.render(ID, ISSUE_INSTANT, "https://idp.example.com/sño", ACS_URL));
+        Assert.assertNull(AuthnRequestTemplate.UNAVAILABLE.render(ID, ISSUE_INSTANT, DESTINATION, ACS_URL));
+    }
+
+    @Test
+    public void testRenderedBySamlCoreService() throws Exception {
+
+        final MockIdentityProviderConfigurationFactory idpFactory = new MockIdentityProviderConfigurationFactory();
+        new SamlServiceBuilderImpl().buildAuthenticationService(
+                idpFactory, null, new MockMessageObserver(), new MockSamlConfigurationService());
+        final SamlCoreService samlCoreService = InstanceUtil.getInstance(SamlCoreService.class);
+
+        final IdentityProviderConfiguration mockIdp = idpFactory.findIdentityProviderConfigurationById("test.com");
+        final IdentityProviderConfiguration idp = (IdentityProviderConfiguration) Proxy.newProxyInstance(
+                this.getClass().getClassLoader(), new Class[] {IdentityProviderConfiguration.class}, (proxy, method, args) -> {
+
+                    if ("containsOptionalProperty".equals(method.getName())) {
+                        return IdpRuntimeProfile.AUTHN_REQUEST_TEMPLATE.equals(args[0]);
+                    }
+                    if ("getOptionalProperty".equals(method.getName())) {
+                        return IdpRuntimeProfile.AUTHN_REQUEST_TEMPLATE.equals(args[0])? "true": null;
+                    }
+                    return method.invoke(mockIdp, args);
+                });
+
+        final MockRequest mockRequest = new MockRequest();
+        mockRequest.setRequestURI("/dotAdmin");
+        // the profile of the idp may have been compiled by another test, without the template enabled
+        IdpRuntimeProfileRegistry.getInstance().remove(idp.getId());
+
+        try {
+
+            for (final String protocolBinding : new String[] {SAMLConstants.SAML2_POST_BINDING_URI, SAMLConstants.SAML2_REDIRECT_BINDING_URI}) {
+
+                final byte[] rendered = samlCoreService.renderAuthnRequest(mockRequest, idp, protocolBinding);
+                Assert.assertNotNull(protocolBinding, rendered);
+                final AuthnRequest renderedRequest = (AuthnRequest) SamlUtils.fromXMLString(new String(rendered, StandardCharsets.UTF_8));
+                Assert.assertEquals(protocolBinding, renderedRequest.getProtocolBinding());
+
+                // the id and the issue instant are new on each request, the rest has to be byte by byte the built one
+                final AuthnRequest builtRequest = samlCoreService.buildAuthnRequest(mockRequest, idp, protocolBinding);
+                builtRequest.setID(renderedRequest.getID());
+                builtRequest.setIssueInstant(renderedRequest.getIssueInstant());
+                Assert.assertArrayEquals(protocolBinding, serialize(builtRequest).getBytes(StandardCharsets.UTF_8), rendered);
+            }
+        } finally {
+
+            IdpRuntimeProfileRegistry.getInstance().remove(idp.getId());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.utils.DeflateBase64Encoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+public class TestDeflateBase64Encoder {
+
+    private static String deflateAndBase64(final byte[] message) throws IOException {
+
+        final ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        final DeflaterOutputStream deflaterStream = new DeflaterOutputStream(bytesOut, new Deflater(Deflater.DEFLATED, true));
+        deflaterStream.write(message);
+        deflaterStream.finish();
+        return Base64.getEncoder().encodeToString(bytesOut.toByteArray());
+    }
+
+    @Test
+    public void testSameAsDeflaterStream() throws IOException {
+
+        final DeflateBase64Encoder encoder = new DeflateBase64Encoder(1) {};
+        final StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 20000; ++i) {
+            big.append(i).append(',');
+        }
+
+        // several sizes so all the Base64 paddings and the growth of the buffer are covered, the deflater is reused
+        for (final String message : new String[] {"", "a", "ab", "abc", "<saml2p:AuthnRequest ID=\"_1\"/>", big.toString()}) {
+
+            final byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            final String expected = deflateAndBase64(bytes);
+            Assert.assertEquals(expected, encoder.encode(bytes));
+
+            final StringBuilder urlEncoded = new StringBuilder("SAMLRequest=");
+            encoder.encode(bytes, urlEncoded, true);
+            Assert.assertEquals("SAMLRequest=" + URLEncoder.encode(expected, StandardCharsets.UTF_8), urlEncoded.toString());
+            Assert.assertEquals(expected, URLDecoder.decode(urlEncoded.substring("SAMLRequest=".length()), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.utils.SAMLObjectBuilders;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.encoder.servlet.HttpServletResponseMessageEncoder;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.SAMLVersion;
+import org.opensaml.saml.common.binding.SAMLBindingSupport;
+import org.opensaml.saml.common.messaging.context.SAMLEndpointContext;
+import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.metadata.SingleSignOnService;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class TestDotHTTPPOSTEncoder {
+
+    private static final Pattern FORM_ACTION  = Pattern.compile("<form action=\"([^\"]*)\"");
+    private static final Pattern HIDDEN_INPUT = Pattern.compile("<input type=\"hidden\" name=\"(\\w+)\" value=\"([^\"]*)\"/>");
+
+    private static VelocityEngine velocityEngine;
+
+    @BeforeClass
+    public static void init() throws Exception {
+
+        InitializationService.initialize();
+
+        // the OpenSAML saml2-post-binding.vm template is on the classpath
+        velocityEngine = new VelocityEngine();
+        velocityEngine.setProperty(RuntimeConstants.ENCODING_DEFAULT, "UTF-8");
+        velocityEngine.setProperty(RuntimeConstants.OUTPUT_ENCODING, "UTF-8");
+        velocityEngine.setProperty(RuntimeConstants.RESOURCE_LOADER, "classpath");
+        velocityEngine.setProperty("classpath.resource.loader.class", ClasspathResourceLoader.class.getName());
+        velocityEngine.init();
+    }
+
+    private static MessageContext<SAMLObject> buildContext(final String relayState) {
+
+        final AuthnRequest authnRequest = SAMLObjectBuilders.build(AuthnRequest.class);
+        authnRequest.setID("_0123456789abcdef");
+        authnRequest.setIssueInstant(new DateTime());
+        authnRequest.setDestination("https://idp.example.com/sso");
+        authnRequest.setProtocolBinding(SAMLConstants.SAML2_POST_BINDING_URI);
+        authnRequest.setAssertionConsumerServiceURL("https://sp.example.com/dotsaml/login/123");
+        authnRequest.setVersion(SAMLVersion.VERSION_20);
+        final Issuer issuer = SAMLObjectBuilders.build(Issuer.class);
+        issuer.setValue("https://sp.example.com/dotsaml/metadata/123");
+        authnRequest.setIssuer(issuer);
+
+        final SingleSignOnService endpoint = SAMLObjectBuilders.build(SingleSignOnService.class);
+        endpoint.setBinding(SAMLConstants.SAML2_POST_BINDING_URI);
+        endpoint.setLocation("https://idp.example.com/sso?tenant=a&b=\"c\"");
+
+        final MessageContext<SAMLObject> context = new MessageContext<>();
+        context.setMessage(authnRequest);
+        context.getSubcontext(SAMLPeerEntityContext.class, true)
+                .getSubcontext(SAMLEndpointContext.class, true).setEndpoint(endpoint);
+        if (null != relayState) {
+            SAMLBindingSupport.setRelayState(context, relayState);
+        }
+        return context;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static String encode(final HttpServletResponseMessageEncoder encoder,
+                                 final MessageContext<SAMLObject> context) throws Exception {
+
+        final MockResponse response = new MockResponse();
+        encoder.setMessageContext(context);
+        encoder.setHttpServletResponse(response);
+        encoder.initialize();
+        encoder.encode();
+        return response.getBodyAsString();
+    }
+
+    private static Map<String, String> formFields(final String html) {
+
+        final Map<String, String> fields = new LinkedHashMap<>();
+        final Matcher actionMatcher = FORM_ACTION.matcher(html);
+        Assert.assertTrue(actionMatcher.find());
+        fields.put("action", actionMatcher.group(1));
+
+        final Matcher inputMatcher = HIDDEN_INPUT.matcher(html);
+        while (inputMatcher.find()) {
+            fields.put(inputMatcher.group(1), inputMatcher.group(2));
+        }
+        return fields;
+    }
+
+    @Test
+    public void testSameFormAsVelocity() throws Exception {
+
+        for (final String relayState : new String[] {null, "https://sp.example.com/dotAdmin/?a=1&b=<\"x\">"}) {
+
+            final MessageContext<SAMLObject> context = buildContext(relayState);
+            final String velocityOutput = encode(new DotHTTPPOSTDeflateEncoder(velocityEngine), context);
+            final String nativeOutput   = encode(new DotHTTPPOSTEncoder(new MockMessageObserver()), context);
+
+            final Map<String, String> velocityFields = formFields(velocityOutput);
+            Assert.assertTrue(velocityFields.containsKey("SAMLRequest"));
+            Assert.assertEquals(null != relayState, velocityFields.containsKey("RelayState"));
+            Assert.assertEquals(velocityFields, formFields(nativeOutput));
+        }
+    }
+}
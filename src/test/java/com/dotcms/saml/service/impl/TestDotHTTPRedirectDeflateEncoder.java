@@ -0,0 +1,115 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.utils.SAMLObjectBuilders;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.SAMLVersion;
+import org.opensaml.saml.common.binding.SAMLBindingSupport;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.security.credential.CredentialSupport;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.context.SecurityParametersContext;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Base64;
+
+public class TestDotHTTPRedirectDeflateEncoder {
+
+    private static KeyPair keyPair;
+
+    @BeforeClass
+    public static void init() throws Exception {
+
+        InitializationService.initialize();
+
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        keyPair = keyPairGenerator.generateKeyPair();
+    }
+
+    private static MessageContext<SAMLObject> buildContext(final boolean signed) {
+
+        final AuthnRequest authnRequest = SAMLObjectBuilders.build(AuthnRequest.class);
+        authnRequest.setID("_0123456789abcdef");
+        authnRequest.setIssueInstant(new DateTime());
+        authnRequest.setDestination("https://idp.example.com/sso");
+        authnRequest.setProtocolBinding(SAMLConstants.SAML2_REDIRECT_BINDING_URI);
+        authnRequest.setAssertionConsumerServiceURL("https://sp.example.com/dotsaml/login/123");
+        authnRequest.setVersion(SAMLVersion.VERSION_20);
+        final Issuer issuer = SAMLObjectBuilders.build(Issuer.class);
+        issuer.setValue("https://sp.example.com/dotsaml/metadata/123");
+        authnRequest.setIssuer(issuer);
+
+        final MessageContext<SAMLObject> context = new MessageContext<>();
+        context.setMessage(authnRequest);
+        SAMLBindingSupport.setRelayState(context, "/dotAdmin/?a=1&b=ñ c");
+        if (signed) {
+
+            final SignatureSigningParameters signingParameters = new SignatureSigningParameters();
+            signingParameters.setSigningCredential(CredentialSupport.getSimpleCredential(keyPair.getPublic(), keyPair.getPrivate()));
+            signingParameters.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+            context.getSubcontext(SecurityParametersContext.class, true).setSignatureSigningParameters(signingParameters);
+        }
+
+        return context;
+    }
+
+    private static byte[] serialize(final SAMLObject message) throws Exception {
+
+        return SerializeSupport.nodeToString(XMLObjectSupport.marshall(message)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testBothPathsBuildTheSameURL() throws Exception {
+
+        final DotHTTPRedirectDeflateEncoder encoder = new DotHTTPRedirectDeflateEncoder(new MockMessageObserver());
+
+        for (final boolean signed : new boolean[] {false, true}) {
+
+            final MessageContext<SAMLObject> context = buildContext(signed);
+            final byte[] serializedMessage = serialize(context.getMessage());
+
+            for (final String endpoint : new String[] {"https://idp.example.com/sso", "https://idp.example.com/sso?tenant=a"}) {
+
+                // single pass path vs the URLBuilder one, RSA signatures are deterministic so the urls must be equal
+                final String singlePassURL = encoder.buildRedirectURL(context, endpoint, serializedMessage);
+                final String urlBuilderURL = encoder.buildRedirectURL(context, endpoint, encoder.deflateAndBase64Encode(serializedMessage));
+
+                Assert.assertEquals(urlBuilderURL, singlePassURL);
+                Assert.assertTrue(singlePassURL, singlePassURL.startsWith("https://idp.example.com/sso?SAMLRequest="));
+                Assert.assertEquals(signed, singlePassURL.contains("&SigAlg=") && singlePassURL.contains("&Signature="));
+            }
+        }
+    }
+
+    @Test
+    public void testSignedMaterial() throws Exception {
+
+        final DotHTTPRedirectDeflateEncoder encoder = new DotHTTPRedirectDeflateEncoder(new MockMessageObserver());
+        final MessageContext<SAMLObject> context = buildContext(true);
+        final String url   = encoder.buildRedirectURL(context, "https://idp.example.com/sso", serialize(context.getMessage()));
+        final String query = url.substring(url.indexOf('?') + 1);
+
+        // the signed material is the SAMLRequest and the RelayState, as the encoder always signed it
+        final String sigMaterial  = query.substring(0, query.indexOf("&SigAlg="));
+        final String signature    = URLDecoder.decode(query.substring(query.indexOf("&Signature=") + "&Signature=".length()), StandardCharsets.UTF_8);
+        final Signature verifier  = Signature.getInstance("SHA256withRSA");
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(sigMaterial.getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(verifier.verify(Base64.getMimeDecoder().decode(signature)));
+    }
+}
@@ -0,0 +1,195 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.utils.EncryptedAssertionDecrypter;
+import com.dotcms.saml.utils.SAMLObjectBuilders;
+import com.dotcms.saml.utils.SamlUtils;
+import org.apache.xml.security.encryption.XMLCipher;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.saml.common.SAMLVersion;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.xmlsec.encryption.EncryptedData;
+import org.opensaml.xmlsec.encryption.support.DecryptionException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.security.Key;
+import java.util.Base64;
+
+public class TestEncryptedAssertionDecrypter {
+
+    private static final String XMLENC_NS = "http://www.w3.org/2001/04/xmlenc#";
+
+    private static SecretKey secretKey;
+
+    @BeforeClass
+    public static void init() throws Exception {
+
+        InitializationService.initialize();
+
+        final KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        secretKey = keyGenerator.generateKey();
+    }
+
+    private static Element encryptAssertion(final String algorithm) throws Exception {
+
+        final Assertion assertion = SAMLObjectBuilders.build(Assertion.class);
+        assertion.setID("_assertion");
+        assertion.setIssueInstant(new DateTime());
+        assertion.setVersion(SAMLVersion.VERSION_20);
+        final Issuer issuer = SAMLObjectBuilders.build(Issuer.class);
+        issuer.setValue("https://idp.example.com/metadata");
+        assertion.setIssuer(issuer);
+
+        final Element assertionElement = SamlUtils.toElement(assertion);
+        final XMLCipher xmlCipher = XMLCipher.getInstance(algorithm);
+        xmlCipher.init(XMLCipher.ENCRYPT_MODE, secretKey);
+        final Element encryptedDataElement = xmlCipher.martial(assertionElement.getOwnerDocument(),
+                xmlCipher.encryptData(assertionElement.getOwnerDocument(), assertionElement));
+
+        final Document document = XMLObjectProviderRegistrySupport.getParserPool().newDocument();
+        document.appendChild(document.importNode(encryptedDataElement, true));
+        return document.getDocumentElement();
+    }
+
+    private static EncryptedData toEncryptedData(final Element encryptedDataElement) throws Exception {
+
+        return (EncryptedData) SamlUtils.toXMLObject(encryptedDataElement);
+    }
+
+    private static Element getCipherValue(final Element encryptedDataElement) {
+
+        return (Element) encryptedDataElement.getElementsByTagNameNS(XMLENC_NS, "CipherValue").item(0);
+    }
+
+    // flips the bits of the byte at the (negative from the end) index of the iv + cipher text
+    private static void tamper(final Element encryptedDataElement, final int indexFromEnd) {
+
+        final Element cipherValue = getCipherValue(encryptedDataElement);
+        final byte[] bytes = Base64.getMimeDecoder().decode(cipherValue.getTextContent());
+        bytes[bytes.length - indexFromEnd] ^= (byte) 0xFF;
+        cipherValue.setTextContent(Base64.getEncoder().encodeToString(bytes));
+    }
+
+    private static void assertDecrypted(final Document document) {
+
+        Assert.assertNotNull(document);
+        Assert.assertEquals("Assertion", document.getDocumentElement().getLocalName());
+        Assert.assertEquals("_assertion", document.getDocumentElement().getAttribute("ID"));
+    }
+
+    private static void assertNotDecrypted(final TestDecrypter decrypter, final Element encryptedDataElement) throws Exception {
+
+        try {
+
+            decrypter.decryptToDocument(toEncryptedData(encryptedDataElement), secretKey);
+            Assert.fail("The encrypted data must not be decrypted");
+        } catch (DecryptionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStreamingRoundTrip() throws Exception {
+
+        final TestDecrypter decrypter = new TestDecrypter(true);
+        assertDecrypted(decrypter.decryptToDocument(toEncryptedData(encryptAssertion(XMLCipher.AES_128)), secretKey));
+        Assert.assertTrue(decrypter.streamed);
+    }
+
+    @Test
+    public void testGCMIsNotStreamed() throws Exception {
+
+        // the provider buffers the whole GCM cipher text anyway, so it goes straight to the XMLCipher
+        final TestDecrypter decrypter = new TestDecrypter(true);
+        assertDecrypted(decrypter.decryptToDocument(toEncryptedData(encryptAssertion(XMLCipher.AES_128_GCM)), secretKey));
+        Assert.assertFalse(decrypter.streamed);
+    }
+
+    @Test
+    public void testTamperedGCMTag() throws Exception {
+
+        final Element encryptedDataElement = encryptAssertion(XMLCipher.AES_128_GCM);
+        tamper(encryptedDataElement, 1);
+        final TestDecrypter decrypter = new TestDecrypter(true);
+        assertNotDecrypted(decrypter, encryptedDataElement);
+        Assert.assertFalse(decrypter.streamed);
+    }
+
+    @Test
+    public void testBadCBCPadding() throws Exception {
+
+        final Element encryptedDataElement = encryptAssertion(XMLCipher.AES_128);
+        // the last byte of the previous block is xored with the padding length of the last one
+        tamper(encryptedDataElement, 17);
+        assertNotDecrypted(new TestDecrypter(true), encryptedDataElement);
+    }
+
+    @Test
+    public void testXMLCipherFallback() throws Exception {
+
+        // the XMLCipher decrypts the same data when it can not be streamed
+        final TestDecrypter fallbackDecrypter = new TestDecrypter(false);
+        assertDecrypted(fallbackDecrypter.decryptToDocument(toEncryptedData(encryptAssertion(XMLCipher.AES_128)), secretKey));
+
+        // a cipher reference is not streamed
+        final Element referenceElement = encryptAssertion(XMLCipher.AES_128);
+        final Element cipherValue      = getCipherValue(referenceElement);
+        final Element cipherReference  = referenceElement.getOwnerDocument().createElementNS(XMLENC_NS, "xenc:CipherReference");
+        cipherReference.setAttributeNS(null, "URI", "http://example.com/cipher-value");
+        cipherValue.getParentNode().replaceChild(cipherReference, cipherValue);
+        final TestDecrypter referenceDecrypter = new TestDecrypter(true);
+        Assert.assertNull(referenceDecrypter.decryptStreaming(toEncryptedData(referenceElement), secretKey));
+
+        // neither an unknown algorithm, the XMLCipher reports the error
+        final Element unknownElement = encryptAssertion(XMLCipher.AES_128);
+        final Element encryptionMethod = (Element) unknownElement.getElementsByTagNameNS(XMLENC_NS, "EncryptionMethod").item(0);
+        encryptionMethod.setAttributeNS(null, "Algorithm", "http://example.com/unknown-algorithm");
+        final TestDecrypter unknownDecrypter = new TestDecrypter(true);
+        Assert.assertNull(unknownDecrypter.decryptStreaming(toEncryptedData(unknownElement), secretKey));
+        assertNotDecrypted(unknownDecrypter, unknownElement);
+        Assert.assertFalse(unknownDecrypter.streamed);
+    }
+
+    private static final class TestDecrypter extends EncryptedAssertionDecrypter {
+
+        private final boolean streaming;
+        private boolean streamed;
+
+        private TestDecrypter(final boolean streaming) {
+
+            super(new MockMessageObserver(), XMLObjectProviderRegistrySupport.getParserPool());
+            this.streaming = streaming;
+        }
+
+        @Override
+        protected Document decryptDataToDOMStreaming(final EncryptedData encryptedData, final Key dataEncKey) throws DecryptionException {
+
+            if (!this.streaming) {
+                return null;
+            }
+
+            final Document document = super.decryptDataToDOMStreaming(encryptedData, dataEncKey);
+            this.streamed = null != document;
+            return document;
+        }
+
+        private Document decryptStreaming(final EncryptedData encryptedData, final Key dataEncKey) throws DecryptionException {
+
+            return this.decryptDataToDOMStreaming(encryptedData, dataEncKey);
+        }
+
+        private Document decryptToDocument(final EncryptedData encryptedData, final Key dataEncKey) throws DecryptionException {
+
+            return this.decryptDataToDOM(encryptedData, dataEncKey);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.service.external.MultiValuedAttributes;
+import com.dotcms.saml.service.handler.AssertionResolverHandler;
+import com.dotcms.saml.service.handler.AssertionResolverHandlerFactory;
+import com.dotcms.saml.service.handler.HttpPostAssertionResolverHandlerImpl;
+import com.dotcms.saml.service.internal.SamlCoreService;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.core.config.InitializationService;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+
+public class TestHttpPostAssertionResolverHandler {
+
+    @BeforeClass
+    public static void init() throws Exception {
+
+        InitializationService.initialize();
+    }
+
+    private static String buildResponse() {
+
+        final String now = new DateTime(DateTimeZone.UTC).toString();
+        return "<saml2p:Response xmlns:saml2p=\"urn:oasis:names:tc:SAML:2.0:protocol\" " +
+                "xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" " +
+                "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" ID=\"_response\" Version=\"2.0\" IssueInstant=\"" + now + "\">" +
+                "<saml2p:Status><saml2p:StatusCode Value=\"urn:oasis:names:tc:SAML:2.0:status:Success\"/></saml2p:Status>" +
+                "<saml2:Assertion ID=\"_assertion\" Version=\"2.0\" IssueInstant=\"" + now + "\">" +
+                "<saml2:Issuer>https://idp.example.com</saml2:Issuer>" +
+                "<saml2:Subject><saml2:NameID>user@test.com</saml2:NameID></saml2:Subject>" +
+                "<saml2:AuthnStatement AuthnInstant=\"" + now + "\" SessionIndex=\"_session\"/>" +
+                "<saml2:AttributeStatement><saml2:Attribute Name=\"values\">" +
+                "<saml2:AttributeValue xsi:type=\"xs:string\">text</saml2:AttributeValue>" +
+                "<saml2:AttributeValue xsi:type=\"xs:dateTime\">2020-01-01T10:00:00+02:00</saml2:AttributeValue>" +
+                "<saml2:AttributeValue xsi:type=\"xs:boolean\">1</saml2:AttributeValue>" +
+                "<saml2:AttributeValue xsi:type=\"xs:integer\">007</saml2:AttributeValue>" +
+                "<saml2:AttributeValue xmlns:ex=\"urn:example\" xsi:type=\"xs:QName\">ex:role</saml2:AttributeValue>" +
+                "</saml2:Attribute></saml2:AttributeStatement>" +
+                "</saml2:Assertion></saml2p:Response>";
+    }
+
+    /**
+     * Core service that just returns the runtime profile of the idp, the signatures are taken as valid
+     */
+    private static SamlCoreService buildSamlCoreService(final IdentityProviderConfiguration idp) {
+
+        final IdpRuntimeProfile runtimeProfile = new IdpRuntimeProfile(idp, new MockSamlConfigurationService(), 1);
+        return (SamlCoreService) Proxy.newProxyInstance(TestHttpPostAssertionResolverHandler.class.getClassLoader(),
+                new Class[] {SamlCoreService.class}, (proxy, method, args) -> {
+
+                    switch (method.getName()) {
+
+                        case "getRuntimeProfile":
+                            return runtimeProfile;
+                        case "verifyResponseSignature":
+                        case "verifyAssertionSignature":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Test
+    public void testTypedValuesKeepTheLexicalForm() {
+
+        final IdentityProviderConfiguration idp = new MockIdentityProviderConfigurationFactory()
+                .findIdentityProviderConfigurationById("test.com");
+        final MockMessageObserver messageObserver = new MockMessageObserver();
+        final MockSamlConfigurationService samlConfigurationService = new MockSamlConfigurationService();
+        final SamlCoreService samlCoreService = buildSamlCoreService(idp);
+        final AssertionResolverHandler handler = new HttpPostAssertionResolverHandlerImpl(
+                messageObserver, samlCoreService, samlConfigurationService);
+
+        final OpenSamlAuthenticationServiceImpl authenticationService = new OpenSamlAuthenticationServiceImpl(null, null,
+                new AssertionResolverHandlerFactory(samlConfigurationService, messageObserver) {
+
+                    @Override
+                    public AssertionResolverHandler getAssertionResolverForSite(final IdentityProviderConfiguration identityProviderConfiguration) {
+                        return handler;
+                    }
+                }, samlCoreService, samlConfigurationService, messageObserver, null, null);
+
+        final MockRequest request = new MockRequest() {
+
+            @Override
+            public String getMethod() {
+                return "POST";
+            }
+        };
+        request.addParameters(Collections.singletonMap("SAMLResponse",
+                Base64.getEncoder().encodeToString(buildResponse().getBytes(StandardCharsets.UTF_8))));
+
+        // the values are read by the service once the handler resolved the assertion, as the IdP sent them
+        final MultiValuedAttributes attributes = authenticationService.resolveMultiValuedAttributes(request, null, idp);
+        Assert.assertNotNull(attributes);
+        Assert.assertEquals("user@test.com", attributes.getNameID());
+        Assert.assertEquals("_session", attributes.getSessionIndex());
+        Assert.assertEquals(Arrays.asList("text", "2020-01-01T10:00:00+02:00", "1", "007", "ex:role"),
+                attributes.get("values"));
+    }
+}
@@ -0,0 +1,73 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.DotSamlConstants;
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.SamlName;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opensaml.saml.saml2.core.AuthnContextComparisonTypeEnumeration;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+
+import java.util.Collections;
+
+public class TestIdpRuntimeProfile {
+
+    @Test
+    public void testProfileDefaults() {
+
+        final IdentityProviderConfiguration idp = new MockIdentityProviderConfigurationFactory()
+                .findIdentityProviderConfigurationById("test.com");
+        final IdpRuntimeProfile profile = new IdpRuntimeProfile(idp, new MockSamlConfigurationService(), 1);
+
+        Assert.assertEquals(Collections.singletonList("urn:oasis:names:tc:SAML:2.0:ac:classes:PasswordProtectedTransport"),
+                profile.getAuthnContextClassRefs());
+        Assert.assertEquals(AuthnContextComparisonTypeEnumeration.MINIMUM, profile.getAuthnContextComparisonType());
+        Assert.assertEquals(DotSamlConstants.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING_REDIRECT, profile.getAuthnProtocolBinding());
+        Assert.assertEquals(DotSamlConstants.DOTCMS_SAML_AUTHN_PROTOCOL_BINDING_REDIRECT, profile.getLogoutProtocolBinding());
+        Assert.assertFalse(profile.getAuthSigningProfile().isSignRequest());
+        Assert.assertTrue(profile.getAuthSigningProfile().isSignParams());
+        Assert.assertEquals(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256, profile.getLogoutSigningProfile().getSignatureAlgorithm());
+        Assert.assertEquals(SignatureConstants.ALGO_ID_DIGEST_SHA256, profile.getLogoutSigningProfile().getDigestAlgorithm());
+        Assert.assertEquals(IdpRuntimeProfile.DEFAULT_LOGOUT_SERVICE_ENDPOINT_URL, profile.getLogoutServiceEndpointURL());
+        Assert.assertNull(profile.getOktaLogoutURL());
+        Assert.assertTrue(profile.isAllowEmptyAttributes());
+        Assert.assertTrue(profile.getAdditionalInfoMap().isEmpty());
+    }
+
+    @Test
+    public void testRegistrySwapsOnInvalidate() {
+
+        final IdentityProviderConfiguration idp = new MockIdentityProviderConfigurationFactory()
+                .findIdentityProviderConfigurationById("test.com");
+        final MockSamlConfigurationService samlConfigurationService = new MockSamlConfigurationService();
+        final IdpRuntimeProfileRegistry registry = new IdpRuntimeProfileRegistry(60);
+
+        final IdpRuntimeProfile profile = registry.getProfile(idp, samlConfigurationService);
+        Assert.assertSame(profile, registry.getProfile(idp, samlConfigurationService));
+
+        registry.invalidate();
+        final IdpRuntimeProfile newProfile = registry.getProfile(idp, samlConfigurationService);
+        Assert.assertNotSame(profile, newProfile);
+        Assert.assertTrue(newProfile.getVersion() > profile.getVersion());
+    }
+
+    @Test
+    public void testWrongRolesPatternIsKeptToBeReported() {
+
+        final IdentityProviderConfiguration idp = new MockIdentityProviderConfigurationFactory()
+                .findIdentityProviderConfigurationById("test.com");
+        final IdpRuntimeProfile profile = new IdpRuntimeProfile(idp, new MockSamlConfigurationService() {
+
+            @Override
+            public String getConfigAsString(final IdentityProviderConfiguration identityProviderConfiguration, final SamlName samlName) {
+                return SamlName.DOTCMS_SAML_INCLUDE_ROLES_PATTERN == samlName? "dotcms_(":
+                        super.getConfigAsString(identityProviderConfiguration, samlName);
+            }
+        }, 1);
+
+        // the roles are not filtered and the error is reported by the one resolving the roles
+        Assert.assertNull(profile.getRoleExtractor());
+        Assert.assertNotNull(profile.getRoleExtractorError());
+        Assert.assertNotNull(new IdpRuntimeProfile(idp, new MockSamlConfigurationService(), 2).getRoleExtractor());
+    }
+}
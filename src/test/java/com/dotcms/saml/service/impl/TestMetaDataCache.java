@@ -0,0 +1,36 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.service.external.MetaData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestMetaDataCache {
+
+    @Test
+    public void testHitMissRebuild() {
+
+        final MetaDataCache metaDataCache = new MetaDataCache();
+        final AtomicInteger parses = new AtomicInteger();
+        final MetaData metaData = new MetaData("entity", null,
+                Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList());
+
+        Assert.assertSame(metaData, metaDataCache.get("123", "a", ()-> { parses.incrementAndGet(); return metaData; }));
+        Assert.assertSame(metaData, metaDataCache.get("123", "a", ()-> { parses.incrementAndGet(); return metaData; }));
+        Assert.assertEquals(1, parses.get());
+        Assert.assertEquals(1, metaDataCache.getMisses());
+        Assert.assertEquals(1, metaDataCache.getHits());
+
+        metaDataCache.get("123", "b", ()-> { parses.incrementAndGet(); return metaData; });
+        Assert.assertEquals(2, parses.get());
+        Assert.assertEquals(1, metaDataCache.getRebuilds());
+
+        Assert.assertNull(metaDataCache.get("456", "a", ()-> null));
+        Assert.assertEquals(1, metaDataCache.size());
+
+        metaDataCache.invalidate();
+        Assert.assertEquals(0, metaDataCache.size());
+    }
+}
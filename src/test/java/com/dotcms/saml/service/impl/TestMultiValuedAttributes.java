@@ -0,0 +1,44 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.service.external.MultiValuedAttributes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestMultiValuedAttributes {
+
+    @Test
+    public void testAllValuesByNameAndFriendlyName() {
+
+        final MultiValuedAttributes attributes = new MultiValuedAttributes.Builder(3)
+                .add("urn:oid:0.9.2342.19200300.100.1.3", "mail", new ArrayList<>(Arrays.asList("a@test.com")))
+                .add("urn:oid:1.3.6.1.4.1.5923.1.5.1.1", "memberOf", new ArrayList<>(Arrays.asList("admin", "editor")))
+                // same attribute on another statement, values are appended
+                .add(null, "memberOf", new ArrayList<>(Arrays.asList("reviewer")))
+                .nameID("user1").sessionIndex("idx").build();
+
+        Assert.assertEquals("user1", attributes.getNameID());
+        Assert.assertEquals("idx", attributes.getSessionIndex());
+        Assert.assertEquals(2, attributes.getAttributeCount());
+        Assert.assertEquals(4, attributes.size());
+        Assert.assertEquals("a@test.com", attributes.getFirst("mail"));
+        Assert.assertEquals(Arrays.asList("admin", "editor", "reviewer"), attributes.get("memberOf"));
+        Assert.assertSame(attributes.get("memberOf"), attributes.get("urn:oid:1.3.6.1.4.1.5923.1.5.1.1"));
+        Assert.assertNull(attributes.getFirst("sn"));
+
+        final List<String> visited = new ArrayList<>();
+        attributes.forEachAttribute((name, friendlyName, values) -> visited.add(friendlyName + "=" + values.size()));
+        Assert.assertEquals(Arrays.asList("mail=1", "memberOf=3"), visited);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testValuesAreReadOnly() {
+
+        final MultiValuedAttributes attributes = new MultiValuedAttributes.Builder(1)
+                .add("mail", null, new ArrayList<>(Arrays.asList("a@test.com"))).build();
+        attributes.get("mail").add("b@test.com");
+    }
+}
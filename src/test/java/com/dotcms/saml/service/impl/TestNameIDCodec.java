@@ -0,0 +1,80 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.SamlNameID;
+import com.dotcms.saml.utils.NameIDCodec;
+import com.dotcms.saml.utils.SAMLObjectBuilders;
+import com.dotcms.saml.utils.SamlUtils;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.saml.saml2.core.NameID;
+
+public class TestNameIDCodec {
+
+    @BeforeClass
+    public static void init() throws Exception {
+
+        InitializationService.initialize();
+    }
+
+    private static NameID buildNameID(final String value, final String format, final String nameQualifier,
+                                      final String spNameQualifier, final String spProvidedID) {
+
+        final NameID nameID = SAMLObjectBuilders.build(NameID.class);
+        nameID.setValue(value);
+        nameID.setFormat(format);
+        nameID.setNameQualifier(nameQualifier);
+        nameID.setSPNameQualifier(spNameQualifier);
+        nameID.setSPProvidedID(spProvidedID);
+        return nameID;
+    }
+
+    private static void assertSameNameID(final NameID expected, final NameID actual) {
+
+        Assert.assertEquals(expected.getValue(), actual.getValue());
+        Assert.assertEquals(expected.getFormat(), actual.getFormat());
+        Assert.assertEquals(expected.getNameQualifier(), actual.getNameQualifier());
+        Assert.assertEquals(expected.getSPNameQualifier(), actual.getSPNameQualifier());
+        Assert.assertEquals(expected.getSPProvidedID(), actual.getSPProvidedID());
+    }
+
+    @Test
+    public void testRoundTrip() {
+
+        final NameID[] nameIDs = {
+                buildNameID("user@test.com", NameID.EMAIL, null, null, null),
+                buildNameID("", "", "", "", ""),
+                buildNameID(null, null, null, null, null),
+                // the separator and digits inside the fields
+                buildNameID("urn:user:12:-:", NameID.PERSISTENT, "3:abc", "-", ":"),
+                buildNameID("josé.ñúñez@exämple.com", NameID.UNSPECIFIED, "日本語", "😀", "Ωμέγα")
+        };
+
+        for (final NameID nameID : nameIDs) {
+
+            final String encoded = NameIDCodec.encode(nameID);
+            Assert.assertTrue(NameIDCodec.isCompact(encoded));
+            assertSameNameID(nameID, NameIDCodec.decode(encoded));
+            assertSameNameID(nameID, SamlUtils.toNameID(new SamlNameID(encoded, nameID.getValue())));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedFails() {
+
+        final String encoded = NameIDCodec.encode(buildNameID("user@test.com", NameID.EMAIL, null, null, null));
+        NameIDCodec.decode(encoded.substring(0, encoded.length() - 3));
+    }
+
+    @Test
+    public void testToNameIDReadsTheXmlForm() {
+
+        // sessions created before the compact encoding (or with it disabled) keep the xml of the NameID
+        final NameID nameID = buildNameID("user@test.com", NameID.EMAIL, "https://idp.example.com", "https://test.com", null);
+        final String xml    = SamlUtils.toXMLObjectString(nameID);
+        Assert.assertFalse(NameIDCodec.isCompact(xml));
+
+        assertSameNameID(nameID, SamlUtils.toNameID(new SamlNameID(xml, nameID.getValue())));
+    }
+}
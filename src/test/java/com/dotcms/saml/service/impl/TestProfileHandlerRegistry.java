@@ -0,0 +1,80 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.service.handler.ProfileHandlerRegistry;
+import com.dotcms.saml.service.internal.SamlCoreService;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestProfileHandlerRegistry {
+
+    @Test
+    public void testHandlerPerProfileVersionAndBinding() {
+
+        final IdentityProviderConfiguration idp = new MockIdentityProviderConfigurationFactory()
+                .findIdentityProviderConfigurationById("test.com");
+        final IdpRuntimeProfile profileV1 = new IdpRuntimeProfile(idp, new MockSamlConfigurationService(), 1);
+        final IdpRuntimeProfile profileV2 = new IdpRuntimeProfile(idp, new MockSamlConfigurationService(), 2);
+        final ProfileHandlerRegistry<Object> registry = new ProfileHandlerRegistry<>();
+        final AtomicInteger created = new AtomicInteger();
+
+        final Object handler = registry.getHandler(profileV1, "redirect", (profile, binding) -> created.incrementAndGet());
+        Assert.assertSame(handler, registry.getHandler(profileV1, "redirect", (profile, binding) -> created.incrementAndGet()));
+        Assert.assertEquals(1, created.get());
+
+        // a new version of the profile or another binding gets a new handler
+        Assert.assertNotSame(handler, registry.getHandler(profileV2, "redirect", (profile, binding) -> created.incrementAndGet()));
+        Assert.assertEquals(2, created.get());
+        registry.getHandler(profileV2, "post", (profile, binding) -> created.incrementAndGet());
+        Assert.assertEquals(3, created.get());
+    }
+
+    @Test
+    public void testInvalidateDiscardsTheHandlers() {
+
+        final IdentityProviderConfiguration idp = new MockIdentityProviderConfigurationFactory()
+                .findIdentityProviderConfigurationById("test.com");
+        final IdpRuntimeProfile profile = new IdpRuntimeProfile(idp, new MockSamlConfigurationService(), 1);
+        final ProfileHandlerRegistry<Object> registry = new ProfileHandlerRegistry<>();
+        final AtomicInteger created = new AtomicInteger();
+
+        final Object handler = registry.getHandler(profile, "redirect", (runtimeProfile, binding) -> created.incrementAndGet());
+        registry.invalidate();
+
+        // the same version of the profile gets a new handler once the registry was invalidated
+        Assert.assertNotSame(handler, registry.getHandler(profile, "redirect", (runtimeProfile, binding) -> created.incrementAndGet()));
+        Assert.assertEquals(2, created.get());
+    }
+
+    @Test
+    public void testResolveProfile() {
+
+        final IdentityProviderConfiguration idp = new MockIdentityProviderConfigurationFactory()
+                .findIdentityProviderConfigurationById("test.com");
+        final IdentityProviderConfiguration otherIdp = (IdentityProviderConfiguration) Proxy.newProxyInstance(
+                this.getClass().getClassLoader(), new Class[] {IdentityProviderConfiguration.class},
+                (proxy, method, args) -> "getId".equals(method.getName())? "other": method.invoke(idp, args));
+        final IdpRuntimeProfile handlerProfile = new IdpRuntimeProfile(idp, new MockSamlConfigurationService(), 1);
+        final IdpRuntimeProfile currentProfile = new IdpRuntimeProfile(otherIdp, new MockSamlConfigurationService(), 2);
+        final AtomicInteger lookups = new AtomicInteger();
+        final SamlCoreService samlCoreService = (SamlCoreService) Proxy.newProxyInstance(
+                this.getClass().getClassLoader(), new Class[] {SamlCoreService.class}, (proxy, method, args) -> {
+
+                    Assert.assertEquals("getRuntimeProfile", method.getName());
+                    lookups.incrementAndGet();
+                    return currentProfile;
+                });
+
+        // the profile of the handler is used for its idp, without any look up
+        Assert.assertSame(handlerProfile, ProfileHandlerRegistry.resolveProfile(handlerProfile, idp, samlCoreService));
+        Assert.assertEquals(0, lookups.get());
+
+        // a handler without profile, or asked for another idp, looks up the current one
+        Assert.assertSame(currentProfile, ProfileHandlerRegistry.resolveProfile(null, idp, samlCoreService));
+        Assert.assertSame(currentProfile, ProfileHandlerRegistry.resolveProfile(handlerProfile, otherIdp, samlCoreService));
+        Assert.assertEquals(2, lookups.get());
+    }
+}
@@ -3,8 +3,10 @@ package com.dotcms.saml.service.impl;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -28,4 +30,27 @@ public class TestRawTemplateProcessor {
         Assert.assertTrue(out.toString().contains("xxx"));
         Assert.assertTrue(out.toString().contains("yyy"));
     }
+
+    @Test
+    public void testRenderToStreamSameAsWriter() throws IOException {
+
+        final RawTemplateProcessor rawTemplateProcessor = new RawTemplateProcessor();
+        final StringWriter writer = new StringWriter();
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final Map<String, String> contextMap = new HashMap<>();
+
+        contextMap.put("action", "https://test.dotcms.com/o/saml2/idp?idpid=ccc&lang=ñ");
+        contextMap.put("SAMLRequest", "xxx");
+        rawTemplateProcessor.renderTemplateFile(writer, contextMap, "/templates/auth-post-raw.txt");
+        rawTemplateProcessor.renderTemplateFile(stream, contextMap, "/templates/auth-post-raw.txt");
+
+        Assert.assertEquals(writer.toString(), new String(stream.toByteArray(), StandardCharsets.UTF_8));
+        // the slots without value are kept as they are
+        Assert.assertTrue(writer.toString().contains("${RelayState}"));
+        Assert.assertFalse(writer.toString().contains("${action}"));
+
+        final StringWriter content = new StringWriter();
+        rawTemplateProcessor.renderTemplateContent(content, contextMap, "a${SAMLRequest}b${missing}c${");
+        Assert.assertEquals("axxxb${missing}c${", content.toString());
+    }
 }
@@ -0,0 +1,116 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.service.external.SamlException;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+public class TestResponseTriage {
+
+    private static final String ACS_URL = "https://sp.example.com/dotsaml/login/123";
+
+    private static String buildResponse(final DateTime issueInstant, final String statusCode) {
+
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<saml2p:Response xmlns:saml2p=\"urn:oasis:names:tc:SAML:2.0:protocol\" " +
+                "xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"_response\" Version=\"2.0\" " +
+                "Destination=\"" + ACS_URL + "\" InResponseTo=\"_request\" IssueInstant=\"" + issueInstant + "\">" +
+                "<saml2:Issuer> https://idp.example.com/metadata </saml2:Issuer>" +
+                "<saml2p:Status><saml2p:StatusCode Value=\"" + statusCode + "\"/></saml2p:Status>" +
+                "<saml2:Assertion ID=\"_assertion\" not-read=\"true\"><unclosed>" +
+                "</saml2p:Response>";
+    }
+
+    private static String encode(final String xml) {
+
+        return Base64.getEncoder().encodeToString(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static IdpRuntimeProfile getRuntimeProfile() {
+
+        final IdentityProviderConfiguration idp = new MockIdentityProviderConfigurationFactory()
+                .findIdentityProviderConfigurationById("test.com");
+        return new IdpRuntimeProfile(idp, new MockSamlConfigurationService(), 1);
+    }
+
+    private static boolean isAccepted(final ResponseTriage triage, final String encodedResponse) {
+
+        try {
+
+            triage.triage(encodedResponse, getRuntimeProfile(), new ResponseValidationChain.ExpectationContext());
+            return true;
+        } catch (SamlException e) {
+
+            return false;
+        }
+    }
+
+    @Test
+    public void testScanStopsAtStatus() {
+
+        final String xml = buildResponse(new DateTime(), "urn:oasis:names:tc:SAML:2.0:status:Success");
+        final ResponseTriage.ScannedResponse scannedResponse = new ResponseTriage(1024 * 1024)
+                .scan(xml.getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertEquals(ACS_URL, scannedResponse.getDestination());
+        Assert.assertEquals("_request", scannedResponse.getInResponseTo());
+        Assert.assertEquals("https://idp.example.com/metadata", scannedResponse.getIssuer());
+        Assert.assertEquals("urn:oasis:names:tc:SAML:2.0:status:Success", scannedResponse.getStatusCode());
+    }
+
+    @Test
+    public void testTriage() {
+
+        final ResponseTriage triage = new ResponseTriage(4 * 1024);
+        final String success = "urn:oasis:names:tc:SAML:2.0:status:Success";
+
+        Assert.assertTrue(isAccepted(triage, encode(buildResponse(new DateTime(), success))));
+        Assert.assertFalse(isAccepted(triage, encode(buildResponse(new DateTime().minusHours(1), success))));
+        Assert.assertFalse(isAccepted(triage, encode(buildResponse(new DateTime(),
+                "urn:oasis:names:tc:SAML:2.0:status:Requester"))));
+        Assert.assertFalse(isAccepted(triage, encode("<html><body>not saml</body></html>")));
+        Assert.assertFalse(isAccepted(triage, "xxxxxxxx"));
+        Assert.assertFalse(isAccepted(new ResponseTriage(64), encode(buildResponse(new DateTime(), success))));
+    }
+
+    @Test
+    public void testExpectedInResponseTo() {
+
+        final IdentityProviderConfiguration mockIdp = new MockIdentityProviderConfigurationFactory()
+                .findIdentityProviderConfigurationById("test.com");
+        final IdentityProviderConfiguration idp = (IdentityProviderConfiguration) Proxy.newProxyInstance(
+                TestResponseTriage.class.getClassLoader(), new Class[] {IdentityProviderConfiguration.class}, (proxy, method, args) -> {
+
+                    if ("containsOptionalProperty".equals(method.getName())) {
+                        return ResponseValidationChain.VALIDATE_IN_RESPONSE_TO.equals(args[0]);
+                    }
+                    if ("getOptionalProperty".equals(method.getName())) {
+                        return ResponseValidationChain.VALIDATE_IN_RESPONSE_TO.equals(args[0])? "true": null;
+                    }
+                    return method.invoke(mockIdp, args);
+                });
+        final IdpRuntimeProfile runtimeProfile = new IdpRuntimeProfile(idp, new MockSamlConfigurationService(), 1);
+        final ResponseTriage triage = new ResponseTriage(4 * 1024);
+        final String encodedResponse = encode(buildResponse(new DateTime(), "urn:oasis:names:tc:SAML:2.0:status:Success"));
+
+        // the response of the AuthnRequest issued on the session is accepted, the one of another request is not
+        final ResponseValidationChain.ExpectationContext expectationContext = new ResponseValidationChain.ExpectationContext();
+        expectationContext.setInResponseTo("_request");
+        Assert.assertNotNull(triage.triage(encodedResponse, runtimeProfile, expectationContext));
+
+        expectationContext.setInResponseTo("_other");
+        try {
+
+            triage.triage(encodedResponse, runtimeProfile, expectationContext);
+            Assert.fail("The response of another request must be rejected");
+        } catch (SamlException e) {
+
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("_other"));
+        }
+    }
+}
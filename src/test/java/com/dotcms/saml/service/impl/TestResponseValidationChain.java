@@ -0,0 +1,99 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.service.external.SamlException;
+import com.dotcms.saml.utils.SAMLObjectBuilders;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.messaging.context.SAMLMessageInfoContext;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.Response;
+
+public class TestResponseValidationChain {
+
+    private static final String ACS_URL = "https://sp.example.com/dotsaml/login/123";
+    private static final String IDP_ID  = "https://idp.example.com/metadata";
+
+    @BeforeClass
+    public static void init() throws Exception {
+
+        InitializationService.initialize();
+    }
+
+    private static MessageContext<SAMLObject> buildContext(final DateTime issueInstant, final String destination,
+                                                           final String issuerValue, final String inResponseTo) {
+
+        final Response response = SAMLObjectBuilders.build(Response.class);
+        response.setID("_response");
+        response.setIssueInstant(issueInstant);
+        response.setDestination(destination);
+        response.setInResponseTo(inResponseTo);
+        final Issuer issuer = SAMLObjectBuilders.build(Issuer.class);
+        issuer.setValue(issuerValue);
+        response.setIssuer(issuer);
+
+        final MessageContext<SAMLObject> context = new MessageContext<>();
+        context.setMessage(response);
+        context.getSubcontext(SAMLMessageInfoContext.class, true).setMessageIssueInstant(issueInstant);
+        final ResponseValidationChain.ExpectationContext expectationContext =
+                context.getSubcontext(ResponseValidationChain.ExpectationContext.class, true);
+        expectationContext.setDestination(ACS_URL);
+        expectationContext.setIssuer(IDP_ID);
+        return context;
+    }
+
+    private static boolean isValid(final ResponseValidationChain chain, final MessageContext<SAMLObject> context) {
+
+        try {
+
+            chain.validate(context);
+            return true;
+        } catch (SamlException e) {
+
+            return false;
+        }
+    }
+
+    @Test
+    public void testLifetimeOnlyByDefault() {
+
+        final ResponseValidationChain chain = ResponseValidationChain.build(1000, 60000, false, false, false, false);
+
+        Assert.assertTrue(isValid(chain, buildContext(new DateTime(), "https://other.example.com/acs", "other", null)));
+        Assert.assertFalse(isValid(chain, buildContext(new DateTime().minusMinutes(10), ACS_URL, IDP_ID, "_request")));
+    }
+
+    @Test
+    public void testDestinationIssuerAndInResponseTo() {
+
+        final ResponseValidationChain chain = ResponseValidationChain.build(1000, 60000, true, true, true, false);
+
+        Assert.assertTrue(isValid(chain, buildContext(new DateTime(), ACS_URL + "?a=1", IDP_ID, "_request")));
+        Assert.assertFalse(isValid(chain, buildContext(new DateTime(), "https://other.example.com/acs", IDP_ID, "_request")));
+        Assert.assertFalse(isValid(chain, buildContext(new DateTime(), ACS_URL, "other", "_request")));
+        Assert.assertFalse(isValid(chain, buildContext(new DateTime(), ACS_URL, IDP_ID, null)));
+        // the same chain instance is reused across responses
+        Assert.assertTrue(isValid(chain, buildContext(new DateTime(), ACS_URL, IDP_ID, "_request")));
+
+        // the id of the AuthnRequest issued on the session is expected
+        final MessageContext<SAMLObject> otherRequestContext = buildContext(new DateTime(), ACS_URL, IDP_ID, "_other");
+        otherRequestContext.getSubcontext(ResponseValidationChain.ExpectationContext.class).setInResponseTo("_request");
+        Assert.assertFalse(isValid(chain, otherRequestContext));
+        final MessageContext<SAMLObject> requestContext = buildContext(new DateTime(), ACS_URL, IDP_ID, "_request");
+        requestContext.getSubcontext(ResponseValidationChain.ExpectationContext.class).setInResponseTo("_request");
+        Assert.assertTrue(isValid(chain, requestContext));
+    }
+
+    @Test
+    public void testExpectedDestination() {
+
+        Assert.assertTrue(ResponseValidationChain.isExpectedDestination(ACS_URL, ACS_URL));
+        Assert.assertTrue(ResponseValidationChain.isExpectedDestination("/dotsaml/login/123?x=y", ACS_URL));
+        Assert.assertFalse(ResponseValidationChain.isExpectedDestination("/dotsaml/login/456", ACS_URL));
+        Assert.assertFalse(ResponseValidationChain.isExpectedDestination(ACS_URL, "https://sp.example.com/dotsaml/login/456"));
+    }
+}
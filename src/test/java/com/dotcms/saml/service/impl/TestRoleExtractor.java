@@ -0,0 +1,60 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.service.external.RoleSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TestRoleExtractor {
+
+    @Test
+    public void testFilterStripAndDeduplicate() {
+
+        final RoleExtractor roleExtractor = new RoleExtractor("dotcms_.*,cms-admin", "dotcms_test.*", "^group-");
+        final RoleSet roleSet = roleExtractor.extract(Arrays.asList(
+                "dotcms_editor", "group-dotcms_editor", "cms-admin", "dotcms_test1", "other", "", "dotcms_editor"));
+
+        // group-dotcms_editor is the same role than dotcms_editor once the prefix is removed
+        Assert.assertEquals(Arrays.asList("dotcms_editor", "cms-admin"), roleSet.getValues());
+        Assert.assertEquals(7, roleSet.getTotalValues());
+    }
+
+    @Test
+    public void testPreferValueMatchingAsItIs() {
+
+        final RoleExtractor roleExtractor = new RoleExtractor("^admin,^editor", null, "^group-");
+        final RoleSet roleSet = roleExtractor.extract(Arrays.asList("group-admin", "group-editor", "admin"));
+
+        // group-admin only passes without the prefix, admin passes either way so it is the one kept
+        Assert.assertEquals(Arrays.asList("admin", "group-editor"), roleSet.getValues());
+    }
+
+    @Test
+    public void testNoPatterns() {
+
+        final RoleSet roleSet = new RoleExtractor(null, null, null).extract(Arrays.asList("a", "b", "a"));
+        Assert.assertEquals(Arrays.asList("a", "b"), roleSet.getValues());
+    }
+
+    @Test
+    public void testPatternsAreFoundOnTheDecodedRole() {
+
+        // dotCMS checks the include pattern with contains on the url decoded role, so the extractor does the same
+        final RoleExtractor roleExtractor = new RoleExtractor("dotcms_editor", "_test", null);
+        final RoleSet roleSet = roleExtractor.extract(Arrays.asList(
+                "x-dotcms_editor-y", "dotcms%5Feditor%20admin", "dotcms_editor_test", "editor", "%zz-dotcms_editor"));
+
+        Assert.assertEquals(Arrays.asList("x-dotcms_editor-y", "dotcms%5Feditor%20admin", "%zz-dotcms_editor"),
+                roleSet.getValues());
+    }
+
+    @Test
+    public void testDeduplicateByTheDecodedRole() {
+
+        final RoleSet roleSet = new RoleExtractor(null, null, "^group-").extract(Arrays.asList(
+                "group-dotcms%20editor", "dotcms editor"));
+
+        Assert.assertEquals(Arrays.asList("group-dotcms%20editor"), roleSet.getValues());
+    }
+}
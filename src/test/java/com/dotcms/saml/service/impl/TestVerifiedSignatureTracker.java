@@ -0,0 +1,260 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.IdentityProviderConfiguration;
+import com.dotcms.saml.service.external.MetaData;
+import com.dotcms.saml.service.external.SamlException;
+import com.dotcms.saml.service.internal.CredentialProvider;
+import com.dotcms.saml.service.internal.CredentialService;
+import com.dotcms.saml.service.internal.MetaDataService;
+import com.dotcms.saml.service.internal.MetaDescriptorService;
+import com.dotcms.saml.utils.SAMLObjectBuilders;
+import com.dotcms.saml.utils.SamlUtils;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.saml.common.SAMLVersion;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.CredentialSupport;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.Signer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.StringReader;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Collection;
+import java.util.Collections;
+
+public class TestVerifiedSignatureTracker {
+
+    private static Credential idpCredential;
+    private static Credential attackerCredential;
+    private static IdentityProviderConfiguration idp;
+
+    @BeforeClass
+    public static void init() throws Exception {
+
+        InitializationService.initialize();
+
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        final KeyPair idpKeyPair      = keyPairGenerator.generateKeyPair();
+        final KeyPair attackerKeyPair = keyPairGenerator.generateKeyPair();
+        idpCredential      = CredentialSupport.getSimpleCredential(idpKeyPair.getPublic(), idpKeyPair.getPrivate());
+        attackerCredential = CredentialSupport.getSimpleCredential(attackerKeyPair.getPublic(), attackerKeyPair.getPrivate());
+        idp = new MockIdentityProviderConfigurationFactory().findIdentityProviderConfigurationById("test.com");
+    }
+
+    private static SamlCoreServiceImpl buildSamlCoreService(final boolean verifySignatureProfile) {
+
+        return new SamlCoreServiceImpl(new SignatureCredentialService(verifySignatureProfile), null,
+                new SigningMetaDataService(), new MockMessageObserver(), new MockSamlConfigurationService(), null);
+    }
+
+    private static Signature buildSignature(final Credential credential) {
+
+        final Signature signature = SAMLObjectBuilders.build(Signature.class);
+        signature.setSigningCredential(credential);
+        signature.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+        signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+        return signature;
+    }
+
+    private static Issuer buildIssuer() {
+
+        final Issuer issuer = SAMLObjectBuilders.build(Issuer.class);
+        issuer.setValue("https://idp.example.com/metadata");
+        return issuer;
+    }
+
+    private static Assertion buildAssertion(final String id, final Credential credential) {
+
+        final Assertion assertion = SAMLObjectBuilders.build(Assertion.class);
+        assertion.setID(id);
+        assertion.setIssueInstant(new DateTime());
+        assertion.setVersion(SAMLVersion.VERSION_20);
+        assertion.setIssuer(buildIssuer());
+        assertion.setSignature(buildSignature(credential));
+        return assertion;
+    }
+
+    // a Response signed by the idp enclosing an Assertion signed by the idp
+    private static String buildSignedResponse() throws Exception {
+
+        final Response response = SAMLObjectBuilders.build(Response.class);
+        response.setID("_response");
+        response.setIssueInstant(new DateTime());
+        response.setVersion(SAMLVersion.VERSION_20);
+        response.setIssuer(buildIssuer());
+        final Assertion assertion = buildAssertion("_assertion", idpCredential);
+        response.getAssertions().add(assertion);
+        response.setSignature(buildSignature(idpCredential));
+
+        final Element element = SamlUtils.toElement(response);
+        Signer.signObject(assertion.getSignature());
+        Signer.signObject(response.getSignature());
+        return SerializeSupport.nodeToString(element);
+    }
+
+    private static Element getChild(final Element parent, final String namespace, final String localName) {
+
+        for (Node node = parent.getFirstChild(); null != node; node = node.getNextSibling()) {
+
+            if (node instanceof Element && namespace.equals(node.getNamespaceURI()) && localName.equals(node.getLocalName())) {
+                return (Element) node;
+            }
+        }
+
+        return null;
+    }
+
+    /*
+     * Signature wrapping: a new Response with the same ID and the original signature, the original Response (without
+     * its signature) hidden on the Extensions and an assertion injected by the attacker
+     */
+    private static String buildWrappedResponse(final String signedResponse) throws Exception {
+
+        final Document signedDocument = XMLObjectProviderRegistrySupport.getParserPool().parse(new StringReader(signedResponse));
+        final Element original = signedDocument.getDocumentElement();
+
+        final Document wrappedDocument = XMLObjectProviderRegistrySupport.getParserPool().newDocument();
+        final Element wrapped = (Element) wrappedDocument.importNode(original, false);
+        wrappedDocument.appendChild(wrapped);
+        wrapped.appendChild(wrappedDocument.importNode(getChild(original, SAMLConstants.SAML20_NS, Issuer.DEFAULT_ELEMENT_LOCAL_NAME), true));
+        wrapped.appendChild(wrappedDocument.importNode(getChild(original, SignatureConstants.XMLSIG_NS, Signature.DEFAULT_ELEMENT_LOCAL_NAME), true));
+
+        final Element hidden = (Element) wrappedDocument.importNode(original, true);
+        hidden.removeChild(getChild(hidden, SignatureConstants.XMLSIG_NS, Signature.DEFAULT_ELEMENT_LOCAL_NAME));
+        final Element extensions = wrappedDocument.createElementNS(SAMLConstants.SAML20P_NS, "saml2p:Extensions");
+        extensions.appendChild(hidden);
+        wrapped.appendChild(extensions);
+
+        final Assertion injected = buildAssertion("_injected", attackerCredential);
+        final Element injectedElement = SamlUtils.toElement(injected);
+        Signer.signObject(injected.getSignature());
+        wrapped.appendChild(wrappedDocument.importNode(injectedElement, true));
+
+        return SerializeSupport.nodeToString(wrapped);
+    }
+
+    @Test
+    public void testSignedResponseAndAssertion() throws Exception {
+
+        final String signedResponse = buildSignedResponse();
+
+        // the assertion signature is covered by the response one, only if the profile of the response was validated
+        for (final boolean verifySignatureProfile : new boolean[] {true, false}) {
+
+            final SamlCoreServiceImpl samlCoreService = buildSamlCoreService(verifySignatureProfile);
+            final Response response = (Response) SamlUtils.fromXMLString(signedResponse);
+            samlCoreService.verifyResponseSignature(response, idp);
+
+            final Assertion assertion = response.getAssertions().get(0);
+            Assert.assertEquals(verifySignatureProfile, VerifiedSignatureTracker.isCoveredByVerifiedSignature(assertion));
+            samlCoreService.verifyAssertionSignature(assertion, idp);
+        }
+    }
+
+    @Test
+    public void testWrappedResponseFails() throws Exception {
+
+        final String wrappedResponse = buildWrappedResponse(buildSignedResponse());
+
+        for (final boolean verifySignatureProfile : new boolean[] {false, true}) {
+
+            final SamlCoreServiceImpl samlCoreService = buildSamlCoreService(verifySignatureProfile);
+            final Response response = (Response) SamlUtils.fromXMLString(wrappedResponse);
+            final Assertion injected = response.getAssertions().get(0);
+            Assert.assertEquals("_injected", injected.getID());
+
+            try {
+
+                samlCoreService.verifyResponseSignature(response, idp);
+                // the signature may be resolved to the hidden response, but the injected assertion is not covered by it
+                Assert.assertFalse(VerifiedSignatureTracker.isCoveredByVerifiedSignature(injected));
+                samlCoreService.verifyAssertionSignature(injected, idp);
+                Assert.fail("The injected assertion must not be accepted");
+            } catch (SamlException e) {
+                // expected
+            }
+        }
+    }
+
+    private static final class SignatureCredentialService implements CredentialService {
+
+        private final boolean verifySignatureProfile;
+
+        private SignatureCredentialService(final boolean verifySignatureProfile) {
+            this.verifySignatureProfile = verifySignatureProfile;
+        }
+
+        @Override
+        public CredentialProvider getIdProviderCustomCredentialProvider(final IdentityProviderConfiguration identityProviderConfiguration) {
+            return null;
+        }
+
+        @Override
+        public CredentialProvider getServiceProviderCustomCredentialProvider(final IdentityProviderConfiguration identityProviderConfiguration) {
+            return null;
+        }
+
+        @Override
+        public boolean isVerifyAssertionSignatureNeeded(final IdentityProviderConfiguration identityProviderConfiguration) {
+            return true;
+        }
+
+        @Override
+        public boolean isVerifyResponseSignatureNeeded(final IdentityProviderConfiguration identityProviderConfiguration) {
+            return true;
+        }
+
+        @Override
+        public boolean isVerifySignatureCredentialsNeeded(final IdentityProviderConfiguration identityProviderConfiguration) {
+            return true;
+        }
+
+        @Override
+        public boolean isVerifySignatureProfileNeeded(final IdentityProviderConfiguration identityProviderConfiguration) {
+            return this.verifySignatureProfile;
+        }
+    }
+
+    private static final class SigningMetaDataService implements MetaDataService {
+
+        @Override
+        public MetaData getMetaData(final IdentityProviderConfiguration identityProviderConfiguration) {
+            return null;
+        }
+
+        @Override
+        public MetaDescriptorService getMetaDescriptorService(final IdentityProviderConfiguration identityProviderConfiguration) {
+            return null;
+        }
+
+        @Override
+        public Collection<Credential> getSigningCredentials(final IdentityProviderConfiguration identityProviderConfiguration) {
+            return Collections.singletonList(idpCredential);
+        }
+
+        @Override
+        public String getIdentityProviderDestinationSSOURL(final IdentityProviderConfiguration identityProviderConfiguration) {
+            return null;
+        }
+
+        @Override
+        public String getIdentityProviderDestinationSLOURL(final IdentityProviderConfiguration identityProviderConfiguration) {
+            return null;
+        }
+    }
+}
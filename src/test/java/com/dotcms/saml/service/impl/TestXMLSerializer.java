@@ -0,0 +1,92 @@
+package com.dotcms.saml.service.impl;
+
+import com.dotcms.saml.utils.XMLSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TestXMLSerializer {
+
+    private static final String COMPACT_XML = "<root><child>text</child></root>";
+
+    // the Xerces DOM is not thread safe, so each thread serializes its own document
+    private static Document buildDocument() throws Exception {
+
+        final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        final Document document = documentBuilderFactory.newDocumentBuilder().newDocument();
+        final Element  root     = document.createElement("root");
+        final Element  child    = document.createElement("child");
+        child.setTextContent("text");
+        root.appendChild(child);
+        document.appendChild(root);
+        return document;
+    }
+
+    @Test
+    public void testPrettyAndCompactOutput() throws Exception {
+
+        final XMLSerializer serializer = new XMLSerializer(1) {};
+        final Document document = buildDocument();
+
+        final String compact = serializer.toString(document.getDocumentElement(), false);
+        Assert.assertTrue(compact, compact.endsWith(COMPACT_XML));
+
+        final String pretty = serializer.toString(document.getDocumentElement(), true);
+        Assert.assertFalse(pretty, pretty.contains(COMPACT_XML));
+        Assert.assertTrue(pretty, pretty.contains("<child>text</child>"));
+        Assert.assertEquals(COMPACT_XML, pretty.substring(pretty.indexOf("<root>")).replaceAll(">\\s+<", "><").trim());
+
+        // the pooled transformers keep their own output properties
+        Assert.assertEquals(compact, serializer.toString(document.getDocumentElement(), false));
+        Assert.assertEquals(pretty, serializer.toString(document.getDocumentElement(), true));
+    }
+
+    @Test
+    public void testConcurrentBorrowing() throws Exception {
+
+        // a pool smaller than the number of threads, so transformers are created, borrowed and discarded concurrently
+        final XMLSerializer serializer = new XMLSerializer(2) {};
+        final Document document = buildDocument();
+        final String expectedCompact = serializer.toString(document.getDocumentElement(), false);
+        final String expectedPretty  = serializer.toString(document.getDocumentElement(), true);
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+
+            final List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+
+                futures.add(executorService.submit(() -> {
+
+                    final Element element = buildDocument().getDocumentElement();
+                    for (int j = 0; j < 200; ++j) {
+
+                        final boolean pretty = 0 == j % 2;
+                        if (!(pretty? expectedPretty: expectedCompact).equals(serializer.toString(element, pretty))) {
+                            return false;
+                        }
+                    }
+
+                    return true;
+                }));
+            }
+
+            for (final Future<Boolean> future : futures) {
+
+                Assert.assertTrue(future.get());
+            }
+        } finally {
+
+            executorService.shutdownNow();
+        }
+    }
+}